@@ -26,6 +26,7 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -56,17 +57,26 @@ public class CsvWriter
     // State.
     private Map<String, Integer> names           = new HashMap<String, Integer>();
     private List<String>         row;
+    private boolean              rowPending      = false;
     private BufferedWriter       writer;
     private int                  rowCount        = 0;
     private int                  colCount        = 0;
 
-    // Enum and table to describe disposition of specific characters.
+    // Enum and tables to describe disposition of specific characters. Latin-1
+    // characters are looked up in an array; anything else falls back to a map,
+    // which is normally empty.
     enum Disposition
     {
-        escape, suppress
+        quote, escape, suppress
     }
 
-    private Map<Character, Disposition> disposition;
+    private Disposition[]               lowDisposition;
+    private Map<Character, Disposition> highDisposition;
+
+    // Buffer reused to build quoted values. It is dropped after unusually
+    // large values so that one big blob does not pin memory.
+    private static final int            MAX_QUOTE_BUFFER = 65536;
+    private StringBuilder               quoteBuffer      = new StringBuilder();
 
     /**
      * Instantiate a new instance with output to provided writer.
@@ -166,6 +176,7 @@ public class CsvWriter
     public synchronized void setQuoteChar(char quoteChar)
     {
         this.quoteChar = quoteChar;
+        this.lowDisposition = null;
     }
 
     /**
@@ -202,6 +213,7 @@ public class CsvWriter
             this.escapedChars = "";
         else
             this.escapedChars = escapedChars;
+        this.lowDisposition = null;
     }
 
     /**
@@ -221,6 +233,7 @@ public class CsvWriter
             this.suppressedChars = "";
         else
             this.suppressedChars = suppressedChars;
+        this.lowDisposition = null;
     }
 
     /**
@@ -342,12 +355,12 @@ public class CsvWriter
         }
 
         // If we have a pending row, write it now.
-        if (row != null)
+        if (rowPending)
         {
             // Add the row count value if row IDs are enabled.
             if (rowId != null)
             {
-                put(rowId, new Integer(rowCount + 1).toString());
+                put(rowId, Integer.toString(rowCount + 1));
             }
 
             // Check for writing too few columns.
@@ -358,9 +371,10 @@ public class CsvWriter
                         + " columns written=" + colCount);
             }
 
-            // Write the row.
+            // Write the row, then clear it for reuse.
             writeRow(row);
-            row = null;
+            Collections.fill(row, null);
+            rowPending = false;
             colCount = 0;
             rowCount++;
         }
@@ -391,27 +405,18 @@ public class CsvWriter
      */
     public CsvWriter put(int index, String value) throws CsvException
     {
-        // Initialize the character disposition table if necessary.
-        if (disposition == null)
+        // Start a new row if required. The row array is allocated once and
+        // cleared after each write.
+        if (!rowPending)
         {
-            disposition = new HashMap<Character, Disposition>(256);
-            for (char c : escapedChars.toCharArray())
-            {
-                disposition.put(c, Disposition.escape);
-            }
-            for (char c : suppressedChars.toCharArray())
+            int size = getWidth();
+            if (row == null || row.size() != size)
             {
-                disposition.put(c, Disposition.suppress);
+                row = new ArrayList<String>(size);
+                for (int i = 0; i < size; i++)
+                    row.add(null);
             }
-        }
-
-        // Start a new row if required and fill columns with null values.
-        if (row == null)
-        {
-            int size = getWidth();
-            row = new ArrayList<String>(size);
-            for (int i = 0; i < size; i++)
-                row.add(null);
+            rowPending = true;
             colCount = 0;
         }
 
@@ -467,20 +472,75 @@ public class CsvWriter
         return put(index, value);
     }
 
+    // Builds the character disposition tables from current settings.
+    private void initDisposition()
+    {
+        lowDisposition = new Disposition[256];
+        highDisposition = new HashMap<Character, Disposition>();
+        for (char c : escapedChars.toCharArray())
+        {
+            setDisposition(c, Disposition.escape);
+        }
+        for (char c : suppressedChars.toCharArray())
+        {
+            setDisposition(c, Disposition.suppress);
+        }
+        setDisposition(quoteChar, Disposition.quote);
+    }
+
+    // Records the disposition of a single character.
+    private void setDisposition(char c, Disposition disp)
+    {
+        if (c < lowDisposition.length)
+            lowDisposition[c] = disp;
+        else
+            highDisposition.put(c, disp);
+    }
+
+    // Returns the disposition of a single character or null if it is emitted
+    // as is.
+    private Disposition getDisposition(char c)
+    {
+        if (c < lowDisposition.length)
+            return lowDisposition[c];
+        else if (highDisposition.isEmpty())
+            return null;
+        else
+            return highDisposition.get(c);
+    }
+
     // Utility routine to escape string contents and enclose in
     // quotes.
     private String addQuotes(String base)
     {
-        StringBuffer sb = new StringBuffer();
+        // Initialize the character disposition tables if necessary.
+        if (lowDisposition == null)
+            initDisposition();
+
+        // Find the first character that needs special handling. Most values
+        // have none and can be quoted without a character-by-character copy.
+        int length = base.length();
+        int first = 0;
+        while (first < length && getDisposition(base.charAt(first)) == null)
+            first++;
+
+        StringBuilder sb = quoteBuffer;
+        sb.setLength(0);
         sb.append(quoteChar);
-        for (int i = 0; i < base.length(); i++)
+        sb.append(base, 0, first);
+        for (int i = first; i < length; i++)
         {
             // Fetch character and look up its disposition.
             char next = base.charAt(i);
-            Disposition disp = disposition.get(next);
+            Disposition disp = getDisposition(next);
 
             // Emit the character according to CSV formatting rules.
-            if (next == quoteChar)
+            if (disp == null)
+            {
+                // Emit the character as is.
+                sb.append(next);
+            }
+            else if (disp == Disposition.quote)
             {
                 // Escape any quote character.
                 sb.append(escapeChar).append(quoteChar);
@@ -490,19 +550,13 @@ public class CsvWriter
                 // Prefix an escape character.
                 sb.append(escapeChar).append(next);
             }
-            else if (disp == Disposition.suppress)
-            {
-                // Drop the character.
-                continue;
-            }
-            else
-            {
-                // If all else fails, emit the character as is.
-                sb.append(next);
-            }
+            // Suppressed characters are dropped.
         }
         sb.append(quoteChar);
-        return sb.toString();
+        String quoted = sb.toString();
+        if (sb.capacity() > MAX_QUOTE_BUFFER)
+            quoteBuffer = new StringBuilder();
+        return quoted;
     }
 
     /**
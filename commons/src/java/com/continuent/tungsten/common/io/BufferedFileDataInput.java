@@ -40,7 +40,7 @@ import org.apache.log4j.Logger;
  * 
  * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
  */
-public class BufferedFileDataInput
+public class BufferedFileDataInput implements FileDataInput
 {
     private static Logger       logger = Logger.getLogger(BufferedFileDataInput.class);
     // Read parameters.
@@ -197,6 +197,10 @@ public class BufferedFileDataInput
     public void seek(long seekBytes) throws FileNotFoundException, IOException,
             InterruptedException
     {
+        // Release the previous stream, if any, so repeated seeks do not leak
+        // file descriptors.
+        if (fileInput != null)
+            fileInput.close();
         fileInput = new FileInputStream(file);
         fileChannel = fileInput.getChannel();
 
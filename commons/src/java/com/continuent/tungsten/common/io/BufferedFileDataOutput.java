@@ -167,7 +167,18 @@ public class BufferedFileDataOutput
     public void fsync() throws IOException
     {
         flush();
-        //fileOutput.getFD().sync();
+        fileOutput.getFD().sync();
+    }
+
+    /**
+     * Returns the channel of the underlying file. Callers may force the channel
+     * to sync data that have already been flushed without holding locks that
+     * writers need. The channel is closed when this instance is closed or the
+     * file is truncated.
+     */
+    public FileChannel getChannel()
+    {
+        return fileOutput.getChannel();
     }
 
     /**
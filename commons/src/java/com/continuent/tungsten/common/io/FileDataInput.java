@@ -0,0 +1,87 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.common.io;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * Denotes a class that reads binary data from a file while tracking the
+ * offset. Implementations may buffer reads or map the file into memory.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public interface FileDataInput
+{
+    /** Returns the current offset position. */
+    public long getOffset();
+
+    /** Returns the number of bytes available for non-blocking read. */
+    public long available() throws IOException;
+
+    /**
+     * Waits for a specified number of bytes to be available for a non-blocking
+     * read.
+     * 
+     * @param requested Number of bytes to read
+     * @param waitMillis Milliseconds to wait before timeout
+     * @return Number of bytes available for non-blocking read
+     */
+    public long waitAvailable(int requested, int waitMillis)
+            throws IOException, InterruptedException;
+
+    /** Mark stream to read up to limit. */
+    public void mark(int readLimit);
+
+    /** Reset stream back to last mark. */
+    public void reset() throws IOException, InterruptedException;
+
+    /** Skip requested number of bytes and return the number skipped. */
+    public long skip(long bytes) throws IOException;
+
+    /** Seek to a specific offset in the file. */
+    public void seek(long seekBytes) throws FileNotFoundException,
+            IOException, InterruptedException;
+
+    /** Reads a single byte. */
+    public byte readByte() throws IOException;
+
+    /** Reads a single short. */
+    public short readShort() throws IOException;
+
+    /** Reads a single int. */
+    public int readInt() throws IOException;
+
+    /** Reads a single long. */
+    public long readLong() throws IOException;
+
+    /** Reads a full byte array completely. */
+    public void readFully(byte[] bytes) throws IOException;
+
+    /** Reads a full byte array completely. */
+    public void readFully(byte[] bytes, int start, int len) throws IOException;
+
+    /** Close and release all resources. */
+    public void close();
+}
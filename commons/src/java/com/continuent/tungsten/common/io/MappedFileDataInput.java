@@ -0,0 +1,423 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.common.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Reads binary data from a memory-mapped file. Reads copy directly from the
+ * mapped region rather than through stream buffers. The file may grow while
+ * it is read. A read past the mapped region maps everything from the current
+ * offset to the end of the file, but only if that is at least the current
+ * map window, which doubles after each map. A shorter tail, which is what a
+ * reader that keeps up with the writer sees, is read through the file channel
+ * into a small buffer instead. Tailing a file therefore maps it only a
+ * logarithmic number of times. Replaced mappings are released by the garbage
+ * collector, as buffers may not be unmapped safely while still reachable.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public class MappedFileDataInput implements FileDataInput
+{
+    private static Logger    logger  = Logger.getLogger(MappedFileDataInput.class);
+
+    // Largest region we map at once.
+    private static final int MAX_MAP = Integer.MAX_VALUE;
+
+    // Default size of the first map window.
+    private static final int DEFAULT_MAP_WINDOW = 1024 * 1024;
+
+    // Size of channel reads of the file tail.
+    private static final int TAIL_BUFFER        = 65536;
+
+    // Read parameters.
+    private File             file;
+    private RandomAccessFile raf;
+    private FileChannel      fileChannel;
+
+    // Buffer holding the current read position, which is either the mapped
+    // region or the tail buffer.
+    private ByteBuffer       buffer;
+    private long             bufferStart;
+    private long             bufferEnd;
+
+    // Mapped region and the smallest region we will map next.
+    private MappedByteBuffer mapped;
+    private long             mapStart;
+    private long             mapEnd;
+    private int              mapWindow;
+
+    // Buffer for channel reads past the mapped region.
+    private ByteBuffer       tail;
+
+    // Read position.
+    private long             offset;
+    private long             markOffset;
+    private long             available;
+    private int              remaps;
+
+    /**
+     * Creates instance positioned on start of file.
+     * 
+     * @param file File from which to read
+     */
+    public MappedFileDataInput(File file) throws FileNotFoundException,
+            IOException
+    {
+        this(file, DEFAULT_MAP_WINDOW);
+    }
+
+    /**
+     * Creates instance positioned on start of file with a specific size for
+     * the first map window.
+     * 
+     * @param file File from which to read
+     * @param mapWindow Minimum number of unread bytes for the first map
+     */
+    public MappedFileDataInput(File file, int mapWindow)
+            throws FileNotFoundException, IOException
+    {
+        this.file = file;
+        this.mapWindow = mapWindow;
+        this.raf = new RandomAccessFile(file, "r");
+        this.fileChannel = raf.getChannel();
+        this.markOffset = -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#getOffset()
+     */
+    public long getOffset()
+    {
+        return offset;
+    }
+
+    /** Returns the number of times the file has been mapped. */
+    public int getRemaps()
+    {
+        return remaps;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#available()
+     */
+    public long available() throws IOException
+    {
+        available = fileChannel.size() - offset;
+        return available;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#waitAvailable(int,
+     *      int)
+     */
+    public long waitAvailable(int requested, int waitMillis)
+            throws IOException, InterruptedException
+    {
+        if (available >= requested)
+            return available;
+
+        long timeoutMillis = System.currentTimeMillis() + waitMillis;
+        while (available() < requested
+                && System.currentTimeMillis() < timeoutMillis)
+        {
+            Thread.sleep(50);
+        }
+        return available;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#mark(int)
+     */
+    public void mark(int readLimit)
+    {
+        markOffset = offset;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#reset()
+     */
+    public void reset() throws IOException
+    {
+        if (markOffset < 0)
+            throw new IOException("Mark not set: file=" + file.getName());
+        seek(markOffset);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#skip(long)
+     */
+    public long skip(long bytes) throws IOException
+    {
+        long bytesSkipped = Math.max(0,
+                Math.min(bytes, fileChannel.size() - offset));
+        offset += bytesSkipped;
+        available -= bytesSkipped;
+        return bytesSkipped;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#seek(long)
+     */
+    public void seek(long seekBytes)
+    {
+        offset = seekBytes;
+        markOffset = -1;
+        available = 0;
+    }
+
+    /**
+     * Returns a byte at a position ahead of the current offset without
+     * consuming it.
+     * 
+     * @param ahead Number of bytes past the current offset
+     */
+    public byte peekByte(int ahead) throws IOException
+    {
+        int index = ensureBuffered(ahead + 1);
+        return buffer.get(index + ahead);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#readByte()
+     */
+    public byte readByte() throws IOException
+    {
+        int index = ensureBuffered(1);
+        byte v = buffer.get(index);
+        advance(1);
+        return v;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#readShort()
+     */
+    public short readShort() throws IOException
+    {
+        int index = ensureBuffered(2);
+        short v = buffer.getShort(index);
+        advance(2);
+        return v;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#readInt()
+     */
+    public int readInt() throws IOException
+    {
+        int index = ensureBuffered(4);
+        int v = buffer.getInt(index);
+        advance(4);
+        return v;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#readLong()
+     */
+    public long readLong() throws IOException
+    {
+        int index = ensureBuffered(8);
+        long v = buffer.getLong(index);
+        advance(8);
+        return v;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#readFully(byte[])
+     */
+    public void readFully(byte[] bytes) throws IOException
+    {
+        readFully(bytes, 0, bytes.length);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#readFully(byte[],
+     *      int, int)
+     */
+    public void readFully(byte[] bytes, int start, int len) throws IOException
+    {
+        int index = ensureBuffered(len);
+        buffer.position(index);
+        buffer.get(bytes, start, len);
+        advance(len);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#close()
+     */
+    public void close()
+    {
+        try
+        {
+            fileChannel.close();
+            raf.close();
+        }
+        catch (IOException e)
+        {
+            logger.warn("Unable to close mapped file reader: file="
+                    + file.getName() + " exception=" + e.getMessage());
+        }
+        mapped = null;
+        buffer = null;
+        tail = null;
+        offset = -1;
+        available = 0;
+    }
+
+    // Ensure the next len bytes are buffered and return the buffer index of
+    // the current offset.
+    private int ensureBuffered(int len) throws IOException
+    {
+        if (buffer != null && offset >= bufferStart
+                && offset + len <= bufferEnd)
+            return (int) (offset - bufferStart);
+
+        // Use the mapped region if it still covers the read.
+        if (mapped != null && offset >= mapStart && offset + len <= mapEnd)
+        {
+            setBuffer(mapped, mapStart, mapEnd);
+            return (int) (offset - bufferStart);
+        }
+
+        long size = fileChannel.size();
+        if (offset + len > size)
+            throw new EOFException("Read past end of file: file="
+                    + file.getName() + " offset=" + offset + " length=" + len
+                    + " size=" + size);
+
+        // Map the rest of the file if it fills the window. Otherwise read the
+        // tail through the channel.
+        long unread = size - offset;
+        if (unread >= mapWindow || len > TAIL_BUFFER)
+            map(Math.min(unread, MAX_MAP));
+        else
+            readTail((int) unread);
+        return (int) (offset - bufferStart);
+    }
+
+    // Maps a region from the current offset and grows the window for the next
+    // map. The new region is mapped before any state changes so that a failed
+    // map leaves the previous mapping in use.
+    private void map(long mapLength) throws IOException
+    {
+        MappedByteBuffer newMapped = fileChannel.map(
+                FileChannel.MapMode.READ_ONLY, offset, mapLength);
+        mapped = newMapped;
+        mapStart = offset;
+        mapEnd = offset + mapLength;
+        mapWindow = (int) Math.min(Math.max(mapWindow, 1) * 2L, MAX_MAP);
+        remaps++;
+        setBuffer(mapped, mapStart, mapEnd);
+        if (logger.isDebugEnabled())
+            logger.debug("Mapped file region: file=" + file.getName()
+                    + " start=" + mapStart + " end=" + mapEnd + " nextWindow="
+                    + mapWindow);
+    }
+
+    // Reads up to a tail buffer of data at the current offset through the
+    // file channel.
+    private void readTail(int unread) throws IOException
+    {
+        if (tail == null)
+            tail = ByteBuffer.allocate(TAIL_BUFFER);
+        tail.clear();
+        tail.limit(Math.min(unread, TAIL_BUFFER));
+        long position = offset;
+        while (tail.hasRemaining())
+        {
+            int bytesRead = fileChannel.read(tail, position);
+            if (bytesRead < 0)
+                throw new EOFException("File truncated during read: file="
+                        + file.getName() + " offset=" + position);
+            position += bytesRead;
+        }
+        setBuffer(tail, offset, position);
+    }
+
+    private void setBuffer(ByteBuffer buffer, long start, long end)
+    {
+        this.buffer = buffer;
+        this.bufferStart = start;
+        this.bufferEnd = end;
+    }
+
+    // Advance the read position.
+    private void advance(int len)
+    {
+        offset += len;
+        available -= len;
+    }
+
+    /**
+     * Print contents of the reader.
+     */
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append(this.getClass().getSimpleName());
+        sb.append(" file=").append(file.getName());
+        sb.append(" offset=").append(offset);
+        sb.append(" mapStart=").append(mapStart);
+        sb.append(" mapEnd=").append(mapEnd);
+        sb.append(" mapWindow=").append(mapWindow);
+        return sb.toString();
+    }
+}
@@ -320,6 +320,40 @@ public class CsvTest
                 csvReader.getString(1));
     }
 
+    /**
+     * Verify that escaping handles characters outside Latin-1, that settings
+     * changed after writing take effect, and that rows reused across writes
+     * do not carry values forward.
+     */
+    @Test
+    public void testEscapingAcrossRows() throws Exception
+    {
+        StringWriter sw = new StringWriter();
+        CsvWriter csvWriter = new CsvWriter(sw);
+        csvWriter.setWriteHeaders(false);
+        csvWriter.setNullPolicy(NullPolicy.nullValue);
+        csvWriter.setNullValue("NULL");
+        csvWriter.setNullAutofill(true);
+        csvWriter.setEscapeChar('\\');
+        csvWriter.setEscapedChars("\u20ac");
+        csvWriter.setQuoted(true);
+
+        // Write values, changing escaped characters part way through.
+        csvWriter.addColumnName("d1");
+        csvWriter.addColumnName("d2");
+        csvWriter.put(1, "a\u20acb").put(2, "plain").write();
+        csvWriter.put(1, "x\"y").write();
+        csvWriter.setEscapedChars("p");
+        csvWriter.put(2, "plain\u20ac").write();
+        csvWriter.flush();
+
+        String[] lines = sw.toString().split("\n");
+        Assert.assertEquals("rows written", 3, lines.length);
+        Assert.assertEquals("first row", "\"a\\\u20acb\",\"plain\"", lines[0]);
+        Assert.assertEquals("second row", "\"x\\\"y\",NULL", lines[1]);
+        Assert.assertEquals("third row", "NULL,\"\\plain\u20ac\"", lines[2]);
+    }
+
     /**
      * Verify that partially written rows are accepted if nullAutofill is true
      * or rejected if not.
@@ -236,6 +236,32 @@ public class BufferedFileDataOutputTest extends TestCase
         bfdo.close();
     }
 
+    /**
+     * Confirm that fsync writes buffered data through to the file and can be
+     * repeated after truncation without reopening the file.
+     */
+    public void testFsync() throws Exception
+    {
+        File f = this.initFile("testFsync");
+        BufferedFileDataOutput bfdo = new BufferedFileDataOutput(f, 1024);
+        bfdo.writeLong(1);
+        assertEquals("Data still buffered before fsync", 0, f.length());
+        bfdo.fsync();
+        assertEquals("File size after fsync", 8, f.length());
+
+        // Truncate, write again, and fsync once more.
+        bfdo.setLength(4);
+        bfdo.writeInt(2);
+        bfdo.fsync();
+        assertEquals("File size after second fsync", 8, f.length());
+
+        BufferedFileDataInput bfdi = new BufferedFileDataInput(f);
+        assertEquals("first int", 0, bfdi.readInt());
+        assertEquals("second int", 2, bfdi.readInt());
+        bfdi.close();
+        bfdo.close();
+    }
+
     /**
      * Confirm that we can truncate and then rewrite part of a file.
      */
@@ -0,0 +1,215 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.common.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Test capabilities for reads from memory-mapped files.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public class MappedFileDataInputTest extends TestCase
+{
+    /**
+     * Confirm that opening a file for reading fails if the file does not exist.
+     */
+    public void testInputNonexistent() throws Exception
+    {
+        File f = new File("testMappedInputNonExistent");
+        try
+        {
+            new MappedFileDataInput(f);
+            throw new Exception("Able to open non-existent file: "
+                    + f.getAbsolutePath());
+        }
+        catch (FileNotFoundException e)
+        {
+        }
+    }
+
+    /**
+     * Confirm that we correctly extract standard byte, short, int, long, and
+     * byte array values and can peek ahead without moving the offset.
+     */
+    public void testInputRead() throws Exception
+    {
+        File f = initFile("testMappedInputRead");
+        DataOutputStream dos = new DataOutputStream(new FileOutputStream(f));
+        dos.writeByte(Byte.MIN_VALUE);
+        dos.writeShort(Short.MAX_VALUE);
+        dos.writeInt(Integer.MIN_VALUE);
+        dos.writeLong(Long.MAX_VALUE);
+        byte[] byteArray = new byte[10];
+        for (int i = 0; i < byteArray.length; i++)
+            byteArray[i] = (byte) i;
+        dos.write(byteArray);
+        dos.close();
+
+        MappedFileDataInput mfdi = new MappedFileDataInput(f);
+        assertEquals("available", 25, mfdi.available());
+        assertEquals("peek", Byte.MIN_VALUE, mfdi.peekByte(0));
+        assertEquals("peek ahead", 0, mfdi.peekByte(15));
+        assertEquals("Peek does not move offset", 0, mfdi.getOffset());
+
+        assertEquals("byte", Byte.MIN_VALUE, mfdi.readByte());
+        assertEquals("short", Short.MAX_VALUE, mfdi.readShort());
+        assertEquals("int", Integer.MIN_VALUE, mfdi.readInt());
+        assertEquals("long", Long.MAX_VALUE, mfdi.readLong());
+        assertEquals("Should be at offset 15", 15, mfdi.getOffset());
+
+        byte[] myBytes = new byte[10];
+        mfdi.readFully(myBytes);
+        for (int i = 0; i < byteArray.length; i++)
+            assertEquals("byte: " + i, byteArray[i], myBytes[i]);
+        assertEquals("available at end", 0, mfdi.available());
+
+        // Reads past the end of the file fail.
+        try
+        {
+            mfdi.readByte();
+            throw new Exception("Able to read past end of file");
+        }
+        catch (EOFException e)
+        {
+        }
+        mfdi.close();
+    }
+
+    /**
+     * Confirm that seek, skip, and mark/reset return to known locations.
+     */
+    public void testInputSeek() throws Exception
+    {
+        int size = 100000;
+        File f = initFile("testMappedInputSeek");
+        writeAscendingIntFile(f, size);
+
+        MappedFileDataInput mfdi = new MappedFileDataInput(f);
+        for (int i = size - 1; i >= 0; i -= 997)
+        {
+            mfdi.seek(i * 4);
+            assertEquals("seek: " + i, i, mfdi.readInt());
+        }
+
+        mfdi.seek(0);
+        mfdi.mark(400);
+        assertEquals("skip", 4000, mfdi.skip(4000));
+        assertEquals("after skip", 1000, mfdi.readInt());
+        mfdi.reset();
+        assertEquals("after reset", 0, mfdi.readInt());
+        mfdi.close();
+        f.delete();
+    }
+
+    /**
+     * Confirm that we can read a file that grows while it is open. A reader
+     * that keeps up with the writer reads the short tail through the channel
+     * and does not remap the file.
+     */
+    public void testInputGrowingFile() throws Exception
+    {
+        File f = initFile("testMappedInputGrowingFile");
+        DataOutputStream dos = new DataOutputStream(new FileOutputStream(f));
+        MappedFileDataInput mfdi = new MappedFileDataInput(f);
+        assertEquals("empty file", 0, mfdi.waitAvailable(4, 10));
+
+        for (int i = 0; i < 100; i++)
+        {
+            dos.writeInt(i);
+            dos.flush();
+            assertEquals("available bytes: " + i, 4, mfdi.waitAvailable(4, 10));
+            assertEquals("value of int: " + i, i, mfdi.readInt());
+        }
+        assertEquals("remaps", 0, mfdi.getRemaps());
+
+        dos.close();
+        mfdi.close();
+    }
+
+    /**
+     * Confirm that a reader that falls behind a growing file maps it only when
+     * the unread data fill the map window, and that the window doubles after
+     * each map.
+     */
+    public void testInputGrowingFileMapWindow() throws Exception
+    {
+        File f = initFile("testMappedInputGrowingFileMapWindow");
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(f)));
+        MappedFileDataInput mfdi = new MappedFileDataInput(f, 1024);
+
+        // Write 4K per round. Rounds 1-3 fill windows of 1K, 2K, and 4K;
+        // later rounds fall short of the 8K window and use channel reads.
+        int value = 0;
+        for (int round = 0; round < 20; round++)
+        {
+            for (int i = 0; i < 1024; i++)
+                dos.writeInt(value + i);
+            dos.flush();
+            for (int i = 0; i < 1024; i++)
+            {
+                assertEquals("value of int: " + value, value, mfdi.readInt());
+                value++;
+            }
+        }
+        assertEquals("remaps", 3, mfdi.getRemaps());
+
+        // A seek back into the last mapped region reads from the map again.
+        mfdi.seek(8 * 1024);
+        assertEquals("after seek", 2048, mfdi.readInt());
+        assertEquals("remaps after seek", 3, mfdi.getRemaps());
+
+        dos.close();
+        mfdi.close();
+        f.delete();
+    }
+
+    // Initialize a test file by clearing and return the File instance.
+    private File initFile(String name)
+    {
+        File f = new File(name);
+        if (f.exists())
+            f.delete();
+        return f;
+    }
+
+    // Writes a file filled with ascending int values up to a specified value.
+    private void writeAscendingIntFile(File f, int n) throws IOException
+    {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(f)));
+        for (int i = 0; i < n; i++)
+            dos.writeInt(i);
+        dos.close();
+    }
+}
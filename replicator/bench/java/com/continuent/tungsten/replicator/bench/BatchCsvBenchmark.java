@@ -0,0 +1,178 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.continuent.tungsten.common.csv.CsvException;
+import com.continuent.tungsten.common.csv.CsvWriter;
+import com.continuent.tungsten.replicator.applier.batch.SimpleBatchApplier;
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.thl.THLEvent;
+import com.continuent.tungsten.replicator.thl.serializer.ProtobufSerializer;
+
+/**
+ * Measures conversion of row change values to CSV rows in the batch applier,
+ * which runs once per value when loading data warehouses. Row changes are
+ * passed through the THL serializer first so that values arrive in the same
+ * form as in the applier. Run with "-prof gc" to report bytes allocated per
+ * operation; each operation writes every row once.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchCsvBenchmark
+{
+    /** Number of rows in the row change. */
+    @Param({"100"})
+    public int               rows;
+
+    /** If true, string values are byte arrays as with usingBytesForString. */
+    @Param({"false", "true"})
+    public boolean           useBytesForString;
+
+    private CsvApplier       applier;
+    private OneRowChange     rowChange;
+    private List<ColumnSpec> specs;
+    private CsvWriter        csv;
+
+    @Setup
+    public void prepare() throws Exception
+    {
+        applier = new CsvApplier();
+        applier.setCharset("UTF-8");
+        applier.prepareFormat();
+
+        // Convert strings to bytes if desired and pass the row change through
+        // the serializer.
+        ArrayList<DBMSData> data = BenchmarkEvents.createData(
+                BenchmarkEvents.ROWS, rows);
+        OneRowChange source = ((RowChangeData) data.get(0)).getRowChanges()
+                .get(0);
+        if (useBytesForString)
+        {
+            for (ArrayList<ColumnVal> values : source.getColumnValues())
+            {
+                for (ColumnVal value : values)
+                {
+                    if (value.getValue() instanceof String)
+                        value.setValue(((String) value.getValue())
+                                .getBytes("UTF-8"));
+                }
+            }
+        }
+        ProtobufSerializer serializer = new ProtobufSerializer();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        serializer.serializeEvent(BenchmarkEvents.createTHLEvent(1, data),
+                output);
+        THLEvent event = serializer.deserializeEvent(new ByteArrayInputStream(
+                output.toByteArray()));
+        rowChange = ((RowChangeData) ((ReplDBMSEvent) event.getReplEvent())
+                .getData().get(0)).getRowChanges().get(0);
+        specs = rowChange.getColumnSpec();
+
+        // Write CSV to a writer that discards output.
+        csv = new CsvWriter(new Writer()
+        {
+            public void write(char[] cbuf, int off, int len)
+            {
+            }
+
+            public void flush()
+            {
+            }
+
+            public void close()
+            {
+            }
+        });
+        csv.setNullAutofill(true);
+        csv.addColumnName("tungsten_opcode");
+        csv.addColumnName("tungsten_seqno");
+        csv.addRowIdName("tungsten_row_id");
+        for (ColumnSpec spec : specs)
+            csv.addColumnName(spec.getName());
+    }
+
+    @Benchmark
+    public int write() throws Exception
+    {
+        int rowCount = rowChange.getColumnRowCount();
+        for (int row = 0; row < rowCount; row++)
+        {
+            csv.put(1, "I");
+            csv.put(2, "1");
+            for (int i = 0; i < specs.size(); i++)
+            {
+                ColumnSpec spec = specs.get(i);
+                csv.put(spec.getIndex() + 3, applier.toCsv(rowChange, row, i,
+                        spec));
+            }
+            csv.write();
+        }
+        return rowCount;
+    }
+
+    // Exposes the value conversion of the batch applier.
+    private static class CsvApplier extends SimpleBatchApplier
+    {
+        String toCsv(OneRowChange orc, int row, int column, ColumnSpec spec)
+                throws CsvException
+        {
+            return getCsvValue(orc, false, row, column, spec);
+        }
+
+        void prepareFormat() throws Exception
+        {
+            prepareCsvFormat();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.bench;
+
+import java.io.File;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.dbms.StatementData;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.thl.THLEvent;
+
+/**
+ * Generates events for benchmarks. Statement events resemble typical OLTP
+ * updates. Row events contain a batch of row inserts into a table with a mix
+ * of integer, decimal, string, and timestamp columns, which resembles what
+ * the MySQL extractor produces for row-based replication.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public class BenchmarkEvents
+{
+    /** Event containing a single SQL statement. */
+    public static final String STATEMENT = "statement";
+
+    /** Event containing row changes. */
+    public static final String ROWS      = "rows";
+
+    // Columns of the table used for row events.
+    private static final String[] COLUMN_NAMES = {"id", "customer_id",
+            "amount", "status", "note", "created"};
+    private static final int[]    COLUMN_TYPES = {Types.INTEGER,
+            Types.INTEGER, Types.DECIMAL, Types.VARCHAR, Types.VARCHAR,
+            Types.TIMESTAMP};
+
+    /**
+     * Returns event data of the requested type.
+     * 
+     * @param eventType Either {@link #STATEMENT} or {@link #ROWS}
+     * @param rows Number of rows in row events
+     */
+    public static ArrayList<DBMSData> createData(String eventType, int rows)
+    {
+        ArrayList<DBMSData> data = new ArrayList<DBMSData>();
+        if (STATEMENT.equals(eventType))
+        {
+            data.add(new StatementData(
+                    "UPDATE orders SET status = 'SHIPPED', note = 'Left warehouse 7 on schedule'"
+                            + " WHERE id = 1234567 AND customer_id = 89012",
+                    System.currentTimeMillis(), "bench"));
+        }
+        else if (ROWS.equals(eventType))
+        {
+            RowChangeData rowChangeData = new RowChangeData();
+            rowChangeData.appendOneRowChange(createRowChange(rows));
+            data.add(rowChangeData);
+        }
+        else
+            throw new IllegalArgumentException("Unknown event type: "
+                    + eventType);
+        return data;
+    }
+
+    /**
+     * Wraps event data in a THL event with the given seqno.
+     */
+    public static THLEvent createTHLEvent(long seqno, ArrayList<DBMSData> data)
+    {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        String eventId = "mysql-bin.000001:" + seqno;
+        DBMSEvent dbmsEvent = new DBMSEvent(eventId, null, data, true, now);
+        ReplDBMSEvent replEvent = new ReplDBMSEvent(seqno, (short) 0, true,
+                "bench", 0, now, dbmsEvent);
+        return new THLEvent(eventId, replEvent);
+    }
+
+    /**
+     * Creates an empty directory for benchmark files under the temporary
+     * directory.
+     */
+    public static File createWorkDir(String name)
+    {
+        File dir = new File(System.getProperty("java.io.tmpdir"),
+                "tungsten-bench-" + name + "-" + System.nanoTime());
+        if (!dir.mkdirs())
+            throw new IllegalStateException("Unable to create directory: "
+                    + dir.getAbsolutePath());
+        return dir;
+    }
+
+    /**
+     * Deletes a benchmark directory and its contents.
+     */
+    public static void deleteWorkDir(File dir)
+    {
+        File[] files = dir.listFiles();
+        if (files != null)
+        {
+            for (File f : files)
+            {
+                if (f.isDirectory())
+                    deleteWorkDir(f);
+                else
+                    f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    // Generates a row change that inserts the given number of rows.
+    private static OneRowChange createRowChange(int rows)
+    {
+        OneRowChange rowChange = new OneRowChange();
+        rowChange.setSchemaName("bench");
+        rowChange.setTableName("orders");
+        rowChange.setTableId(1);
+        rowChange.setAction(RowChangeData.ActionType.INSERT);
+
+        ArrayList<ColumnSpec> specs = new ArrayList<ColumnSpec>();
+        for (int i = 0; i < COLUMN_NAMES.length; i++)
+        {
+            ColumnSpec spec = rowChange.new ColumnSpec();
+            spec.setIndex(i + 1);
+            spec.setName(COLUMN_NAMES[i]);
+            spec.setType(COLUMN_TYPES[i]);
+            if (COLUMN_TYPES[i] == Types.INTEGER)
+                spec.setLength(4);
+            specs.add(spec);
+        }
+        rowChange.setColumnSpec(specs);
+
+        ArrayList<ArrayList<ColumnVal>> values = new ArrayList<ArrayList<ColumnVal>>();
+        long now = System.currentTimeMillis();
+        for (int row = 0; row < rows; row++)
+        {
+            ArrayList<ColumnVal> rowValues = new ArrayList<ColumnVal>();
+            rowValues.add(createValue(rowChange, new Integer(1000000 + row)));
+            rowValues.add(createValue(rowChange, new Integer(row % 5000)));
+            rowValues.add(createValue(rowChange, new BigDecimal("1234.56")
+                    .add(new BigDecimal(row))));
+            rowValues.add(createValue(rowChange, "NEW"));
+            rowValues.add(createValue(rowChange,
+                    "Order placed through web storefront, priority shipping"));
+            rowValues.add(createValue(rowChange, new Timestamp(now + row)));
+            values.add(rowValues);
+        }
+        rowChange.setColumnValues(values);
+        return rowChange;
+    }
+
+    // Generates a column value.
+    private static ColumnVal createValue(OneRowChange rowChange,
+            Serializable value)
+    {
+        ColumnVal columnVal = rowChange.new ColumnVal();
+        columnVal.setValue(value);
+        return columnVal;
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.bench;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.continuent.tungsten.common.io.BufferedFileDataInput;
+import com.continuent.tungsten.common.io.BufferedFileDataOutput;
+
+/**
+ * Measures raw throughput of the buffered file classes underneath log files
+ * using length-prefixed records like those written by the log.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BufferedFileDataBenchmark
+{
+    /** Buffer size in bytes. */
+    @Param({"8192", "131072"})
+    public int                     bufferSize;
+
+    /** Record length in bytes. */
+    @Param({"1024"})
+    public int                     recordBytes;
+
+    /** Number of records in the file that is read. */
+    @Param({"100000"})
+    public int                     records;
+
+    private byte[]                 bytes;
+    private File                   workDir;
+    private BufferedFileDataOutput output;
+    private BufferedFileDataInput  input;
+    private long                   inputLength;
+
+    @Setup(Level.Iteration)
+    public void prepare() throws Exception
+    {
+        bytes = new byte[recordBytes];
+        new Random(1).nextBytes(bytes);
+        workDir = BenchmarkEvents.createWorkDir("buffered-file");
+
+        // Write the file to read.
+        File inputFile = new File(workDir, "input.dat");
+        BufferedFileDataOutput writer = new BufferedFileDataOutput(inputFile,
+                bufferSize);
+        for (int i = 0; i < records; i++)
+        {
+            writer.writeInt(bytes.length);
+            writer.write(bytes);
+        }
+        writer.flush();
+        inputLength = writer.getOffset();
+        writer.close();
+        input = new BufferedFileDataInput(inputFile, bufferSize);
+
+        // Open the file to write.
+        output = new BufferedFileDataOutput(new File(workDir, "output.dat"),
+                bufferSize);
+    }
+
+    @TearDown(Level.Iteration)
+    public void release()
+    {
+        input.close();
+        output.close();
+        BenchmarkEvents.deleteWorkDir(workDir);
+    }
+
+    /**
+     * Writes a single record without flushing. The file is truncated each
+     * time it reaches the size of the input file to bound disk usage.
+     */
+    @Benchmark
+    public void write() throws Exception
+    {
+        if (output.getOffset() >= inputLength)
+            output.setLength(0);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * Reads a single record, returning to the start at the end of the file.
+     */
+    @Benchmark
+    public int read() throws Exception
+    {
+        if (input.getOffset() >= inputLength)
+            input.seek(0);
+        int length = input.readInt();
+        input.readFully(bytes, 0, length);
+        return length;
+    }
+}
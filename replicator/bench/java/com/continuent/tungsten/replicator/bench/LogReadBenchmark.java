@@ -0,0 +1,162 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.thl.THLEvent;
+import com.continuent.tungsten.replicator.thl.log.DiskLog;
+import com.continuent.tungsten.replicator.thl.log.LogConnection;
+import com.continuent.tungsten.replicator.thl.log.LogEventReadFilter;
+import com.continuent.tungsten.replicator.thl.log.LogEventReplReader;
+import com.continuent.tungsten.replicator.thl.serializer.ProtobufSerializer;
+
+/**
+ * Measures sequential reads and seeks on a disk log, which is what slave
+ * connections and downstream pipeline stages do. The log is written once per
+ * trial and read through a single connection.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogReadBenchmark
+{
+    /** Type of event stored in the log. */
+    @Param({BenchmarkEvents.STATEMENT, BenchmarkEvents.ROWS})
+    public String              eventType;
+
+    /** If false, events are returned with headers only. */
+    @Param({"true", "false"})
+    public boolean             deserialize;
+
+    /** Number of events in the log. */
+    @Param({"100000"})
+    public int                 events;
+
+    private File               logDir;
+    private DiskLog            log;
+    private LogConnection      conn;
+    private long[]             seekSeqnos;
+    private int                seekIndex;
+
+    @Setup(Level.Trial)
+    public void prepare() throws Exception
+    {
+        logDir = BenchmarkEvents.createWorkDir("log-read");
+        log = new DiskLog();
+        log.setReadOnly(false);
+        log.setLogDir(logDir.getAbsolutePath());
+        log.setEventSerializerClass(ProtobufSerializer.class.getName());
+        log.setLogFileSize(10000000);
+        log.prepare();
+
+        // Write the log.
+        ArrayList<DBMSData> data = BenchmarkEvents.createData(eventType, 10);
+        LogConnection writer = log.connect(false);
+        for (int i = 0; i < events; i++)
+        {
+            writer.store(BenchmarkEvents.createTHLEvent(i, data),
+                    i == events - 1);
+        }
+        writer.release();
+
+        // Connect for reading.
+        conn = log.connect(true);
+        if (!deserialize)
+        {
+            conn.setReadFilter(new LogEventReadFilter()
+            {
+                public boolean accept(LogEventReplReader reader)
+                {
+                    return false;
+                }
+            });
+        }
+        conn.seek(0);
+
+        // Seeks go to random positions throughout the log, which crosses
+        // log files.
+        Random random = new Random(1);
+        seekSeqnos = new long[1024];
+        for (int i = 0; i < seekSeqnos.length; i++)
+            seekSeqnos[i] = random.nextInt(events);
+    }
+
+    @TearDown(Level.Trial)
+    public void release() throws Exception
+    {
+        conn.release();
+        log.release();
+        BenchmarkEvents.deleteWorkDir(logDir);
+    }
+
+    /**
+     * Reads the next event, returning to the start at the end of the log.
+     */
+    @Benchmark
+    public THLEvent next() throws Exception
+    {
+        THLEvent event = conn.next(false);
+        if (event == null)
+        {
+            conn.seek(0);
+            event = conn.next(false);
+        }
+        return event;
+    }
+
+    /**
+     * Seeks to an event and reads it.
+     */
+    @Benchmark
+    public THLEvent seek() throws Exception
+    {
+        long seqno = seekSeqnos[seekIndex++ & (seekSeqnos.length - 1)];
+        conn.seek(seqno);
+        return conn.next(false);
+    }
+}
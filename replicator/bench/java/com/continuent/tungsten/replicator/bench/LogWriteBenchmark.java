@@ -0,0 +1,126 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.thl.log.DiskLog;
+import com.continuent.tungsten.replicator.thl.log.LogConnection;
+import com.continuent.tungsten.replicator.thl.serializer.ProtobufSerializer;
+
+/**
+ * Measures the rate at which a single writer stores and commits events in a
+ * disk log, which bounds the throughput of master extraction and slave THL
+ * stages. Each iteration starts with a new log so that results do not depend
+ * on how much earlier iterations wrote.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogWriteBenchmark
+{
+    /** Type of event to store. */
+    @Param({BenchmarkEvents.STATEMENT, BenchmarkEvents.ROWS})
+    public String              eventType;
+
+    /** Number of events stored per commit. */
+    @Param({"1", "100"})
+    public int                 commitInterval;
+
+    /**
+     * Flush policy: flush releases writes to the OS, fsync forces each
+     * commit to storage, and group uses group commit with fsync and waits for
+     * each commit to become durable, as the THL applier does.
+     */
+    @Param({"flush", "fsync", "group"})
+    public String              durability;
+
+    private ArrayList<DBMSData> data;
+    private File                logDir;
+    private DiskLog             log;
+    private LogConnection       conn;
+    private long                seqno;
+
+    @Setup(Level.Iteration)
+    public void prepare() throws Exception
+    {
+        data = BenchmarkEvents.createData(eventType, 10);
+        logDir = BenchmarkEvents.createWorkDir("log-write");
+
+        log = new DiskLog();
+        log.setReadOnly(false);
+        log.setLogDir(logDir.getAbsolutePath());
+        log.setEventSerializerClass(ProtobufSerializer.class.getName());
+        log.setLogFileSize(100000000);
+        log.setFsyncOnFlush(!"flush".equals(durability));
+        log.setGroupCommit("group".equals(durability));
+        log.prepare();
+        conn = log.connect(false);
+        seqno = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void release() throws Exception
+    {
+        conn.release();
+        log.release();
+        BenchmarkEvents.deleteWorkDir(logDir);
+    }
+
+    /**
+     * Stores one event, committing every commitInterval events. Commits wait
+     * until they are durable, which only blocks under group commit.
+     */
+    @Benchmark
+    public void storeAndCommit() throws Exception
+    {
+        long next = seqno++;
+        boolean commit = (next + 1) % commitInterval == 0;
+        conn.store(BenchmarkEvents.createTHLEvent(next, data), commit);
+        if (commit)
+            conn.waitForCommit();
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.continuent.tungsten.replicator.thl.THLEvent;
+import com.continuent.tungsten.replicator.thl.serializer.ProtobufSerializer;
+
+/**
+ * Measures protobuf serialization and deserialization of THL events, which
+ * dominates CPU cost when storing and reading the log.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProtobufSerializerBenchmark
+{
+    /** Type of event to serialize. */
+    @Param({BenchmarkEvents.STATEMENT, BenchmarkEvents.ROWS})
+    public String                 eventType;
+
+    /** Number of rows in row change events. */
+    @Param({"1", "100"})
+    public int                    rows;
+
+    private ProtobufSerializer    serializer;
+    private THLEvent              event;
+    private byte[]                bytes;
+    private ByteArrayOutputStream output;
+
+    @Setup
+    public void prepare() throws Exception
+    {
+        serializer = new ProtobufSerializer();
+        event = BenchmarkEvents.createTHLEvent(1,
+                BenchmarkEvents.createData(eventType, rows));
+        output = new ByteArrayOutputStream();
+        serializer.serializeEvent(event, output);
+        bytes = output.toByteArray();
+    }
+
+    @Benchmark
+    public int serialize() throws Exception
+    {
+        output.reset();
+        serializer.serializeEvent(event, output);
+        return output.size();
+    }
+
+    @Benchmark
+    public THLEvent deserialize() throws Exception
+    {
+        return serializer.deserializeEvent(new ByteArrayInputStream(bytes));
+    }
+}
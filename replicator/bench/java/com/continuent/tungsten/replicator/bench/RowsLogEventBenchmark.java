@@ -0,0 +1,123 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+
+package com.continuent.tungsten.replicator.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.extractor.mysql.BinlogReader;
+import com.continuent.tungsten.replicator.extractor.mysql.FormatDescriptionLogEvent;
+import com.continuent.tungsten.replicator.extractor.mysql.LogEvent;
+import com.continuent.tungsten.replicator.extractor.mysql.RowsLogEvent;
+import com.continuent.tungsten.replicator.extractor.mysql.TableMapLogEvent;
+
+/**
+ * Measures decoding of MySQL rows events into row changes, which runs once per
+ * row on the master. Run with "-prof gc" to report bytes allocated per
+ * operation; each operation decodes every rows event in the binlog once.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowsLogEventBenchmark
+{
+    /** Binlog file containing row events, relative to the replicator home. */
+    @Param({"test/data/binlog_rbr_1.000001"})
+    public String                      binlog;
+
+    /** If true, string values are extracted as byte arrays. */
+    @Param({"false", "true"})
+    public boolean                     useBytesForString;
+
+    private ArrayList<RowsLogEvent>     rowsEvents;
+    private ArrayList<TableMapLogEvent> tableMaps;
+
+    @Setup
+    public void prepare() throws Exception
+    {
+        File file = new File(binlog);
+        String name = file.getName();
+        BinlogReader reader = new BinlogReader(0, name, file.getAbsoluteFile()
+                .getParent(), name.substring(0, name.lastIndexOf('.')), 65536);
+        reader.open();
+
+        // Pair each rows event with the table map that precedes it.
+        rowsEvents = new ArrayList<RowsLogEvent>();
+        tableMaps = new ArrayList<TableMapLogEvent>();
+        // Like the extractor we assume a V4 format description.
+        FormatDescriptionLogEvent description = new FormatDescriptionLogEvent(
+                4);
+        TableMapLogEvent tableMap = null;
+        while (reader.available() > 0)
+        {
+            LogEvent event = LogEvent.readLogEvent(null, reader, description,
+                    true, useBytesForString, false);
+            if (event instanceof TableMapLogEvent)
+                tableMap = (TableMapLogEvent) event;
+            else if (event instanceof RowsLogEvent && tableMap != null)
+            {
+                rowsEvents.add((RowsLogEvent) event);
+                tableMaps.add(tableMap);
+            }
+        }
+        reader.close();
+        if (rowsEvents.size() == 0)
+            throw new IllegalStateException("No rows events found in binlog: "
+                    + binlog);
+    }
+
+    @Benchmark
+    public int decode() throws Exception
+    {
+        int changes = 0;
+        for (int i = 0; i < rowsEvents.size(); i++)
+        {
+            RowChangeData rowChanges = new RowChangeData();
+            rowsEvents.get(i).processExtractedEvent(rowChanges,
+                    tableMaps.get(i));
+            changes += rowChanges.getRowChanges().size();
+        }
+        return changes;
+    }
+}
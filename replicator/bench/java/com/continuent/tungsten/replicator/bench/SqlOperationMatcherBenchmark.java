@@ -0,0 +1,125 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.continuent.tungsten.replicator.database.MySQLOperationMatcher;
+import com.continuent.tungsten.replicator.database.SqlOperationMatcher;
+
+/**
+ * Compares SQL statement classification by the single-pass
+ * {@link MySQLOperationMatcher} with the regex-based matcher it replaced.
+ * Classification runs on every statement event the master extracts and on
+ * every statement the filters examine. Each operation matches the full set of
+ * sample statements once.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqlOperationMatcherBenchmark
+{
+    // Typical statements, including comments, quoting and odd spacing.
+    private static final String[] STATEMENTS = {
+            "create xxxx database foo",
+            "",
+            "create `TABLE` `foo` /* hello*/",
+            "CREATE DATABASE /*!32312 IF NOT EXISTS*/ `foo` /*!40100 DEFAULT CHARACTER SET latin1 */",
+            "drop database `foo` /* hello*/",
+            "   creAtE TEMPORary TabLE \"foo\"",
+            "create temporary  table   `bar`.`foo` /* hello*/",
+            "drop    table  if   exists  foo",
+            "DROP TABLE IF EXISTS TUNGSTEN_INFO.bravo, `bar`.`foo`",
+            "insert  delayed into    `foo` /* hello*/ (one,too) values(1,2)",
+            "insert   ignore  into    `bar`.`foo` /* hello*/ (one,too) values(1,2)",
+            "CREATE ONLINE INDEX `index` ON `bar`.`foo`(c2_2)",
+            "   DROP INDEX `index` ON \"bar\".\"foo\"(c2_2)",
+            "REPLACE bar.foo(id,msg) values(1, 'data')",
+            "update /* comment */ foo set id=1",
+            "update  LOW_PRIORITY IGNORE   `bar`.`foo` /* hello*/ set id=1",
+            "/* comment */ delete /* comment */ from foo where id=1",
+            "DElete LOW_PRIORITY QUICK IGNORE bar.\"foo\"",
+            "TRUNCATE    tABlE  \"bar\".\"foo\" ",
+            "loAd   datA    lOcal iNfilE '/tmp/ld.txt' into   table bar.\"foo\" FIELDS TERMINATED BY ','",
+            "SET @var0 := NULL",
+            "CREATE DEFINER=`root`@`localhost` PROCEDURE `bar`.`foo`() begin select 1; end",
+            "CREATE DEFINER=`root`@`localhost` FUNCTION foo() RETURNS INT return 1",
+            "DRop  PRocedurE \"bar\".\"foo\"",
+            "CREATE OR REPLACE ALGORITHM=UNDEFINED DEFINER=`root`@`localhost` SQL SECURITY DEFINER VIEW `bar`.`foo` AS select 1",
+            "drop view  if  exists bar.foo",
+            "/*!50000 CREATE TABLE IF NOT EXISTS foo */",
+            "-- this is a comment\n   create -- comment\ntable foo",
+            " start transaction WITH CONSISTENT SNAPSHOT",
+            " BEGIN WORK ",
+            " cOMmit WorK",
+            "ROLLBACK",
+            "begin select 1; end",
+            "flush /* foo */ tables",
+            "SELECT CONCAT(last_name,', ',first_name) AS full_name FROM mytable ORDER BY full_name",
+            "ALTER TABLE bar.foo ADD COLUMN c2 INT",
+            "alter ignore table `foo` drop column c2"};
+
+    /** Matcher to measure: tokenizer or regex. */
+    @Param({"tokenizer", "regex"})
+    public String               matcher;
+
+    private SqlOperationMatcher operationMatcher;
+
+    @Setup
+    public void prepare()
+    {
+        if ("regex".equals(matcher))
+            operationMatcher = new MySQLRegexOperationMatcher();
+        else
+            operationMatcher = new MySQLOperationMatcher();
+    }
+
+    @Benchmark
+    public int match()
+    {
+        int recognized = 0;
+        for (String statement : STATEMENTS)
+        {
+            if (operationMatcher.match(statement).getOperation() != 0)
+                recognized++;
+        }
+        return recognized;
+    }
+}
@@ -29,6 +29,17 @@ replicator.applier.dbms.cleanUpFiles=false
 # potentially large amount of output.)
 replicator.applier.dbms.showCommands=false
 
+# Number of connections used to load and merge tables at commit.  Values 
+# above 1 merge separate tables concurrently.  A failure while committing can 
+# replay the block over tables whose connections already committed, so values 
+# above 1 also require idempotentMerge=true. 
+replicator.applier.dbms.parallelism=1
+
+# Set to true only if the merge script can be applied again to tables that 
+# already contain the merged block, for example because it deletes each 
+# staged key before inserting, like the REPLACE in mysql-merge.sql. 
+replicator.applier.dbms.idempotentMerge=false
+
 # Included to provide default pkey for tables that omit such.  This is not 
 # a good practice in general. 
 #replicator.applier.dbms.stagePkeyColumn=id
@@ -4,4 +4,10 @@ replicator.applier.dbms.port=${replicator.global.db.port}
 replicator.applier.dbms.user=${replicator.global.db.user}
 replicator.applier.dbms.password=${replicator.global.db.password}
 replicator.applier.dbms.ignoreSessionVars=autocommit
-replicator.applier.dbms.getColumnMetadataFromDB=true
\ No newline at end of file
+replicator.applier.dbms.getColumnMetadataFromDB=true
+
+# Send up to rowBatchSize rows that share a statement in one JDBC batch.  Set 
+# multiRowInsertMaxBytes above 0 to combine consecutive inserted rows into 
+# multi-row INSERT statements carrying at most that many bytes of data.  
+#replicator.applier.dbms.rowBatchSize=100
+#replicator.applier.dbms.multiRowInsertMaxBytes=1000000
@@ -2,4 +2,10 @@ replicator.applier.dbms=com.continuent.tungsten.replicator.applier.PostgreSQLApp
 replicator.applier.dbms.url=jdbc:postgresql://${replicator.global.db.host}:${replicator.global.db.port}/@{REPL_POSTGRESQL_DBNAME}
 replicator.applier.dbms.user=${replicator.global.db.user}
 replicator.applier.dbms.password=${replicator.global.db.password}
-replicator.applier.dbms.getColumnMetadataFromDB=true
\ No newline at end of file
+replicator.applier.dbms.getColumnMetadataFromDB=true
+
+# Send up to rowBatchSize rows that share a statement in one JDBC batch.  Set 
+# multiRowInsertMaxBytes above 0 to combine consecutive inserted rows into 
+# multi-row INSERT statements carrying at most that many bytes of data.  
+#replicator.applier.dbms.rowBatchSize=100
+#replicator.applier.dbms.multiRowInsertMaxBytes=1000000
@@ -43,9 +43,31 @@ replicator.extractor.dbms.relayLogReadTimeout=30
 # them automatically.
 replicator.extractor.dbms.relayLogRetention=10
 
+# When using relay logs, stream downloaded events directly to the extractor
+# through an in-memory buffer instead of re-reading relay log files.  The 
+# buffer holds up to relayLogBufferBytes of events.  If relayLogSpill is 
+# true, events are also written to relay log files as before. 
+replicator.extractor.dbms.relayLogStreaming=false
+replicator.extractor.dbms.relayLogSpill=true
+replicator.extractor.dbms.relayLogBufferBytes=16777216
+
+# Read binlog and relay log files through a memory map instead of buffered
+# stream reads.  This saves a copy per event when extracting local files. 
+replicator.extractor.dbms.useMappedBinlogs=false
+
 # The serverId is the ID used when logging into MySQL to download binlog 
 # data.  MySQL requires all clients to use a unique value.  If multiple
 # replicators or MySQL slaves read from the same master, you must ensure
 # values are different or MySQL will kill the earlier session with the 
 # same server ID. 
 replicator.extractor.dbms.serverId=@{REPL_MYSQL_SERVER_ID}
+
+# Number of threads used to decode row images from row-based binlog events.
+# 0 decodes on the extractor thread.  Larger values let extraction of 
+# row-heavy binlogs use more than one CPU.  Events are always returned in
+# binlog order. 
+replicator.extractor.dbms.decodeThreads=0
+
+# Maximum number of transactions the extractor reads ahead of the one it is
+# returning when decodeThreads is greater than 0. 
+replicator.extractor.dbms.decodeQueueSize=100
@@ -66,11 +66,16 @@ replicator.storage.default=fs
 # File system storage agent.  For best results the directory parameter should
 # be a shared file system visible to all replicators.  NOTE: CRC file checking
 # may be time-consuming for large files; it is recommended if you can afford
-# to check.  (Who really wants to load a bad backup??)
+# to check.  (Who really wants to load a bad backup??)  Without CRC checking
+# files are copied by the OS without passing through the replicator.
+# Backups with several files may be transferred on parallel streams and
+# may be compressed with gzip as they are stored.
 replicator.storage.agent.fs=com.continuent.tungsten.replicator.backup.FileSystemStorageAgent
 replicator.storage.agent.fs.directory=@{SERVICE.REPL_BACKUP_STORAGE_DIR}
 replicator.storage.agent.fs.retention=@{REPL_BACKUP_RETENTION}
 replicator.storage.agent.fs.crcCheckingEnabled=true
+replicator.storage.agent.fs.parallelStreams=1
+replicator.storage.agent.fs.compressionEnabled=false
 
 ###########################
 # OPEN REPLICATOR PLUGINS #
@@ -22,6 +22,7 @@
 
 package com.continuent.tungsten.replicator.applier;
 
+import com.continuent.tungsten.common.cache.CacheResourceManager;
 import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.conf.FailurePolicy;
 import com.continuent.tungsten.replicator.conf.ReplicatorRuntime;
@@ -98,6 +99,34 @@ public class JdbcApplier implements RawApplier
 
     private TableMetadataCache        tableMetadataCache;
 
+    /**
+     * Maximum number of row change statements to keep prepared across events.
+     * A value of 0 prepares and closes statements for every row change.
+     */
+    protected int                     preparedStatementCacheSize = 500;
+
+    private PreparedStatementCache    preparedStatementCache;
+
+    // Multi-row INSERT statements differ by row count, so they go in a small
+    // cache of their own rather than pushing out single-row statements.
+    private static final int          MULTI_ROW_CACHE_SIZE       = 20;
+    private PreparedStatementCache    multiRowStatementCache;
+
+    /**
+     * Maximum number of rows with the same statement to send in a single JDBC
+     * batch. A value of 1 executes each row separately.
+     */
+    protected int                     rowBatchSize               = 1;
+
+    /**
+     * Maximum estimated bytes of row data to coalesce into one multi-row
+     * INSERT statement. A value of 0 disables multi-row inserts.
+     */
+    protected long                    multiRowInsertMaxBytes     = 0;
+
+    // Upper bound on placeholders in a multi-row INSERT.
+    private static final int          MAX_STATEMENT_PLACEHOLDERS = 30000;
+
     private boolean                   transactionStarted         = false;
 
     private ReplDBMSHeader            lastProcessedEvent         = null;
@@ -155,6 +184,31 @@ public class JdbcApplier implements RawApplier
         this.ignoreSessionVars = ignoreSessionVars;
     }
 
+    public void setPreparedStatementCacheSize(int preparedStatementCacheSize)
+    {
+        this.preparedStatementCacheSize = preparedStatementCacheSize;
+    }
+
+    public void setRowBatchSize(int rowBatchSize)
+    {
+        this.rowBatchSize = rowBatchSize;
+    }
+
+    public void setMultiRowInsertMaxBytes(long multiRowInsertMaxBytes)
+    {
+        this.multiRowInsertMaxBytes = multiRowInsertMaxBytes;
+    }
+
+    /**
+     * Returns the number of statements in the single-row prepared statement
+     * cache, or 0 if the cache is disabled.
+     */
+    int getCachedStatementCount()
+    {
+        return preparedStatementCache == null ? 0 : preparedStatementCache
+                .size();
+    }
+
     public void setGetColumnMetadataFromDB(String getMetadataFromDB)
     {
         getColumnInformationFromDB = getMetadataFromDB.toLowerCase().compareTo(
@@ -319,15 +373,16 @@ public class JdbcApplier implements RawApplier
     }
 
     /**
-     * @param keyValues Is used to identify NULL values, in which case, if the
-     *            mode is ASSIGNMENT, "x IS ?" is constructed instead of "x =
-     *            ?".
+     * @param oneRowChange Row change holding the values of the row
+     * @param row Index of the row whose values are printed
+     * @param keys If true, key values of the row are used to identify NULL
+     *            values, in which case, if the mode is ASSIGNMENT, "x IS ?" is
+     *            constructed instead of "x = ?". Otherwise column values are
+     *            used.
      */
     protected void printColumnSpec(StringBuffer stmt,
-            ArrayList<OneRowChange.ColumnSpec> cols,
-            ArrayList<OneRowChange.ColumnVal> keyValues,
-            ArrayList<OneRowChange.ColumnVal> colValues, PrintMode mode,
-            String separator)
+            ArrayList<OneRowChange.ColumnSpec> cols, OneRowChange oneRowChange,
+            int row, boolean keys, PrintMode mode, String separator)
     {
         boolean first = true;
         for (int i = 0; i < cols.size(); i++)
@@ -339,9 +394,10 @@ public class JdbcApplier implements RawApplier
                 first = false;
             if (mode == PrintMode.ASSIGNMENT)
             {
-                if (keyValues != null)
+                if (keys)
                 {
-                    if (keyValues.get(i).getValue() == null)
+                    Object keyValue = oneRowChange.getKeyValue(row, i);
+                    if (keyValue == null)
                     {
                         // TREP-276: use "IS NULL" vs. "= NULL"
                         // stmt.append(col.getName() + " IS ? ");
@@ -355,20 +411,22 @@ public class JdbcApplier implements RawApplier
                     {
                         stmt.append(conn.getDatabaseObjectName(col.getName())
                                 + " = "
-                                + conn.getPlaceHolder(col, keyValues.get(i)
-                                        .getValue(), col.getTypeDescription()));
+                                + conn.getPlaceHolder(col, keyValue,
+                                        col.getTypeDescription()));
                     }
                 }
                 else
                     stmt.append(conn.getDatabaseObjectName(col.getName())
                             + " = "
-                            + conn.getPlaceHolder(col, colValues.get(i)
-                                    .getValue(), col.getTypeDescription()));
+                            + conn.getPlaceHolder(col,
+                                    oneRowChange.getColumnValue(row, i),
+                                    col.getTypeDescription()));
             }
             else if (mode == PrintMode.PLACE_HOLDER)
             {
-                stmt.append(conn.getPlaceHolder(col, colValues.get(i)
-                        .getValue(), col.getTypeDescription()));
+                stmt.append(conn.getPlaceHolder(col,
+                        oneRowChange.getColumnValue(row, i),
+                        col.getTypeDescription()));
             }
             else if (mode == PrintMode.NAMES_ONLY)
             {
@@ -484,20 +542,30 @@ public class JdbcApplier implements RawApplier
         return new Column(columnName, rs.getInt("DATA_TYPE"));
     }
 
+    /**
+     * Binds the key or column values of one row, reading them through the
+     * row change accessors so that columnar rows are not converted to lists.
+     * Key values are bound if keys is true, otherwise column values.
+     */
     protected int bindColumnValues(PreparedStatement prepStatement,
-            ArrayList<OneRowChange.ColumnVal> values, int startBindLoc,
-            ArrayList<OneRowChange.ColumnSpec> specs, boolean skipNulls)
-            throws SQLException
+            OneRowChange oneRowChange, int row, boolean keys,
+            int startBindLoc, ArrayList<OneRowChange.ColumnSpec> specs,
+            boolean skipNulls) throws SQLException
     {
         int bindLoc = startBindLoc; /*
                                      * prepared stmt variable index starts from
                                      * 1
                                      */
 
-        for (int idx = 0; idx < values.size(); idx++)
+        int valueCount = keys
+                ? oneRowChange.getKeyValueCount(row)
+                : oneRowChange.getColumnValueCount(row);
+        for (int idx = 0; idx < valueCount; idx++)
         {
-            OneRowChange.ColumnVal value = values.get(idx);
-            if (value.getValue() == null)
+            Object value = keys
+                    ? oneRowChange.getKeyValue(row, idx)
+                    : oneRowChange.getColumnValue(row, idx);
+            if (value == null)
             {
                 if (skipNulls)
                     continue;
@@ -512,12 +580,11 @@ public class JdbcApplier implements RawApplier
     }
 
     protected void setObject(PreparedStatement prepStatement, int bindLoc,
-            OneRowChange.ColumnVal value, ColumnSpec columnSpec)
-            throws SQLException
+            Object value, ColumnSpec columnSpec) throws SQLException
     {
         // By default, type is not used. If specific operations have to be done,
         // this should happen in specific classes (e.g. OracleApplier).
-        prepStatement.setObject(bindLoc, value.getValue());
+        prepStatement.setObject(bindLoc, value);
     }
 
     protected void applyRowIdData(RowIdData data) throws ReplicatorException
@@ -786,19 +853,20 @@ public class JdbcApplier implements RawApplier
      * @param tableName Table name to work on.
      * @param columns Columns to INSERT/UPDATE.
      * @param keys Columns to search on.
-     * @param keyValues Column values that are being searched for. Used for
-     *            identifying NULL values and constructing "x IS NULL" instead
-     *            of "x = NULL". May be null, in which case "x = NULL" is always
-     *            used.
+     * @param oneRowChange Row change holding the values of the row.
+     * @param row Index of the row. Its key values are used for identifying
+     *            NULL values and constructing "x IS NULL" instead of "x =
+     *            NULL". If the row change has no key values, "x = NULL" is
+     *            always used.
      * @return Constructed SQL statement with "?" instead of real values.
      */
     private StringBuffer constructStatement(RowChangeData.ActionType action,
             String schemaName, String tableName,
             ArrayList<OneRowChange.ColumnSpec> columns,
             ArrayList<OneRowChange.ColumnSpec> keys,
-            ArrayList<OneRowChange.ColumnVal> keyValues,
-            ArrayList<OneRowChange.ColumnVal> colValues)
+            OneRowChange oneRowChange, int row)
     {
+        boolean hasKeyValues = oneRowChange.getKeyRowCount() > 0;
         StringBuffer stmt = new StringBuffer();
         if (action == RowChangeData.ActionType.INSERT)
         {
@@ -806,11 +874,11 @@ public class JdbcApplier implements RawApplier
             stmt.append(conn.getDatabaseObjectName(schemaName) + "."
                     + conn.getDatabaseObjectName(tableName));
             stmt.append(" ( ");
-            printColumnSpec(stmt, columns, null, colValues,
+            printColumnSpec(stmt, columns, oneRowChange, row, false,
                     PrintMode.NAMES_ONLY, " , ");
             stmt.append(" ) ");
             stmt.append(" VALUES ( ");
-            printColumnSpec(stmt, columns, null, colValues,
+            printColumnSpec(stmt, columns, oneRowChange, row, false,
                     PrintMode.PLACE_HOLDER, " , ");
             stmt.append(" ) ");
         }
@@ -820,10 +888,10 @@ public class JdbcApplier implements RawApplier
             stmt.append(conn.getDatabaseObjectName(schemaName) + "."
                     + conn.getDatabaseObjectName(tableName));
             stmt.append(" SET ");
-            printColumnSpec(stmt, columns, null, colValues,
+            printColumnSpec(stmt, columns, oneRowChange, row, false,
                     PrintMode.ASSIGNMENT, " , ");
             stmt.append(" WHERE ");
-            printColumnSpec(stmt, keys, keyValues, colValues,
+            printColumnSpec(stmt, keys, oneRowChange, row, hasKeyValues,
                     PrintMode.ASSIGNMENT, " AND ");
         }
         else if (action == RowChangeData.ActionType.DELETE)
@@ -832,34 +900,33 @@ public class JdbcApplier implements RawApplier
             stmt.append(conn.getDatabaseObjectName(schemaName) + "."
                     + conn.getDatabaseObjectName(tableName));
             stmt.append(" WHERE ");
-            printColumnSpec(stmt, keys, keyValues, colValues,
+            printColumnSpec(stmt, keys, oneRowChange, row, hasKeyValues,
                     PrintMode.ASSIGNMENT, " AND ");
         }
         return stmt;
     }
 
     /**
-     * Compares current key values to the previous key values and determines
-     * whether null values changed. Eg. {1, 3, null} vs. {5, 2, null} returns
-     * false, but {1, 3, null} vs. {1, null, null} returns true.<br/>
-     * Size of both arrays must be the same.
+     * Compares key values of a row to those of the previous row and
+     * determines whether null values changed. Eg. {1, 3, null} vs. {5, 2,
+     * null} returns false, but {1, 3, null} vs. {1, null, null} returns
+     * true.
      * 
-     * @param currentKeyValues Current key values.
-     * @param previousKeyValues Previous key values.
-     * @return true, if positions of null values in currentKeyValues changed
-     *         compared to previousKeyValues.
+     * @param oneRowChange Row change holding the key values.
+     * @param row Index of the current row, which must be greater than zero.
+     * @return true, if positions of null values in the current row changed
+     *         compared to the previous row.
      */
-    private static boolean didNullKeysChange(
-            ArrayList<OneRowChange.ColumnVal> currentKeyValues,
-            ArrayList<OneRowChange.ColumnVal> previousKeyValues)
+    private static boolean didNullKeysChange(OneRowChange oneRowChange,
+            int row)
     {
-        for (int i = 0; i < currentKeyValues.size(); i++)
+        int keyCount = oneRowChange.getKeyValueCount(row);
+        for (int i = 0; i < keyCount; i++)
         {
-            if (previousKeyValues.get(i).getValue() == null
-                    || currentKeyValues.get(i).getValue() == null)
-                if (!(previousKeyValues.get(i).getValue() == null && currentKeyValues
-                        .get(i).getValue() == null))
-                    return true;
+            Object previous = oneRowChange.getKeyValue(row - 1, i);
+            Object current = oneRowChange.getKeyValue(row, i);
+            if ((previous == null) != (current == null))
+                return true;
         }
         return false;
     }
@@ -869,22 +936,20 @@ public class JdbcApplier implements RawApplier
      * NULL/NON-NULL pattern from values of current row AND for the given
      * connection than difference matters.
      */
-    private boolean didNullColsChange(
-            ArrayList<OneRowChange.ColumnSpec> colSpecs,
-            ArrayList<OneRowChange.ColumnVal> currentColValues,
-            ArrayList<OneRowChange.ColumnVal> previousColValues)
+    private boolean didNullColsChange(OneRowChange oneRowChange, int row)
     {
         if (!conn.nullsEverBoundDifferently())
             return false;
-        for (int i = 0; i < currentColValues.size(); i++)
+        ArrayList<OneRowChange.ColumnSpec> colSpecs = oneRowChange
+                .getColumnSpec();
+        int colCount = oneRowChange.getColumnValueCount(row);
+        for (int i = 0; i < colCount; i++)
         {
             if (conn.nullsBoundDifferently(colSpecs.get(i)))
             {
-                if (previousColValues.get(i).getValue() == null
-                        && currentColValues.get(i).getValue() != null)
-                    return true;
-                if (previousColValues.get(i).getValue() != null
-                        && currentColValues.get(i).getValue() == null)
+                Object previous = oneRowChange.getColumnValue(row - 1, i);
+                Object current = oneRowChange.getColumnValue(row, i);
+                if ((previous == null) != (current == null))
                     return true;
             }
 
@@ -892,27 +957,103 @@ public class JdbcApplier implements RawApplier
         return false;
     }
 
-    protected boolean needNewSQLStatement(int row,
-            ArrayList<ArrayList<OneRowChange.ColumnVal>> keyValues,
-            ArrayList<OneRowChange.ColumnSpec> keySpecs,
-            ArrayList<ArrayList<OneRowChange.ColumnVal>> colValues,
-            ArrayList<OneRowChange.ColumnSpec> colSpecs)
+    /**
+     * Returns true if a row cannot use the statement of the previous row
+     * because the NULL pattern of its key values or, where it matters to the
+     * connection, of its column values differs.
+     */
+    protected boolean needNewSQLStatement(OneRowChange oneRowChange, int row)
     {
-        if (keyValues.size() > row
-                && didNullKeysChange(keyValues.get(row), keyValues.get(row - 1)))
+        if (oneRowChange.getKeyRowCount() > row
+                && didNullKeysChange(oneRowChange, row))
             return true;
-        if (colValues.size() > row
-                && didNullColsChange(colSpecs, colValues.get(row),
-                        colValues.get(row - 1)))
+        if (oneRowChange.getColumnRowCount() > row
+                && didNullColsChange(oneRowChange, row))
             return true;
         return false;
     }
 
+    // Generate the prepared statement cache key prefix for a table.
+    private String generateStatementKeyPrefix(String schemaName,
+            String tableName)
+    {
+        return schemaName + "." + tableName + ";";
+    }
+
+    /**
+     * Returns a prepared statement for row changes on a table, reusing one
+     * from the prepared statement cache if it is enabled. Statements are
+     * keyed by their SQL text, which reflects the action, column names and
+     * NULL pattern of keys as well as any DBMS-specific placeholders.
+     */
+    protected PreparedStatement prepareRowChangeStatement(String schemaName,
+            String tableName, String sql) throws SQLException
+    {
+        return prepareCachedStatement(preparedStatementCache, schemaName,
+                tableName, sql);
+    }
+
+    /**
+     * Releases a prepared statement obtained from
+     * {@link #prepareRowChangeStatement(String, String, String)}. Cached
+     * statements stay open unless the statement failed, in which case we drop
+     * it from the cache so that it is prepared afresh next time.
+     */
+    protected void releaseRowChangeStatement(String schemaName,
+            String tableName, String sql, PreparedStatement prepStatement,
+            boolean failed)
+    {
+        releaseCachedStatement(preparedStatementCache, schemaName, tableName,
+                sql, prepStatement, failed);
+    }
+
+    // Returns a prepared statement from the given cache, preparing and
+    // storing it if missing. A null cache prepares a new statement.
+    private PreparedStatement prepareCachedStatement(
+            PreparedStatementCache cache, String schemaName, String tableName,
+            String sql) throws SQLException
+    {
+        if (cache == null)
+            return conn.prepareStatement(sql);
+
+        String key = generateStatementKeyPrefix(schemaName, tableName) + sql;
+        PreparedStatement prepStatement = cache.retrieve(key);
+        if (prepStatement == null)
+        {
+            prepStatement = conn.prepareStatement(sql);
+            cache.store(key, prepStatement, sql);
+        }
+        else
+            prepStatement.clearParameters();
+        return prepStatement;
+    }
+
+    // Releases a statement from prepareCachedStatement(), closing it if there
+    // is no cache and dropping it from the cache if it failed.
+    private void releaseCachedStatement(PreparedStatementCache cache,
+            String schemaName, String tableName, String sql,
+            PreparedStatement prepStatement, boolean failed)
+    {
+        if (cache == null)
+        {
+            try
+            {
+                prepStatement.close();
+            }
+            catch (SQLException ignore)
+            {
+            }
+        }
+        else if (failed)
+        {
+            cache.invalidate(generateStatementKeyPrefix(schemaName, tableName)
+                    + sql);
+        }
+    }
+
     protected void applyOneRowChangePrepared(OneRowChange oneRowChange)
             throws ReplicatorException
     {
-        PreparedStatement prepStatement = null;
-
         try
         {
             if (getColumnInformationFromDB)
@@ -937,75 +1078,123 @@ public class JdbcApplier implements RawApplier
 
         try
         {
-            ArrayList<ArrayList<OneRowChange.ColumnVal>> keyValues = oneRowChange
-                    .getKeyValues();
-            ArrayList<ArrayList<OneRowChange.ColumnVal>> columnValues = oneRowChange
-                    .getColumnValues();
+            int columnRowCount = oneRowChange.getColumnRowCount();
             int updateCount = 0;
 
+            int rowCount = Math.max(columnRowCount,
+                    oneRowChange.getKeyRowCount());
             int row = 0;
-            for (row = 0; row < columnValues.size() || row < keyValues.size(); row++)
+            while (row < rowCount)
             {
-                if (row == 0
-                        || needNewSQLStatement(row, keyValues, key,
-                                columnValues, columns))
+                // Find the run of rows that can share a statement with this
+                // one.
+                int runEnd = row + 1;
+                while (runEnd < rowCount
+                        && !needNewSQLStatement(oneRowChange, runEnd))
                 {
-                    ArrayList<OneRowChange.ColumnVal> keyValuesOfThisRow = null;
-                    if (keyValues.size() > 0)
-                        keyValuesOfThisRow = keyValues.get(row);
-
-                    // Construct separate SQL for every row, because there might
-                    // be NULLs in keys in which case SQL is different
-                    // (TREP-276).
-                    ArrayList<OneRowChange.ColumnVal> colValuesOfThisRow = null;
-                    if (columnValues.size() > 0)
-                        colValuesOfThisRow = columnValues.get(row);
-
-                    stmt = constructStatement(oneRowChange.getAction(),
-                            oneRowChange.getSchemaName(),
-                            oneRowChange.getTableName(), columns, key,
-                            keyValuesOfThisRow, colValuesOfThisRow);
-
-                    runtime.getMonitor().incrementEvents(columnValues.size());
-                    prepStatement = conn.prepareStatement(stmt.toString());
+                    runEnd++;
                 }
 
-                int bindLoc = 1; /* Start binding at index 1 */
+                // Construct separate SQL for every row, because there might
+                // be NULLs in keys in which case SQL is different
+                // (TREP-276).
+                stmt = constructStatement(oneRowChange.getAction(),
+                        oneRowChange.getSchemaName(),
+                        oneRowChange.getTableName(), columns, key,
+                        oneRowChange, row);
 
-                /* bind column values */
-                if (columnValues.size() > 0)
+                runtime.getMonitor().incrementEvents(columnRowCount);
+
+                // Apply the run, coalescing inserts if enabled.
+                if (multiRowInsertMaxBytes > 0
+                        && oneRowChange.getAction() == RowChangeData.ActionType.INSERT
+                        && runEnd - row > 1)
                 {
-                    bindLoc = bindColumnValues(prepStatement,
-                            columnValues.get(row), bindLoc, columns, false);
+                    updateCount += executeMultiRowInsert(oneRowChange, stmt,
+                            row, runEnd);
                 }
-                /* bind key values */
-                if (keyValues.size() > 0)
+                else
                 {
-                    bindLoc = bindColumnValues(prepStatement,
-                            keyValues.get(row), bindLoc, key, true);
+                    updateCount += executeRowChangeRows(oneRowChange, stmt,
+                            row, runEnd);
                 }
+                row = runEnd;
+            }
+
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Applied event (update count " + updateCount
+                        + "): " + stmt.toString());
+            }
+        }
+        catch (SQLException e)
+        {
+            ApplierException applierException = new ApplierException(e);
+            applierException.setExtraData(logFailedRowChangeSQL(stmt,
+                    oneRowChange));
+            throw applierException;
+        }
+    }
 
+    /**
+     * Executes rows of a row change that share the same statement, either one
+     * at a time or in JDBC batches of up to rowBatchSize rows.
+     * 
+     * @param oneRowChange Row change containing the rows
+     * @param stmt Statement to execute for each row
+     * @param first Index of first row to execute
+     * @param last Index after the last row to execute
+     * @return Total number of rows updated, not counting rows for which the
+     *         driver does not report a count
+     */
+    private int executeRowChangeRows(OneRowChange oneRowChange,
+            StringBuffer stmt, int first, int last) throws SQLException,
+            ReplicatorException
+    {
+        String sqlText = stmt.toString();
+        PreparedStatement prepStatement = prepareRowChangeStatement(
+                oneRowChange.getSchemaName(), oneRowChange.getTableName(),
+                sqlText);
+        boolean failed = true;
+        int updateCount = 0;
+        int batchSize = Math.max(1, rowBatchSize);
+
+        try
+        {
+            for (int row = first; row < last; row += batchSize)
+            {
+                int batchEnd = Math.min(last, row + batchSize);
                 try
                 {
-                    int oneChangeCount = prepStatement.executeUpdate();
-                    if (oneChangeCount == 0)
+                    if (batchEnd - row == 1)
+                    {
+                        bindRowValues(prepStatement, oneRowChange, row, 1);
+                        int oneChangeCount = prepStatement.executeUpdate();
+                        checkRowUpdateCount(oneChangeCount, stmt,
+                                oneRowChange, row);
+                        updateCount += oneChangeCount;
+                    }
+                    else
                     {
-                        if (runtime.getApplierFailurePolicyOn0RowUpdates() == FailurePolicy.WARN)
-                            logger.warn("UPDATE or DELETE statement did not process any row"
-                                    + logFailedRowChangeSQL(stmt, oneRowChange,
-                                            row));
-                        else if (runtime.getApplierFailurePolicyOn0RowUpdates() == FailurePolicy.STOP)
+                        for (int batchRow = row; batchRow < batchEnd; batchRow++)
+                        {
+                            bindRowValues(prepStatement, oneRowChange,
+                                    batchRow, 1);
+                            prepStatement.addBatch();
+                        }
+                        int[] changeCounts = prepStatement.executeBatch();
+                        for (int i = 0; i < changeCounts.length; i++)
                         {
-                            ReplicatorException replicatorException = new ReplicatorException(
-                                    "UPDATE or DELETE statement did not process any row");
-                            replicatorException
-                                    .setExtraData(logFailedRowChangeSQL(stmt,
-                                            oneRowChange, row));
-                            throw replicatorException;
+                            // Drivers may return SUCCESS_NO_INFO, in which
+                            // case we cannot check the row.
+                            if (changeCounts[i] >= 0)
+                            {
+                                checkRowUpdateCount(changeCounts[i], stmt,
+                                        oneRowChange, row + i);
+                                updateCount += changeCounts[i];
+                            }
                         }
-                        // else IGNORE
                     }
-                    updateCount += oneChangeCount;
                 }
                 catch (SQLWarning e)
                 {
@@ -1014,32 +1203,179 @@ public class JdbcApplier implements RawApplier
                     logger.warn(msg);
                 }
             }
-
-            if (logger.isDebugEnabled())
-            {
-                logger.debug("Applied event (update count " + updateCount
-                        + "): " + stmt.toString());
-            }
+            failed = false;
         }
-        catch (SQLException e)
+        finally
         {
-            ApplierException applierException = new ApplierException(e);
-            applierException.setExtraData(logFailedRowChangeSQL(stmt,
-                    oneRowChange));
-            throw applierException;
+            releaseRowChangeStatement(oneRowChange.getSchemaName(),
+                    oneRowChange.getTableName(), sqlText, prepStatement, failed);
         }
-        finally
+        return updateCount;
+    }
+
+    /**
+     * Executes a run of inserted rows as multi-row INSERT statements whose
+     * bound values are at most multiRowInsertMaxBytes each.
+     * 
+     * @param oneRowChange Row change containing the rows
+     * @param stmt Single-row INSERT statement for the first row
+     * @param first Index of first row to insert
+     * @param last Index after the last row to insert
+     * @return Total number of rows inserted
+     */
+    private int executeMultiRowInsert(OneRowChange oneRowChange,
+            StringBuffer stmt, int first, int last) throws SQLException,
+            ReplicatorException
+    {
+        ArrayList<OneRowChange.ColumnSpec> columns = oneRowChange
+                .getColumnSpec();
+
+        // Keep the number of placeholders within limits that all drivers
+        // accept.
+        int maxRows = Math.max(1,
+                MAX_STATEMENT_PLACEHOLDERS / Math.max(1, columns.size()));
+
+        int updateCount = 0;
+        int row = first;
+        while (row < last)
         {
-            if (prepStatement != null)
+            // Add rows until we reach the byte limit, always taking at least
+            // one.
+            int end = row + 1;
+            long bytes = estimateRowBytes(oneRowChange, row);
+            while (end < last && end - row < maxRows)
             {
+                long rowBytes = estimateRowBytes(oneRowChange, end);
+                if (bytes + rowBytes > multiRowInsertMaxBytes)
+                    break;
+                bytes += rowBytes;
+                end++;
+            }
+
+            if (end - row == 1)
+            {
+                updateCount += executeRowChangeRows(oneRowChange, stmt, row,
+                        end);
+            }
+            else
+            {
+                // Generate a statement with one VALUES list per row.
+                StringBuffer multiStmt = new StringBuffer();
+                multiStmt.append("INSERT INTO ");
+                multiStmt.append(conn.getDatabaseObjectName(oneRowChange
+                        .getSchemaName())
+                        + "."
+                        + conn.getDatabaseObjectName(oneRowChange
+                                .getTableName()));
+                multiStmt.append(" ( ");
+                printColumnSpec(multiStmt, columns, oneRowChange, row, false,
+                        PrintMode.NAMES_ONLY, " , ");
+                multiStmt.append(" ) ");
+                multiStmt.append(" VALUES ");
+                for (int valuesRow = row; valuesRow < end; valuesRow++)
+                {
+                    if (valuesRow > row)
+                        multiStmt.append(" , ");
+                    multiStmt.append("( ");
+                    printColumnSpec(multiStmt, columns, oneRowChange,
+                            valuesRow, false, PrintMode.PLACE_HOLDER, " , ");
+                    multiStmt.append(" ) ");
+                }
+
+                String sqlText = multiStmt.toString();
+                PreparedStatement prepStatement = prepareCachedStatement(
+                        multiRowStatementCache, oneRowChange.getSchemaName(),
+                        oneRowChange.getTableName(), sqlText);
+                boolean failed = true;
                 try
                 {
-                    prepStatement.close();
+                    int bindLoc = 1;
+                    for (int valuesRow = row; valuesRow < end; valuesRow++)
+                    {
+                        bindLoc = bindRowValues(prepStatement, oneRowChange,
+                                valuesRow, bindLoc);
+                    }
+                    updateCount += prepStatement.executeUpdate();
+                    failed = false;
                 }
-                catch (SQLException ignore)
+                catch (SQLWarning e)
+                {
+                    String msg = "While applying SQL event:\n" + sqlText
+                            + "\nWarning: " + e.getMessage();
+                    logger.warn(msg);
+                    failed = false;
+                }
+                finally
                 {
+                    releaseCachedStatement(multiRowStatementCache,
+                            oneRowChange.getSchemaName(),
+                            oneRowChange.getTableName(), sqlText,
+                            prepStatement, failed);
                 }
             }
+            row = end;
+        }
+        return updateCount;
+    }
+
+    // Estimate the number of bytes a row will send to the server.
+    private long estimateRowBytes(OneRowChange oneRowChange, int row)
+    {
+        long bytes = 0;
+        int colCount = oneRowChange.getColumnValueCount(row);
+        for (int i = 0; i < colCount; i++)
+        {
+            Object o = oneRowChange.getColumnValue(row, i);
+            if (o instanceof String)
+                bytes += ((String) o).length();
+            else if (o instanceof byte[])
+                bytes += ((byte[]) o).length;
+            else
+                bytes += 8;
+        }
+        return bytes;
+    }
+
+    // Bind column values followed by key values for a single row, returning
+    // the next bind location.
+    private int bindRowValues(PreparedStatement prepStatement,
+            OneRowChange oneRowChange, int row, int bindLoc)
+            throws SQLException
+    {
+        /* bind column values */
+        if (oneRowChange.getColumnRowCount() > 0)
+        {
+            bindLoc = bindColumnValues(prepStatement, oneRowChange, row,
+                    false, bindLoc, oneRowChange.getColumnSpec(), false);
+        }
+        /* bind key values */
+        if (oneRowChange.getKeyRowCount() > 0)
+        {
+            bindLoc = bindColumnValues(prepStatement, oneRowChange, row, true,
+                    bindLoc, oneRowChange.getKeySpec(), true);
+        }
+        return bindLoc;
+    }
+
+    // Apply the failure policy for UPDATE or DELETE statements that do not
+    // process any row.
+    private void checkRowUpdateCount(int changeCount, StringBuffer stmt,
+            OneRowChange oneRowChange, int row) throws ReplicatorException
+    {
+        if (changeCount == 0)
+        {
+            if (runtime.getApplierFailurePolicyOn0RowUpdates() == FailurePolicy.WARN)
+                logger.warn("UPDATE or DELETE statement did not process any row"
+                        + logFailedRowChangeSQL(stmt, oneRowChange, row));
+            else if (runtime.getApplierFailurePolicyOn0RowUpdates() == FailurePolicy.STOP)
+            {
+                ReplicatorException replicatorException = new ReplicatorException(
+                        "UPDATE or DELETE statement did not process any row");
+                replicatorException.setExtraData(logFailedRowChangeSQL(stmt,
+                        oneRowChange, row));
+                throw replicatorException;
+            }
+            // else IGNORE
         }
     }
 
@@ -1729,6 +2065,34 @@ public class JdbcApplier implements RawApplier
 
             tableMetadataCache = new TableMetadataCache(5000);
 
+            // Set up the prepared statement cache. Statements for a table are
+            // dropped whenever its metadata is dropped, e.g., due to DDL.
+            if (preparedStatementCacheSize > 0)
+            {
+                preparedStatementCache = new PreparedStatementCache(
+                        preparedStatementCacheSize);
+                multiRowStatementCache = new PreparedStatementCache(
+                        MULTI_ROW_CACHE_SIZE);
+                tableMetadataCache
+                        .setReleaseListener(new CacheResourceManager<Table>()
+                        {
+                            public void release(Table metadata)
+                            {
+                                String prefix = generateStatementKeyPrefix(
+                                        metadata.getSchema(),
+                                        metadata.getName());
+                                int invalidated = preparedStatementCache
+                                        .invalidateByPrefix(prefix)
+                                        + multiRowStatementCache
+                                                .invalidateByPrefix(prefix);
+                                if (invalidated > 0 && logger.isDebugEnabled())
+                                    logger.debug("Prepared statement invalidation: table="
+                                            + metadata.fullyQualifiedName()
+                                            + " invalidated=" + invalidated);
+                            }
+                        });
+            }
+
             // Set up heartbeat table.
             heartbeatTable = createHeartbeatTable(context);
             heartbeatTable.initializeHeartbeatTable(conn);
@@ -1797,16 +2161,26 @@ public class JdbcApplier implements RawApplier
         currentOptions = null;
 
         statement = null;
-        if (conn != null)
-        {
-            conn.close();
-            conn = null;
-        }
-
         if (tableMetadataCache != null)
         {
             tableMetadataCache.invalidateAll();
             tableMetadataCache = null;
         }
+        if (preparedStatementCache != null)
+        {
+            preparedStatementCache.invalidateAll();
+            preparedStatementCache = null;
+        }
+        if (multiRowStatementCache != null)
+        {
+            multiRowStatementCache.invalidateAll();
+            multiRowStatementCache = null;
+        }
+
+        if (conn != null)
+        {
+            conn.close();
+            conn = null;
+        }
     }
 }
@@ -39,7 +39,6 @@ import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.database.Column;
 import com.continuent.tungsten.replicator.dbms.LoadDataFileQuery;
 import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
-import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
 import com.continuent.tungsten.replicator.dbms.RowIdData;
 import com.continuent.tungsten.replicator.event.ReplOption;
 import com.continuent.tungsten.replicator.extractor.mysql.SerialBlob;
@@ -197,21 +196,21 @@ public class MySQLApplier extends JdbcApplier
      * {@inheritDoc}
      * 
      * @see com.continuent.tungsten.replicator.applier.JdbcApplier#setObject(java.sql.PreparedStatement,
-     *      int, com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal,
+     *      int, java.lang.Object,
      *      com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec)
      */
     @Override
     protected void setObject(PreparedStatement prepStatement, int bindLoc,
-            ColumnVal value, ColumnSpec columnSpec) throws SQLException
+            Object value, ColumnSpec columnSpec) throws SQLException
     {
 
         int type = columnSpec.getType();
         
-        if (type == Types.TIMESTAMP && value.getValue() instanceof Integer)
+        if (type == Types.TIMESTAMP && value instanceof Integer)
         {
             prepStatement.setInt(bindLoc, 0);
         }
-        else if (type == Types.DATE && value.getValue() instanceof Integer)
+        else if (type == Types.DATE && value instanceof Integer)
         {
             prepStatement.setInt(bindLoc, 0);
         }
@@ -220,15 +219,15 @@ public class MySQLApplier extends JdbcApplier
             boolean isNegative = false;
             Object valToInsert = null;
             Long extractedVal = null;
-            if (value.getValue() instanceof Integer)
+            if (value instanceof Integer)
             {
-                int val = (Integer) value.getValue();
+                int val = (Integer) value;
                 isNegative = val < 0;
                 extractedVal = Long.valueOf(val);
             }
-            else if (value.getValue() instanceof Long)
+            else if (value instanceof Long)
             {
-                long val = (Long) value.getValue();
+                long val = (Long) value;
                 isNegative = val < 0;
                 extractedVal = Long.valueOf(val);
             }
@@ -261,17 +260,17 @@ public class MySQLApplier extends JdbcApplier
                 setInteger(prepStatement, bindLoc, valToInsert);
             }
             else
-                prepStatement.setObject(bindLoc, value.getValue());
+                prepStatement.setObject(bindLoc, value);
         }
         else if (type == java.sql.Types.BLOB
-                && value.getValue() instanceof SerialBlob)
+                && value instanceof SerialBlob)
         {
-            SerialBlob val = (SerialBlob) value.getValue();
+            SerialBlob val = (SerialBlob) value;
             prepStatement
                     .setBytes(bindLoc, val.getBytes(1, (int) val.length()));
         }
         else
-            prepStatement.setObject(bindLoc, value.getValue());
+            prepStatement.setObject(bindLoc, value);
     }
 
     protected void setInteger(PreparedStatement prepStatement, int bindLoc,
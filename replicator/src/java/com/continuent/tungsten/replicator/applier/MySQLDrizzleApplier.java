@@ -41,7 +41,6 @@ import org.drizzle.jdbc.DrizzleStatement;
 import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.dbms.LoadDataFileQuery;
 import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
-import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
 import com.continuent.tungsten.replicator.dbms.StatementData;
 import com.continuent.tungsten.replicator.event.ReplOption;
 import com.continuent.tungsten.replicator.extractor.mysql.SerialBlob;
@@ -274,51 +273,51 @@ public class MySQLDrizzleApplier extends MySQLApplier
 
     @Override
     protected void setObject(PreparedStatement prepStatement, int bindLoc,
-            ColumnVal value, ColumnSpec columnSpec) throws SQLException
+            Object value, ColumnSpec columnSpec) throws SQLException
     {
-        if (value.getValue() == null)
+        if (value == null)
         {
             super.setObject(prepStatement, bindLoc, value, columnSpec);
         }
         else if (columnSpec.getType() == Types.TIME)
         {
-            Time t = (Time) value.getValue();
+            Time t = (Time) value;
             prepStatement.setString(bindLoc, t.toString());
         }
         else if (columnSpec.getType() == Types.DOUBLE)
         {
-            BigDecimal dec = new BigDecimal((Double) value.getValue());
+            BigDecimal dec = new BigDecimal((Double) value);
             prepStatement.setBigDecimal(bindLoc, dec);
         }
         else if (columnSpec.getType() == Types.FLOAT)
         {
-            BigDecimal dec = new BigDecimal((Float) value.getValue());
+            BigDecimal dec = new BigDecimal((Float) value);
             prepStatement.setBigDecimal(bindLoc, dec);
         }
         else if (columnSpec.getType() == Types.VARCHAR
-                && value.getValue() instanceof byte[])
+                && value instanceof byte[])
         {
-            int length = ((byte[]) value.getValue()).length;
+            int length = ((byte[]) value).length;
 
             if (columnSpec.getTypeDescription().startsWith("BINARY")
                     && length < columnSpec.getLength())
             {
                 ByteBuffer bb = ByteBuffer.allocate(columnSpec.getLength());
-                bb.put((byte[]) value.getValue());
+                bb.put((byte[]) value);
                 for (int i = 0; length + i < columnSpec.getLength(); i++)
                     bb.put("\0".getBytes());
                 prepStatement.setString(bindLoc, hexdump(bb.array()));
             }
             else
                 prepStatement.setString(bindLoc,
-                        hexdump((byte[]) value.getValue()));
+                        hexdump((byte[]) value));
         }
         else if (columnSpec.getType() == Types.BLOB
-                && value.getValue() instanceof SerialBlob
+                && value instanceof SerialBlob
                 && columnSpec.getTypeDescription() != null
                 && columnSpec.getTypeDescription().contains("TEXT"))
         {
-            SerialBlob val = (SerialBlob) value.getValue();
+            SerialBlob val = (SerialBlob) value;
             byte[] bytes = val.getBytes(1, (int) val.length());
             prepStatement.setString(bindLoc, hexdump(bytes));
         }
@@ -41,7 +41,6 @@ import com.continuent.tungsten.replicator.database.DBMS;
 import com.continuent.tungsten.replicator.database.AdditionalTypes;
 import com.continuent.tungsten.replicator.database.JdbcURL;
 import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
-import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
 import com.continuent.tungsten.replicator.extractor.mysql.SerialBlob;
 import com.continuent.tungsten.replicator.plugin.PluginContext;
 
@@ -130,41 +129,41 @@ public class OracleApplier extends JdbcApplier
      * {@inheritDoc}
      * 
      * @see com.continuent.tungsten.replicator.applier.JdbcApplier#setObject(java.sql.PreparedStatement,
-     *      int, com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal,
+     *      int, java.lang.Object,
      *      com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec)
      */
     @Override
     protected void setObject(PreparedStatement prepStatement, int bindLoc,
-            ColumnVal value, ColumnSpec columnSpec) throws SQLException
+            Object value, ColumnSpec columnSpec) throws SQLException
     {
         int type = columnSpec.getType();
         try
         {
-            if (value.getValue() == null)
+            if (value == null)
                 prepStatement.setObject(bindLoc, null);
                 /*prepStatement.setNull(bindLoc, type);
             else if (type == Types.FLOAT)
                 ((OraclePreparedStatement) prepStatement).setBinaryFloat(
-                        bindLoc, ((Float) value.getValue()).floatValue());
+                        bindLoc, ((Float) value).floatValue());
             else if (type == Types.DOUBLE)
                 ((OraclePreparedStatement) prepStatement).setBinaryDouble(
-                        bindLoc, ((Double) value.getValue()).doubleValue());*/
+                        bindLoc, ((Double) value).doubleValue());*/
             else if (type == AdditionalTypes.XML)
             {
-                CLOB clob = getCLOB((String) (value.getValue()));
+                CLOB clob = getCLOB((String) value);
                 ((OraclePreparedStatement) prepStatement).setObject(bindLoc,
                         clob);
             }
             else if (type == Types.DATE
-                    && !(value.getValue() instanceof java.sql.Date))
+                    && !(value instanceof java.sql.Date))
             { // TENT-311 - no conversion is needed if the underlying value is
               // Date.
-                Timestamp ts = new Timestamp((Long) (value.getValue()));
+                Timestamp ts = new Timestamp((Long) value);
                 ((OraclePreparedStatement) prepStatement)
                         .setObject(bindLoc, ts);
             }
             else if (type == Types.BLOB
-                    || (type == Types.NULL && value.getValue() instanceof SerialBlob))
+                    || (type == Types.NULL && value instanceof SerialBlob))
             { // ______^______
               // Blob in the incoming event masked as NULL,
               // though this happens with a non-NULL value!
@@ -172,7 +171,7 @@ public class OracleApplier extends JdbcApplier
               // TODO: investigate why isn't the column of Types.BLOB as
               // expected (related to TENT-323?).
 
-                SerialBlob blob = (SerialBlob) value.getValue();
+                SerialBlob blob = (SerialBlob) value;
 
                 if (columnSpec.isBlob())
                 {
@@ -196,7 +195,7 @@ public class OracleApplier extends JdbcApplier
                 }
             }
             else
-                prepStatement.setObject(bindLoc, value.getValue());
+                prepStatement.setObject(bindLoc, value);
         }
         catch (SQLException e)
         {
@@ -34,7 +34,6 @@ import com.continuent.tungsten.replicator.database.Column;
 import com.continuent.tungsten.replicator.database.DBMS;
 import com.continuent.tungsten.replicator.database.JdbcURL;
 import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
-import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
 import com.continuent.tungsten.replicator.extractor.mysql.SerialBlob;
 import com.continuent.tungsten.replicator.plugin.PluginContext;
 
@@ -79,22 +78,22 @@ public class PostgreSQLApplier extends JdbcApplier
      * {@inheritDoc}
      * 
      * @see com.continuent.tungsten.replicator.applier.JdbcApplier#setObject(java.sql.PreparedStatement,
-     *      int, com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal,
+     *      int, java.lang.Object,
      *      com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec)
      */
     @Override
     protected void setObject(PreparedStatement prepStatement, int bindLoc,
-            ColumnVal value, ColumnSpec columnSpec) throws SQLException
+            Object value, ColumnSpec columnSpec) throws SQLException
     {
         if (columnSpec.getType() == Types.BLOB && columnSpec.isBlob())
         {
             // Handle data as blob only if a blob is expected
-            SerialBlob blob = (SerialBlob) value.getValue();
+            SerialBlob blob = (SerialBlob) value;
             prepStatement.setBytes(bindLoc,
                     blob.getBytes(1, (int) blob.length()));
         }
         else
-            prepStatement.setObject(bindLoc, value.getValue());
+            prepStatement.setObject(bindLoc, value);
     }
 
     @Override
@@ -28,6 +28,7 @@ import java.sql.Statement;
 import org.apache.log4j.Logger;
 
 import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.database.Database;
 import com.continuent.tungsten.replicator.database.Table;
 
 /**
@@ -43,10 +44,13 @@ public class InfiniDBBatchApplier extends SimpleBatchApplier
      * Needs to be done in a transaction, otherwise cpimport will be unable to
      * get the lock on the stage table !
      * 
+     * @param connection Connection on which to clear the table
+     * @param statement Statement for the connection (unused)
      * @param info
      * @throws ReplicatorException
      */
-    protected void clearStageTable(CsvInfo info) throws ReplicatorException
+    protected void clearStageTable(Database connection, Statement statement,
+            CsvInfo info) throws ReplicatorException
     {
         Statement tmpStatement = null;
 
@@ -65,11 +69,11 @@ public class InfiniDBBatchApplier extends SimpleBatchApplier
         }
         try
         {
-            tmpStatement = conn.createStatement();
-            conn.setAutoCommit(false);
+            tmpStatement = connection.createStatement();
+            connection.setAutoCommit(false);
             int rowsLoaded = tmpStatement.executeUpdate(delete);
-            conn.commit();
-            conn.setAutoCommit(true);
+            connection.commit();
+            connection.setAutoCommit(true);
             if (logger.isDebugEnabled())
             {
                 logger.debug("Rows deleted: " + rowsLoaded);
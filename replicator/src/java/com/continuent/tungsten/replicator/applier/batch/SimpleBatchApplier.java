@@ -37,11 +37,19 @@ import java.sql.Types;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
 import javax.sql.rowset.serial.SerialException;
@@ -61,11 +69,11 @@ import com.continuent.tungsten.replicator.database.Key;
 import com.continuent.tungsten.replicator.database.SqlScriptGenerator;
 import com.continuent.tungsten.replicator.database.Table;
 import com.continuent.tungsten.replicator.database.TableMetadataCache;
+import com.continuent.tungsten.replicator.dbms.ColumnarRowSet;
 import com.continuent.tungsten.replicator.dbms.DBMSData;
 import com.continuent.tungsten.replicator.dbms.LoadDataFileFragment;
 import com.continuent.tungsten.replicator.dbms.OneRowChange;
 import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
-import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
 import com.continuent.tungsten.replicator.dbms.RowChangeData;
 import com.continuent.tungsten.replicator.dbms.RowChangeData.ActionType;
 import com.continuent.tungsten.replicator.dbms.RowIdData;
@@ -118,6 +126,8 @@ public class SimpleBatchApplier implements RawApplier
     protected String                    timezone             = "GMT-0:00";
     protected LoadMismatch              onLoadMismatch       = LoadMismatch.fail;
     protected boolean                   showCommands;
+    protected int                       parallelism          = 1;
+    protected boolean                   idempotentMerge      = false;
 
     // Load file directory for this task.
     private File                        stageDir;
@@ -131,6 +141,14 @@ public class SimpleBatchApplier implements RawApplier
     // Script executor.
     private ScriptExecutor              scriptExec;
 
+    // Connections used to load and merge tables in parallel at commit time.
+    // The first entry always wraps the main connection.
+    private List<MergeConnection>       mergeConnections     = new ArrayList<MergeConnection>();
+    private ExecutorService             mergePool;
+
+    // Load and merge timings by table.
+    private final ConcurrentHashMap<String, MergeTime> mergeTimes = new ConcurrentHashMap<String, MergeTime>();
+
     // Latest event.
     private ReplDBMSHeader              latestHeader;
 
@@ -152,6 +170,11 @@ public class SimpleBatchApplier implements RawApplier
     // Data formatter.
     protected volatile SimpleDateFormat dateFormatter;
 
+    // Formatted date up to the seconds for the most recently formatted
+    // second, which lets most date values skip the formatter.
+    private long                        lastFormattedSecond  = Long.MIN_VALUE;
+    private String                      lastFormattedPrefix;
+
     public void setDriver(String driver)
     {
         this.driver = driver;
@@ -243,6 +266,31 @@ public class SimpleBatchApplier implements RawApplier
         this.showCommands = showCommands;
     }
 
+    /**
+     * Sets the number of connections used to load and merge tables at commit
+     * time. Values above 1 open additional connections and merge independent
+     * tables concurrently. A failure while loading or merging rolls back every
+     * connection. Worker connections commit just before the main connection,
+     * which holds the trep_commit_seqno update, so a failure between those
+     * commits replays the block over tables that are already merged. Values
+     * above 1 are therefore only accepted if idempotentMerge is set.
+     */
+    public void setParallelism(int parallelism)
+    {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * If set to true, declares that the merge script may be applied again to
+     * tables that already contain the merged block, for example because it
+     * deletes every staged key before inserting, as the REPLACE in
+     * mysql-merge.sql does. Required for parallelism above 1.
+     */
+    public void setIdempotentMerge(boolean idempotentMerge)
+    {
+        this.idempotentMerge = idempotentMerge;
+    }
+
     /**
      * Applies row updates using a batch loading scheme. Statements are
      * discarded. {@inheritDoc}
@@ -324,8 +372,6 @@ public class SimpleBatchApplier implements RawApplier
                     {
                         // Fetch column names and values.
                         List<ColumnSpec> colSpecs = orc.getColumnSpec();
-                        ArrayList<ArrayList<ColumnVal>> colValues = orc
-                                .getColumnValues();
                         // PK should be put in here by the PrimaryKeyFilter.
                         List<ColumnSpec> keySpecs = orc.getKeySpec();
 
@@ -334,7 +380,7 @@ public class SimpleBatchApplier implements RawApplier
                                 table, colSpecs, keySpecs);
 
                         // Insert each column into the CSV file.
-                        writeValues(seqno, tableMetadata, colSpecs, colValues,
+                        writeValues(seqno, tableMetadata, colSpecs, orc, false,
                                 INSERT);
                     }
                     else if (action.equals(ActionType.UPDATE))
@@ -342,19 +388,15 @@ public class SimpleBatchApplier implements RawApplier
                         // Fetch column names and values.
                         List<ColumnSpec> keySpecs = orc.getKeySpec();
                         List<ColumnSpec> colSpecs = orc.getColumnSpec();
-                        ArrayList<ArrayList<ColumnVal>> keyValues = orc
-                                .getKeyValues();
-                        ArrayList<ArrayList<ColumnVal>> colValues = orc
-                                .getColumnValues();
 
                         // Get information the table definition.
                         Table tableMetadata = this.getTableMetadata(schema,
                                 table, colSpecs, keySpecs);
 
                         // Write keys for deletion and columns for insert.
-                        writeValues(seqno, tableMetadata, keySpecs, keyValues,
+                        writeValues(seqno, tableMetadata, keySpecs, orc, true,
                                 DELETE);
-                        writeValues(seqno, tableMetadata, colSpecs, colValues,
+                        writeValues(seqno, tableMetadata, colSpecs, orc, false,
                                 INSERT);
                     }
                     else if (action.equals(ActionType.DELETE))
@@ -362,15 +404,13 @@ public class SimpleBatchApplier implements RawApplier
                         // Fetch column names and values.
                         List<ColumnSpec> keySpecs = orc.getKeySpec();
                         List<ColumnSpec> colSpecs = orc.getColumnSpec();
-                        ArrayList<ArrayList<ColumnVal>> keyValues = orc
-                                .getKeyValues();
 
                         // Get information about the table definition.
                         Table tableMetadata = this.getTableMetadata(schema,
                                 table, colSpecs, keySpecs);
 
                         // Insert each column into the CSV file.
-                        writeValues(seqno, tableMetadata, keySpecs, keyValues,
+                        writeValues(seqno, tableMetadata, keySpecs, orc, true,
                                 DELETE);
                     }
                     else
@@ -426,13 +466,21 @@ public class SimpleBatchApplier implements RawApplier
             flush(info);
         }
 
-        // Load each open CSV file.
+        // Load each open CSV file, in parallel if we have more than one
+        // connection.
         int loadCount = 0;
-        for (CsvInfo info : openCsvFiles.values())
+        if (mergeConnections.size() > 1 && openCsvFiles.size() > 1)
+            loadCount = mergeParallel();
+        else
         {
-            clearStageTable(info);
-            scriptExec.execute(info);
-            loadCount++;
+            for (CsvInfo info : openCsvFiles.values())
+            {
+                long tableStart = System.currentTimeMillis();
+                clearStageTable(conn, statement, info);
+                scriptExec.execute(info);
+                recordMergeTime(info, System.currentTimeMillis() - tableStart);
+                loadCount++;
+            }
         }
 
         // Make sure the loaded CSV files match the total open files.
@@ -454,15 +502,38 @@ public class SimpleBatchApplier implements RawApplier
             throw new ReplicatorException("Unable to update commit position", e);
         }
 
-        // SQL commit here.
+        // SQL commit here. Worker connections go first so that the commit
+        // position only moves once all merged data are durable. If any commit
+        // fails, roll back the connections that have not committed yet; the
+        // block is then replayed from the previous commit position.
+        int committed = 0;
         try
         {
+            for (int i = 1; i < mergeConnections.size(); i++)
+            {
+                Database mergeConn = mergeConnections.get(i).conn;
+                mergeConn.commit();
+                committed++;
+                mergeConn.setAutoCommit(false);
+            }
             conn.commit();
             conn.setAutoCommit(false);
         }
         catch (SQLException e)
         {
-            throw new ReplicatorException("Unable to commit transaction", e);
+            rollback();
+            if (committed == 0)
+                throw new ReplicatorException("Unable to commit transaction",
+                        e);
+            else
+            {
+                throw new ReplicatorException(
+                        "Unable to commit transaction after some merge connections committed; "
+                                + "restart will merge the block again: committed="
+                                + committed + " connections="
+                                + mergeConnections.size() + " seqno="
+                                + latestHeader.getSeqno(), e);
+            }
         }
 
         // Clear the CSV file cache.
@@ -505,6 +576,23 @@ public class SimpleBatchApplier implements RawApplier
                 logger.debug("Transaction rollback error", e);
         }
 
+        // Roll back worker connections as well.
+        for (int i = 1; i < mergeConnections.size(); i++)
+        {
+            Database mergeConn = mergeConnections.get(i).conn;
+            try
+            {
+                mergeConn.rollback();
+                mergeConn.setAutoCommit(false);
+            }
+            catch (SQLException e)
+            {
+                logger.info("Unable to roll back merge connection");
+                if (logger.isDebugEnabled())
+                    logger.debug("Transaction rollback error", e);
+            }
+        }
+
         // Clear the CSV file cache.
         openCsvFiles.clear();
 
@@ -552,6 +640,20 @@ public class SimpleBatchApplier implements RawApplier
         assertNotNull(stageTablePrefix, "stageTablePrefix");
         assertNotNull(stageColumnPrefix, "stageRowIdColumn");
         assertNotNull(stageMergeScript, "stageMergeScript");
+        if (parallelism < 1)
+        {
+            throw new ReplicatorException(
+                    "Property parallelism must be 1 or greater: " + parallelism);
+        }
+        if (parallelism > 1 && !idempotentMerge)
+        {
+            throw new ReplicatorException(
+                    "Property parallelism above 1 requires a merge script that "
+                            + "can be applied again to merged tables; set "
+                            + "idempotentMerge=true if it does: parallelism="
+                            + parallelism + " stageMergeScript="
+                            + stageMergeScript);
+        }
 
         // Get metadata schema.
         metadataSchema = context.getReplicatorSchemaName();
@@ -559,31 +661,18 @@ public class SimpleBatchApplier implements RawApplier
         consistencySelect = "SELECT * FROM " + consistencyTable + " ";
     }
 
-    // Ensure value is not null.
-    public void assertNotNull(String property, String name)
-            throws ReplicatorException
-    {
-        if (property == null)
-        {
-            throw new ReplicatorException(String.format(
-                    "Property %s may not be null", name));
-        }
-    }
-
     /**
-     * {@inheritDoc}
-     * 
-     * @see com.continuent.tungsten.replicator.plugin.ReplicatorPlugin#prepare(com.continuent.tungsten.replicator.plugin.PluginContext)
+     * Sets up the date formatter and character set used to convert values
+     * for CSV files.
      */
-    @Override
-    public void prepare(PluginContext context) throws ReplicatorException,
-            InterruptedException
+    protected void prepareCsvFormat() throws ReplicatorException
     {
         // Create a formatter for printing dates.
         TimeZone tz = TimeZone.getTimeZone(timezone);
         dateFormatter = new SimpleDateFormat();
         dateFormatter.setTimeZone(tz);
         dateFormatter.applyPattern("yyyy-MM-dd HH:mm:ss.SSS");
+        lastFormattedSecond = Long.MIN_VALUE;
 
         // Look up the output character set.
         if (charset == null)
@@ -605,6 +694,29 @@ public class SimpleBatchApplier implements RawApplier
             logger.debug("Using output character set:"
                     + outputCharset.toString());
         }
+    }
+
+    // Ensure value is not null.
+    public void assertNotNull(String property, String name)
+            throws ReplicatorException
+    {
+        if (property == null)
+        {
+            throw new ReplicatorException(String.format(
+                    "Property %s may not be null", name));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.plugin.ReplicatorPlugin#prepare(com.continuent.tungsten.replicator.plugin.PluginContext)
+     */
+    @Override
+    public void prepare(PluginContext context) throws ReplicatorException,
+            InterruptedException
+    {
+        prepareCsvFormat();
 
         // Set up the staging directory.
         File staging = new File(stageDirectory);
@@ -676,46 +788,103 @@ public class SimpleBatchApplier implements RawApplier
         }
 
         // If a start-up script is present, execute that now.
-        if (startupScript != null)
-        {
-            // Parse script.
-            SqlScriptGenerator generator = initializeGenerator(this.startupScript);
-            List<String> startCommands = generator
-                    .getParameterizedScript(new HashMap<String, String>());
+        runStartupScript(statement);
 
-            // Execute commands.
-            for (String startCommand : startCommands)
+        // Initialize script for merge operations.
+        scriptExec = createScriptExecutor(conn, context);
+        mergeConnections.add(new MergeConnection(conn, statement, scriptExec));
+
+        // Open additional connections for parallel merge, if requested.
+        if (parallelism > 1)
+        {
+            for (int i = 1; i < parallelism; i++)
             {
-                if (logger.isDebugEnabled())
-                {
-                    logger.debug("Executing start command: " + startCommand);
-                }
+                Database mergeConn = null;
                 try
                 {
-                    long start = System.currentTimeMillis();
-                    statement.execute(startCommand);
-                    double interval = (System.currentTimeMillis() - start) / 1000.0;
-                    if (logger.isDebugEnabled())
-                    {
-                        logger.debug("Execution completed: duration="
-                                + interval + "s");
-                    }
+                    mergeConn = DatabaseFactory.createDatabase(url, user,
+                            password, context.isPrivilegedSlaveUpdate());
+                    mergeConn.connect(false);
+                    Statement mergeStatement = mergeConn.createStatement();
+                    mergeConn.setAutoCommit(false);
+                    runStartupScript(mergeStatement);
+                    ScriptExecutor mergeExec = createScriptExecutor(mergeConn,
+                            context);
+                    mergeConnections.add(new MergeConnection(mergeConn,
+                            mergeStatement, mergeExec));
                 }
                 catch (SQLException e)
                 {
-                    ReplicatorException re = new ReplicatorException(
-                            "Unable to execute load command", e);
-                    re.setExtraData(startCommand);
-                    throw re;
+                    if (mergeConn != null)
+                        mergeConn.close();
+                    String message = String.format(
+                            "Failed to open merge connection using url=%s, user=%s",
+                            url, user);
+                    throw new ReplicatorException(message, e);
                 }
             }
+            mergePool = Executors.newFixedThreadPool(parallelism);
+            logger.info("Parallel merge enabled: parallelism=" + parallelism);
         }
+    }
 
-        // Initialize script for merge operations.
+    // Executes the start-up script, if any, on the given statement.
+    private void runStartupScript(Statement startStatement)
+            throws ReplicatorException
+    {
+        if (startupScript == null)
+            return;
+
+        // Parse script.
+        SqlScriptGenerator generator = initializeGenerator(this.startupScript);
+        List<String> startCommands = generator
+                .getParameterizedScript(new HashMap<String, String>());
+
+        // Execute commands.
+        for (String startCommand : startCommands)
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Executing start command: " + startCommand);
+            }
+            try
+            {
+                long start = System.currentTimeMillis();
+                startStatement.execute(startCommand);
+                double interval = (System.currentTimeMillis() - start) / 1000.0;
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug("Execution completed: duration=" + interval
+                            + "s");
+                }
+            }
+            catch (SQLException e)
+            {
+                ReplicatorException re = new ReplicatorException(
+                        "Unable to execute load command", e);
+                re.setExtraData(startCommand);
+                throw re;
+            }
+        }
+    }
+
+    /**
+     * Creates and prepares a merge script executor for a connection. The
+     * script type is chosen from the stageMergeScript suffix.
+     * 
+     * @param connection Connection on which the script loads and merges
+     * @param context Plugin context
+     * @return A prepared script executor
+     */
+    protected ScriptExecutor createScriptExecutor(Database connection,
+            PluginContext context) throws ReplicatorException,
+            InterruptedException
+    {
+        ScriptExecutor executor;
         if (stageMergeScript.toLowerCase().endsWith(".sql"))
-            scriptExec = new NativeScriptExecutor();
+            executor = new NativeScriptExecutor();
         else if (stageMergeScript.toLowerCase().endsWith(".js"))
-            scriptExec = new JavascriptExecutor();
+            executor = new JavascriptExecutor();
         else
         {
             throw new ReplicatorException(
@@ -724,10 +893,11 @@ public class SimpleBatchApplier implements RawApplier
         }
 
         // Set parameters and prepare.
-        scriptExec.setConnection(conn);
-        scriptExec.setScript(stageMergeScript);
-        scriptExec.setShowCommands(showCommands);
-        scriptExec.prepare(context);
+        executor.setConnection(connection);
+        executor.setScript(stageMergeScript);
+        executor.setShowCommands(showCommands);
+        executor.prepare(context);
+        return executor;
     }
 
     // Initializes a SqlScriptGenerator.
@@ -792,6 +962,20 @@ public class SimpleBatchApplier implements RawApplier
             fullMetadataCache = null;
         }
 
+        // Release parallel merge threads and connections.
+        if (mergePool != null)
+        {
+            mergePool.shutdownNow();
+            mergePool = null;
+        }
+        for (int i = 1; i < mergeConnections.size(); i++)
+        {
+            MergeConnection mergeConn = mergeConnections.get(i);
+            mergeConn.scriptExec.release(context);
+            mergeConn.conn.close();
+        }
+        mergeConnections.clear();
+
         // Release our connection. This prevents all manner of trouble.
         if (conn != null)
         {
@@ -924,11 +1108,11 @@ public class SimpleBatchApplier implements RawApplier
         return info;
     }
 
-    // Write values into a CSV file.
+    // Write key or column values into a CSV file. Values are read through
+    // accessors so that columnar row changes are not converted to lists.
     private void writeValues(long seqno, Table tableMetadata,
-            List<ColumnSpec> colSpecs,
-            ArrayList<ArrayList<ColumnVal>> colValues, String opcode)
-            throws ReplicatorException
+            List<ColumnSpec> colSpecs, OneRowChange orc, boolean keys,
+            String opcode) throws ReplicatorException
     {
         CsvInfo info = getCsvWriter(tableMetadata);
         CsvWriter csv = info.writer;
@@ -936,22 +1120,24 @@ public class SimpleBatchApplier implements RawApplier
         try
         {
             // Iterate over updates.
-            Iterator<ArrayList<ColumnVal>> colIterator = colValues.iterator();
-            while (colIterator.hasNext())
+            String seqnoString = Long.toString(seqno);
+            int rowCount = keys ? orc.getKeyRowCount() : orc
+                    .getColumnRowCount();
+            for (int row = 0; row < rowCount; row++)
             {
                 // Insert the sequence number and opcode.
                 int csvIndex = 1;
                 csv.put(csvIndex++, opcode);
-                csv.put(csvIndex++, new Long(seqno).toString());
+                csv.put(csvIndex++, seqnoString);
 
                 // Now add the row data. Note that we skip the 3rd column as
                 // that has the row_id value and is filled in automatically.
-                ArrayList<ColumnVal> row = colIterator.next();
-                for (int i = 0; i < row.size(); i++)
+                int valueCount = keys ? orc.getKeyValueCount(row) : orc
+                        .getColumnValueCount(row);
+                for (int i = 0; i < valueCount; i++)
                 {
-                    ColumnVal columnVal = row.get(i);
                     ColumnSpec columnSpec = colSpecs.get(i);
-                    String value = getCsvString(columnVal, columnSpec);
+                    String value = getCsvValue(orc, keys, row, i, columnSpec);
                     int colIdx = columnSpec.getIndex();
                     csv.put(colIdx + 3, value);
                 }
@@ -1013,8 +1199,158 @@ public class SimpleBatchApplier implements RawApplier
         }
     }
 
-    // Load an open CSV file.
-    protected void clearStageTable(CsvInfo info) throws ReplicatorException
+    /**
+     * Loads and merges open CSV files concurrently. Each merge connection
+     * pulls tables from a shared queue so that a single large table does not
+     * hold up the others. The first failure is rethrown once all workers have
+     * stopped, which leaves the caller to roll back every connection.
+     * 
+     * @return Number of tables loaded
+     */
+    private int mergeParallel() throws ReplicatorException,
+            InterruptedException
+    {
+        long start = System.currentTimeMillis();
+        ConcurrentLinkedQueue<CsvInfo> pending = new ConcurrentLinkedQueue<CsvInfo>(
+                openCsvFiles.values());
+        Map<String, Long> tableTimes = new ConcurrentHashMap<String, Long>();
+        CountDownLatch done = new CountDownLatch(mergeConnections.size());
+
+        // Start a worker for each connection.
+        List<MergeWorker> workers = new ArrayList<MergeWorker>();
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (MergeConnection mergeConn : mergeConnections)
+        {
+            MergeWorker worker = new MergeWorker(mergeConn, pending,
+                    tableTimes, done);
+            workers.add(worker);
+            futures.add(mergePool.submit(worker));
+        }
+
+        // Wait for all workers, remembering the first failure.
+        int loadCount = 0;
+        Throwable failure = null;
+        try
+        {
+            for (Future<Integer> future : futures)
+            {
+                try
+                {
+                    loadCount += future.get();
+                }
+                catch (ExecutionException e)
+                {
+                    // Stop handing out tables and let other workers drain.
+                    pending.clear();
+                    if (failure == null)
+                        failure = e.getCause();
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // Workers must be off the merge connections before the caller
+            // rolls them back, so interrupt them and wait until they stop.
+            pending.clear();
+            for (MergeWorker worker : workers)
+                worker.cancel();
+            for (Future<Integer> future : futures)
+                future.cancel(true);
+            awaitUninterruptibly(done);
+            throw e;
+        }
+        if (failure instanceof ReplicatorException)
+            throw (ReplicatorException) failure;
+        else if (failure != null)
+        {
+            throw new ReplicatorException("Parallel merge failed: "
+                    + failure.getMessage(), failure);
+        }
+
+        // Report per-table timings.
+        String slowest = null;
+        long slowestMillis = -1;
+        for (Map.Entry<String, Long> entry : tableTimes.entrySet())
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Merged table: name=" + entry.getKey()
+                        + " duration=" + (entry.getValue() / 1000.0) + "s");
+            }
+            if (entry.getValue() > slowestMillis)
+            {
+                slowest = entry.getKey();
+                slowestMillis = entry.getValue();
+            }
+        }
+        if (showCommands || logger.isDebugEnabled())
+        {
+            double interval = (System.currentTimeMillis() - start) / 1000.0;
+            String summary = "Parallel merge completed: tables=" + loadCount
+                    + " parallelism=" + mergeConnections.size() + " duration="
+                    + interval + "s slowest=" + slowest + " ("
+                    + (slowestMillis / 1000.0) + "s)";
+            if (showCommands)
+                logger.info(summary);
+            else
+                logger.debug(summary);
+        }
+        return loadCount;
+    }
+
+    // Waits for a latch, deferring interrupts until it opens.
+    private static void awaitUninterruptibly(CountDownLatch latch)
+    {
+        boolean interrupted = false;
+        while (true)
+        {
+            try
+            {
+                latch.await();
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    // Adds the load and merge time of a table to its totals.
+    private void recordMergeTime(CsvInfo info, long millis)
+    {
+        String name = info.baseTableMetadata.fullyQualifiedName();
+        MergeTime mergeTime = mergeTimes.get(name);
+        if (mergeTime == null)
+        {
+            mergeTime = new MergeTime(name);
+            MergeTime previous = mergeTimes.putIfAbsent(name, mergeTime);
+            if (previous != null)
+                mergeTime = previous;
+        }
+        mergeTime.add(millis);
+    }
+
+    /**
+     * Returns load and merge timings for each table this applier has merged,
+     * one set of properties per table. Times are in seconds.
+     */
+    public List<Map<String, String>> getMergeTimes()
+    {
+        List<Map<String, String>> times = new ArrayList<Map<String, String>>();
+        for (MergeTime mergeTime : new TreeMap<String, MergeTime>(mergeTimes)
+                .values())
+        {
+            times.add(mergeTime.toMap());
+        }
+        return times;
+    }
+
+    // Clear the stage table for an open CSV file using the given connection.
+    protected void clearStageTable(Database connection, Statement statement,
+            CsvInfo info) throws ReplicatorException
     {
         Table table = info.stageTableMetadata;
         if (logger.isDebugEnabled())
@@ -1113,39 +1449,109 @@ public class SimpleBatchApplier implements RawApplier
         return t;
     }
 
+    // Formats a date value. Values falling in the same second as the previous
+    // call reuse its formatted prefix and only append milliseconds.
+    private String formatDate(java.util.Date date)
+    {
+        long millis = date.getTime();
+        long second = millis / 1000;
+        if (millis % 1000 < 0)
+            second--;
+        int fraction = (int) (millis - second * 1000);
+
+        if (second != lastFormattedSecond)
+        {
+            String formatted = dateFormatter.format(date);
+            lastFormattedPrefix = formatted.substring(0,
+                    formatted.length() - 3);
+            lastFormattedSecond = second;
+            return formatted;
+        }
+
+        StringBuilder sb = new StringBuilder(lastFormattedPrefix.length() + 3);
+        sb.append(lastFormattedPrefix);
+        if (fraction < 100)
+            sb.append('0');
+        if (fraction < 10)
+            sb.append('0');
+        sb.append(fraction);
+        return sb.toString();
+    }
+
+    /**
+     * Returns the CSV string for a key or column value of a row change.
+     * Integer values that columnar rows hold as primitives are converted by
+     * {@link #getCsvString(long, ColumnSpec)} without boxing. Other values are
+     * converted by {@link #getCsvString(Object, ColumnSpec)}.
+     */
+    protected String getCsvValue(OneRowChange orc, boolean keys, int row,
+            int column, ColumnSpec columnSpec) throws CsvException
+    {
+        ColumnarRowSet rows = keys ? orc.getKeyRows() : orc.getColumnRows();
+        if (rows != null && rows.isPrimitive(column)
+                && !rows.isNull(row, column))
+            return getCsvString(rows.getLong(row, column), columnSpec);
+
+        Object value = keys ? orc.getKeyValue(row, column) : orc
+                .getColumnValue(row, column);
+        return getCsvString(value, columnSpec);
+    }
+
+    /**
+     * Converts an integer value to a String for CSV loading. This can be
+     * overloaded for particular DBMS types.
+     */
+    protected String getCsvString(long value, ColumnSpec columnSpec)
+    {
+        return Long.toString(value);
+    }
+
     /**
      * Converts a column value to a suitable String for CSV loading. This can be
      * overloaded for particular DBMS types.
      * 
-     * @param columnVal Column value
+     * @param value Column value, which may be null
      * @param columnSpec Column metadata
      * @return String for loading
      * @throws CsvException
      */
-    protected String getCsvString(ColumnVal columnVal, ColumnSpec columnSpec)
+    protected String getCsvString(Object value, ColumnSpec columnSpec)
             throws CsvException
     {
-        Object value = columnVal.getValue();
         if (value == null)
         {
             return null;
         }
+        else if (value instanceof String)
+        {
+            return (String) value;
+        }
+        else if (value instanceof Integer || value instanceof Long)
+        {
+            return value.toString();
+        }
+        else if (value instanceof byte[])
+        {
+            // Strings extracted as bytes are written through unchanged, so
+            // they must already be in the character set of the CSV file.
+            return new String((byte[]) value, outputCharset);
+        }
         else if (value instanceof Timestamp)
         {
-            return dateFormatter.format((Timestamp) value);
+            return formatDate((Timestamp) value);
         }
         else if (value instanceof java.sql.Date)
         {
-            return dateFormatter.format((java.sql.Date) value);
+            return formatDate((java.sql.Date) value);
         }
         else if (columnSpec.getType() == Types.BLOB
-                || (columnSpec.getType() == Types.NULL && columnVal.getValue() instanceof SerialBlob))
+                || (columnSpec.getType() == Types.NULL && value instanceof SerialBlob))
         { // ______^______
           // Blob in the incoming event masked as NULL,
           // though this happens with a non-NULL value!
           // Case targeted with this: MySQL.TEXT -> CSV
 
-            SerialBlob blob = (SerialBlob) columnVal.getValue();
+            SerialBlob blob = (SerialBlob) value;
 
             if (columnSpec.isBlob())
             {
@@ -1163,7 +1569,7 @@ public class SimpleBatchApplier implements RawApplier
                     try
                     {
                         toString = new String(blob.getBytes(1,
-                                (int) blob.length()));
+                                (int) blob.length()), outputCharset);
                     }
                     catch (SerialException e)
                     {
@@ -1241,4 +1647,111 @@ public class SimpleBatchApplier implements RawApplier
             conn.setAutoCommit(true);
         }
     }
+
+    // Connection and script executor used to load and merge stage tables.
+    private static class MergeConnection
+    {
+        final Database       conn;
+        final Statement      statement;
+        final ScriptExecutor scriptExec;
+
+        MergeConnection(Database conn, Statement statement,
+                ScriptExecutor scriptExec)
+        {
+            this.conn = conn;
+            this.statement = statement;
+            this.scriptExec = scriptExec;
+        }
+    }
+
+    // Loads and merges tables from a shared queue on one merge connection.
+    // A worker that is cancelled before it starts never touches the
+    // connection, and the done latch opens once every worker has either
+    // finished or been cancelled before starting.
+    private class MergeWorker implements Callable<Integer>
+    {
+        private final MergeConnection                mergeConn;
+        private final ConcurrentLinkedQueue<CsvInfo> pending;
+        private final Map<String, Long>              tableTimes;
+        private final CountDownLatch                 done;
+        private final AtomicBoolean                  claimed = new AtomicBoolean();
+
+        MergeWorker(MergeConnection mergeConn,
+                ConcurrentLinkedQueue<CsvInfo> pending,
+                Map<String, Long> tableTimes, CountDownLatch done)
+        {
+            this.mergeConn = mergeConn;
+            this.pending = pending;
+            this.tableTimes = tableTimes;
+            this.done = done;
+        }
+
+        public Integer call() throws Exception
+        {
+            if (!claimed.compareAndSet(false, true))
+                return 0;
+            try
+            {
+                int count = 0;
+                CsvInfo info;
+                while ((info = pending.poll()) != null)
+                {
+                    long tableStart = System.currentTimeMillis();
+                    clearStageTable(mergeConn.conn, mergeConn.statement, info);
+                    mergeConn.scriptExec.execute(info);
+                    long millis = System.currentTimeMillis() - tableStart;
+                    tableTimes.put(info.baseTableMetadata.fullyQualifiedName(),
+                            millis);
+                    recordMergeTime(info, millis);
+                    count++;
+                }
+                return count;
+            }
+            finally
+            {
+                done.countDown();
+            }
+        }
+
+        // Keeps the worker from starting if it has not already.
+        void cancel()
+        {
+            if (claimed.compareAndSet(false, true))
+                done.countDown();
+        }
+    }
+
+    // Accumulated load and merge times for one table.
+    private static class MergeTime
+    {
+        private final String name;
+        private long         merges;
+        private long         totalMillis;
+        private long         lastMillis;
+        private long         maxMillis;
+
+        MergeTime(String name)
+        {
+            this.name = name;
+        }
+
+        synchronized void add(long millis)
+        {
+            merges++;
+            totalMillis += millis;
+            lastMillis = millis;
+            maxMillis = Math.max(maxMillis, millis);
+        }
+
+        synchronized Map<String, String> toMap()
+        {
+            Map<String, String> props = new HashMap<String, String>();
+            props.put("table", name);
+            props.put("merges", Long.toString(merges));
+            props.put("totalTime", Double.toString(totalMillis / 1000.0));
+            props.put("lastTime", Double.toString(lastMillis / 1000.0));
+            props.put("maxTime", Double.toString(maxMillis / 1000.0));
+            return props;
+        }
+    }
 }
\ No newline at end of file
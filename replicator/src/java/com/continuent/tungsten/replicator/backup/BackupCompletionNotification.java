@@ -38,13 +38,54 @@ public class BackupCompletionNotification extends Event
      * 
      * @param uri URI of successful backup
      */
+    private long bytesStored = -1;
+    private long storeMillis = -1;
+
     public BackupCompletionNotification(URI uri)
     {
         super(uri);
     }
-    
+
+    /**
+     * Create notification of backup with storage throughput.
+     * 
+     * @param uri URI of successful backup
+     * @param bytesStored Number of bytes handed to storage
+     * @param storeMillis Time taken to store the backup in milliseconds
+     */
+    public BackupCompletionNotification(URI uri, long bytesStored,
+            long storeMillis)
+    {
+        super(uri);
+        this.bytesStored = bytesStored;
+        this.storeMillis = storeMillis;
+    }
+
     public URI getUri()
     {
         return (URI) this.getData();
     }
+
+    /** Returns bytes handed to storage or -1 if unknown. */
+    public long getBytesStored()
+    {
+        return bytesStored;
+    }
+
+    /** Returns time taken to store the backup or -1 if unknown. */
+    public long getStoreMillis()
+    {
+        return storeMillis;
+    }
+
+    /** Returns storage throughput in bytes per second or -1 if unknown. */
+    public long getStoreBytesPerSecond()
+    {
+        if (bytesStored < 0 || storeMillis < 0)
+            return -1;
+        else if (storeMillis == 0)
+            return bytesStored;
+        else
+            return bytesStored * 1000 / storeMillis;
+    }
 }
\ No newline at end of file
@@ -62,6 +62,8 @@ public class BackupTask implements Callable<String>
         logger.info("Backup task starting...");
         URI uri = null;
         BackupSpecification bspec = null;
+        long bytesStored = 0;
+        long storeMillis = 0;
         try
         {
             // Run the backup.
@@ -74,7 +76,11 @@ public class BackupTask implements Callable<String>
             // Turn the resulting file over to storage.
             logger.info("Storing backup result...");
             bspec.setAgentName(backupAgentName);
+            for (BackupLocator locator : bspec.getBackupLocators())
+                bytesStored += locator.getContents().length();
+            long storeStart = System.currentTimeMillis();
             uri = storageAgent.store(bspec);
+            storeMillis = System.currentTimeMillis() - storeStart;
         }
         catch (InterruptedException e)
         {
@@ -106,11 +112,15 @@ public class BackupTask implements Callable<String>
         }
         else
         {
-            logger.info("Backup completed normally: uri=" + uri);
+            BackupCompletionNotification notification = new BackupCompletionNotification(
+                    uri, bytesStored, storeMillis);
+            logger.info("Backup completed normally: uri=" + uri
+                    + " bytesStored=" + bytesStored + " storeMillis="
+                    + storeMillis + " bytes/sec="
+                    + notification.getStoreBytesPerSecond());
             try
             {
-                eventDispatcher.put(new BackupCompletionNotification(
-                        uri));
+                eventDispatcher.put(notification);
             }
             catch (InterruptedException ie)
             {
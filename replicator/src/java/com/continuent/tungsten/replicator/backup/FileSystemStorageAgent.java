@@ -22,15 +22,31 @@
 
 package com.continuent.tungsten.replicator.backup;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.log4j.Logger;
 
@@ -40,6 +56,11 @@ import com.continuent.tungsten.common.config.TungstenProperties;
  * Implements a storage agent to store files in a directory on the file system.
  * This could be on a shared file system, e.g., using NFS. To use this storage
  * clients must at least set the directory location to hold files.
+ * <p/>
+ * Files are copied with FileChannel.transferTo() unless a CRC is required,
+ * in which case they are copied through a large buffer. Files of a backup may
+ * be transferred in parallel and may be compressed with gzip as they are
+ * stored.
  * 
  * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
  * @version 1.0
@@ -51,12 +72,18 @@ public class FileSystemStorageAgent implements StorageAgent
     private static final String SCHEME      = "storage";
     private static final String SERVICE     = "file-system";
     private static final String INDEX_FILE  = "storage.index";
-    private static final int    BUFFER_SIZE = 1024;
+    private static final int    BUFFER_SIZE = 1024 * 1024;
+    private static final String GZIP_SUFFIX = ".gz";
+
+    /** CRC value stored for files whose CRC was not computed. */
+    public static final long    NO_CRC      = -1;
 
     // Storage properties.
-    private int                 retention   = 3;
+    private int                 retention       = 3;
     private File                directory;
     private boolean             crcCheckingEnabled;
+    private int                 parallelStreams = 1;
+    private boolean             compressionEnabled;
 
     // Filter for locating storage specification files.
     class PropfileFilter implements FileFilter
@@ -123,6 +150,45 @@ public class FileSystemStorageAgent implements StorageAgent
         this.crcCheckingEnabled = crcCheckingEnabled;
     }
 
+    /**
+     * Returns the number of files that are transferred at once.
+     */
+    public int getParallelStreams()
+    {
+        return parallelStreams;
+    }
+
+    /**
+     * Sets the number of files that are transferred at once. Backups that
+     * consist of several files, e.g., one per database, store and retrieve
+     * faster on storage that can handle concurrent streams.
+     * 
+     * @param parallelStreams
+     */
+    public void setParallelStreams(int parallelStreams)
+    {
+        this.parallelStreams = parallelStreams;
+    }
+
+    /**
+     * Returns true if stored files are compressed.
+     */
+    public boolean isCompressionEnabled()
+    {
+        return compressionEnabled;
+    }
+
+    /**
+     * Enables gzip compression of stored files. Compressed files are expanded
+     * into temporary files in the storage directory when retrieved.
+     * 
+     * @param compressionEnabled
+     */
+    public void setCompressionEnabled(boolean compressionEnabled)
+    {
+        this.compressionEnabled = compressionEnabled;
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -213,15 +279,16 @@ public class FileSystemStorageAgent implements StorageAgent
         StorageSpecification storageSpec = new StorageSpecification(
                 storageProps);
 
-        // No need to copy; just create a backup specification pointing to the
-        // files.
+        // No need to copy uncompressed files; just create a backup
+        // specification pointing to the files.
         BackupSpecification backupSpec = new BackupSpecification();
         backupSpec.setAgentName(storageSpec.getAgent());
         backupSpec.setBackupDate(storageSpec.getBackupDate());
 
+        List<Callable<BackupLocator>> tasks = new ArrayList<Callable<BackupLocator>>();
         for (int fileIndex = 0; fileIndex < storageSpec.getFilesCount(); fileIndex++)
         {
-            File backupFile = new File(directory, storageSpec
+            final File backupFile = new File(directory, storageSpec
                     .getFileName(fileIndex));
 
             // Ensure the backupFile exists and has the correct length.
@@ -234,30 +301,85 @@ public class FileSystemStorageAgent implements StorageAgent
                         "Backup file length does not match length in storage properties: "
                                 + backupFile.getAbsolutePath());
 
-            // If user asks for CRC checking, compute and check the CRC.
-            if (isCrcCheckingEnabled())
+            final long storedFileCrc = storageSpec.getFileCrc(fileIndex);
+            final String dbName = storageSpec.getDatabaseName(fileIndex);
+            final boolean compressed = storageSpec.isCompressed();
+            tasks.add(new Callable<BackupLocator>()
             {
-                long backupFileCrc = computeFileCrc(backupFile);
-                long storedFileCrc = storageSpec.getFileCrc(fileIndex);
-                if (backupFileCrc != storedFileCrc)
+                public BackupLocator call() throws BackupException
                 {
-                    String msg = "Backup file CRC does not match CRC in storage properties: "
-                            + backupFile.getAbsolutePath()
-                            + " current crc="
-                            + backupFileCrc + " storage crc=" + storedFileCrc;
-
-                    throw new BackupException(msg);
+                    return retrieveFile(backupFile, storedFileCrc, dbName,
+                            compressed);
                 }
-            }
+            });
+        }
+
+        for (BackupLocator locator : runTransfers(tasks))
+            backupSpec.addBackupLocator(locator);
+        return backupSpec;
+    }
 
-            String dbName = storageSpec.getDatabaseName(fileIndex);
-            backupSpec.addBackupLocator(new FileBackupLocator(dbName,
-                    backupFile, false));
-            logger.info("Retrieved backup file: file="
+    // Checks the CRC of a single stored file and expands it if it is
+    // compressed.
+    private BackupLocator retrieveFile(File backupFile, long storedFileCrc,
+            String dbName, boolean compressed) throws BackupException
+    {
+        // If user asks for CRC checking, compute and check the CRC.
+        boolean checkCrc = isCrcCheckingEnabled();
+        if (checkCrc && storedFileCrc == NO_CRC)
+        {
+            logger.warn("Backup file was stored without CRC; skipping check: "
                     + backupFile.getAbsolutePath());
+            checkCrc = false;
+        }
 
+        long startMillis = System.currentTimeMillis();
+        BackupLocator locator;
+        long backupFileCrc;
+        if (compressed)
+        {
+            // Expand into a unique file so that concurrent retrieves of the
+            // same backup do not overwrite each other.
+            String name = backupFile.getName();
+            File expandedFile;
+            try
+            {
+                expandedFile = File.createTempFile("retrieve-", "-"
+                        + name.substring(0,
+                                name.length() - GZIP_SUFFIX.length()),
+                        directory);
+            }
+            catch (IOException e)
+            {
+                throw new BackupException(formatErrorMessage(
+                        "Unable to create file for expanded backup", null,
+                        directory), e);
+            }
+            backupFileCrc = expandFile(backupFile, expandedFile, checkCrc);
+            locator = new FileBackupLocator(dbName, expandedFile, true);
         }
-        return backupSpec;
+        else
+        {
+            backupFileCrc = (checkCrc ? computeCrc(backupFile,
+                    backupFile.length()) : NO_CRC);
+            locator = new FileBackupLocator(dbName, backupFile, false);
+        }
+
+        if (checkCrc && backupFileCrc != storedFileCrc)
+        {
+            locator.release();
+            String msg = "Backup file CRC does not match CRC in storage properties: "
+                    + backupFile.getAbsolutePath()
+                    + " current crc="
+                    + backupFileCrc + " storage crc=" + storedFileCrc;
+
+            throw new BackupException(msg);
+        }
+
+        logger.info("Retrieved backup file: file="
+                + backupFile.getAbsolutePath()
+                + formatThroughput(backupFile.length(), startMillis));
+        return locator;
     }
 
     /**
@@ -278,8 +400,6 @@ public class FileSystemStorageAgent implements StorageAgent
         logger.info("Allocated backup location: uri =" + uri);
 
         // Copy to storage.
-        File fromFile;
-        File toFile;
         StorageSpecification storageSpec = null;
 
         int fileIndex = 0;
@@ -289,33 +409,47 @@ public class FileSystemStorageAgent implements StorageAgent
         storageSpec.setAgent(backupSpec.getAgentName());
         storageSpec.setBackupDate(backupSpec.getBackupDate());
         storageSpec.setUri(uri.toString());
+        storageSpec.setCompressed(compressionEnabled);
 
+        // Transfer files, in parallel if enabled.
+        long startMillis = System.currentTimeMillis();
+        long bytesStored = 0;
+        List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+        List<File> toFiles = new ArrayList<File>();
         for (BackupLocator locator : backupSpec.getBackupLocators())
         {
-            fromFile = locator.getContents();
-            toFile = new File(directory, prefix + "-" + fromFile.getName());
-            
-            // Attempt to rename the file first, otherwise copy it
-            long crc = renameFile(fromFile, toFile);
-            if (crc == -1)
+            final File fromFile = locator.getContents();
+            final File toFile = new File(directory, prefix + "-"
+                    + fromFile.getName()
+                    + (compressionEnabled ? GZIP_SUFFIX : ""));
+            bytesStored += fromFile.length();
+            toFiles.add(toFile);
+            tasks.add(new Callable<Long>()
             {
-                crc = copyFile(fromFile, toFile);
-            }
-            
-            logger
-                    .info("Stored backup storage file: file="
-                            + toFile.getAbsolutePath() + " length="
-                            + fromFile.length());
+                public Long call() throws BackupException
+                {
+                    return storeFile(fromFile, toFile);
+                }
+            });
+        }
+        List<Long> crcs = runTransfers(tasks);
+
+        for (BackupLocator locator : backupSpec.getBackupLocators())
+        {
+            File toFile = toFiles.get(fileIndex);
+
             // Fill out and write the storage specification.
             storageSpec.setFileName(toFile.getName());
             storageSpec.setFileLength(toFile.length());
-            storageSpec.setFileCrc(crc);
+            storageSpec.setFileCrc(crcs.get(fileIndex));
             if (locator.getDatabaseName() != null)
             {
                 storageSpec.setDatabaseName(locator.getDatabaseName());
             }
             fileIndex++;
         }
+        logger.info("Stored backup files: count=" + fileIndex
+                + formatThroughput(bytesStored, startMillis));
         storageSpec.setFilesCount(fileIndex);
         storeProperties(specFile, storageSpec.toProperties(),
                 "Unable to write storage properties");
@@ -564,80 +698,154 @@ public class FileSystemStorageAgent implements StorageAgent
         }
     }
     
-    // Attempt to rename the file and return the CRC, return -1 if
-    // there is a failure
-    protected long renameFile(File fromFile, File toFile) throws BackupException
+    // Runs file transfers, in parallel if enabled, and returns their results
+    // in the order of the tasks.
+    private <T> List<T> runTransfers(List<Callable<T>> tasks)
+            throws BackupException
     {
-        FileInputStream fis = null;
-        CRC32 crc = new CRC32();
+        List<T> results = new ArrayList<T>(tasks.size());
+        int threads = Math.min(parallelStreams, tasks.size());
+        if (threads <= 1)
+        {
+            for (Callable<T> task : tasks)
+            {
+                try
+                {
+                    results.add(task.call());
+                }
+                catch (BackupException e)
+                {
+                    throw e;
+                }
+                catch (Exception e)
+                {
+                    throw new BackupException("File transfer failed", e);
+                }
+            }
+            return results;
+        }
 
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try
+        {
+            List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+            for (Callable<T> task : tasks)
+                futures.add(executor.submit(task));
+            for (Future<T> future : futures)
+                results.add(future.get());
+            return results;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new BackupException("Interrupted during file transfer", e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof BackupException)
+                throw (BackupException) e.getCause();
+            else
+                throw new BackupException("File transfer failed", e.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    // Stores a single file, returning its CRC or NO_CRC if the CRC is not
+    // required.
+    private long storeFile(File fromFile, File toFile) throws BackupException
+    {
+        long startMillis = System.currentTimeMillis();
+        long fromFileLength = fromFile.length();
+        long crc;
+        if (compressionEnabled)
+            crc = compressFile(fromFile, toFile);
+        else if (renameFile(fromFile, toFile))
+        {
+            // Attempt to rename the file first, otherwise copy it
+            crc = (crcCheckingEnabled
+                    ? computeCrc(toFile, fromFileLength)
+                    : NO_CRC);
+        }
+        else
+            crc = copyFile(fromFile, toFile);
+
+        logger.info("Stored backup storage file: file="
+                + toFile.getAbsolutePath() + " length=" + toFile.length()
+                + formatThroughput(fromFileLength, startMillis));
+        return crc;
+    }
+
+    // Attempt to rename the file, returning false if it cannot be renamed.
+    protected boolean renameFile(File fromFile, File toFile)
+    {
         if (logger.isDebugEnabled())
         {
             logger.debug("Renaming file: from=" + fromFile.getAbsolutePath()
                     + " to=" + toFile.getAbsolutePath());
         }
-        
-        long fromFileLength = fromFile.length();
+
         // Attempt to rename the file. This will be faster than a copy
         // if the paths are on the same filesystem
-        if (fromFile.renameTo(toFile) != true)
-        {
-            return -1;
-        }
-        
-        // Open the destination path to calculate the CRC
+        return fromFile.renameTo(toFile);
+    }
+
+    // Computes the CRC of a file and checks that it has the expected length.
+    protected long computeCrc(File file, long expectedLength)
+            throws BackupException
+    {
+        FileInputStream fis = null;
+        CRC32 crc = new CRC32();
         try
         {
-            fis = new FileInputStream(toFile);
+            fis = new FileInputStream(file);
         }
         catch (IOException e)
         {
             throw new BackupException(formatErrorMessage(
-                    "Unable to open input file for calculating CRC", null, toFile), e);
+                    "Unable to open input file for calculating CRC", null,
+                    file), e);
         }
 
-        // Copy contents byte-for-byte.
         long read = 0;
         try
         {
-            byte[] data = new byte[BUFFER_SIZE];
-            int len = -1;
-            while ((len = fis.read(data)) > -1)
+            FileChannel in = fis.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            int len;
+            while ((len = in.read(buffer)) > -1)
             {
-                crc.update(data, 0, len);
+                crc.update(buffer.array(), 0, len);
                 read += len;
+                buffer.clear();
             }
         }
         catch (IOException e)
         {
             throw new BackupException(formatErrorMessage(
-                    "File CRC calculation failed", null, toFile), e);
+                    "File CRC calculation failed", null, file), e);
         }
         finally
         {
-            try
-            {
-                fis.close();
-            }
-            catch (IOException e)
-            {
-            }
+            close(fis);
         }
 
-        // Ensure that bytes written match the expected length of the file.
-        if (read != toFile.length())
+        // Ensure that bytes read match the expected length of the file.
+        if (read != expectedLength)
         {
             throw new BackupException(
-                    "Read file length does not match size of input file: input file="
-                            + fromFile.getAbsolutePath() + " input length="
-                            + fromFileLength + " read length=" + read);
+                    "Read file length does not match size of input file: file="
+                            + file.getAbsolutePath() + " expected length="
+                            + expectedLength + " read length=" + read);
         }
 
-        // Return the CRC value.
         return crc.getValue();
     }
 
-    // Copy from one file to another, returning the CRC of the file.
+    // Copy from one file to another, returning the CRC of the file or NO_CRC
+    // if CRC checking is disabled.
     protected long copyFile(File fromFile, File toFile) throws BackupException
     {
         FileOutputStream fos = null;
@@ -667,21 +875,37 @@ public class FileSystemStorageAgent implements StorageAgent
         }
         catch (IOException e)
         {
+            close(fis);
             throw new BackupException(formatErrorMessage(
                     "Unable to open output file for writing", null, toFile), e);
         }
 
-        // Copy contents byte-for-byte.
+        // Copy contents, letting the OS move the data if we do not need to
+        // see it for the CRC.
         long written = 0;
         try
         {
-            byte[] data = new byte[BUFFER_SIZE];
-            int len = -1;
-            while ((len = fis.read(data)) > -1)
+            FileChannel in = fis.getChannel();
+            FileChannel out = fos.getChannel();
+            if (crcCheckingEnabled)
             {
-                fos.write(data, 0, len);
-                crc.update(data, 0, len);
-                written += len;
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                int len;
+                while ((len = in.read(buffer)) > -1)
+                {
+                    crc.update(buffer.array(), 0, len);
+                    buffer.flip();
+                    while (buffer.hasRemaining())
+                        out.write(buffer);
+                    written += len;
+                    buffer.clear();
+                }
+            }
+            else
+            {
+                long size = in.size();
+                while (written < size)
+                    written += in.transferTo(written, size - written, out);
             }
         }
         catch (IOException e)
@@ -691,20 +915,8 @@ public class FileSystemStorageAgent implements StorageAgent
         }
         finally
         {
-            try
-            {
-                fis.close();
-            }
-            catch (IOException e)
-            {
-            }
-            try
-            {
-                fos.close();
-            }
-            catch (IOException e)
-            {
-            }
+            close(fis);
+            close(fos);
         }
 
         // Ensure that bytes written match the expected length of the file.
@@ -717,7 +929,185 @@ public class FileSystemStorageAgent implements StorageAgent
         }
 
         // Return the CRC value.
-        return crc.getValue();
+        return (crcCheckingEnabled ? crc.getValue() : NO_CRC);
+    }
+
+    // Compress one file into another, returning the CRC of the compressed
+    // file or NO_CRC if CRC checking is disabled.
+    protected long compressFile(File fromFile, File toFile)
+            throws BackupException
+    {
+        FileInputStream fis = null;
+        OutputStream out = null;
+        CRC32 crc = new CRC32();
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Compressing file: from="
+                    + fromFile.getAbsolutePath() + " to="
+                    + toFile.getAbsolutePath());
+        }
+
+        try
+        {
+            fis = new FileInputStream(fromFile);
+        }
+        catch (IOException e)
+        {
+            throw new BackupException(formatErrorMessage(
+                    "Unable to open input file for reading", null, fromFile), e);
+        }
+        try
+        {
+            out = new FileOutputStream(toFile);
+            if (crcCheckingEnabled)
+                out = new CheckedOutputStream(out, crc);
+            out = new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+        catch (IOException e)
+        {
+            close(fis);
+            close(out);
+            throw new BackupException(formatErrorMessage(
+                    "Unable to open output file for writing", null, toFile), e);
+        }
+
+        long written = 0;
+        try
+        {
+            written = transfer(fis, out);
+            out.close();
+            out = null;
+        }
+        catch (IOException e)
+        {
+            throw new BackupException(formatErrorMessage(
+                    "File compression failed", null, fromFile), e);
+        }
+        finally
+        {
+            close(fis);
+            close(out);
+        }
+
+        // Ensure that bytes written match the expected length of the file.
+        if (written != fromFile.length())
+        {
+            throw new BackupException(
+                    "Compressed file length does not match size of input file: input file="
+                            + fromFile.getAbsolutePath() + " input length="
+                            + fromFile.length() + " compressed length="
+                            + written);
+        }
+
+        return (crcCheckingEnabled ? crc.getValue() : NO_CRC);
+    }
+
+    // Expand a compressed file, returning the CRC of the compressed file or
+    // NO_CRC if it is not required.
+    protected long expandFile(File fromFile, File toFile, boolean checkCrc)
+            throws BackupException
+    {
+        InputStream in = null;
+        CheckedInputStream checkedIn = null;
+        FileOutputStream fos = null;
+        CRC32 crc = new CRC32();
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Expanding file: from=" + fromFile.getAbsolutePath()
+                    + " to=" + toFile.getAbsolutePath());
+        }
+
+        try
+        {
+            in = new FileInputStream(fromFile);
+            if (checkCrc)
+                in = checkedIn = new CheckedInputStream(in, crc);
+            in = new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        catch (IOException e)
+        {
+            close(in);
+            throw new BackupException(formatErrorMessage(
+                    "Unable to open compressed file for reading", null,
+                    fromFile), e);
+        }
+        try
+        {
+            fos = new FileOutputStream(toFile);
+        }
+        catch (IOException e)
+        {
+            close(in);
+            throw new BackupException(formatErrorMessage(
+                    "Unable to open output file for writing", null, toFile), e);
+        }
+
+        try
+        {
+            transfer(in, fos);
+
+            // Read any trailing bytes so the CRC covers the whole file.
+            if (checkedIn != null)
+            {
+                while (checkedIn.skip(BUFFER_SIZE) > 0)
+                    ;
+            }
+        }
+        catch (IOException e)
+        {
+            close(fos);
+            toFile.delete();
+            throw new BackupException(formatErrorMessage(
+                    "File expansion failed", null, fromFile), e);
+        }
+        finally
+        {
+            close(in);
+            close(fos);
+        }
+
+        return (checkCrc ? crc.getValue() : NO_CRC);
+    }
+
+    // Copies one stream to another, returning the number of bytes copied.
+    private static long transfer(InputStream in, OutputStream out)
+            throws IOException
+    {
+        byte[] data = new byte[BUFFER_SIZE];
+        long count = 0;
+        int len;
+        while ((len = in.read(data)) > -1)
+        {
+            out.write(data, 0, len);
+            count += len;
+        }
+        return count;
+    }
+
+    // Closes a stream, ignoring errors.
+    private static void close(Closeable closeable)
+    {
+        if (closeable != null)
+        {
+            try
+            {
+                closeable.close();
+            }
+            catch (IOException e)
+            {
+            }
+        }
+    }
+
+    // Formats length and throughput of a transfer for logging.
+    private static String formatThroughput(long length, long startMillis)
+    {
+        long millis = System.currentTimeMillis() - startMillis;
+        long bytesPerSecond = (millis > 0) ? length * 1000 / millis : length;
+        return " bytes=" + length + " millis=" + millis + " bytes/sec="
+                + bytesPerSecond;
     }
 
     // Creates an error message.
@@ -61,11 +61,12 @@ public class RestoreTask implements Callable<Boolean>
     {
         logger.info("Backup task starting...");
         boolean completed = false;
+        BackupSpecification bspec = null;
         try
         {
             // Retrieve the file.
             logger.info("Retrieving backup file: uri=" + uri);
-            BackupSpecification bspec = storageAgent.retrieve(uri);
+            bspec = storageAgent.retrieve(uri);
 
             // Restore database.
             logger.info("Restoring database from file: uri=" + uri);
@@ -94,6 +95,9 @@ public class RestoreTask implements Callable<Boolean>
         }
         finally
         {
+            // Clean up files expanded from compressed storage.
+            if (bspec != null)
+                bspec.releaseLocators();
         }
 
         // Post a backup completion event.
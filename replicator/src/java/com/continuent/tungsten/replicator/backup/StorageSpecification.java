@@ -47,6 +47,7 @@ public class StorageSpecification
     private static final String URI         = "uri";
     private static final String FILE_COUNT = "archive.file_count";
     private static final String DB_NAME     = "database_name";
+    private static final String COMPRESSED  = "compressed";
 
     // Specification values.
     private String              version;
@@ -58,6 +59,7 @@ public class StorageSpecification
     private String              uri;
     private int                 filesCount;
     private List<String>        databaseNames;
+    private boolean             compressed;
 
     /**
      * Creates a storage specification from existing properties.
@@ -68,6 +70,7 @@ public class StorageSpecification
         this.version = props.getString(VERSION);
         this.agent = props.getString(AGENT);
         this.uri = props.getString(URI);
+        this.compressed = props.getBoolean(COMPRESSED);
         String propFilesCount = props.getString(FILE_COUNT);
         if (propFilesCount != null)
         {
@@ -170,6 +173,20 @@ public class StorageSpecification
         this.uri = uri;
     }
 
+    /**
+     * Returns true if stored files are gzip-compressed. Lengths and CRCs
+     * describe the compressed files.
+     */
+    public boolean isCompressed()
+    {
+        return compressed;
+    }
+
+    public void setCompressed(boolean compressed)
+    {
+        this.compressed = compressed;
+    }
+
     public String getVersion()
     {
         return version;
@@ -182,6 +199,7 @@ public class StorageSpecification
         props.setString(AGENT, agent);
         props.setString(URI, uri);
         props.setDate(BACKUP_DATE, backupDate);
+        props.setBoolean(COMPRESSED, compressed);
 
         for (int i = 0; i < filesCount; i++)
         {
@@ -210,11 +210,17 @@ public class ReplicatorConf
     
     static public final String   THL_SERVER_ACCEPT_TIMEOUT                                            = "replicator.thl.server.accept.timeout";
     static public final String   THL_SERVER_ACCEPT_TIMEOUT_DEFAULT                                    = "5000";
+    static public final String   THL_SERVER_SELECTOR_THREADS                                          = "replicator.thl.server.selector_threads";
+    static public final String   THL_SERVER_SELECTOR_THREADS_DEFAULT                                  = "0";
+    static public final String   THL_SERVER_CLIENT_BUFFER_BYTES                                       = "replicator.thl.server.client_buffer_bytes";
+    static public final String   THL_SERVER_CLIENT_BUFFER_BYTES_DEFAULT                               = "1048576";
 
     public static final String   THL_PROTOCOL                                                         = "replicator.thl.protocol";
     public static final String   THL_PROTOCOL_DEFAULT                                                 = "com.continuent.tungsten.replicator.thl.Connector";
     public static final String   THL_PROTOCOL_BUFFER_SIZE                                             = "replicator.thl.protocol.buffer_size";
     public static final String   THL_PROTOCOL_BUFFER_SIZE_DEFAULT                                     = "0";
+    public static final String   THL_PROTOCOL_RECORD_FRAMES                                           = "replicator.thl.protocol.record_frames";
+    public static final String   THL_PROTOCOL_RECORD_FRAMES_DEFAULT                                   = "true";
 
     static public final String   MONITOR_DETAIL_ENABLED                                               = "replicator.monitor.detail_enabled";
 
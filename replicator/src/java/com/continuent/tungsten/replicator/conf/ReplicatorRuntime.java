@@ -330,9 +330,15 @@ public class ReplicatorRuntime implements PluginContext
                 ReplicatorConf.THL_APPLIER_BLOCK_COMMIT_SIZE_DEFAULT);
         assertPropertyDefault(ReplicatorConf.THL_SERVER_ACCEPT_TIMEOUT,
                 ReplicatorConf.THL_SERVER_ACCEPT_TIMEOUT_DEFAULT);
+        assertPropertyDefault(ReplicatorConf.THL_SERVER_SELECTOR_THREADS,
+                ReplicatorConf.THL_SERVER_SELECTOR_THREADS_DEFAULT);
+        assertPropertyDefault(ReplicatorConf.THL_SERVER_CLIENT_BUFFER_BYTES,
+                ReplicatorConf.THL_SERVER_CLIENT_BUFFER_BYTES_DEFAULT);
 
         assertPropertyDefault(ReplicatorConf.THL_PROTOCOL_BUFFER_SIZE,
                 ReplicatorConf.THL_PROTOCOL_BUFFER_SIZE_DEFAULT);
+        assertPropertyDefault(ReplicatorConf.THL_PROTOCOL_RECORD_FRAMES,
+                ReplicatorConf.THL_PROTOCOL_RECORD_FRAMES_DEFAULT);
 
         // Set default for resource JDBC URL so that unit tests run properly.
         // This value is normally set in the replicator properties.
@@ -564,6 +564,17 @@ public abstract class AbstractDatabase implements Database
         return executePrepare(table, table.getAllColumns(), SQL, false, -1);
     }
 
+    /**
+     * Binds the value of a column to a statement parameter. Subclasses may
+     * override this for drivers that need type information to bind some
+     * values, such as nulls.
+     */
+    protected void bindColumn(PreparedStatement statement, int bindNo, Column c)
+            throws SQLException
+    {
+        statement.setObject(bindNo, c.getValue());
+    }
+
     private int executePrepare(Table table, List<Column> columns, String SQL,
             boolean keep, int type) throws SQLException
     {
@@ -578,7 +589,7 @@ public abstract class AbstractDatabase implements Database
 
             for (Column c : columns)
             {
-                statement.setObject(bindNo++, c.getValue());
+                bindColumn(statement, bindNo++, c);
             }
             affectedRows = statement.executeUpdate();
         }
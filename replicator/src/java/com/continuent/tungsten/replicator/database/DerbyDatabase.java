@@ -24,12 +24,14 @@ package com.continuent.tungsten.replicator.database;
 
 import java.io.BufferedWriter;
 import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
 
 import com.continuent.tungsten.common.csv.CsvWriter;
+import com.continuent.tungsten.common.csv.NullPolicy;
 import com.continuent.tungsten.replicator.ReplicatorException;
 
 /**
@@ -69,6 +71,9 @@ public class DerbyDatabase extends AbstractDatabase
     {
         switch (c.getType())
         {
+            case Types.SMALLINT :
+                return "SMALLINT";
+
             case Types.INTEGER :
                 return "INTEGER";
 
@@ -161,6 +166,25 @@ public class DerbyDatabase extends AbstractDatabase
         return retval;
     }
 
+    /**
+     * Binds nulls with the column type, as Derby rejects setObject() with a
+     * null value. Columns without a usable type are bound as VARCHAR.
+     * 
+     * @see com.continuent.tungsten.replicator.database.AbstractDatabase#bindColumn(java.sql.PreparedStatement,
+     *      int, com.continuent.tungsten.replicator.database.Column)
+     */
+    @Override
+    protected void bindColumn(PreparedStatement statement, int bindNo, Column c)
+            throws SQLException
+    {
+        if (c.getValue() != null)
+            statement.setObject(bindNo, c.getValue());
+        else if (c.getType() == 0 || c.getType() == Types.NULL)
+            statement.setNull(bindNo, Types.VARCHAR);
+        else
+            statement.setNull(bindNo, c.getType());
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -168,8 +192,14 @@ public class DerbyDatabase extends AbstractDatabase
      */
     public CsvWriter getCsvWriter(BufferedWriter writer)
     {
-        // Need to implement in order to support CSV.
-        throw new UnsupportedOperationException(
-                "CSV output is not supported for this database type");
+        // Follow the SYSCS_UTIL.SYSCS_IMPORT_TABLE defaults: quoted values
+        // with doubled quotes inside and nulls as empty, unquoted fields.
+        CsvWriter csv = new CsvWriter(writer);
+        csv.setQuoteChar('"');
+        csv.setQuoted(true);
+        csv.setEscapeChar('"');
+        csv.setNullPolicy(NullPolicy.skip);
+        csv.setWriteHeaders(false);
+        return csv;
     }
 }
@@ -22,482 +22,645 @@
 
 package com.continuent.tungsten.replicator.database;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 import org.apache.log4j.Logger;
 
 /**
  * Parses SQL statements to extract the SQL operation and the object, identified
- * by type, name and schema, to which it pertains.
+ * by type, name and schema, to which it pertains. Statements are classified in
+ * a single pass by a hand-written tokenizer that skips white space and
+ * comments, reads the contents of MySQL '/*!NNNNN' comments as ordinary SQL,
+ * and compares keywords in place without copying the statement. The only
+ * objects allocated are the returned operation and its names.
+ * <p/>
+ * Instances keep parsing state and must not be shared between threads.
  * 
  * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
  * @version 1.0
  */
 public class MySQLOperationMatcher implements SqlOperationMatcher
 {
-    private static Logger               logger          = Logger.getLogger(MySQLOperationMatcher.class);
-
-    // Maximum length to search down large strings.
-    private static int                  PREFIX_LENGTH   = 150;
-
-    private MySQLOperationStringBuilder prefixBuilder;
-
-    // CREATE {DATABASE | SCHEMA} [IF NOT EXISTS] db_name
-    protected Pattern                   createDb        = Pattern
-                                                                .compile(
-                                                                        "^\\s*create\\s*(?:database|schema)\\s*(?:if\\s*not\\s*exists\\s*){0,1}[`\"]*([a-zA-Z0-9_]+)",
-                                                                        Pattern.CASE_INSENSITIVE);
-    // DROP {DATABASE | SCHEMA} [IF EXISTS] db_name
-    protected Pattern                   dropDb          = Pattern
-                                                                .compile(
-                                                                        "^\\s*drop\\s*(?:database|schema)\\s*(?:if\\s*exists\\s*)?[`\"]*([a-zA-Z0-9_]+)",
-                                                                        Pattern.CASE_INSENSITIVE);
-    // CREATE [TEMPORARY] TABLE [IF NOT EXISTS] tbl_name
-    protected Pattern                   createTable     = Pattern
-                                                                .compile(
-                                                                        "^\\s*create\\s*(?:temporary\\s*)?table\\s*(?:if\\s*not\\s*exists\\s*){0,1}(?:[`\"]*([a-zA-Z0-9_]+)[`\"]*\\.){0,1}[`\"]*([a-zA-Z0-9_]+)",
-                                                                        Pattern.CASE_INSENSITIVE);
-    // DROP [TEMPORARY] TABLE [IF EXISTS]
-    protected Pattern                   dropTable       = Pattern
-                                                                .compile(
-                                                                        "^\\s*(drop\\s*(?:temporary\\s*)?table\\s*(?:if\\s+exists\\s+)?)(?:[`\"]*([a-zA-Z0-9_]+)[`\"]*\\.){0,1}[`\"]*([a-zA-Z0-9_]+)",
-                                                                        Pattern.CASE_INSENSITIVE);
-
-    protected Pattern                   dropTableMdata  = Pattern
-                                                                .compile(
-                                                                        "^\\s*(drop\\s*(?:temporary\\s*)?table\\s*(?:if\\s+exists\\s+)?)(?:[`\"]*(TUNGSTEN_INFO)[`\"]*\\.)[`\"]*([a-zA-Z0-9_]+)",
-                                                                        Pattern.CASE_INSENSITIVE);
-
-    // INSERT [LOW_PRIORITY | DELAYED | HIGH_PRIORITY] [IGNORE] [INTO] tbl_name
-    protected Pattern                   insert          = Pattern
-                                                                .compile(
-                                                                        "^\\s*insert\\s*(?:low_priority|delayed|high_priority)?\\s*(?:ignore\\s*)?(?:into\\s*)?(?:[`\"]*([a-zA-Z0-9_]+)[`\"]*\\.){0,1}[`\"]*([a-zA-Z0-9_]+)",
-                                                                        Pattern.CASE_INSENSITIVE);
-    // REPLACE [LOW_PRIORITY | DELAYED] [INTO] tbl_name
-    protected Pattern                   replace         = Pattern
-                                                                .compile(
-                                                                        "^\\s*replace\\s*(?:low_priority|delayed)?\\s*(?:into\\s*)?(?:[`\"]*([a-zA-Z0-9_]+)[`\"]*\\.){0,1}[`\"]*([a-zA-Z0-9_]+)",
-                                                                        Pattern.CASE_INSENSITIVE);
-    // UPDATE [LOW_PRIORITY] [IGNORE] table_reference
-    protected Pattern                   update          = Pattern
-                                                                .compile(
-                                                                        "^\\s*update\\s*(?:low_priority\\s*)?(?:ignore\\s*)?(?:[`\"]*([a-zA-Z0-9_]+)[`\"]*\\.){0,1}[`\"]*([a-zA-Z0-9_]+)",
-                                                                        Pattern.CASE_INSENSITIVE);
-    // DELETE [LOW_PRIORITY] [QUICK] [IGNORE] FROM tbl_name
-    protected Pattern                   delete          = Pattern
-                                                                .compile(
-                                                                        "^\\s*delete\\s*(?:low_priority\\s*)?(?:quick\\s*)?(?:ignore\\s*)?(?:from\\s*)?(?:[`\"]*([a-zA-Z0-9_]+)[`\"]*\\.){0,1}[`\"]*([a-zA-Z0-9_]+)",
-                                                                        Pattern.CASE_INSENSITIVE);
-    // TRUNCATE [TABLE] tbl_name
-    protected Pattern                   truncate        = Pattern
-                                                                .compile(
-                                                                        "^\\s*truncate\\s*(?:table\\s*)?(?:[`\"]*([a-zA-Z0-9_]+)[`\"]*\\.){0,1}[`\"]*([a-zA-Z0-9_]+)",
-                                                                        Pattern.CASE_INSENSITIVE);
-    // LOAD DATA [LOW_PRIORITY | CONCURRENT] [LOCAL] INFILE 'file_name' [REPLACE
-    // | IGNORE] INTO TABLE tbl_name
-    protected Pattern                   loadData        = Pattern
-                                                                .compile(
-                                                                        "^\\s*load\\s*data.*(?:replace|ignore)?\\s*(?:local\\s*)?infile\\s.*(?:low_priority|concurrent)?\\s*into\\s*table\\s*(?:[`\"]*([a-zA-Z0-9_]+)[`\"]*\\.){0,1}[`\"]*([a-zA-Z0-9_]+)",
-                                                                        Pattern.CASE_INSENSITIVE);
-    // SET variable_assignment [, variable_assignment] ...
-    protected Pattern                   set             = Pattern
-                                                                .compile(
-                                                                        "^\\s*set\\s*",
-                                                                        Pattern.CASE_INSENSITIVE);
-    // CREATE [DEFINER = { user | CURRENT_USER }] PROCEDURE name
-    // ([param1[,...]])
-    protected Pattern                   createProcedure = Pattern
-                                                                .compile(
-                                                                        "^\\s*create\\s*.*\\s*procedure\\s*{0,1}(?:[`\"]*([a-zA-Z0-9_]+)[`\"]*\\.){0,1}[`\"]*([a-zA-Z0-9_]+)",
-                                                                        Pattern.CASE_INSENSITIVE);
-    // DROP PROCEDURE [IF EXISTS]
-    protected Pattern                   dropProcedure   = Pattern
-                                                                .compile(
-                                                                        "^\\s*drop\\s*procedure\\s*(?:if\\s*exists\\s*)?(?:[`\"]*([a-zA-Z0-9_]+)[`\"]*\\.){0,1}[`\"]*([a-zA-Z0-9_]+)",
-                                                                        Pattern.CASE_INSENSITIVE);
-    // CREATE [DEFINER = { user | CURRENT_USER }] FUNCTION name
-    // ([param1[,...]])
-    protected Pattern                   createFunction  = Pattern
-                                                                .compile(
-                                                                        "^\\s*create\\s*.*\\s*function\\s*{0,1}(?:[`\"]*([a-zA-Z0-9_]+)[`\"]*\\.){0,1}[`\"]*([a-zA-Z0-9_]+)",
-                                                                        Pattern.CASE_INSENSITIVE);
-    // DROP PROCEDURE [IF EXISTS]
-    protected Pattern                   dropFunction    = Pattern
-                                                                .compile(
-                                                                        "^\\s*drop\\s*function\\s*(?:if\\s+exists\\s*)?(?:[`\"]*([a-zA-Z0-9_]+)[`\"]*\\.){0,1}[`\"]*([a-zA-Z0-9_]+)",
-                                                                        Pattern.CASE_INSENSITIVE);
-
-    // START TRANSACTION [WITH CONSISTENT SNAPSHOT] | BEGIN [WORK]
-    protected Pattern                   begin           = Pattern
-                                                                .compile(
-                                                                        "^(begin|start)",
-                                                                        Pattern.CASE_INSENSITIVE);
-
-    // COMMIT [WORK]
-    protected Pattern                   commit          = Pattern
-                                                                .compile(
-                                                                        "^(commit)*",
-                                                                        Pattern.CASE_INSENSITIVE);
-
-    // ROLLBACK
-    protected Pattern                   rollback        = Pattern
-                                                                .compile(
-                                                                        "^(rollback)*",
-                                                                        Pattern.CASE_INSENSITIVE);
-
-    // BEGIN ... END block
-    protected Pattern                   beginEnd        = Pattern
-                                                                .compile(
-                                                                        "^begin\\s*.*\\s+end",
-                                                                        Pattern.CASE_INSENSITIVE);
-
-    // SELECT ... FROM table_references
-    protected Pattern                   select          = Pattern
-                                                                .compile(
-                                                                        "^select",
-                                                                        Pattern.CASE_INSENSITIVE);
-
-    // ALTER [ONLINE | OFFLINE] [IGNORE] TABLE tbl_name ...
-    protected Pattern                   alter           = Pattern
-                                                                .compile(
-                                                                        "^\\s*alter\\s*(?:online|offline)?\\s*(?:ignore\\s*)?table\\s+(?:[`\"]*([a-zA-Z0-9_]+)[`\"]*\\.){0,1}[`\"]*([a-zA-Z0-9_]+)",
-                                                                        Pattern.CASE_INSENSITIVE);
-
-    // CREATE [ONLINE|OFFLINE] [UNIQUE|FULLTEXT|SPATIAL] INDEX index_name
-    // [index_type] ON tbl_name (index_col_name,...)
-    protected Pattern                   createIndex     = Pattern
-                                                                .compile(
-                                                                        "^\\s*create\\s*(?:online|offline)?\\s*(?:unique|fulltext|spatial)?\\s*?index.*\\son\\s*(?:[`\"]*([a-zA-Z0-9_]+)[`\"]*\\.){0,1}[`\"]*([a-zA-Z0-9_]+)",
-                                                                        Pattern.CASE_INSENSITIVE);
-
-    // DROP [ONLINE|OFFLINE] INDEX index_name ON tbl_name
-    protected Pattern                   dropIndex       = Pattern
-                                                                .compile(
-                                                                        "^\\s*drop\\s*(?:online|offline)?\\s*index.*\\son\\s*(?:[`\"]*([a-zA-Z0-9_]+)[`\"]*\\.){0,1}[`\"]*([a-zA-Z0-9_]+)",
-                                                                        Pattern.CASE_INSENSITIVE);
-
-    // CREATE [OR REPLACE] [ALGORITHM = {UNDEFINED | MERGE | TEMPTABLE}]
-    // [DEFINER = { user | CURRENT_USER }] [SQL SECURITY { DEFINER | INVOKER }]
-    // VIEW view_name [(column_list)] AS select_statement
-    protected Pattern                   createView      = Pattern
-                                                                .compile(
-                                                                        "^\\s*create\\s(?:or replace)?\\s*algorithm.*\\s*view\\s*(?:[`\"]*([a-zA-Z0-9_]+)[`\"]*\\.){0,1}[`\"]*([a-zA-Z0-9_]+)",
-                                                                        Pattern.CASE_INSENSITIVE);
-    // DROP VIEW [IF EXISTS] view_name
-    protected Pattern                   dropView        = Pattern
-                                                                .compile(
-                                                                        "^\\s*drop\\s*view\\s*(?:if\\s+exists\\s*)?(?:[`\"]*([a-zA-Z0-9_]+)[`\"]*\\.){0,1}[`\"]*([a-zA-Z0-9_]+)",
-                                                                        Pattern.CASE_INSENSITIVE);
-
-    // FLUSH TABLES
-    protected Pattern                   flushTables     = Pattern
-                                                                .compile(
-                                                                        "^\\s*flush\\s*tables",
-                                                                        Pattern.CASE_INSENSITIVE);
+    private static Logger    logger            = Logger.getLogger(MySQLOperationMatcher.class);
+
+    // Maximum number of tokens to search ahead for a keyword, which bounds
+    // the work done on large statements.
+    private static final int MAX_SEARCH_TOKENS = 64;
+
+    // Token types.
+    private static final int END               = 0;
+    private static final int WORD              = 1;
+    private static final int QUOTED            = 2;
+    private static final int STRING            = 3;
+    private static final int SYMBOL            = 4;
+
+    // Statement and position of the current token.
+    private String           statement;
+    private int              length;
+    private int              position;
+    private int              bangComments;
+    private int              tokenType;
+    private int              tokenStart;
+    private int              tokenEnd;
+
+    // Object name found by the last call to parseName().
+    private String           schema;
+    private String           name;
 
     /**
      * Create new instance.
      */
     public MySQLOperationMatcher()
     {
-        prefixBuilder = new MySQLOperationStringBuilder(PREFIX_LENGTH);
     }
 
     /**
      * Examines a SQL DDL/DML statement and returns the name of the SQL object
-     * it affects. To avoid unnecessary regex searches we test for the beginning
-     * keyword of each expression.
+     * it affects. We dispatch on the first keyword and then follow the syntax
+     * of that statement just far enough to find the object name.
      */
     public SqlOperation match(String inputStatement)
     {
-        // Construct a prefix cleansed of leading whitespace and embedded
-        // comments that we can use for efficient searching.
-        String statement = prefixBuilder.build(inputStatement);
-        String prefix = statement
-                .substring(0, Math.min(statement.length(), 15)).toUpperCase();
-
-        // Define a matcher instance and start looking...
-        Matcher m;
-
-        // Look for an insert statement.
-        if (prefix.startsWith("INSERT"))
+        statement = inputStatement;
+        length = inputStatement.length();
+        position = 0;
+        bangComments = 0;
+        next();
+
+        SqlOperation op = null;
+        if (tokenType == WORD)
         {
-            m = insert.matcher(statement);
-            if (m.find())
+            switch (Character.toUpperCase(statement.charAt(tokenStart)))
             {
-                return new SqlOperation(SqlOperation.TABLE,
-                        SqlOperation.INSERT, m.group(1), m.group(2), false);
+                case 'A' :
+                    if (accept("ALTER"))
+                        op = matchAlter();
+                    break;
+                case 'B' :
+                    if (accept("BEGIN"))
+                        op = matchBegin();
+                    break;
+                case 'C' :
+                    if (accept("COMMIT"))
+                        op = new SqlOperation(SqlOperation.TRANSACTION,
+                                SqlOperation.COMMIT, null, null);
+                    else if (accept("CREATE"))
+                        op = matchCreate();
+                    break;
+                case 'D' :
+                    if (accept("DELETE"))
+                        op = matchDelete();
+                    else if (isKeyword("DROP"))
+                        op = matchDrop();
+                    break;
+                case 'F' :
+                    if (accept("FLUSH") && isKeyword("TABLES"))
+                        op = new SqlOperation(SqlOperation.DBMS,
+                                SqlOperation.FLUSH_TABLES, null, null);
+                    break;
+                case 'I' :
+                    if (accept("INSERT"))
+                        op = matchInsert();
+                    break;
+                case 'L' :
+                    if (accept("LOAD"))
+                        op = matchLoadData();
+                    break;
+                case 'R' :
+                    if (accept("REPLACE"))
+                        op = matchReplace();
+                    else if (accept("ROLLBACK"))
+                        op = new SqlOperation(SqlOperation.TRANSACTION,
+                                SqlOperation.ROLLBACK, null, null);
+                    break;
+                case 'S' :
+                    if (accept("SELECT"))
+                        op = new SqlOperation(SqlOperation.TABLE,
+                                SqlOperation.SELECT, null, null, false);
+                    else if (accept("SET"))
+                        op = new SqlOperation(SqlOperation.SESSION,
+                                SqlOperation.SET, null, null, false);
+                    else if (accept("START"))
+                        op = new SqlOperation(SqlOperation.TRANSACTION,
+                                SqlOperation.BEGIN, null, null, false);
+                    break;
+                case 'T' :
+                    if (accept("TRUNCATE"))
+                        op = matchTruncate();
+                    break;
+                case 'U' :
+                    if (accept("UPDATE"))
+                        op = matchUpdate();
+                    break;
             }
         }
+        statement = null;
+        if (op != null)
+            return op;
 
-        // Look for a replace statement.
-        else if (prefix.startsWith("REPLACE"))
+        // We didn't recognize anything.
+        SqlOperation unrecognized = new SqlOperation(SqlOperation.UNRECOGNIZED,
+                SqlOperation.UNRECOGNIZED, null, null, false);
+        unrecognized.setBidiUnsafe(true);
+        if (logger.isDebugEnabled())
         {
-            m = replace.matcher(statement);
-            if (m.find())
-            {
-                return new SqlOperation(SqlOperation.TABLE,
-                        SqlOperation.REPLACE, m.group(1), m.group(2), false);
-            }
+            logger.debug("Unrecognized SQL statement: " + inputStatement);
+        }
+        return unrecognized;
+    }
+
+    // INSERT [LOW_PRIORITY | DELAYED | HIGH_PRIORITY] [IGNORE] [INTO] tbl_name
+    private SqlOperation matchInsert()
+    {
+        if (!accept("LOW_PRIORITY") && !accept("DELAYED"))
+            accept("HIGH_PRIORITY");
+        accept("IGNORE");
+        accept("INTO");
+        if (parseName())
+            return new SqlOperation(SqlOperation.TABLE, SqlOperation.INSERT,
+                    schema, name, false);
+        return null;
+    }
+
+    // REPLACE [LOW_PRIORITY | DELAYED] [INTO] tbl_name
+    private SqlOperation matchReplace()
+    {
+        if (!accept("LOW_PRIORITY"))
+            accept("DELAYED");
+        accept("INTO");
+        if (parseName())
+            return new SqlOperation(SqlOperation.TABLE, SqlOperation.REPLACE,
+                    schema, name, false);
+        return null;
+    }
+
+    // UPDATE [LOW_PRIORITY] [IGNORE] table_reference
+    private SqlOperation matchUpdate()
+    {
+        accept("LOW_PRIORITY");
+        accept("IGNORE");
+        if (parseName())
+            return new SqlOperation(SqlOperation.TABLE, SqlOperation.UPDATE,
+                    schema, name, false);
+        return null;
+    }
+
+    // DELETE [LOW_PRIORITY] [QUICK] [IGNORE] FROM tbl_name
+    private SqlOperation matchDelete()
+    {
+        accept("LOW_PRIORITY");
+        accept("QUICK");
+        accept("IGNORE");
+        accept("FROM");
+        if (parseName())
+            return new SqlOperation(SqlOperation.TABLE, SqlOperation.DELETE,
+                    schema, name, false);
+        return null;
+    }
+
+    // TRUNCATE [TABLE] tbl_name
+    private SqlOperation matchTruncate()
+    {
+        accept("TABLE");
+        if (parseName())
+            return new SqlOperation(SqlOperation.TABLE, SqlOperation.TRUNCATE,
+                    schema, name);
+        return null;
+    }
+
+    // LOAD DATA [LOW_PRIORITY | CONCURRENT] [LOCAL] INFILE 'file_name' [REPLACE
+    // | IGNORE] INTO TABLE tbl_name
+    private SqlOperation matchLoadData()
+    {
+        if (accept("DATA") && searchFor("INTO") && accept("TABLE")
+                && parseName())
+            return new SqlOperation(SqlOperation.TABLE,
+                    SqlOperation.LOAD_DATA, schema, name, false);
+        return null;
+    }
+
+    // ALTER [ONLINE | OFFLINE] [IGNORE] TABLE tbl_name ...
+    private SqlOperation matchAlter()
+    {
+        if (!accept("ONLINE"))
+            accept("OFFLINE");
+        accept("IGNORE");
+        if (accept("TABLE") && parseName())
+            return new SqlOperation(SqlOperation.TABLE, SqlOperation.ALTER,
+                    schema, name);
+        return null;
+    }
+
+    // BEGIN ... END block or BEGIN [WORK]
+    private SqlOperation matchBegin()
+    {
+        if (searchFor("END"))
+            return new SqlOperation(SqlOperation.BLOCK, SqlOperation.BEGIN_END,
+                    null, null, false);
+        return new SqlOperation(SqlOperation.TRANSACTION, SqlOperation.BEGIN,
+                null, null, false);
+    }
+
+    // Parses CREATE statements following the CREATE keyword.
+    private SqlOperation matchCreate()
+    {
+        // CREATE {DATABASE | SCHEMA} [IF NOT EXISTS] db_name
+        if (accept("DATABASE") || accept("SCHEMA"))
+        {
+            skipIfExists(true);
+            if (isIdentifier())
+                return new SqlOperation(SqlOperation.SCHEMA,
+                        SqlOperation.CREATE, identifier(), null);
+            return null;
         }
 
-        // Look for an update statement.
-        else if (prefix.startsWith("UPDATE"))
+        // CREATE [TEMPORARY] TABLE [IF NOT EXISTS] tbl_name
+        if (accept("TEMPORARY") || isKeyword("TABLE"))
         {
-            m = update.matcher(statement);
-            if (m.find())
+            if (accept("TABLE"))
             {
-                return new SqlOperation(SqlOperation.TABLE,
-                        SqlOperation.UPDATE, m.group(1), m.group(2), false);
+                skipIfExists(true);
+                if (parseName())
+                    return new SqlOperation(SqlOperation.TABLE,
+                            SqlOperation.CREATE, schema, name);
             }
+            return null;
         }
 
-        // Look for a delete statement.
-        else if (prefix.startsWith("DELETE"))
+        // CREATE [ONLINE|OFFLINE] [UNIQUE|FULLTEXT|SPATIAL] INDEX index_name
+        // [index_type] ON tbl_name (index_col_name,...)
+        if (!accept("ONLINE"))
+            accept("OFFLINE");
+        if (!accept("UNIQUE") && !accept("FULLTEXT"))
+            accept("SPATIAL");
+        if (accept("INDEX"))
         {
-            m = delete.matcher(statement);
-            if (m.find())
-            {
-                return new SqlOperation(SqlOperation.TABLE,
-                        SqlOperation.DELETE, m.group(1), m.group(2), false);
-            }
+            if (searchFor("ON") && parseName())
+                return new SqlOperation(SqlOperation.INDEX,
+                        SqlOperation.CREATE, schema, name);
+            return null;
         }
 
-        // Look for a commit statement.
-        else if (prefix.startsWith("COMMIT"))
+        // CREATE [OR REPLACE] [ALGORITHM = {UNDEFINED | MERGE | TEMPTABLE}]
+        // [DEFINER = { user | CURRENT_USER }] [SQL SECURITY { DEFINER |
+        // INVOKER }] {VIEW | PROCEDURE | [AGGREGATE] FUNCTION} name
+        while (true)
         {
-            m = commit.matcher(statement);
-            if (m.find())
+            if (accept("OR"))
+                accept("REPLACE");
+            else if (accept("ALGORITHM") || accept("DEFINER"))
+                skipOptionValue();
+            else if (accept("SQL"))
             {
-                return new SqlOperation(SqlOperation.TRANSACTION,
-                        SqlOperation.COMMIT, null, null);
+                accept("SECURITY");
+                next();
             }
+            else
+                break;
+        }
+        if (accept("VIEW"))
+        {
+            if (parseName())
+                return new SqlOperation(SqlOperation.VIEW,
+                        SqlOperation.CREATE, schema, name);
+        }
+        else if (accept("PROCEDURE"))
+        {
+            if (parseName())
+                return new SqlOperation(SqlOperation.PROCEDURE,
+                        SqlOperation.CREATE, schema, name);
+        }
+        else if (accept("FUNCTION")
+                || (accept("AGGREGATE") && accept("FUNCTION")))
+        {
+            if (parseName())
+                return new SqlOperation(SqlOperation.FUNCTION,
+                        SqlOperation.CREATE, schema, name);
         }
+        return null;
+    }
+
+    // Parses DROP statements starting at the DROP keyword.
+    private SqlOperation matchDrop()
+    {
+        int commandStart = tokenStart;
+        next();
 
-        // Look for a rollback statement
-        else if (prefix.startsWith("ROLLBACK"))
+        // DROP {DATABASE | SCHEMA} [IF EXISTS] db_name
+        if (accept("DATABASE") || accept("SCHEMA"))
         {
-            m = rollback.matcher(statement);
-            if (m.find())
-            {
-                return new SqlOperation(SqlOperation.TRANSACTION,
-                        SqlOperation.ROLLBACK, null, null);
-            }
+            skipIfExists(false);
+            if (isIdentifier())
+                return new SqlOperation(SqlOperation.SCHEMA,
+                        SqlOperation.DROP, identifier(), null);
+            return null;
         }
 
-        // Look for a begin statement.
-        else if (prefix.startsWith("BEGIN") || prefix.startsWith("START"))
+        // DROP [TEMPORARY] TABLE [IF EXISTS] tbl_name [, tbl_name] ...
+        if (accept("TEMPORARY") || isKeyword("TABLE"))
         {
-            // Begin ... end block.
-            m = beginEnd.matcher(statement);
-            if (m.find())
+            if (!accept("TABLE"))
+                return null;
+            skipIfExists(false);
+            String command = statement.substring(commandStart, tokenStart);
+            if (!parseName())
+                return null;
+
+            // Tungsten drops its own metadata in statements like DROP TABLE
+            // IF EXISTS TUNGSTEN_INFO.<service_name>, ... so report the
+            // following table instead.
+            if ("TUNGSTEN_INFO".equalsIgnoreCase(schema) && isSymbol(','))
             {
-                return new SqlOperation(SqlOperation.BLOCK,
-                        SqlOperation.BEGIN_END, null, null, false);
+                if (logger.isDebugEnabled())
+                    logger.debug("Found TUNGSTEN metadata");
+                next();
+                if (!parseName())
+                    return null;
             }
-            // Begin transaction.
-            m = begin.matcher(statement);
-            if (m.find())
+            if (logger.isDebugEnabled())
             {
-                return new SqlOperation(SqlOperation.TRANSACTION,
-                        SqlOperation.BEGIN, null, null, false);
+                logger.debug("Command " + command + " for table : " + schema
+                        + " " + name);
             }
+            return new SqlOperation(command, SqlOperation.TABLE,
+                    SqlOperation.DROP, schema, name);
         }
 
-        // Look for a commit statement.
-        else if (prefix.startsWith("SELECT"))
+        // DROP VIEW [IF EXISTS] view_name
+        if (accept("VIEW"))
         {
-            m = select.matcher(statement);
-            if (m.find())
-            {
-                return new SqlOperation(SqlOperation.TABLE,
-                        SqlOperation.SELECT, null, null, false);
-            }
+            skipIfExists(false);
+            if (parseName())
+                return new SqlOperation(SqlOperation.VIEW, SqlOperation.DROP,
+                        schema, name);
+            return null;
         }
 
-        // Look for a set statement.
-        else if (prefix.startsWith("SET"))
+        // DROP PROCEDURE [IF EXISTS] sp_name
+        if (accept("PROCEDURE"))
         {
-            m = set.matcher(statement);
-            if (m.find())
-            {
-                return new SqlOperation(SqlOperation.SESSION, SqlOperation.SET,
-                        null, null, false);
-            }
+            skipIfExists(false);
+            if (parseName())
+                return new SqlOperation(SqlOperation.PROCEDURE,
+                        SqlOperation.DROP, schema, name);
+            return null;
         }
 
-        // Look for create commands.
-        else if (prefix.startsWith("CREATE"))
+        // DROP FUNCTION [IF EXISTS] sp_name
+        if (accept("FUNCTION"))
         {
-            // Create database.
-            m = createDb.matcher(statement);
-            if (m.find())
-            {
-                return new SqlOperation(SqlOperation.SCHEMA,
-                        SqlOperation.CREATE, m.group(1), null);
-            }
-            // Create table.
-            m = createTable.matcher(statement);
-            if (m.find())
-            {
-                return new SqlOperation(SqlOperation.TABLE,
-                        SqlOperation.CREATE, m.group(1), m.group(2));
-            }
-            // Create index.
-            m = createIndex.matcher(statement);
-            if (m.find())
-            {
-                return new SqlOperation(SqlOperation.INDEX,
-                        SqlOperation.CREATE, m.group(1), m.group(2));
-            }
-            // Create view.
-            m = createView.matcher(statement);
-            if (m.find())
-            {
-                SqlOperation createView = new SqlOperation(SqlOperation.VIEW,
-                        SqlOperation.CREATE, m.group(1), m.group(2));
-                return createView;
-            }
-            // Create procedure.
-            m = createProcedure.matcher(statement);
-            if (m.find())
-            {
-                return new SqlOperation(SqlOperation.PROCEDURE,
-                        SqlOperation.CREATE, m.group(1), m.group(2));
-            }
-            // Create function.
-            m = createFunction.matcher(statement);
-            if (m.find())
-            {
+            skipIfExists(false);
+            if (parseName())
                 return new SqlOperation(SqlOperation.FUNCTION,
-                        SqlOperation.CREATE, m.group(1), m.group(2));
-            }
+                        SqlOperation.DROP, schema, name);
+            return null;
         }
 
-        // Look for drop commands.
-        else if (prefix.startsWith("DROP"))
+        // DROP [ONLINE|OFFLINE] INDEX index_name ON tbl_name
+        if (!accept("ONLINE"))
+            accept("OFFLINE");
+        if (accept("INDEX") && searchFor("ON") && parseName())
+            return new SqlOperation(SqlOperation.INDEX, SqlOperation.DROP,
+                    schema, name);
+        return null;
+    }
+
+    // Skips IF [NOT] EXISTS.
+    private void skipIfExists(boolean not)
+    {
+        if (accept("IF"))
         {
-            // Drop database
-            m = dropDb.matcher(statement);
-            if (m.find())
-            {
-                return new SqlOperation(SqlOperation.SCHEMA, SqlOperation.DROP,
-                        m.group(1), null);
-            }
-            // Drop table.
-            m = dropTable.matcher(statement);
-            if (m.find())
-            {
-                // Check for Tungsten Metadata
-                // DROP TABLE IF EXISTS TUNGSTEN_INFO.<service_name>, ...
-                String command = m.group(1);
-                if (logger.isDebugEnabled())
-                    logger.debug("Command is " + command);
-                Matcher metadata = dropTableMdata.matcher(statement);
-                if (metadata.find())
-                {
-                    if (logger.isDebugEnabled())
-                        logger.debug("Found TUNGSTEN metadata");
-                    statement = command
-                            + statement.substring(statement.indexOf(",",
-                                    statement.indexOf("TUNGSTEN_INFO")) + 1);
-                    if (logger.isDebugEnabled())
-                        logger.debug("Analyzing statement :" + statement);
-                    m.reset(statement);
-                    m.find();
-                }
-                if (logger.isDebugEnabled())
-                {
-                    logger.debug("Command " + command + " for table : "
-                            + m.group(2) + " " + m.group(3));
+            if (not)
+                accept("NOT");
+            accept("EXISTS");
+        }
+    }
 
-                }
-                return new SqlOperation(command, SqlOperation.TABLE,
-                        SqlOperation.DROP, m.group(2), m.group(3));
-            }
-            // Drop view.
-            m = dropView.matcher(statement);
-            if (m.find())
+    // Skips the value of an option like ALGORITHM = MERGE or DEFINER =
+    // `user`@`host`, where the user may also be CURRENT_USER().
+    private void skipOptionValue()
+    {
+        if (isSymbol('='))
+            next();
+        next();
+        if (isSymbol('@'))
+        {
+            next();
+            next();
+        }
+        else if (isSymbol('('))
+        {
+            next();
+            if (isSymbol(')'))
+                next();
+        }
+    }
+
+    // Searches a limited number of tokens ahead for a keyword and moves past
+    // it. Returns false if the keyword is not found.
+    private boolean searchFor(String keyword)
+    {
+        for (int i = 0; i < MAX_SEARCH_TOKENS && tokenType != END; i++)
+        {
+            if (accept(keyword))
+                return true;
+            next();
+        }
+        return false;
+    }
+
+    // Parses an object name that may be qualified by a schema name and moves
+    // past it. Returns false if there is no name at the current token.
+    private boolean parseName()
+    {
+        if (!isIdentifier())
+            return false;
+        String first = identifier();
+        if (position < length && statement.charAt(position) == '.')
+        {
+            next();
+            next();
+            if (!isIdentifier())
+                return false;
+            schema = first;
+            name = identifier();
+        }
+        else
+        {
+            schema = null;
+            name = first;
+        }
+        next();
+        return true;
+    }
+
+    // Returns true if the current token is the keyword, which must be in
+    // upper case.
+    private boolean isKeyword(String keyword)
+    {
+        int keywordLength = keyword.length();
+        return tokenType == WORD
+                && tokenEnd - tokenStart == keywordLength
+                && statement.regionMatches(true, tokenStart, keyword, 0,
+                        keywordLength);
+    }
+
+    // Moves past the current token if it is the keyword.
+    private boolean accept(String keyword)
+    {
+        if (isKeyword(keyword))
+        {
+            next();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isSymbol(char c)
+    {
+        return tokenType == SYMBOL && statement.charAt(tokenStart) == c;
+    }
+
+    private boolean isIdentifier()
+    {
+        return tokenType == WORD
+                || (tokenType == QUOTED && tokenEnd - tokenStart > 2);
+    }
+
+    // Returns the current token as an identifier, removing quotes.
+    private String identifier()
+    {
+        if (tokenType == WORD)
+            return statement.substring(tokenStart, tokenEnd);
+
+        char quote = statement.charAt(tokenStart);
+        int end = tokenEnd;
+        if (statement.charAt(end - 1) == quote)
+            end--;
+        String value = statement.substring(tokenStart + 1, end);
+        if (value.indexOf(quote) > -1)
+        {
+            String q = String.valueOf(quote);
+            value = value.replace(q + q, q);
+        }
+        return value;
+    }
+
+    // Reads the next token, skipping white space and comments.
+    private void next()
+    {
+        skipWhitespace();
+        tokenStart = position;
+        if (position >= length)
+        {
+            tokenType = END;
+        }
+        else
+        {
+            char c = statement.charAt(position);
+            if (isWordChar(c))
             {
-                return new SqlOperation(SqlOperation.VIEW, SqlOperation.DROP,
-                        m.group(1), m.group(2));
+                while (position < length
+                        && isWordChar(statement.charAt(position)))
+                    position++;
+                tokenType = WORD;
             }
-            // Drop index.
-            m = dropIndex.matcher(statement);
-            if (m.find())
+            else if (c == '`' || c == '"')
             {
-                return new SqlOperation(SqlOperation.INDEX, SqlOperation.DROP,
-                        m.group(1), m.group(2));
+                position = skipQuoted(c, position + 1);
+                tokenType = QUOTED;
             }
-            // Drop procedure.
-            m = dropProcedure.matcher(statement);
-            if (m.find())
+            else if (c == '\'')
             {
-                return new SqlOperation(SqlOperation.PROCEDURE,
-                        SqlOperation.DROP, m.group(1), m.group(2));
+                position = skipQuoted(c, position + 1);
+                tokenType = STRING;
             }
-            // Drop function.
-            m = dropProcedure.matcher(statement);
-            if (m.find())
+            else
             {
-                return new SqlOperation(SqlOperation.PROCEDURE,
-                        SqlOperation.DROP, m.group(1), m.group(2));
+                position++;
+                tokenType = SYMBOL;
             }
         }
+        tokenEnd = position;
+    }
 
-        // Look for a truncate statement.
-        else if (prefix.startsWith("TRUNCATE"))
+    // Skips white space and comments. MySQL '/*!NNNNN' comments contain SQL,
+    // so we skip only the comment characters around them.
+    private void skipWhitespace()
+    {
+        while (position < length)
         {
-            m = truncate.matcher(statement);
-            if (m.find())
+            char c = statement.charAt(position);
+            if (Character.isWhitespace(c))
+                position++;
+            else if (c == '/' && position + 1 < length
+                    && statement.charAt(position + 1) == '*')
             {
-                return new SqlOperation(SqlOperation.TABLE,
-                        SqlOperation.TRUNCATE, m.group(1), m.group(2));
+                if (position + 2 < length
+                        && statement.charAt(position + 2) == '!')
+                {
+                    position += 3;
+                    while (position < length
+                            && Character.isDigit(statement.charAt(position)))
+                        position++;
+                    bangComments++;
+                }
+                else
+                {
+                    int commentEnd = statement.indexOf("*/", position + 2);
+                    position = (commentEnd == -1) ? length : commentEnd + 2;
+                }
             }
-        }
-
-        // Look for a load data statement.
-        else if (prefix.startsWith("LOAD"))
-        {
-            m = loadData.matcher(statement);
-            if (m.find())
+            else if (c == '*' && bangComments > 0 && position + 1 < length
+                    && statement.charAt(position + 1) == '/')
             {
-                return new SqlOperation(SqlOperation.TABLE,
-                        SqlOperation.LOAD_DATA, m.group(1), m.group(2), false);
+                position += 2;
+                bangComments--;
             }
-        }
-
-        // Look for an ALTER statement
-        else if (prefix.startsWith("ALTER"))
-        {
-            m = alter.matcher(statement);
-            if (m.find())
+            else if (c == '#' || (c == '-' && isDashComment()))
             {
-                return new SqlOperation(SqlOperation.TABLE, SqlOperation.ALTER,
-                        m.group(1), m.group(2));
+                while (position < length && statement.charAt(position) != '\n')
+                    position++;
             }
+            else
+                break;
         }
+    }
+
+    // Returns true if a "--" comment starts at the current position. MySQL
+    // requires white space or the end of input after the dashes.
+    private boolean isDashComment()
+    {
+        if (position + 1 >= length || statement.charAt(position + 1) != '-')
+            return false;
+        return position + 2 == length
+                || Character.isWhitespace(statement.charAt(position + 2));
+    }
 
-        // Look for a FLUSH statement
-        else if (prefix.startsWith("FLUSH"))
+    // Skips a quoted identifier or string and returns the position after the
+    // closing quote. Quotes are escaped by doubling them and, in strings, by
+    // a backslash.
+    private int skipQuoted(char quote, int start)
+    {
+        int i = start;
+        while (i < length)
         {
-            m = flushTables.matcher(statement);
-            if (m.find())
+            char c = statement.charAt(i);
+            if (c == '\\' && quote != '`')
+                i += 2;
+            else if (c == quote)
             {
-                return new SqlOperation(SqlOperation.DBMS,
-                        SqlOperation.FLUSH_TABLES, null, null);
+                if (i + 1 < length && statement.charAt(i + 1) == quote)
+                    i += 2;
+                else
+                    return i + 1;
             }
+            else
+                i++;
         }
+        return length;
+    }
 
-        // We didn't recognize anything.
-        SqlOperation unrecognized = new SqlOperation(SqlOperation.UNRECOGNIZED,
-                SqlOperation.UNRECOGNIZED, null, null, false);
-        unrecognized.setBidiUnsafe(true);
-        if (logger.isDebugEnabled())
-        {
-            logger.debug("Unrecognized SQL statement: " + inputStatement);
-        }
-        return unrecognized;
+    private static boolean isWordChar(char c)
+    {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
     }
-}
\ No newline at end of file
+}
@@ -107,6 +107,15 @@ public class PreparedStatementCache
         cache.invalidate(key);
     }
 
+    /**
+     * Release all prepared statements whose key starts with the given prefix,
+     * returning the number released.
+     */
+    public int invalidateByPrefix(String prefix)
+    {
+        return cache.invalidateByPrefix(prefix);
+    }
+
     /**
      * Release all metadata in the cache.
      */
@@ -0,0 +1,113 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.database;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remembers decisions that depend only on a schema and table name, such as
+ * whether a filter drops a table. Values are held in a map for each schema,
+ * so look-ups do not build a combined key. The cache may be read and updated
+ * by several threads.
+ * <p/>
+ * The cache is bounded. When it reaches its capacity it is emptied, which is
+ * cheaper than tracking use order and costs little when the working set of
+ * tables fits, as it normally does. Null names are stored as empty strings.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public class TableDecisionCache<V>
+{
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, V>> schemas = new ConcurrentHashMap<String, ConcurrentHashMap<String, V>>();
+    private final AtomicInteger                                           size    = new AtomicInteger();
+    private final int                                                     capacity;
+
+    /**
+     * Creates a new cache.
+     * 
+     * @param capacity Number of decisions at which the cache is emptied
+     */
+    public TableDecisionCache(int capacity)
+    {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the decision for a table or null if there is none.
+     */
+    public V get(String schema, String table)
+    {
+        ConcurrentHashMap<String, V> tables = schemas.get(key(schema));
+        if (tables == null)
+            return null;
+        else
+            return tables.get(key(table));
+    }
+
+    /**
+     * Stores the decision for a table.
+     */
+    public void put(String schema, String table, V value)
+    {
+        if (size.get() >= capacity && get(schema, table) == null)
+            invalidateAll();
+
+        ConcurrentHashMap<String, V> tables = schemas.get(key(schema));
+        if (tables == null)
+        {
+            tables = new ConcurrentHashMap<String, V>();
+            ConcurrentHashMap<String, V> existing = schemas.putIfAbsent(
+                    key(schema), tables);
+            if (existing != null)
+                tables = existing;
+        }
+        if (tables.put(key(table), value) == null)
+            size.incrementAndGet();
+    }
+
+    /**
+     * Discards all decisions, for example because the rules that produced
+     * them have changed.
+     */
+    public void invalidateAll()
+    {
+        schemas.clear();
+        size.set(0);
+    }
+
+    /**
+     * Returns the number of decisions stored.
+     */
+    public int size()
+    {
+        return size.get();
+    }
+
+    // Returns the map key for a name.
+    private static String key(String name)
+    {
+        return name == null ? "" : name;
+    }
+}
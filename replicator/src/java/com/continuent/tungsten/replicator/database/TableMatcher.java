@@ -22,7 +22,6 @@
 
 package com.continuent.tungsten.replicator.database;
 
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
@@ -38,22 +37,30 @@ import org.apache.log4j.Logger;
  * series of characters or a single character, respectively. For example,
  * "test.*" matches all tables in database test, and "test?.foo" matches tables
  * "test1.foo" and "test2.foo" but not "test.foo".
+ * <p/>
+ * Match results are remembered for each schema and table, so patterns are
+ * evaluated only the first time a name is seen after each call to prepare().
+ * Matchers may be shared between threads once prepared.
  * 
  * @author <a href="mailto:stephane.giron@continuent.com">Stephane Giron</a>
  * @version 1.0
  */
 public class TableMatcher
 {
-    private static Logger logger = Logger.getLogger(TableMatcher.class);
+    private static Logger                     logger           = Logger.getLogger(TableMatcher.class);
+
+    // Maximum number of remembered match results.
+    private static final int                  MATCH_CACHE_SIZE = 10000;
 
     /** Comma separated list of schema/table patterns. */
-    private String        patternString;
+    private String                            patternString;
 
-    private Pattern       dbPattern;
-    private Matcher       dbMatcher;
+    private Pattern                           dbPattern;
+    private Pattern                           tablePattern;
 
-    private Pattern       tablePattern;
-    private Matcher       tableMatcher;
+    // Match results by schema and table.
+    private final TableDecisionCache<Boolean> matchCache       = new TableDecisionCache<Boolean>(
+                                                                       MATCH_CACHE_SIZE);
 
     /**
      * Prepares matcher for use.
@@ -65,11 +72,10 @@ public class TableMatcher
     {
         this.patternString = patternString;
 
-        // Clear patterns.
+        // Clear patterns and results of earlier matches.
         dbPattern = null;
-        dbMatcher = null;
         tablePattern = null;
-        tableMatcher = null;
+        matchCache.invalidateAll();
 
         // If empty, we do nothing.
         if (patternString == null || patternString.length() == 0)
@@ -133,18 +139,25 @@ public class TableMatcher
      * @return True if there is a match
      */
     public boolean match(String schema, String table)
+    {
+        Boolean match = matchCache.get(schema, table);
+        if (match == null)
+        {
+            match = matchRaw(schema, table);
+            matchCache.put(schema, table, match);
+        }
+        return match;
+    }
+
+    // Evaluates the patterns against a schema and table.
+    private boolean matchRaw(String schema, String table)
     {
         // Check for an explicitly replicated schema.
         if (dbPattern != null)
         {
             if (logger.isDebugEnabled())
                 logger.debug("Checking if database matches: " + schema);
-            if (dbMatcher == null)
-                dbMatcher = dbPattern.matcher(schema);
-            else
-                dbMatcher.reset(schema);
-
-            if (dbMatcher.matches())
+            if (dbPattern.matcher(schema).matches())
             {
                 if (logger.isDebugEnabled())
                     logger.debug("Match db filter");
@@ -157,16 +170,9 @@ public class TableMatcher
         {
             String searchedTable = fullyQualifiedName(schema, table);
 
-            if (tablePattern != null)
-            {
-                if (tableMatcher == null)
-                    tableMatcher = tablePattern.matcher(searchedTable);
-                else
-                    tableMatcher.reset(searchedTable);
-
-                if (tableMatcher.matches())
-                    return true;
-            }
+            if (tablePattern != null
+                    && tablePattern.matcher(searchedTable).matches())
+                return true;
         }
 
         // We did not get a match.
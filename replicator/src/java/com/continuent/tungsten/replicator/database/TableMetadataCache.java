@@ -33,7 +33,10 @@ import com.continuent.tungsten.common.cache.IndexedLRUCache;
  */
 public class TableMetadataCache implements CacheResourceManager<Table>
 {
-    IndexedLRUCache<Table> cache;
+    IndexedLRUCache<Table>      cache;
+
+    // Optional listener to notify when table metadata is dropped.
+    CacheResourceManager<Table> releaseListener;
 
     /**
      * Creates a new table metadata cache.
@@ -51,7 +54,18 @@ public class TableMetadataCache implements CacheResourceManager<Table>
      */
     public void release(Table metadata)
     {
-        // Do nothing.
+        if (releaseListener != null)
+            releaseListener.release(metadata);
+    }
+
+    /**
+     * Sets a listener that is called whenever table metadata is dropped from
+     * the cache, for example so that clients can free resources that depend
+     * on the table definition.
+     */
+    public void setReleaseListener(CacheResourceManager<Table> releaseListener)
+    {
+        this.releaseListener = releaseListener;
     }
 
     /**
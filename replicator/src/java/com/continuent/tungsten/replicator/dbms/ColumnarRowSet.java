@@ -0,0 +1,327 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.dbms;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
+
+/**
+ * Stores row values by column rather than as one ColumnVal object per value.
+ * Integer and Long values are held in primitive arrays and boxed only when
+ * read through {@link #getValue(int, int)}; other values are stored as is.
+ * A single bitmap ordered by row tracks present values, so unset values read
+ * as null.
+ * <p>
+ * A column holds Integer or Long values in a long array as long as all its
+ * values have the same type. When a value of another type arrives the column
+ * switches to an object array, so values always read back with the type
+ * that was stored.
+ * <p>
+ * This class is not thread-safe.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public class ColumnarRowSet implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    // Storage used by a column.
+    private static final byte EMPTY            = 0;
+    private static final byte INT              = 1;
+    private static final byte LONG             = 2;
+    private static final byte OBJECT           = 3;
+
+    private final int         columnCount;
+    private int               rowCount;
+    private int               capacity;
+
+    // Per-column storage.
+    private final byte[]      kinds;
+    private final long[][]    longs;
+    private final Object[][]  objects;
+
+    // Present values, one bit per value in row order.
+    private long[]            present;
+
+    /**
+     * Creates a new row set.
+     * 
+     * @param columnCount Number of values in each row
+     * @param expectedRows Initial row capacity
+     */
+    public ColumnarRowSet(int columnCount, int expectedRows)
+    {
+        this.columnCount = columnCount;
+        this.capacity = Math.max(1, expectedRows);
+        kinds = new byte[columnCount];
+        longs = new long[columnCount][];
+        objects = new Object[columnCount][];
+        present = new long[bitmapWords(capacity)];
+    }
+
+    /** Returns the number of rows. */
+    public int size()
+    {
+        return rowCount;
+    }
+
+    /** Returns the number of values in each row. */
+    public int getColumnCount()
+    {
+        return columnCount;
+    }
+
+    /**
+     * Adds a row whose values are all null.
+     * 
+     * @return Index of the new row
+     */
+    public int addRow()
+    {
+        if (rowCount == capacity)
+            grow(capacity * 2);
+        return rowCount++;
+    }
+
+    /** Sets a value to null. */
+    public void setNull(int row, int column)
+    {
+        checkRow(row);
+        setPresent(row, column, false);
+        if (objects[column] != null)
+            objects[column][row] = null;
+    }
+
+    /** Sets an Integer value without boxing. */
+    public void setInt(int row, int column, int value)
+    {
+        checkRow(row);
+        if (prepareLongs(column, INT))
+            longs[column][row] = value;
+        else
+            objects[column][row] = Integer.valueOf(value);
+        setPresent(row, column, true);
+    }
+
+    /** Sets a Long value without boxing. */
+    public void setLong(int row, int column, long value)
+    {
+        checkRow(row);
+        if (prepareLongs(column, LONG))
+            longs[column][row] = value;
+        else
+            objects[column][row] = Long.valueOf(value);
+        setPresent(row, column, true);
+    }
+
+    /**
+     * Sets a value of any type. Integer and Long values are stored as
+     * primitives where possible.
+     */
+    public void setValue(int row, int column, Serializable value)
+    {
+        if (value == null)
+            setNull(row, column);
+        else if (value instanceof Integer)
+            setInt(row, column, ((Integer) value).intValue());
+        else if (value instanceof Long)
+            setLong(row, column, ((Long) value).longValue());
+        else
+        {
+            checkRow(row);
+            if (kinds[column] != OBJECT)
+                convertToObjects(column);
+            objects[column][row] = value;
+            setPresent(row, column, true);
+        }
+    }
+
+    /** Returns true if the value is null. */
+    public boolean isNull(int row, int column)
+    {
+        checkRow(row);
+        return !isPresent(row, column);
+    }
+
+    /**
+     * Returns a value, boxing primitive values as the type with which they
+     * were stored.
+     */
+    public Serializable getValue(int row, int column)
+    {
+        if (isNull(row, column))
+            return null;
+        switch (kinds[column])
+        {
+            case INT :
+                return Integer.valueOf((int) longs[column][row]);
+            case LONG :
+                return Long.valueOf(longs[column][row]);
+            default :
+                return (Serializable) objects[column][row];
+        }
+    }
+
+    /**
+     * Returns true if all values of a column are stored as primitives, in
+     * which case {@link #getLong(int, int)} may be used to read them.
+     */
+    public boolean isPrimitive(int column)
+    {
+        return kinds[column] == INT || kinds[column] == LONG;
+    }
+
+    /**
+     * Returns a primitive value without boxing. The value must not be null.
+     * 
+     * @throws IllegalStateException Thrown if the column is not primitive
+     */
+    public long getLong(int row, int column)
+    {
+        checkRow(row);
+        if (!isPrimitive(column))
+            throw new IllegalStateException(
+                    "Column does not contain primitive values: column="
+                            + column);
+        return longs[column][row];
+    }
+
+    /**
+     * Converts the rows to the list form used by OneRowChange.
+     * 
+     * @param rowChange Row change that will own the new values
+     */
+    public ArrayList<ArrayList<ColumnVal>> toColumnVals(OneRowChange rowChange)
+    {
+        ArrayList<ArrayList<ColumnVal>> rows = new ArrayList<ArrayList<ColumnVal>>(
+                rowCount);
+        for (int row = 0; row < rowCount; row++)
+        {
+            ArrayList<ColumnVal> values = new ArrayList<ColumnVal>(columnCount);
+            for (int column = 0; column < columnCount; column++)
+            {
+                ColumnVal value = rowChange.new ColumnVal();
+                Serializable v = getValue(row, column);
+                if (v == null)
+                    value.setValueNull();
+                else
+                    value.setValue(v);
+                values.add(value);
+            }
+            rows.add(values);
+        }
+        return rows;
+    }
+
+    // Ensures the column can hold a primitive of the given kind. Returns false
+    // if the column holds objects.
+    private boolean prepareLongs(int column, byte kind)
+    {
+        if (kinds[column] == kind)
+            return true;
+        else if (kinds[column] == EMPTY)
+        {
+            kinds[column] = kind;
+            longs[column] = new long[capacity];
+            return true;
+        }
+        else
+        {
+            if (kinds[column] != OBJECT)
+                convertToObjects(column);
+            return false;
+        }
+    }
+
+    // Boxes existing primitive values of a column into an object array.
+    private void convertToObjects(int column)
+    {
+        Object[] values = new Object[capacity];
+        for (int row = 0; row < rowCount; row++)
+        {
+            if (isPresent(row, column))
+                values[row] = getValue(row, column);
+        }
+        objects[column] = values;
+        longs[column] = null;
+        kinds[column] = OBJECT;
+    }
+
+    // Grows all allocated column arrays to a new capacity.
+    private void grow(int newCapacity)
+    {
+        for (int column = 0; column < columnCount; column++)
+        {
+            if (longs[column] != null)
+            {
+                long[] values = new long[newCapacity];
+                System.arraycopy(longs[column], 0, values, 0, rowCount);
+                longs[column] = values;
+            }
+            if (objects[column] != null)
+            {
+                Object[] values = new Object[newCapacity];
+                System.arraycopy(objects[column], 0, values, 0, rowCount);
+                objects[column] = values;
+            }
+        }
+        if (bitmapWords(newCapacity) > present.length)
+        {
+            long[] bits = new long[bitmapWords(newCapacity)];
+            System.arraycopy(present, 0, bits, 0, present.length);
+            present = bits;
+        }
+        capacity = newCapacity;
+    }
+
+    // Returns the number of bitmap words needed to hold a number of rows.
+    private int bitmapWords(int rows)
+    {
+        return (int) (((long) rows * columnCount + 63) >>> 6);
+    }
+
+    private boolean isPresent(int row, int column)
+    {
+        int bit = row * columnCount + column;
+        return (present[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    private void setPresent(int row, int column, boolean value)
+    {
+        int bit = row * columnCount + column;
+        if (value)
+            present[bit >>> 6] |= 1L << bit;
+        else
+            present[bit >>> 6] &= ~(1L << bit);
+    }
+
+    private void checkRow(int row)
+    {
+        if (row < 0 || row >= rowCount)
+            throw new IndexOutOfBoundsException("Row index out of range: row="
+                    + row + " size=" + rowCount);
+    }
+}
@@ -28,7 +28,11 @@ import java.util.ArrayList;
 import com.continuent.tungsten.replicator.dbms.RowChangeData.ActionType;
 
 /**
- * Holds information from a
+ * Holds information from a single row change on one table. Values are
+ * normally held as lists of ColumnVal instances but may instead be set in
+ * columnar form using {@link ColumnarRowSet}, which avoids an object per
+ * value. Columnar values are converted to lists the first time a caller asks
+ * for them.
  */
 public class OneRowChange implements Serializable
 {
@@ -217,6 +221,13 @@ public class OneRowChange implements Serializable
     private ArrayList<ArrayList<ColumnVal>> columnValues;
     private long                            tableId;
 
+    /*
+     * Columnar values. When set these replace keyValues and columnValues until
+     * a caller asks for the list form.
+     */
+    private volatile ColumnarRowSet         keyRows;
+    private volatile ColumnarRowSet         columnRows;
+
     public ArrayList<ColumnSpec> getColumnSpec()
     {
         return columnSpec;
@@ -227,14 +238,81 @@ public class OneRowChange implements Serializable
         this.columnSpec = columnSpec;
     }
 
+    /**
+     * Returns column values as lists. If values are stored in columnar form
+     * they are converted to lists first; callers that only read values should
+     * prefer {@link #getColumnValue(int, int)} and related methods, which do
+     * not convert.
+     */
     public ArrayList<ArrayList<ColumnVal>> getColumnValues()
     {
+        if (columnRows != null)
+        {
+            synchronized (this)
+            {
+                if (columnRows != null)
+                {
+                    columnValues = columnRows.toColumnVals(this);
+                    columnRows = null;
+                }
+            }
+        }
         return columnValues;
     }
 
     public void setColumnValues(ArrayList<ArrayList<ColumnVal>> columnValues)
     {
         this.columnValues = columnValues;
+        this.columnRows = null;
+    }
+
+    /**
+     * Sets column values in columnar form, replacing current values.
+     */
+    public void setColumnRows(ColumnarRowSet columnRows)
+    {
+        if (!this.columnValues.isEmpty())
+            this.columnValues = new ArrayList<ArrayList<ColumnVal>>();
+        this.columnRows = columnRows;
+    }
+
+    /**
+     * Returns column values in columnar form or null if they are held as
+     * lists.
+     */
+    public ColumnarRowSet getColumnRows()
+    {
+        return columnRows;
+    }
+
+    /** Returns the number of rows of column values. */
+    public int getColumnRowCount()
+    {
+        ColumnarRowSet rows = columnRows;
+        if (rows == null)
+            return columnValues.size();
+        else
+            return rows.size();
+    }
+
+    /** Returns the number of column values in a row. */
+    public int getColumnValueCount(int row)
+    {
+        ColumnarRowSet rows = columnRows;
+        if (rows == null)
+            return columnValues.get(row).size();
+        else
+            return rows.getColumnCount();
+    }
+
+    /** Returns a column value, which may be null. */
+    public Object getColumnValue(int row, int column)
+    {
+        ColumnarRowSet rows = columnRows;
+        if (rows == null)
+            return columnValues.get(row).get(column).getValue();
+        else
+            return rows.getValue(row, column);
     }
 
     public ArrayList<ColumnSpec> getKeySpec()
@@ -247,14 +325,79 @@ public class OneRowChange implements Serializable
         this.keySpec = keySpec;
     }
 
+    /**
+     * Returns key values as lists, converting columnar values if necessary.
+     * 
+     * @see #getColumnValues()
+     */
     public ArrayList<ArrayList<ColumnVal>> getKeyValues()
     {
+        if (keyRows != null)
+        {
+            synchronized (this)
+            {
+                if (keyRows != null)
+                {
+                    keyValues = keyRows.toColumnVals(this);
+                    keyRows = null;
+                }
+            }
+        }
         return keyValues;
     }
 
     public void setKeyValues(ArrayList<ArrayList<ColumnVal>> keyValues)
     {
         this.keyValues = keyValues;
+        this.keyRows = null;
+    }
+
+    /**
+     * Sets key values in columnar form, replacing current values.
+     */
+    public void setKeyRows(ColumnarRowSet keyRows)
+    {
+        if (!this.keyValues.isEmpty())
+            this.keyValues = new ArrayList<ArrayList<ColumnVal>>();
+        this.keyRows = keyRows;
+    }
+
+    /**
+     * Returns key values in columnar form or null if they are held as lists.
+     */
+    public ColumnarRowSet getKeyRows()
+    {
+        return keyRows;
+    }
+
+    /** Returns the number of rows of key values. */
+    public int getKeyRowCount()
+    {
+        ColumnarRowSet rows = keyRows;
+        if (rows == null)
+            return keyValues.size();
+        else
+            return rows.size();
+    }
+
+    /** Returns the number of key values in a row. */
+    public int getKeyValueCount(int row)
+    {
+        ColumnarRowSet rows = keyRows;
+        if (rows == null)
+            return keyValues.get(row).size();
+        else
+            return rows.getColumnCount();
+    }
+
+    /** Returns a key value, which may be null. */
+    public Object getKeyValue(int row, int column)
+    {
+        ColumnarRowSet rows = keyRows;
+        if (rows == null)
+            return keyValues.get(row).get(column).getValue();
+        else
+            return rows.getValue(row, column);
     }
 
     public ActionType getAction()
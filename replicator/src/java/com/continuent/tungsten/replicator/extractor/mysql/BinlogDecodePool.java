@@ -0,0 +1,114 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.extractor.mysql;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+
+/**
+ * Decodes row images from binlog rows events on a pool of worker threads. The
+ * extractor reads and classifies binlog events sequentially, then hands rows
+ * events to this pool so that the expensive conversion of column values runs
+ * in parallel. Callers must wait on the returned futures in binlog order
+ * before releasing the enclosing event.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public class BinlogDecodePool
+{
+    private static Logger         logger = Logger.getLogger(BinlogDecodePool.class);
+
+    private final ExecutorService executor;
+    private final int             threads;
+
+    /**
+     * Creates a new pool.
+     * 
+     * @param name Name prefix for worker threads
+     * @param threads Number of worker threads
+     */
+    public BinlogDecodePool(final String name, int threads)
+    {
+        this.threads = threads;
+        this.executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactory()
+                {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t = new Thread(r, name + "-"
+                                + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        logger.info("Started binlog decode pool: name=" + name + " threads="
+                + threads);
+    }
+
+    /** Returns the number of worker threads. */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * Schedules decoding of a rows event.
+     * 
+     * @param rowsEvent Rows event containing packed row images
+     * @param tableEvent Table map for the rows event, which may be null
+     * @param rowChangeData Row change data to which decoded rows are appended
+     * @return A future that completes when the row change data is filled in
+     */
+    public Future<RowChangeData> submit(final RowsLogEvent rowsEvent,
+            final TableMapLogEvent tableEvent, final RowChangeData rowChangeData)
+    {
+        return executor.submit(new Callable<RowChangeData>()
+        {
+            public RowChangeData call() throws Exception
+            {
+                rowsEvent.processExtractedEvent(rowChangeData, tableEvent);
+                return rowChangeData;
+            }
+        });
+    }
+
+    /**
+     * Stops worker threads. Decodes that have not yet run are discarded.
+     */
+    public void shutdown()
+    {
+        executor.shutdownNow();
+        logger.info("Stopped binlog decode pool");
+    }
+}
@@ -22,6 +22,7 @@
 
 package com.continuent.tungsten.replicator.extractor.mysql;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
@@ -31,6 +32,8 @@ import java.util.Arrays;
 import org.apache.log4j.Logger;
 
 import com.continuent.tungsten.common.io.BufferedFileDataInput;
+import com.continuent.tungsten.common.io.FileDataInput;
+import com.continuent.tungsten.common.io.MappedFileDataInput;
 import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.extractor.mysql.conversion.LittleEndianConversion;
 
@@ -42,6 +45,10 @@ import com.continuent.tungsten.replicator.extractor.mysql.conversion.LittleEndia
  * class to ensure reads are buffered and minimize use of disk metadata calls
  * that kill performance on network-attached storage.
  * <p>
+ * Local binlogs may instead be read through a {@link MappedFileDataInput},
+ * which copies event data directly from the memory-mapped file. Callers can
+ * then read each event in a single copy using {@link #peekEventLength()}.
+ * <p>
  * The new implementation replaces the old BinlogPosition class authored by
  * Seppo Jaakola; a few fields are copied into this implementation but the logic
  * is quite different.
@@ -53,7 +60,10 @@ public class BinlogReader implements FilenameFilter, Cloneable
     static Logger                 logger                 = Logger.getLogger(MySQLExtractor.class);
 
     // Stream from which we are reading.
-    private BufferedFileDataInput bfdi;
+    private FileDataInput         bfdi;
+
+    // If true, read binlog files through a memory map.
+    private boolean               useMappedIO;
 
     // Binlog file name and directory.
     private String                fileName;
@@ -78,6 +88,12 @@ public class BinlogReader implements FilenameFilter, Cloneable
     // Delay in milliseconds to wait for binlog writes to flush fully.
     private int                   binlogFlushDelayMillis = 5000;
 
+    // Buffer from which to read events when streaming from a relay log
+    // client instead of reading a file.
+    private RelayLogBuffer        relayBuffer;
+    private boolean               streamOpen;
+    private long                  streamPosition;
+
     /**
      * Defines only binlog directory and binlog file base name.
      * 
@@ -118,9 +134,14 @@ public class BinlogReader implements FilenameFilter, Cloneable
      */
     public BinlogReader clone()
     {
-        long offset = bfdi == null ? 0 : bfdi.getOffset();
+        long offset;
+        if (relayBuffer != null)
+            offset = streamPosition;
+        else
+            offset = bfdi == null ? 0 : bfdi.getOffset();
         BinlogReader cloned = new BinlogReader(offset, fileName, directory,
                 baseName, bufferSize);
+        cloned.setUseMappedIO(useMappedIO);
 
         // Set last ID read.
         cloned.setEventID(eventID);
@@ -133,7 +154,7 @@ public class BinlogReader implements FilenameFilter, Cloneable
      * header for the binlog version. If this call succeeds the binlog is ready
      * for reading.
      */
-    void open() throws ReplicatorException, InterruptedException
+    public void open() throws ReplicatorException, InterruptedException
     {
         try
         {
@@ -142,12 +163,23 @@ public class BinlogReader implements FilenameFilter, Cloneable
             {
                 throw new MySQLExtractException("No binlog file specified");
             }
-            if (bfdi != null)
+            if (bfdi != null || streamOpen)
             {
                 throw new MySQLExtractException(
                         "Attempt to open binlog twice: " + this.fileName);
             }
 
+            // Streamed binlogs have no file to open. Events arrive from the
+            // relay client starting at the requested position.
+            if (relayBuffer != null)
+            {
+                streamOpen = true;
+                streamPosition = Math.max(startPosition,
+                        MysqlBinlog.BIN_LOG_HEADER_SIZE);
+                version = MysqlBinlog.BINLOG_V4;
+                return;
+            }
+
             // Hack to avoid crashing during log rotate. MySQL seems to write
             // log rotate event in the old file before creating new file. We
             // wait for a few seconds, polling file every 10 msecs.
@@ -163,7 +195,10 @@ public class BinlogReader implements FilenameFilter, Cloneable
                 logger.debug("Opening file " + file.getName()
                         + " with buffer = " + bufferSize);
 
-            bfdi = new BufferedFileDataInput(file, bufferSize);
+            if (useMappedIO)
+                bfdi = new MappedFileDataInput(file);
+            else
+                bfdi = new BufferedFileDataInput(file, bufferSize);
 
             // Validate the file magic number.
             byte magic[] = new byte[MysqlBinlog.BIN_LOG_HEADER_SIZE];
@@ -294,7 +329,7 @@ public class BinlogReader implements FilenameFilter, Cloneable
      */
     public boolean isOpen()
     {
-        return (bfdi != null);
+        return (bfdi != null || streamOpen);
     }
 
     /**
@@ -307,6 +342,7 @@ public class BinlogReader implements FilenameFilter, Cloneable
             bfdi.close();
             bfdi = null;
         }
+        streamOpen = false;
         setStartPosition(0);
         setEventID(0);
         setFileName(null);
@@ -321,7 +357,10 @@ public class BinlogReader implements FilenameFilter, Cloneable
      */
     public long available() throws IOException
     {
-        return bfdi.available();
+        if (relayBuffer != null)
+            return relayBuffer.getBytes();
+        else
+            return bfdi.available();
     }
 
     /**
@@ -427,6 +466,86 @@ public class BinlogReader implements FilenameFilter, Cloneable
         return bfdi.readByte();
     }
 
+    /**
+     * If true, binlog files are read through a memory map. This must be called
+     * before the reader is opened.
+     */
+    public void setUseMappedIO(boolean useMappedIO)
+    {
+        this.useMappedIO = useMappedIO;
+    }
+
+    /**
+     * Returns true if the open binlog file is read through a memory map.
+     */
+    public boolean isMapped()
+    {
+        return bfdi instanceof MappedFileDataInput;
+    }
+
+    /**
+     * Returns the total length of the next event from its header without
+     * consuming any bytes. The reader must be mapped and the common header
+     * must be available.
+     * 
+     * @throws IOException Thrown if the header cannot be read
+     */
+    public int peekEventLength() throws IOException
+    {
+        MappedFileDataInput mapped = (MappedFileDataInput) bfdi;
+        int offset = MysqlBinlog.EVENT_LEN_OFFSET;
+        return (mapped.peekByte(offset) & 0xff)
+                | ((mapped.peekByte(offset + 1) & 0xff) << 8)
+                | ((mapped.peekByte(offset + 2) & 0xff) << 16)
+                | ((mapped.peekByte(offset + 3) & 0xff) << 24);
+    }
+
+    /**
+     * Sets a relay log buffer from which to read events. This must be called
+     * before the reader is opened.
+     */
+    public void setRelayBuffer(RelayLogBuffer relayBuffer)
+    {
+        this.relayBuffer = relayBuffer;
+    }
+
+    /**
+     * Returns true if events are streamed from a relay log buffer.
+     */
+    public boolean isStreaming()
+    {
+        return relayBuffer != null;
+    }
+
+    /**
+     * Waits until a streamed event is available.
+     * 
+     * @param waitMillis Maximum time to wait
+     * @return True if an event may be read, false if we timed out
+     * @throws InterruptedException Thrown if interrupted during wait
+     */
+    public boolean waitEvent(long waitMillis) throws InterruptedException
+    {
+        return relayBuffer.waitAvailable(waitMillis);
+    }
+
+    /**
+     * Returns the bytes of the next streamed event and advances the position
+     * past it.
+     * 
+     * @throws IOException Thrown if no event is available
+     */
+    public byte[] readEvent() throws IOException
+    {
+        RelayLogBuffer.Entry entry = relayBuffer.poll();
+        if (entry == null)
+            throw new EOFException("No event available in relay buffer: "
+                    + this.toString());
+        fileName = entry.getBinlog();
+        streamPosition = entry.getNextPosition();
+        return entry.getBytes();
+    }
+
     /* member getters and setters */
     public void setStartPosition(long newPosition)
     {
@@ -435,7 +554,9 @@ public class BinlogReader implements FilenameFilter, Cloneable
 
     public long getPosition()
     {
-        if (bfdi != null)
+        if (streamOpen)
+            return streamPosition;
+        else if (bfdi != null)
             return bfdi.getOffset();
         else
             return startPosition;
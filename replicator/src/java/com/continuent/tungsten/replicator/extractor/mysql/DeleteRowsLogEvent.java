@@ -66,7 +66,8 @@ public class DeleteRowsLogEvent extends RowsLogEvent
 
         int rowIndex = 0; /* index of the row in value arrays */
 
-        for (int i = 0; i < bufferSize;)
+        int rowsEnd = rowsOffset + bufferSize;
+        for (int i = rowsOffset; i < rowsEnd;)
         {
             int length = 0;
 
@@ -310,28 +310,51 @@ public abstract class LogEvent
             InterruptedException
     {
         int eventLength = 0;
-        byte[] header = new byte[descriptionEvent.commonHeaderLength];
 
         try
         {
-            // read the header part
-            // timeout is set to 2 minutes.
-            readDataFromBinlog(runtime, position, header, 0, header.length, 120);
+            byte[] fullEvent;
+            if (position.isStreaming())
+            {
+                // Streamed events arrive complete from the relay client.
+                fullEvent = position.readEvent();
+                eventLength = fullEvent.length;
+            }
+            else if (position.isMapped())
+            {
+                // Mapped binlogs let us find the length in place and copy the
+                // event in one read.
+                waitDataFromBinlog(position,
+                        descriptionEvent.commonHeaderLength, 120);
+                eventLength = position.peekEventLength();
+                fullEvent = new byte[eventLength];
+                readDataFromBinlog(runtime, position, fullEvent, 0,
+                        eventLength, 120);
+            }
+            else
+            {
+                byte[] header = new byte[descriptionEvent.commonHeaderLength];
 
-            // Extract event length
-            eventLength = (int) LittleEndianConversion.convert4BytesToLong(
-                    header, MysqlBinlog.EVENT_LEN_OFFSET);
+                // read the header part
+                // timeout is set to 2 minutes.
+                readDataFromBinlog(runtime, position, header, 0,
+                        header.length, 120);
 
-            eventLength -= header.length;
+                // Extract event length
+                eventLength = (int) LittleEndianConversion.convert4BytesToLong(
+                        header, MysqlBinlog.EVENT_LEN_OFFSET);
 
-            byte[] fullEvent = new byte[header.length + eventLength];
+                eventLength -= header.length;
 
-            // read the event data part
-            // timeout is set to 2 minutes
-            readDataFromBinlog(runtime, position, fullEvent, header.length,
-                    eventLength, 120);
+                fullEvent = new byte[header.length + eventLength];
 
-            System.arraycopy(header, 0, fullEvent, 0, header.length);
+                // read the event data part
+                // timeout is set to 2 minutes
+                readDataFromBinlog(runtime, position, fullEvent, header.length,
+                        eventLength, 120);
+
+                System.arraycopy(header, 0, fullEvent, 0, header.length);
+            }
 
             LogEvent event = readLogEvent(parseStatements, fullEvent,
                     fullEvent.length, descriptionEvent, useBytesForString);
@@ -437,6 +460,22 @@ public abstract class LogEvent
     private static void readDataFromBinlog(ReplicatorRuntime runtime,
             BinlogReader binlog, byte[] data, int offset, int length,
             int timeout) throws IOException, ReplicatorException
+    {
+        waitDataFromBinlog(binlog, length, timeout);
+        binlog.read(data, offset, length);
+    }
+
+    /**
+     * Waits for data to be fully written in the binlog file without reading it.
+     * 
+     * @param binlog Binlog from which data will be read
+     * @param length Data length to be read
+     * @param timeout Maximum time to wait for data to be available
+     * @throws IOException if an error occurs while checking the binlog
+     * @throws ReplicatorException if the timeout is reached
+     */
+    private static void waitDataFromBinlog(BinlogReader binlog, int length,
+            int timeout) throws IOException, ReplicatorException
     {
         boolean alreadyLogged = false;
         int spentTime = 0;
@@ -476,7 +515,6 @@ public abstract class LogEvent
             {
             }
         }
-        binlog.read(data, offset, length);
     }
 
     public int getType()
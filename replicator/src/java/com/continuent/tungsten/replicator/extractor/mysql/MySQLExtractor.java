@@ -31,6 +31,8 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.log4j.Logger;
@@ -116,6 +118,16 @@ public class MySQLExtractor implements RawExtractor
     private Thread                          relayLogThread          = null;
     private LinkedBlockingQueue<File>       relayLogQueue           = null;
 
+    // If true, relay log events are streamed to the extractor in memory.
+    // Relay files are still written if relayLogSpill is true.
+    private boolean                         relayLogStreaming       = false;
+    private boolean                         relayLogSpill           = true;
+    private long                            relayLogBufferBytes     = 16777216;
+    private RelayLogBuffer                  relayLogBuffer          = null;
+
+    // If true, local binlog files are read through a memory map.
+    private boolean                         useMappedBinlogs        = false;
+
     // Varchar type fields can be retrieved and stored in THL either using
     // String datatype or bytes arrays. By default, using string datatype.
     private boolean                         useBytesForStrings      = false;
@@ -134,6 +146,45 @@ public class MySQLExtractor implements RawExtractor
 
     private int                             bufferSize              = 32768;
 
+    // If greater than 0, rows events are decoded on a pool of this many
+    // threads while the extractor reads ahead up to decodeQueueSize
+    // transactions.
+    private int                             decodeThreads           = 0;
+    private int                             decodeQueueSize         = 100;
+    private BinlogDecodePool                decodePool;
+    private LinkedList<PendingEvent>        pendingEvents           = new LinkedList<PendingEvent>();
+    private ArrayList<Future<RowChangeData>> pendingDecodes;
+
+    // Extracted event whose row changes may still be in the decode pool.
+    private static class PendingEvent
+    {
+        final DBMSEvent                        event;
+        final ArrayList<Future<RowChangeData>> decodes;
+
+        PendingEvent(DBMSEvent event, ArrayList<Future<RowChangeData>> decodes)
+        {
+            this.event = event;
+            this.decodes = decodes;
+        }
+
+        void cancel()
+        {
+            for (Future<RowChangeData> decode : decodes)
+                decode.cancel(false);
+        }
+
+        // Returns true if the event can be returned without waiting.
+        boolean isDone()
+        {
+            for (Future<RowChangeData> decode : decodes)
+            {
+                if (!decode.isDone())
+                    return false;
+            }
+            return true;
+        }
+    }
+
     public String getHost()
     {
         return host;
@@ -274,6 +325,60 @@ public class MySQLExtractor implements RawExtractor
         this.relayLogDir = relayLogDir;
     }
 
+    public boolean isRelayLogStreaming()
+    {
+        return relayLogStreaming;
+    }
+
+    /**
+     * If true, the extractor reads events downloaded by the relay client from
+     * memory rather than re-reading relay log files.
+     */
+    public void setRelayLogStreaming(boolean relayLogStreaming)
+    {
+        this.relayLogStreaming = relayLogStreaming;
+    }
+
+    public boolean isRelayLogSpill()
+    {
+        return relayLogSpill;
+    }
+
+    /**
+     * If true, streamed relay log events are also written to relay log files.
+     */
+    public void setRelayLogSpill(boolean relayLogSpill)
+    {
+        this.relayLogSpill = relayLogSpill;
+    }
+
+    public long getRelayLogBufferBytes()
+    {
+        return relayLogBufferBytes;
+    }
+
+    /**
+     * Sets the maximum bytes of streamed relay log events held in memory.
+     */
+    public void setRelayLogBufferBytes(long relayLogBufferBytes)
+    {
+        this.relayLogBufferBytes = relayLogBufferBytes;
+    }
+
+    public boolean isUseMappedBinlogs()
+    {
+        return useMappedBinlogs;
+    }
+
+    /**
+     * If true, binlog and relay log files are read through a memory map rather
+     * than buffered stream reads.
+     */
+    public void setUseMappedBinlogs(boolean useMappedBinlogs)
+    {
+        this.useMappedBinlogs = useMappedBinlogs;
+    }
+
     public int getServerId()
     {
         return serverId;
@@ -319,6 +424,34 @@ public class MySQLExtractor implements RawExtractor
         bufferSize = size;
     }
 
+    public int getDecodeThreads()
+    {
+        return decodeThreads;
+    }
+
+    /**
+     * Sets the number of threads used to decode rows events. 0 decodes on the
+     * extractor thread.
+     */
+    public void setDecodeThreads(int decodeThreads)
+    {
+        this.decodeThreads = decodeThreads;
+    }
+
+    public int getDecodeQueueSize()
+    {
+        return decodeQueueSize;
+    }
+
+    /**
+     * Sets the maximum number of transactions to read ahead while rows events
+     * are decoded.
+     */
+    public void setDecodeQueueSize(int decodeQueueSize)
+    {
+        this.decodeQueueSize = decodeQueueSize;
+    }
+
     // Reads the next log from the file.
     private LogEvent processFile(BinlogReader position)
             throws ReplicatorException, InterruptedException
@@ -336,8 +469,16 @@ public class MySQLExtractor implements RawExtractor
                         + position.getPosition());
             long indexCheckStart = System.currentTimeMillis();
 
-            // Read from the binlog.
-            while (position.available() == 0)
+            // Read from the binlog. Streamed events wait on the relay buffer,
+            // which we wake up from once a second to ensure the relay client
+            // is still alive.
+            while (position.isStreaming() && !position.waitEvent(1000))
+            {
+                assertRelayLogsEnabled();
+                if (!position.isOpen())
+                    position.open();
+            }
+            while (!position.isStreaming() && position.available() == 0)
             {
                 // TREP-301 - If we are waiting at the end of the file we
                 // must check that we are not reading a log file that is
@@ -375,10 +516,13 @@ public class MySQLExtractor implements RawExtractor
             FormatDescriptionLogEvent description_event = new FormatDescriptionLogEvent(
                     4);
 
-            // Read from the log.
+            // Read from the log. Prefetching the schema for LOAD DATA reads
+            // ahead in the relay files, so it requires them when streaming.
+            boolean prefetch = prefetchSchemaNameLDI
+                    && (!position.isStreaming() || relayLogSpill);
             LogEvent event = LogEvent.readLogEvent(runtime, position,
                     description_event, parseStatements, useBytesForStrings,
-                    prefetchSchemaNameLDI);
+                    prefetch);
             position.setEventID(position.getEventID() + 1);
 
             return event;
@@ -448,8 +592,7 @@ public class MySQLExtractor implements RawExtractor
 
             logger.info("Starting from master binlog position: " + binlogFile
                     + ":" + binlogOffset);
-            return new BinlogReader(binlogOffset, binlogFile, binlogDir,
-                    binlogFilePattern, bufferSize);
+            return createBinlogReader(binlogOffset, binlogFile);
         }
         catch (SQLException e)
         {
@@ -463,6 +606,18 @@ public class MySQLExtractor implements RawExtractor
         }
     }
 
+    /*
+     * Creates a binlog reader on the given position using current settings.
+     */
+    private BinlogReader createBinlogReader(long binlogOffset,
+            String binlogFile)
+    {
+        BinlogReader reader = new BinlogReader(binlogOffset, binlogFile,
+                binlogDir, binlogFilePattern, bufferSize);
+        reader.setUseMappedIO(useMappedBinlogs);
+        return reader;
+    }
+
     /*
      * Find current position on running MySQL slave, stop the slave, and
      * position on the master binlog where the slave stopped.
@@ -499,8 +654,7 @@ public class MySQLExtractor implements RawExtractor
 
             logger.info("Starting from position: " + binlogFile + ":"
                     + binlogOffset);
-            return new BinlogReader(binlogOffset, binlogFile, binlogDir,
-                    binlogFilePattern, bufferSize);
+            return createBinlogReader(binlogOffset, binlogFile);
         }
         catch (SQLException e)
         {
@@ -886,7 +1040,12 @@ public class MySQLExtractor implements RawExtractor
                     RowsLogEvent rowsEvent = (RowsLogEvent) logEvent;
                     TableMapLogEvent tableEvent = tableEvents.get(rowsEvent
                             .getTableId());
-                    rowsEvent.processExtractedEvent(rowChangeData, tableEvent);
+                    if (pendingDecodes == null)
+                        rowsEvent.processExtractedEvent(rowChangeData,
+                                tableEvent);
+                    else
+                        pendingDecodes.add(decodePool.submit(rowsEvent,
+                                tableEvent, rowChangeData));
                     dataArray.add(rowChangeData);
                     foundRowsLogEvent = true;
                 }
@@ -1075,12 +1234,96 @@ public class MySQLExtractor implements RawExtractor
         assertRelayLogsEnabled();
 
         // Extract the next event.
-        DBMSEvent event = extractEvent(binlogPosition);
+        DBMSEvent event;
+        if (decodePool == null)
+            event = extractEvent(binlogPosition);
+        else
+            event = extractPipelined();
         if (event != null)
             event.setMetaDataOption(ReplOptionParams.DBMS_TYPE, Database.MYSQL);
         return event;
     }
 
+    /*
+     * Extract the next event when rows events are decoded in the decode pool.
+     * While the oldest event is still decoding, transactions are read ahead as
+     * long as the binlog has data so that rows events from following
+     * transactions decode in parallel with it. A read ahead may block on a
+     * partly written event, so we stop as soon as the oldest event is ready.
+     * Events are always returned in binlog order.
+     */
+    private DBMSEvent extractPipelined() throws ReplicatorException,
+            InterruptedException
+    {
+        if (pendingEvents.isEmpty())
+            pendingEvents.add(extractPendingEvent(binlogPosition));
+
+        try
+        {
+            while (pendingEvents.size() < decodeQueueSize
+                    && !pendingEvents.getFirst().isDone()
+                    && binlogPosition.isOpen()
+                    && binlogPosition.available() > 0)
+            {
+                pendingEvents.add(extractPendingEvent(binlogPosition));
+            }
+        }
+        catch (IOException e)
+        {
+            throw new MySQLExtractException("Binlog file read error: file="
+                    + binlogPosition.getFileName() + " offset="
+                    + binlogPosition.getPosition(), e);
+        }
+
+        // Wait for row changes of the oldest event to finish decoding.
+        PendingEvent pending = pendingEvents.removeFirst();
+        if (pending.event == null)
+            return null;
+        try
+        {
+            for (Future<RowChangeData> decode : pending.decodes)
+                decode.get();
+            return pending.event;
+        }
+        catch (ExecutionException e)
+        {
+            String message = "Failed to decode row changes for event "
+                    + pending.event.getEventId();
+            if (runtime.getExtractorFailurePolicy() == FailurePolicy.STOP)
+                throw new ExtractorException(message, e.getCause());
+            else
+                logger.error(message, e.getCause());
+            return null;
+        }
+    }
+
+    // Extract an event and collect the rows event decodes it depends on.
+    private PendingEvent extractPendingEvent(BinlogReader position)
+            throws ReplicatorException, InterruptedException
+    {
+        pendingDecodes = new ArrayList<Future<RowChangeData>>();
+        try
+        {
+            DBMSEvent event = extractEvent(position);
+            PendingEvent pending = new PendingEvent(event, pendingDecodes);
+            if (event == null)
+                pending.cancel();
+            return pending;
+        }
+        finally
+        {
+            pendingDecodes = null;
+        }
+    }
+
+    // Discard events that have been read ahead but not returned.
+    private void clearPendingEvents()
+    {
+        for (PendingEvent pending : pendingEvents)
+            pending.cancel();
+        pendingEvents.clear();
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -1101,6 +1344,9 @@ public class MySQLExtractor implements RawExtractor
      */
     public void setLastEventId(String eventId) throws ReplicatorException
     {
+        // Events read ahead from the old position are no longer valid.
+        clearPendingEvents();
+
         if (eventId != null)
         {
             logger.info("Starting from an explicit event ID: " + eventId);
@@ -1130,8 +1376,7 @@ public class MySQLExtractor implements RawExtractor
                 binlogFile = binlogFilePattern + "." + binlogFileIndex;
 
             // Set the binlog position.
-            binlogPosition = new BinlogReader(binlogOffset, binlogFile,
-                    binlogDir, binlogFilePattern, bufferSize);
+            binlogPosition = createBinlogReader(binlogOffset, binlogFile);
         }
         else
         {
@@ -1266,6 +1511,12 @@ public class MySQLExtractor implements RawExtractor
      */
     public void prepare(PluginContext context) throws ReplicatorException
     {
+        // Start the decode pool if requested.
+        if (decodeThreads > 0)
+        {
+            decodePool = new BinlogDecodePool("binlog-decode", decodeThreads);
+        }
+
         // NOTE: We can't check the database by default as unit tests depend
         // on being able to run without the server present. Also, we may in
         // future want to run on mirrored binlogs without the database.
@@ -1434,6 +1685,22 @@ public class MySQLExtractor implements RawExtractor
         relayClient.setServerId(serverId);
         relayClient.setLogQueue(relayLogQueue);
         relayClient.setReadTimeout(relayLogReadTimeout);
+
+        // If streaming, events after the extraction position are posted to a
+        // buffer from which the extractor reads directly.
+        if (relayLogStreaming)
+        {
+            logger.info("Streaming relay log events to extractor: bufferBytes="
+                    + relayLogBufferBytes + " spill=" + relayLogSpill);
+            relayLogBuffer = new RelayLogBuffer(relayLogBufferBytes);
+            relayClient.setRelayBuffer(relayLogBuffer);
+            relayClient.setSpill(relayLogSpill);
+            relayClient.setStreamStart(fileName, offset);
+            binlogPosition.close();
+            binlogPosition.setFileName(fileName);
+            binlogPosition.setStartPosition(offset);
+            binlogPosition.setRelayBuffer(relayLogBuffer);
+        }
         relayClient.connect();
 
         // Start the relay log task.
@@ -1581,6 +1848,7 @@ public class MySQLExtractor implements RawExtractor
             relayLogTask = null;
             relayLogThread = null;
             relayLogQueue = null;
+            relayLogBuffer = null;
         }
         else
             logger.warn("Unable to cancel relay log thread");
@@ -1594,6 +1862,12 @@ public class MySQLExtractor implements RawExtractor
     public void release(PluginContext context) throws ReplicatorException
     {
         stopRelayLogs();
+        clearPendingEvents();
+        if (decodePool != null)
+        {
+            decodePool.shutdown();
+            decodePool = null;
+        }
     }
 
     /**
@@ -0,0 +1,159 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.extractor.mysql;
+
+import java.util.LinkedList;
+
+/**
+ * Bounded in-memory queue of binlog events that hands events from a relay log
+ * client directly to the extractor. The bound is in bytes so that large row
+ * events do not exhaust memory. A single event larger than the bound is
+ * always accepted when the buffer is empty so that the stream cannot stall.
+ * <p>
+ * The relay log client is the only producer and the extractor the only
+ * consumer. Public methods are synchronized.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public class RelayLogBuffer
+{
+    /**
+     * A complete binlog event together with the binlog position that follows
+     * it.
+     */
+    public static class Entry
+    {
+        private final String binlog;
+        private final long   nextPosition;
+        private final byte[] bytes;
+
+        public Entry(String binlog, long nextPosition, byte[] bytes)
+        {
+            this.binlog = binlog;
+            this.nextPosition = nextPosition;
+            this.bytes = bytes;
+        }
+
+        /** Returns the name of the binlog containing this event. */
+        public String getBinlog()
+        {
+            return binlog;
+        }
+
+        /** Returns the offset of the following event in the binlog. */
+        public long getNextPosition()
+        {
+            return nextPosition;
+        }
+
+        /** Returns event bytes including the common header. */
+        public byte[] getBytes()
+        {
+            return bytes;
+        }
+    }
+
+    private final LinkedList<Entry> entries = new LinkedList<Entry>();
+    private final long              maxBytes;
+    private long                    bytes;
+
+    /**
+     * Creates a new buffer.
+     * 
+     * @param maxBytes Maximum number of event bytes to hold
+     */
+    public RelayLogBuffer(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Adds an event, waiting if the buffer is full.
+     * 
+     * @throws InterruptedException Thrown if interrupted while waiting
+     */
+    public synchronized void put(Entry entry) throws InterruptedException
+    {
+        while (!entries.isEmpty() && bytes + entry.bytes.length > maxBytes)
+            wait();
+        entries.add(entry);
+        bytes += entry.bytes.length;
+        notifyAll();
+    }
+
+    /**
+     * Waits until an event is available.
+     * 
+     * @param waitMillis Maximum time to wait
+     * @return True if an event is available, false if we timed out
+     * @throws InterruptedException Thrown if interrupted while waiting
+     */
+    public synchronized boolean waitAvailable(long waitMillis)
+            throws InterruptedException
+    {
+        long timeout = System.currentTimeMillis() + waitMillis;
+        while (entries.isEmpty())
+        {
+            long remaining = timeout - System.currentTimeMillis();
+            if (remaining <= 0)
+                return false;
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Removes and returns the next event or null if the buffer is empty.
+     */
+    public synchronized Entry poll()
+    {
+        Entry entry = entries.poll();
+        if (entry != null)
+        {
+            bytes -= entry.bytes.length;
+            notifyAll();
+        }
+        return entry;
+    }
+
+    /** Returns the number of buffered events. */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /** Returns the number of buffered event bytes. */
+    public synchronized long getBytes()
+    {
+        return bytes;
+    }
+
+    /** Discards all buffered events. */
+    public synchronized void clear()
+    {
+        entries.clear();
+        bytes = 0;
+        notifyAll();
+    }
+}
@@ -22,6 +22,7 @@
 
 package com.continuent.tungsten.replicator.extractor.mysql;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -47,6 +48,11 @@ import com.continuent.tungsten.replicator.extractor.ExtractorException;
  * Defines a client to extract binlog events and store them in local relay files
  * in a fashion similar to MySQL.
  * <p>
+ * If a relay log buffer is set, the client also posts each complete binlog
+ * event to the buffer so that the extractor can read events without
+ * re-reading relay files. In that case writing relay files may be turned off
+ * entirely.
+ * <p>
  * Public methods are synchronized to ensure a consistent view of client data
  * across threads.
  * 
@@ -72,6 +78,10 @@ public class RelayLogClient
     private int                       serverId     = 1;
     private long                      readTimeout  = 60;
     private LinkedBlockingQueue<File> logQueue     = null;
+    private RelayLogBuffer            relayBuffer  = null;
+    private boolean                   spill        = true;
+    private String                    streamBinlog = null;
+    private long                      streamOffset = 0;
 
     // Relay storage and positioning information.
     private File                      relayLog;
@@ -186,6 +196,44 @@ public class RelayLogClient
         this.logQueue = logQueue;
     }
 
+    public synchronized RelayLogBuffer getRelayBuffer()
+    {
+        return relayBuffer;
+    }
+
+    /**
+     * Sets a buffer to receive binlog events as they are downloaded.
+     */
+    public synchronized void setRelayBuffer(RelayLogBuffer relayBuffer)
+    {
+        this.relayBuffer = relayBuffer;
+    }
+
+    public boolean isSpill()
+    {
+        return spill;
+    }
+
+    /**
+     * If true (the default) write binlog events to relay files. Turning this
+     * off is only useful when events are read from a relay buffer.
+     */
+    public void setSpill(boolean spill)
+    {
+        this.spill = spill;
+    }
+
+    /**
+     * Sets the position from which events are posted to the relay buffer.
+     * Events that end at or before this position are written to relay files
+     * only, as the extractor has already processed them.
+     */
+    public void setStreamStart(String binlog, long offset)
+    {
+        this.streamBinlog = binlog;
+        this.streamOffset = offset;
+    }
+
     /**
      * Returns the network read delay timeout.
      */
@@ -323,7 +371,11 @@ public class RelayLogClient
 
         // Set up output directories for relay logs.
         this.relayDir = new File(binlogDir);
-        if (!relayDir.isDirectory())
+        if (!spill)
+        {
+            logger.info("Relay log files are disabled; events will be posted to relay buffer only");
+        }
+        else if (!relayDir.isDirectory())
             throw new ExtractorException(
                     "Relay log directory not a directory or does not exist: "
                             + relayDir.getAbsolutePath());
@@ -336,7 +388,7 @@ public class RelayLogClient
         binlogIndex = new File(relayDir, binlogPrefix + ".index");
 
         // If auto-clean is enabled, clean up relay files now.
-        if (autoClean)
+        if (autoClean && spill)
         {
             // Delete the index file if it exists.
             if (binlogIndex.delete())
@@ -554,7 +606,7 @@ public class RelayLogClient
 
             // Write rotate_log event only if we have an open relay log file.
             // MySQL also sends same event at the beginning of a new file.
-            if (this.relayOutput != null)
+            if (this.relayLog != null)
             {
                 writePacketToRelayLog(packet);
                 closeBinlog();
@@ -570,9 +622,21 @@ public class RelayLogClient
     private void writePacketToRelayLog(MySQLPacket packet) throws IOException,
             InterruptedException
     {
-        if (relayOutput == null)
+        if (relayLog == null)
             openBinlog();
         blindlyWriteToRelayLog(packet, false);
+
+        // Events that fit in a single packet are posted directly. Larger
+        // events are assembled from their follow-on packets.
+        ByteArrayOutputStream eventBytes = null;
+        if (relayBuffer != null
+                && packet.getDataLength() >= MySQLPacket.MAX_LENGTH)
+        {
+            eventBytes = new ByteArrayOutputStream();
+            appendPacketData(eventBytes, packet, false);
+        }
+        MySQLPacket firstPacket = packet;
+
         while (packet.getDataLength() >= MySQLPacket.MAX_LENGTH)
         {
             // this is a packet longer than 16m. Data will be send over several
@@ -586,9 +650,53 @@ public class RelayLogClient
                         + packet.getDataLength());
             }
             blindlyWriteToRelayLog(packet, true);
+            if (eventBytes != null)
+                appendPacketData(eventBytes, packet, true);
+        }
+
+        // Post the complete event to the relay buffer unless the extractor
+        // starts after it.
+        if (relayBuffer != null && isStreamed())
+        {
+            byte[] bytes;
+            if (eventBytes == null)
+            {
+                bytes = new byte[firstPacket.getByteBuffer().length - 5];
+                System.arraycopy(firstPacket.getByteBuffer(), 5, bytes, 0,
+                        bytes.length);
+            }
+            else
+                bytes = eventBytes.toByteArray();
+            relayBuffer.put(new RelayLogBuffer.Entry(relayLog.getName(),
+                    relayBytes, bytes));
         }
     }
 
+    // Returns true if the current position is past the stream start.
+    private boolean isStreamed()
+    {
+        if (streamBinlog == null)
+            return true;
+        int cmp = relayLog.getName().compareTo(streamBinlog);
+        if (cmp > 0 || (cmp == 0 && relayBytes > streamOffset))
+        {
+            // Once we pass the start we never need to check again.
+            streamBinlog = null;
+            return true;
+        }
+        else
+            return false;
+    }
+
+    // Append the event data in a packet to a buffer.
+    private void appendPacketData(ByteArrayOutputStream eventBytes,
+            MySQLPacket packet, boolean extended)
+    {
+        byte[] bytes = packet.getByteBuffer();
+        int header = extended ? 4 : 5;
+        eventBytes.write(bytes, header, bytes.length - header);
+    }
+
     /**
      * Writes data into the relay log file.
      * 
@@ -614,8 +722,11 @@ public class RelayLogClient
             logger.debug("Writing packet to binlog: bytesLength="
                     + bytes.length + " writeLength=" + writeLength);
         }
-        relayOutput.write(bytes, header, writeLength);
-        relayOutput.flush();
+        if (relayOutput != null)
+        {
+            relayOutput.write(bytes, header, writeLength);
+            relayOutput.flush();
+        }
         relayBytes += writeLength;
         logPosition.setPosition(relayLog, relayBytes);
     }
@@ -628,6 +739,14 @@ public class RelayLogClient
         logger.info("Rotating to new relay log: name="
                 + relayLog.getAbsolutePath());
 
+        // If we are not writing files, we just need to track the position.
+        if (!spill)
+        {
+            relayBytes = 4;
+            this.logPosition.setPosition(relayLog, relayBytes);
+            return;
+        }
+
         // Post the name to the log queue. This will block if the extractor
         // is slow and opening another file would cause us to exceeded the relay
         // log retention.
@@ -702,7 +821,7 @@ public class RelayLogClient
             relayOutput.flush();
             relayOutput.close();
             relayOutput = null;
-            relayLog = null;
         }
+        relayLog = null;
     }
 }
\ No newline at end of file
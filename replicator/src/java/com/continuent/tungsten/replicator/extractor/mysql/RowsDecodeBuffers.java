@@ -0,0 +1,83 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.extractor.mysql;
+
+import java.util.BitSet;
+import java.util.Calendar;
+
+/**
+ * Holds scratch objects reused while decoding rows events. Rows events may be
+ * decoded on the extractor thread or on decode pool threads, so each thread
+ * gets its own instance through {@link #get()}. Nothing returned from here may
+ * be stored in extracted row values.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+final class RowsDecodeBuffers
+{
+    private static final ThreadLocal<RowsDecodeBuffers> buffers = new ThreadLocal<RowsDecodeBuffers>()
+                                                                {
+                                                                    protected RowsDecodeBuffers initialValue()
+                                                                    {
+                                                                        return new RowsDecodeBuffers();
+                                                                    }
+                                                                };
+
+    // Calendar used to compute temporal values.
+    private final Calendar                              calendar = Calendar
+                                                                         .getInstance();
+
+    // Null bit-field for the row currently being decoded.
+    private final BitSet                                nulls    = new BitSet();
+
+    private RowsDecodeBuffers()
+    {
+    }
+
+    /**
+     * Returns the buffers for the current thread.
+     */
+    static RowsDecodeBuffers get()
+    {
+        return buffers.get();
+    }
+
+    /**
+     * Returns a cleared calendar in the default time zone.
+     */
+    Calendar getCalendar()
+    {
+        calendar.clear();
+        return calendar;
+    }
+
+    /**
+     * Returns a cleared bit set for row null flags.
+     */
+    BitSet getNulls()
+    {
+        nulls.clear();
+        return nulls;
+    }
+}
@@ -24,10 +24,10 @@ package com.continuent.tungsten.replicator.extractor.mysql;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.sql.Date;
 import java.sql.SQLException;
 import java.sql.Timestamp;
-import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Calendar;
 
@@ -35,9 +35,9 @@ import org.apache.log4j.Logger;
 
 import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.database.DatabaseHelper;
+import com.continuent.tungsten.replicator.dbms.ColumnarRowSet;
 import com.continuent.tungsten.replicator.dbms.OneRowChange;
 import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
-import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
 import com.continuent.tungsten.replicator.dbms.RowChangeData;
 import com.continuent.tungsten.replicator.extractor.ExtractorException;
 import com.continuent.tungsten.replicator.extractor.mysql.conversion.BigEndianConversion;
@@ -91,6 +91,13 @@ public abstract class RowsLogEvent extends LogEvent
      */
     static Logger     logger = Logger.getLogger(RowsLogEvent.class);
 
+    // Constants for decimal decoding.
+    private static final long       DIG_BASE      = 1000000000L;
+    private static final BigInteger BIG_DIG_BASE  = BigInteger
+                                                          .valueOf(DIG_BASE);
+    private static final long[]     POWERS_OF_TEN = {1L, 10L, 100L, 1000L,
+            10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L};
+
     private long      tableId;
 
     protected long    columnsNumber;
@@ -101,10 +108,13 @@ public abstract class RowsLogEvent extends LogEvent
     // BITMAP for row after image
     protected BitSet  usedColumnsForUpdate;
 
-    /* Rows in packed format */
+    /* Rows in packed format; this is the event buffer itself */
     protected byte[]  packedRowsBuffer;
 
-    /* One-after the end of the allocated space */
+    /* Offset of the first row in the packed buffer */
+    protected int     rowsOffset;
+
+    /* Length of the packed rows */
     protected int     bufferSize;
 
     protected boolean useBytesForString;
@@ -215,12 +225,11 @@ public abstract class RowsLogEvent extends LogEvent
                         + " Number of columns in table: " + columnsNumber
                         + " Data size: " + dataSize);
 
-            packedRowsBuffer = new byte[dataSize];
+            // Rows are decoded in place from the event buffer, which is
+            // allocated per event and not reused by the reader.
+            packedRowsBuffer = buffer;
+            rowsOffset = dataIndex;
             bufferSize = dataSize;
-            System.arraycopy(buffer, dataIndex, packedRowsBuffer, 0, bufferSize);
-
-            // for (int i = 0; i < bufferSize; i++)
-            // packedRowsBuffer[i] = buf[ptr_rows_data + i];
         }
         catch (IOException e)
         {
@@ -234,10 +243,23 @@ public abstract class RowsLogEvent extends LogEvent
 
     public int getEventSize()
     {
-        return packedRowsBuffer.length;
+        return bufferSize;
     }
 
-    private BigDecimal extractDecimal(byte[] buffer, int precision, int scale)
+    /**
+     * Decodes a binary decimal in place. The value is stored as groups of up
+     * to nine digits in big-endian order with the sign in the first bit, so we
+     * can append the groups to a single unscaled integer without copying the
+     * bytes.
+     * 
+     * @param buffer Buffer containing the value
+     * @param pos Offset of the value in the buffer
+     * @param precision Decimal precision
+     * @param scale Decimal scale
+     * @return Decoded value with the given scale
+     */
+    static BigDecimal extractDecimal(byte[] buffer, int pos, int precision,
+            int scale)
     {
         //
         // Decimal representation in binlog seems to be as follows:
@@ -258,96 +280,93 @@ public abstract class RowsLogEvent extends LogEvent
         // 5 456700000 0
         // 54567000000 / 10^{10} = 5.4567
         //
-        // int_size below shows how long is integer part
-        //
-        // offset = offset + 2; // offset of the number part
-        //
         int intg = precision - scale;
         int intg0 = intg / MysqlBinlog.DIG_PER_INT32;
         int frac0 = scale / MysqlBinlog.DIG_PER_INT32;
         int intg0x = intg - intg0 * MysqlBinlog.DIG_PER_INT32;
         int frac0x = scale - frac0 * MysqlBinlog.DIG_PER_INT32;
 
-        int offset = 0;
-
-        int sign = (buffer[offset] & 0x80) == 0x80 ? 1 : -1;
-
         // how many bytes are used to represent given amount of digits?
         int integerSize = intg0 * MysqlBinlog.SIZE_OF_INT32
                 + MysqlBinlog.dig2bytes[intg0x];
         int decimalSize = frac0 * MysqlBinlog.SIZE_OF_INT32
                 + MysqlBinlog.dig2bytes[frac0x];
-
-        if (logger.isDebugEnabled())
-            logger.debug("Integer size in bytes = " + integerSize
-                    + " - Fraction size in bytes = " + decimalSize);
         int bin_size = integerSize + decimalSize; // total bytes
-        byte[] d_copy = new byte[bin_size];
 
-        if (bin_size > buffer.length)
+        if (pos + bin_size > buffer.length)
         {
             throw new ArrayIndexOutOfBoundsException("Calculated bin_size: "
-                    + bin_size + ", available bytes: " + buffer.length);
-        }
-
-        // Invert first bit
-        d_copy[0] = buffer[0];
-        d_copy[0] ^= 0x80;
-        if (sign == -1)
-        {
-            // Invert every byte
-            d_copy[0] ^= 0xFF;
-        }
-
-        for (int i = 1; i < bin_size; i++)
-        {
-            d_copy[i] = buffer[i];
-            if (sign == -1)
-            {
-                // Invert every byte
-                d_copy[i] ^= 0xFF;
-            }
+                    + bin_size + ", available bytes: " + (buffer.length - pos));
         }
 
-        // Integer part
-        offset = MysqlBinlog.dig2bytes[intg0x];
-
-        BigDecimal intPart = new BigDecimal(0);
+        // Negative values have every byte inverted.
+        boolean negative = (buffer[pos] & 0x80) == 0;
+        int mask = negative ? 0xFF : 0;
 
-        if (offset > 0)
-            intPart = BigDecimal.valueOf(BigEndianConversion
-                    .convertNBytesToInt(d_copy, 0, offset));
+        // Values of up to 18 digits fit in a long.
+        boolean small = precision <= 18;
+        long unscaled = 0;
+        BigInteger bigUnscaled = small ? null : BigInteger.ZERO;
+        int offset = pos;
 
-        while (offset < integerSize)
+        // Integer part: leading partial group, then full groups.
+        int size = MysqlBinlog.dig2bytes[intg0x];
+        if (size > 0)
         {
-            intPart = intPart.movePointRight(MysqlBinlog.DIG_PER_DEC1).add(
-                    BigDecimal.valueOf(BigEndianConversion.convert4BytesToInt(
-                            d_copy, offset)));
-            offset += 4;
+            long group = readDecimalGroup(buffer, offset, size, mask, pos);
+            if (small)
+                unscaled = group;
+            else
+                bigUnscaled = BigInteger.valueOf(group);
+            offset += size;
         }
-
-        // Decimal part
-        BigDecimal fracPart = new BigDecimal(0);
-        int shift = 0;
-        for (int i = 0; i < frac0; i++)
+        for (int i = 0; i < intg0 + frac0; i++)
         {
-            shift += MysqlBinlog.DIG_PER_DEC1;
-            fracPart = fracPart.add(BigDecimal.valueOf(
-                    BigEndianConversion.convert4BytesToInt(d_copy, offset))
-                    .movePointLeft(shift));
-            offset += 4;
+            long group = readDecimalGroup(buffer, offset,
+                    MysqlBinlog.SIZE_OF_INT32, mask, pos);
+            if (small)
+                unscaled = unscaled * DIG_BASE + group;
+            else
+                bigUnscaled = bigUnscaled.multiply(BIG_DIG_BASE).add(
+                        BigInteger.valueOf(group));
+            offset += MysqlBinlog.SIZE_OF_INT32;
         }
 
-        if (MysqlBinlog.dig2bytes[frac0x] > 0)
+        // Fraction part: trailing partial group.
+        size = MysqlBinlog.dig2bytes[frac0x];
+        if (size > 0)
         {
-            fracPart = fracPart.add(BigDecimal.valueOf(
-                    BigEndianConversion.convertNBytesToInt(d_copy, offset,
-                            MysqlBinlog.dig2bytes[frac0x])).movePointLeft(
-                    shift + frac0x));
+            long group = readDecimalGroup(buffer, offset, size, mask, pos);
+            long base = POWERS_OF_TEN[frac0x];
+            if (small)
+                unscaled = unscaled * base + group;
+            else
+                bigUnscaled = bigUnscaled.multiply(BigInteger.valueOf(base))
+                        .add(BigInteger.valueOf(group));
         }
 
-        return BigDecimal.valueOf(sign).multiply(intPart.add(fracPart));
+        if (small)
+            return BigDecimal.valueOf(negative ? -unscaled : unscaled, scale);
+        else
+            return new BigDecimal(negative
+                    ? bigUnscaled.negate()
+                    : bigUnscaled, scale);
+    }
 
+    // Reads a big-endian decimal digit group, flipping the sign bit of the
+    // first byte of the value and applying the negative mask.
+    private static long readDecimalGroup(byte[] buffer, int offset,
+            int length, int mask, int first)
+    {
+        long group = 0;
+        for (int i = offset; i < offset + length; i++)
+        {
+            int b = (buffer[i] ^ mask) & 0xFF;
+            if (i == first)
+                b ^= 0x80;
+            group = (group << 8) | b;
+        }
+        return group;
     }
 
     /**
@@ -372,9 +391,9 @@ public abstract class RowsLogEvent extends LogEvent
                 + MysqlBinlog.dig2bytes[frac0x];
     }
 
-    protected int extractValue(ColumnSpec spec, ColumnVal value, byte[] row,
-            int rowPos, int type, int meta) throws IOException,
-            ReplicatorException
+    protected int extractValue(ColumnSpec spec, ColumnarRowSet values,
+            int rowIndex, int column, byte[] row, int rowPos, int type,
+            int meta) throws IOException, ReplicatorException
     {
         int length = 0;
 
@@ -430,7 +449,7 @@ public abstract class RowsLogEvent extends LogEvent
                             + MysqlBinlog.INT_MIN + " - " + MysqlBinlog.INT_MAX
                             + " )");
                 }
-                value.setValue(new Integer(si));
+                values.setInt(rowIndex, column, si);
                 if (spec != null)
                 {
                     spec.setType(java.sql.Types.INTEGER);
@@ -450,7 +469,7 @@ public abstract class RowsLogEvent extends LogEvent
                             + MysqlBinlog.TINYINT_MAX + " )");
                 }
 
-                value.setValue(new Integer(si));
+                values.setInt(rowIndex, column, si);
                 if (spec != null)
                 {
                     spec.setType(java.sql.Types.INTEGER);
@@ -470,7 +489,7 @@ public abstract class RowsLogEvent extends LogEvent
                             + MysqlBinlog.SMALLINT_MIN + " - "
                             + MysqlBinlog.SMALLINT_MAX + " )");
                 }
-                value.setValue(new Integer(si));
+                values.setInt(rowIndex, column, si);
                 if (spec != null)
                 {
                     spec.setType(java.sql.Types.INTEGER);
@@ -490,7 +509,7 @@ public abstract class RowsLogEvent extends LogEvent
                             + MysqlBinlog.MEDIUMINT_MIN + " - "
                             + MysqlBinlog.MEDIUMINT_MAX + " )");
                 }
-                value.setValue(new Integer(si));
+                values.setInt(rowIndex, column, si);
                 if (spec != null)
                 {
                     spec.setType(java.sql.Types.INTEGER);
@@ -507,7 +526,7 @@ public abstract class RowsLogEvent extends LogEvent
                 {
                     long ui = LittleEndianConversion.convert8BytesToLong(row,
                             rowPos);
-                    value.setValue(new Long(ui));
+                    values.setLong(rowIndex, column, ui);
                     if (spec != null)
                     {
                         spec.setType(java.sql.Types.INTEGER);
@@ -516,7 +535,7 @@ public abstract class RowsLogEvent extends LogEvent
                 }
                 else
                 {
-                    value.setValue(new Long(si));
+                    values.setLong(rowIndex, column, si);
                     if (spec != null)
                     {
                         spec.setType(java.sql.Types.INTEGER);
@@ -531,11 +550,9 @@ public abstract class RowsLogEvent extends LogEvent
                 int precision = meta >> 8;
                 int decimals = meta & 0xFF;
                 int bin_size = getDecimalBinarySize(precision, decimals);
-                byte[] dec = new byte[bin_size];
-                for (int i = 0; i < bin_size; i++)
-                    dec[i] = row[rowPos + i];
-                BigDecimal myDouble = extractDecimal(dec, precision, decimals);
-                value.setValue(myDouble);
+                BigDecimal myDouble = extractDecimal(row, rowPos, precision,
+                        decimals);
+                values.setValue(rowIndex, column, myDouble);
                 if (spec != null)
                     spec.setType(java.sql.Types.DECIMAL);
                 return bin_size;
@@ -544,7 +561,7 @@ public abstract class RowsLogEvent extends LogEvent
             case MysqlBinlog.MYSQL_TYPE_FLOAT :
             {
                 float fl = MysqlBinlog.float4ToFloat(row, rowPos);
-                value.setValue(new Float(fl));
+                values.setValue(rowIndex, column, Float.valueOf(fl));
                 if (spec != null)
                     spec.setType(java.sql.Types.FLOAT);
                 return 4;
@@ -553,7 +570,7 @@ public abstract class RowsLogEvent extends LogEvent
             case MysqlBinlog.MYSQL_TYPE_DOUBLE :
             {
                 double dbl = MysqlBinlog.double8ToDouble(row, rowPos);
-                value.setValue(new Double(dbl));
+                values.setValue(rowIndex, column, Double.valueOf(dbl));
                 if (spec != null)
                     spec.setType(java.sql.Types.DOUBLE);
 
@@ -577,7 +594,7 @@ public abstract class RowsLogEvent extends LogEvent
 
                 int retval = (int) MysqlBinlog.ulNoSwapToInt(row, rowPos,
                         length);
-                value.setValue(new Integer(retval));
+                values.setInt(rowIndex, column, retval);
                 if (spec != null)
                     spec.setType(java.sql.Types.BIT);
                 return length;
@@ -590,11 +607,12 @@ public abstract class RowsLogEvent extends LogEvent
 
                 if (i32 == 0)
                 {
-                    value.setValue(Integer.valueOf(0));
+                    values.setInt(rowIndex, column, 0);
                 }
                 else
                     // convert sec based timestamp to millisecond precision
-                    value.setValue(new java.sql.Timestamp(i32 * 1000));
+                    values.setValue(rowIndex, column, new java.sql.Timestamp(
+                            i32 * 1000));
                 if (spec != null)
                     spec.setType(java.sql.Types.TIMESTAMP);
                 return 4;
@@ -608,7 +626,7 @@ public abstract class RowsLogEvent extends LogEvent
                 // Let's check for zero date
                 if (i64 == 0)
                 {
-                    value.setValue(Integer.valueOf(0));
+                    values.setInt(rowIndex, column, 0);
                     if (spec != null)
                         spec.setType(java.sql.Types.TIMESTAMP);
                     return 8;
@@ -628,7 +646,7 @@ public abstract class RowsLogEvent extends LogEvent
                 // construct timestamp from time components
                 java.sql.Timestamp ts = null;
 
-                Calendar cal = Calendar.getInstance();
+                Calendar cal = RowsDecodeBuffers.get().getCalendar();
                 // Month value is 0-based. e.g., 0 for January.
                 cal.set(year, month - 1, day, hour, min, sec);
 
@@ -636,7 +654,7 @@ public abstract class RowsLogEvent extends LogEvent
                 // Clear the nanos (no data)
                 ts.setNanos(0);
 
-                value.setValue(ts);
+                values.setValue(rowIndex, column, ts);
                 if (spec != null)
                     spec.setType(java.sql.Types.TIMESTAMP);
                 return 8;
@@ -646,8 +664,13 @@ public abstract class RowsLogEvent extends LogEvent
             {
                 long i32 = LittleEndianConversion.convert3BytesToInt(row,
                         rowPos);
-                value.setValue(java.sql.Time.valueOf(i32 / 10000 + ":"
-                        + (i32 % 10000) / 100 + ":" + i32 % 100));
+                // Equivalent to Time.valueOf("hh:mm:ss") without building
+                // and parsing a string.
+                Calendar cal = RowsDecodeBuffers.get().getCalendar();
+                cal.set(1970, 0, 1, (int) (i32 / 10000),
+                        (int) (i32 % 10000) / 100, (int) (i32 % 100));
+                values.setValue(rowIndex, column,
+                        new java.sql.Time(cal.getTimeInMillis()));
                 if (spec != null)
                     spec.setType(java.sql.Types.TIME);
                 return 3;
@@ -662,20 +685,19 @@ public abstract class RowsLogEvent extends LogEvent
                 // Let's check if the date is 0000-00-00
                 if (i32 == 0)
                 {
-                    value.setValue(Integer.valueOf(0));
+                    values.setInt(rowIndex, column, 0);
                     if (spec != null)
                         spec.setType(java.sql.Types.DATE);
                     return 3;
                 }
                 
-                Calendar cal = Calendar.getInstance();
-                cal.clear();
+                Calendar cal = RowsDecodeBuffers.get().getCalendar();
                 // Month value is 0-based. e.g., 0 for January.
                 cal.set(i32 / (16 * 32), (i32 / 32 % 16) - 1, i32 % 32);
 
                 date = new Date(cal.getTimeInMillis());
 
-                value.setValue(date);
+                values.setValue(rowIndex, column, date);
                 if (spec != null)
                     spec.setType(java.sql.Types.DATE);
                 return 3;
@@ -685,7 +707,7 @@ public abstract class RowsLogEvent extends LogEvent
             {
                 int i32 = LittleEndianConversion.convert1ByteToInt(row, rowPos);
                 // raw value is offset by 1900. e.g. "1" is 1901.
-                value.setValue(1900 + i32);
+                values.setInt(rowIndex, column, 1900 + i32);
                 // It might seem more correct to create a java.sql.Types.DATE
                 // value for this date, but it is much simpler to pass the value
                 // as an integer. The MySQL JDBC specification states that one
@@ -704,7 +726,7 @@ public abstract class RowsLogEvent extends LogEvent
                     {
                         int i32 = LittleEndianConversion.convert1ByteToInt(row,
                                 rowPos);
-                        value.setValue(new Integer(i32));
+                        values.setInt(rowIndex, column, i32);
                         if (spec != null)
                             spec.setType(java.sql.Types.OTHER);
                         return 1;
@@ -713,7 +735,7 @@ public abstract class RowsLogEvent extends LogEvent
                     {
                         int i32 = LittleEndianConversion.convert2BytesToInt(
                                 row, rowPos);
-                        value.setValue(new Integer(i32));
+                        values.setInt(rowIndex, column, i32);
                         if (spec != null)
                             spec.setType(java.sql.Types.INTEGER);
                         return 2;
@@ -725,7 +747,7 @@ public abstract class RowsLogEvent extends LogEvent
             case MysqlBinlog.MYSQL_TYPE_SET :
                 long val = LittleEndianConversion.convertNBytesToLong_2(row,
                         rowPos, length);
-                value.setValue(new Long(val));
+                values.setLong(rowIndex, column, val);
                 if (spec != null)
                     spec.setType(java.sql.Types.INTEGER);
                 return length;
@@ -767,7 +789,7 @@ public abstract class RowsLogEvent extends LogEvent
                 {
                     SerialBlob blob = DatabaseHelper.getSafeBlob(row, rowPos
                             + blob_size, length);
-                    value.setValue(blob);
+                    values.setValue(rowIndex, column, blob);
                 }
                 catch (SQLException e)
                 {
@@ -794,9 +816,11 @@ public abstract class RowsLogEvent extends LogEvent
                             rowPos);
                     rowPos++;
                     if (useBytesForString)
-                        value.setValue(processStringAsBytes(row, rowPos, length));
+                        values.setValue(rowIndex, column,
+                                processStringAsBytes(row, rowPos, length));
                     else
-                        value.setValue(processString(row, rowPos, length));
+                        values.setValue(rowIndex, column,
+                                processString(row, rowPos, length));
                     length += 1;
                 }
                 else
@@ -805,9 +829,11 @@ public abstract class RowsLogEvent extends LogEvent
                             rowPos);
                     rowPos += 2;
                     if (useBytesForString)
-                        value.setValue(processStringAsBytes(row, rowPos, length));
+                        values.setValue(rowIndex, column,
+                                processStringAsBytes(row, rowPos, length));
                     else
-                        value.setValue(processString(row, rowPos, length));
+                        values.setValue(rowIndex, column,
+                                processString(row, rowPos, length));
                     length += 2;
                 }
 
@@ -822,9 +848,11 @@ public abstract class RowsLogEvent extends LogEvent
                             rowPos);
                     rowPos++;
                     if (useBytesForString)
-                        value.setValue(processStringAsBytes(row, rowPos, length));
+                        values.setValue(rowIndex, column,
+                                processStringAsBytes(row, rowPos, length));
                     else
-                        value.setValue(processString(row, rowPos, length));
+                        values.setValue(rowIndex, column,
+                                processString(row, rowPos, length));
                     length += 1;
                 }
                 else
@@ -833,9 +861,11 @@ public abstract class RowsLogEvent extends LogEvent
                             rowPos);
                     rowPos += 2;
                     if (useBytesForString)
-                        value.setValue(processStringAsBytes(row, rowPos, length));
+                        values.setValue(rowIndex, column,
+                                processStringAsBytes(row, rowPos, length));
                     else
-                        value.setValue(processString(row, rowPos, length));
+                        values.setValue(rowIndex, column,
+                                processString(row, rowPos, length));
                     length += 2;
                 }
                 if (spec != null)
@@ -881,23 +911,28 @@ public abstract class RowsLogEvent extends LogEvent
             if (cols.get(i))
                 usedColumnsCount++;
         }
-        BitSet nulls = new BitSet(usedColumnsCount);
+        BitSet nulls = RowsDecodeBuffers.get().getNulls();
         MysqlBinlog.setBitField(nulls, row, startIndex, usedColumnsCount);
 
-        ArrayList<ArrayList<OneRowChange.ColumnVal>> rows = (isKeySpec)
-                ? oneRowChange.getKeyValues()
-                : oneRowChange.getColumnValues();
-
         /*
-         * add new row for column values
+         * Values are stored in columnar form, which avoids allocating a value
+         * holder per column. The first row creates the row set.
          */
-        if (rows.size() == rowIndex)
+        ColumnarRowSet rows;
+        if (rowIndex == 0)
         {
-            rows.add(new ArrayList<ColumnVal>());
+            rows = new ColumnarRowSet(usedColumnsCount, 1);
+            if (isKeySpec)
+                oneRowChange.setKeyRows(rows);
+            else
+                oneRowChange.setColumnRows(rows);
         }
-        ArrayList<OneRowChange.ColumnVal> columns = rows.get(rowIndex);
+        else
+            rows = (isKeySpec)
+                    ? oneRowChange.getKeyRows()
+                    : oneRowChange.getColumnRows();
 
-        if (columns == null)
+        if (rows == null || rows.addRow() != rowIndex)
         {
             throw new ExtractorException(
                     "Row data corrupted : column value list empty for row "
@@ -913,10 +948,10 @@ public abstract class RowsLogEvent extends LogEvent
             if (cols.get(i) == false)
                 continue;
 
+            int column = nullIndex;
             boolean isNull = nulls.get(nullIndex);
             nullIndex++;
 
-            OneRowChange.ColumnVal value = oneRowChange.new ColumnVal();
             if (isKeySpec)
             {
                 if (rowIndex == 0)
@@ -925,7 +960,6 @@ public abstract class RowsLogEvent extends LogEvent
                     spec.setIndex(i + 1);
                     oneRowChange.getKeySpec().add(spec);
                 }
-                oneRowChange.getKeyValues().get(rowIndex).add(value);
             }
             else
             {
@@ -948,20 +982,19 @@ public abstract class RowsLogEvent extends LogEvent
                     else
                         spec = null;
                 }
-                oneRowChange.getColumnValues().get(rowIndex).add(value);
             }
-            if (isNull)
-            {
-                value.setValueNull();
-            }
-            else
+
+            // New rows hold nulls, so there is nothing to store for a null.
+            if (!isNull)
             {
                 int size = 0;
                 try
                 {
                     size = extractValue(
                             spec,
-                            value,
+                            rows,
+                            rowIndex,
+                            column,
                             row,
                             rowPos,
                             LittleEndianConversion.convert1ByteToInt(
@@ -69,8 +69,9 @@ public class UpdateRowsLogEvent extends RowsLogEvent
 
         int rowIndex = 0; /* index of the row in value arrays */
 
-        int bufferIndex = 0;
-        while (bufferIndex < bufferSize)
+        int bufferIndex = rowsOffset;
+        int rowsEnd = rowsOffset + bufferSize;
+        while (bufferIndex < rowsEnd)
         {
             int length = 0;
 
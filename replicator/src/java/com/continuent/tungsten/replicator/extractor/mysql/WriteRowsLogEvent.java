@@ -64,7 +64,8 @@ public class WriteRowsLogEvent extends RowsLogEvent
 
         int rowIndex = 0; /* index of the row in value arrays */
 
-        for (int bufferIndex = 0; bufferIndex < bufferSize;)
+        int rowsEnd = rowsOffset + bufferSize;
+        for (int bufferIndex = rowsOffset; bufferIndex < rowsEnd;)
         {
             int length;
 
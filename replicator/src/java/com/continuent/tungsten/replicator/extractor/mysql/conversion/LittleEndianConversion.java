@@ -22,8 +22,7 @@
 
 package com.continuent.tungsten.replicator.extractor.mysql.conversion;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 
 /**
@@ -96,17 +95,12 @@ public class LittleEndianConversion extends GeneralConversion
     private static int convertNBytesToInt(byte[] buffer, int offset, int nBytes)
             throws IOException
     {
+        checkBounds(buffer, offset, nBytes);
         int value = 0;
         int shift = 0;
-        ByteArrayInputStream byte_in = new ByteArrayInputStream(buffer);
-        DataInputStream data_in = new DataInputStream(byte_in);
-
-        /* skip the offset */
-        data_in.skip(offset);
-
-        for (int i = 0; i < nBytes; i++)
+        for (int i = offset; i < offset + nBytes; i++)
         {
-            value += data_in.readUnsignedByte() << shift;
+            value += unsignedByteToInt(buffer[i]) << shift;
             shift += 8;
         }
         return value;
@@ -162,43 +156,38 @@ public class LittleEndianConversion extends GeneralConversion
     public static long convert8BytesToLong(byte[] buffer, int offset)
             throws IOException
     {
-        ByteArrayInputStream byte_in = new ByteArrayInputStream(buffer);
-        DataInputStream data_in = new DataInputStream(byte_in);
-        /* skip the offset */
-        data_in.skip(offset);
-        //
-        long value;
-        value = data_in.readUnsignedByte();
-        value += (long) data_in.readUnsignedByte() << 8;
-        value += (long) data_in.readUnsignedByte() << 16;
-        value += (long) data_in.readUnsignedByte() << 24;
-        value += (long) data_in.readUnsignedByte() << 32;
-        value += (long) data_in.readUnsignedByte() << 40;
-        value += (long) data_in.readUnsignedByte() << 48;
-        value += (long) data_in.readUnsignedByte() << 56;
-        return value;
-        // return convertNBytesToLong(buffer, offset, 8);
+        return convertNBytesToLong(buffer, offset, 8);
     }
 
     private static long convertNBytesToLong(byte[] buffer, int offset,
             int nBytes) throws IOException
     {
+        checkBounds(buffer, offset, nBytes);
         long value = 0;
         int shift = 0;
-        ByteArrayInputStream byte_in = new ByteArrayInputStream(buffer);
-        DataInputStream data_in = new DataInputStream(byte_in);
-
-        /* skip the offset */
-        data_in.skip(offset);
-
-        for (int i = 0; i < nBytes; i++)
+        for (int i = offset; i < offset + nBytes; i++)
         {
-            value += (long) data_in.readUnsignedByte() << shift;
+            value += (long) unsignedByteToInt(buffer[i]) << shift;
             shift += 8;
         }
         return value;
     }
 
+    /*
+     * Values are read straight from the buffer rather than through a
+     * DataInputStream, which allocated two streams and their buffers for
+     * every column of every row. Running off the end still raises an
+     * EOFException as the stream did.
+     */
+    private static void checkBounds(byte[] buffer, int offset, int nBytes)
+            throws EOFException
+    {
+        if (offset < 0 || offset + nBytes > buffer.length)
+            throw new EOFException("Cannot read " + nBytes
+                    + " bytes at offset " + offset + " from buffer of length "
+                    + buffer.length);
+    }
+
     public static long convert8BytesToLong_2(byte[] buffer, int offset)
     {
         long ret = (long) unsignedByteToInt(buffer[offset]);
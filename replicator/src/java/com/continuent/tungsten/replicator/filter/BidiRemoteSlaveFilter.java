@@ -38,7 +38,7 @@ import com.continuent.tungsten.replicator.plugin.PluginContext;
  * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
  * @version 1.0
  */
-public class BidiRemoteSlaveFilter implements Filter
+public class BidiRemoteSlaveFilter implements MetadataOnlyFilter
 {
     private static Logger logger                = Logger
                                                         .getLogger(BidiRemoteSlaveFilter.class);
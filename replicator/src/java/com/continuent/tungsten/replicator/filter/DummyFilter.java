@@ -31,7 +31,7 @@ import com.continuent.tungsten.replicator.plugin.PluginContext;
  * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
  * @version 1.0
  */
-public class DummyFilter implements Filter
+public class DummyFilter implements MetadataOnlyFilter
 {
     /**
      * {@inheritDoc}
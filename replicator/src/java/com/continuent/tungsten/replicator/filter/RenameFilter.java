@@ -30,6 +30,7 @@ import org.apache.log4j.Logger;
 
 import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.conf.ReplicatorConf;
+import com.continuent.tungsten.replicator.database.TableDecisionCache;
 import com.continuent.tungsten.replicator.dbms.DBMSData;
 import com.continuent.tungsten.replicator.dbms.OneRowChange;
 import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
@@ -46,22 +47,36 @@ import com.continuent.tungsten.replicator.plugin.PluginContext;
  */
 public class RenameFilter implements Filter
 {
-    private static Logger     logger = Logger.getLogger(RenameFilter.class);
+    private static Logger                    logger = Logger.getLogger(RenameFilter.class);
 
     /**
      * Path to rename definition file.
      */
-    private String            definitionsFile;
+    private String                           definitionsFile;
 
     /**
      * Name of current replication service's internal tungsten schema.
      */
-    private String            tungstenSchema;
+    private String                           tungstenSchema;
 
     /**
      * Requests for renaming.
      */
-    private RenameDefinitions renameDefinitions;
+    private RenameDefinitions                renameDefinitions;
+
+    /**
+     * Renames found for each schema and table.
+     */
+    private TableDecisionCache<TableRenames> renameCache;
+
+    // Renames that apply to a table, which depend only on the schema and
+    // table name.
+    private static class TableRenames
+    {
+        boolean renameColumns;
+        String  newTableName;
+        String  newSchemaName;
+    }
 
     /**
      * Sets the path to rename definition file.
@@ -101,11 +116,21 @@ public class RenameFilter implements Filter
                         continue;
                     }
 
+                    // Look up renames for this table.
+                    TableRenames renames = renameCache.get(
+                            orc.getSchemaName(), orc.getTableName());
+                    if (renames == null)
+                    {
+                        renames = findRenames(orc.getSchemaName(),
+                                orc.getTableName());
+                        renameCache.put(orc.getSchemaName(),
+                                orc.getTableName(), renames);
+                    }
+
                     // Optimization: loop through column and key specifications
                     // only if there's a request to rename column for this
                     // schema and table.
-                    if (renameDefinitions.shouldRenameColumn(
-                            orc.getSchemaName(), orc.getTableName()))
+                    if (renames.renameColumns)
                     {
                         // Rename column specs.
                         ArrayList<ColumnSpec> colSpecs = orc.getColumnSpec();
@@ -162,25 +187,29 @@ public class RenameFilter implements Filter
                         }
                     }
 
-                    // Get new table name if there's a request.
-                    String newTableName = renameDefinitions.getNewTableName(
-                            orc.getSchemaName(), orc.getTableName());
-
-                    // Get new schema name if there's a request.
-                    String newSchemaName = renameDefinitions.getNewSchemaName(
-                            orc.getSchemaName(), orc.getTableName());
-
                     // Finally, do the actual renaming.
-                    if (newTableName != null)
-                        orc.setTableName(newTableName);
-                    if (newSchemaName != null)
-                        orc.setSchemaName(newSchemaName);
+                    if (renames.newTableName != null)
+                        orc.setTableName(renames.newTableName);
+                    if (renames.newSchemaName != null)
+                        orc.setSchemaName(renames.newSchemaName);
                 }
             }
         }
         return event;
     }
 
+    // Finds the renames that apply to a table.
+    private TableRenames findRenames(String schema, String table)
+    {
+        TableRenames renames = new TableRenames();
+        renames.renameColumns = renameDefinitions.shouldRenameColumn(schema,
+                table);
+        renames.newTableName = renameDefinitions.getNewTableName(schema, table);
+        renames.newSchemaName = renameDefinitions.getNewSchemaName(schema,
+                table);
+        return renames;
+    }
+
     /**
      * Sets the Tungsten schema, which we ignore to prevent problems with the
      * replicator. This is mostly used for filter testing, which runs without a
@@ -221,6 +250,7 @@ public class RenameFilter implements Filter
         {
             renameDefinitions = new RenameDefinitions(definitionsFile);
             renameDefinitions.parseFile();
+            renameCache = new TableDecisionCache<TableRenames>(1000);
         }
         catch (IOException e)
         {
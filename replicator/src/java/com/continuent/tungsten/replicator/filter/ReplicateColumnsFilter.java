@@ -26,7 +26,6 @@ import java.util.Iterator;
 
 import org.apache.log4j.Logger;
 
-import com.continuent.tungsten.common.cache.IndexedLRUCache;
 import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.conf.ReplicatorConf;
 import com.continuent.tungsten.replicator.dbms.DBMSData;
@@ -36,6 +35,7 @@ import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
 import com.continuent.tungsten.replicator.dbms.RowChangeData;
 import com.continuent.tungsten.replicator.dbms.RowChangeData.ActionType;
 import com.continuent.tungsten.replicator.dbms.StatementData;
+import com.continuent.tungsten.replicator.database.TableDecisionCache;
 import com.continuent.tungsten.replicator.database.TableMatcher;
 import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
 import com.continuent.tungsten.replicator.plugin.PluginContext;
@@ -50,18 +50,18 @@ import com.continuent.tungsten.replicator.plugin.PluginContext;
  */
 public class ReplicateColumnsFilter implements Filter
 {    
-    private static Logger            logger = Logger.getLogger(ReplicateColumnsFilter.class);
+    private static Logger               logger = Logger.getLogger(ReplicateColumnsFilter.class);
     
-    private TableMatcher             doMatcher;
-    private TableMatcher             ignoreMatcher;
+    private TableMatcher                doMatcher;
+    private TableMatcher                ignoreMatcher;
 
-    private String                   doFilter;
-    private String                   ignoreFilter;
+    private String                      doFilter;
+    private String                      ignoreFilter;
     
-    private String                   tungstenSchema;
+    private String                      tungstenSchema;
     
-    // Cache to look up filtered tables.
-    private IndexedLRUCache<Boolean> filterCache;
+    // Cache to look up filtered columns by table and column name.
+    private TableDecisionCache<Boolean> filterCache;
     
     /**
      * Define a comma-separated list of tables with optional column names (e.g.,
@@ -132,10 +132,11 @@ public class ReplicateColumnsFilter implements Filter
                         ColumnSpec keySpec = keys.get(k);
                         
                         if (filterColumn(orc.getSchemaName(), orc.getTableName(), keySpec.getName())) {
-                            logger.debug("Drop data for " + orc.getTableName() + "." + keySpec.getName());
+                            if (logger.isDebugEnabled())
+                                logger.debug("Drop data for " + orc.getTableName() + "." + keySpec.getName());
                             
                             keysToRemove.add(keySpec);
-                        } else {
+                        } else if (logger.isDebugEnabled()) {
                             logger.debug("Replicate data for " + orc.getTableName() + "." + keySpec.getName());
                         }
                     }
@@ -167,10 +168,11 @@ public class ReplicateColumnsFilter implements Filter
                         ColumnSpec colSpec = columns.get(c);
                         
                         if (filterColumn(orc.getSchemaName(), orc.getTableName(), colSpec.getName())) {
-                            logger.debug("Drop data for " + orc.getTableName() + "." + colSpec.getName());
+                            if (logger.isDebugEnabled())
+                                logger.debug("Drop data for " + orc.getTableName() + "." + colSpec.getName());
                             
                             columnsToRemove.add(colSpec);
-                        } else {
+                        } else if (logger.isDebugEnabled()) {
                             logger.debug("Replicate data for " + orc.getTableName() + "." + colSpec.getName());
                         }
                     }
@@ -214,13 +216,17 @@ public class ReplicateColumnsFilter implements Filter
         if (table.length() == 0)
             return false;
 
+        // Tungsten schema is always passed through as dropping this can
+        // confuse the replicator.
+        if (schema.equals(tungstenSchema))
+            return false;
+
         // Find out if we need to filter.
-        String key = fullyQualifiedName(schema, table, column);
-        Boolean filter = filterCache.get(key);
+        Boolean filter = filterCache.get(table, column);
         if (filter == null)
         {
-            filter = filterColumnRaw(schema, table, column);
-            filterCache.put(key, filter);
+            filter = filterColumnRaw(table, column);
+            filterCache.put(table, column, filter);
         }
 
         // Return a value.
@@ -228,13 +234,8 @@ public class ReplicateColumnsFilter implements Filter
     }
     
     // Performs a scan of all rules to see if we need to filter this event.
-    private boolean filterColumnRaw(String schema, String table, String column)
+    private boolean filterColumnRaw(String table, String column)
     {
-        // Tungsten schema is always passed through as dropping this can
-        // confuse the replicator.
-        if (schema.equals(tungstenSchema))
-            return false;
-
         // Check to see if we explicitly ignore this schema/table.
         if (ignoreMatcher != null)
         {
@@ -299,8 +300,9 @@ public class ReplicateColumnsFilter implements Filter
         this.doMatcher = extractFilter(doFilter);
         this.ignoreMatcher = extractFilter(ignoreFilter);
 
-        // Initialize LRU cache.
-        this.filterCache = new IndexedLRUCache<Boolean>(1000, null);
+        // Initialize decision cache, which discards decisions made under
+        // earlier rules.
+        this.filterCache = new TableDecisionCache<Boolean>(1000);
     }
     
     // Prepares table matcher.
@@ -27,11 +27,11 @@ import java.util.Iterator;
 
 import org.apache.log4j.Logger;
 
-import com.continuent.tungsten.common.cache.IndexedLRUCache;
 import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.conf.ReplicatorConf;
 import com.continuent.tungsten.replicator.database.SqlOperation;
 import com.continuent.tungsten.replicator.database.SqlStatementParser;
+import com.continuent.tungsten.replicator.database.TableDecisionCache;
 import com.continuent.tungsten.replicator.database.TableMatcher;
 import com.continuent.tungsten.replicator.dbms.DBMSData;
 import com.continuent.tungsten.replicator.dbms.OneRowChange;
@@ -59,19 +59,19 @@ import com.continuent.tungsten.replicator.plugin.PluginContext;
  */
 public class ReplicateFilter implements Filter
 {
-    private static Logger            logger = Logger.getLogger(ReplicateFilter.class);
+    private static Logger               logger = Logger.getLogger(ReplicateFilter.class);
 
-    private TableMatcher             doMatcher;
-    private TableMatcher             ignoreMatcher;
+    private TableMatcher                doMatcher;
+    private TableMatcher                ignoreMatcher;
 
-    private String                   doFilter;
-    private String                   ignoreFilter;
+    private String                      doFilter;
+    private String                      ignoreFilter;
 
-    private String                   tungstenSchema;
-    private final SqlStatementParser parser = SqlStatementParser.getParser();
+    private String                      tungstenSchema;
+    private final SqlStatementParser    parser = SqlStatementParser.getParser();
 
     // Cache to look up filtered tables.
-    private IndexedLRUCache<Boolean> filterCache;
+    private TableDecisionCache<Boolean> filterCache;
 
     /**
      * Define a comma-separated list of schemas with optional table names (e.g.,
@@ -232,12 +232,11 @@ public class ReplicateFilter implements Filter
             return false;
 
         // Find out if we need to filter.
-        String key = fullyQualifiedName(schema, table);
-        Boolean filter = filterCache.get(key);
+        Boolean filter = filterCache.get(schema, table);
         if (filter == null)
         {
             filter = filterEventRaw(schema, table);
-            filterCache.put(key, filter);
+            filterCache.put(schema, table, filter);
         }
 
         // Return a value.
@@ -320,8 +319,9 @@ public class ReplicateFilter implements Filter
         this.doMatcher = extractFilter(doFilter);
         this.ignoreMatcher = extractFilter(ignoreFilter);
 
-        // Initialize LRU cache.
-        this.filterCache = new IndexedLRUCache<Boolean>(1000, null);
+        // Initialize decision cache, which discards decisions made under
+        // earlier rules.
+        this.filterCache = new TableDecisionCache<Boolean>(1000);
     }
 
     // Prepares table matcher.
@@ -36,7 +36,7 @@ import com.continuent.tungsten.replicator.plugin.PluginContext;
  * @author <a href="mailto:stephane.giron@continuent.com">Stephane Giron</a>
  * @version 1.0
  */
-public class ShardFilter implements Filter
+public class ShardFilter implements MetadataOnlyFilter
 {
     private static Logger logger = Logger.getLogger(ShardFilter.class);
 
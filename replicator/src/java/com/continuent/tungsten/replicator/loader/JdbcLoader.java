@@ -22,13 +22,24 @@
 package com.continuent.tungsten.replicator.loader;
 
 import java.io.Serializable;
+import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.log4j.Logger;
 
@@ -69,6 +80,19 @@ public abstract class JdbcLoader extends Loader
     protected boolean               includeStructure              = true;
     int                             currentTablePosition          = 0;
     boolean                         extractCreateTableStatement   = false;
+    boolean                         onImportTable                 = false;
+
+    // Parallel load state.
+    private int                     parallelThreads               = 1;
+    private String                  snapshotEventId               = null;
+    private ExecutorService         chunkExecutor                 = null;
+    private BlockingQueue<Database> chunkConnections              = null;
+    private LinkedList<LoaderChunk> pendingChunks                 = null;
+    private LoaderTable             planTable                     = null;
+    private boolean                 parallelFinished              = false;
+    private long                    parallelStartMillis;
+    private long                    parallelRows;
+    private int                     parallelTables;
 
     /**
      * Set the MySQL user to connect with
@@ -116,6 +140,24 @@ public abstract class JdbcLoader extends Loader
         this.includeStructure = includeStructure;
     }
 
+    /**
+     * Set the number of connections used to read tables. If greater than 1,
+     * tables are split into chunks that are read concurrently from a
+     * consistent snapshot. Events are still returned in table order. This
+     * requires lockTables and a loader that can lock tables.
+     * 
+     * @param parallelThreads
+     */
+    public void setParallelThreads(int parallelThreads)
+    {
+        this.parallelThreads = parallelThreads;
+    }
+
+    public int getParallelThreads()
+    {
+        return parallelThreads;
+    }
+
     public String getTungstenSchema()
     {
         return runtime.getReplicatorProperties().getString(
@@ -157,12 +199,14 @@ public abstract class JdbcLoader extends Loader
      */
     protected void nextTable() throws ReplicatorException, SQLException
     {
+        onImportTable = false;
         while (importTables.next())
         {
             if (includeImportTable() == true)
             {
                 currentTablePosition = 0;
                 extractCreateTableStatement = this.includeStructure;
+                onImportTable = true;
                 prepareImportTable();
                 break;
             }
@@ -392,6 +436,9 @@ public abstract class JdbcLoader extends Loader
         String createSchemaStatement = null;
         String createTableStatement = null;
 
+        if (parallelThreads > 1)
+            return extractParallel();
+
         try
         {
             if (importTables.isClosed() == true)
@@ -399,7 +446,7 @@ public abstract class JdbcLoader extends Loader
                 return null;
             }
 
-            if (importTables.isAfterLast() == true)
+            if (onImportTable == false)
             {
                 importTables.close();
                 /**
@@ -506,9 +553,6 @@ public abstract class JdbcLoader extends Loader
     protected RowChangeData extractRowChangeData() throws SQLException
     {
         OneRowChange orc = null;
-        ArrayList<ColumnVal> columnValues = null;
-        ColumnSpec cDef = null;
-        ColumnVal cVal = null;
         RowChangeData rowChangeData = null;
         ResultSet extractedRows = null;
 
@@ -529,55 +573,377 @@ public abstract class JdbcLoader extends Loader
                 + importTables.getString("TABLE_SCHEM") + "."
                 + importTables.getString("TABLE_NAME") + " LIMIT "
                 + currentTablePosition + " , " + getChunkSize());
+        currentTablePosition += appendRows(orc, extractedRows,
+                columnDefinitions);
+
+        /**
+         * Do not return an empty event if there are no column values
+         */
+        if (orc.getColumnValues().size() == 0)
+        {
+            return null;
+        }
+
+        return rowChangeData;
+    }
+
+    /**
+     * Append values of all rows in a result set to a row change.
+     * 
+     * @return Number of rows appended
+     */
+    protected int appendRows(OneRowChange orc, ResultSet extractedRows,
+            ArrayList<ColumnSpec> columns) throws SQLException
+    {
+        int rows = 0;
         while (extractedRows.next())
         {
-            columnValues = new ArrayList<ColumnVal>();
+            ArrayList<ColumnVal> columnValues = new ArrayList<ColumnVal>(
+                    columns.size());
 
-            for (int i = 0; i < columnDefinitions.size(); i++)
+            for (int i = 0; i < columns.size(); i++)
             {
-                cDef = columnDefinitions.get(i);
-                cVal = orc.new ColumnVal();
+                ColumnSpec cDef = columns.get(i);
+                ColumnVal cVal = orc.new ColumnVal();
 
                 try
                 {
-                    logger.debug(orc.getSchemaName() + "." + orc.getTableName()
-                            + "." + cDef.getName() + " = "
-                            + extractedRows.getString(cDef.getName()));
                     cVal.setValue(extractRowValue(cDef.getType(),
                             extractedRows, cDef.getName()));
-                    if (cVal.getValue() != null)
+                    if (logger.isDebugEnabled())
                     {
-                        logger.debug("Extracted value is "
-                                + cVal.getValue().toString());
+                        logger.debug(orc.getSchemaName() + "."
+                                + orc.getTableName() + "." + cDef.getName()
+                                + " = " + cVal.getValue());
                     }
                 }
                 catch (Exception e)
                 {
-                    e.printStackTrace();
                     cVal.setValue(null);
                     logger.error("Unable to extract value of "
                             + extractedRows.getString(cDef.getName()) + " for "
                             + orc.getSchemaName() + "." + orc.getTableName()
                             + "." + cDef.getName() + " of Type "
-                            + cDef.getType());
+                            + cDef.getType(), e);
                 }
 
                 columnValues.add(cVal);
             }
-            currentTablePosition++;
+            rows++;
 
             orc.getColumnValues().add(columnValues);
         }
+        return rows;
+    }
 
-        /**
-         * Do not return an empty event if there are no column values
-         */
-        if (orc.getColumnValues().size() == 0)
+    /**
+     * Returns the next event of a parallel load. Chunks are read ahead by the
+     * pool of connections, but results are returned in the order the chunks
+     * were planned, so each table begins with its create statements and rows
+     * arrive in key order.
+     */
+    private DBMSEvent extractParallel() throws ReplicatorException,
+            InterruptedException
+    {
+        if (parallelFinished)
+            return null;
+
+        for (;;)
+        {
+            // Keep the pool busy with chunks ahead of the one we return.
+            while (pendingChunks.size() < parallelThreads * 2)
+            {
+                LoaderChunk chunk = nextChunk();
+                if (chunk == null)
+                    break;
+                final LoaderChunk loaderChunk = chunk;
+                chunk.setResult(chunkExecutor.submit(new Callable<DBMSEvent>()
+                {
+                    public DBMSEvent call() throws Exception
+                    {
+                        return extractChunk(loaderChunk);
+                    }
+                }));
+                pendingChunks.add(chunk);
+            }
+
+            // If there is nothing left, the load is done.
+            LoaderChunk chunk = pendingChunks.poll();
+            if (chunk == null)
+            {
+                parallelFinished = true;
+                long elapsed = System.currentTimeMillis()
+                        - parallelStartMillis;
+                logger.info("Parallel load complete: tables=" + parallelTables
+                        + " rows=" + parallelRows + " elapsed="
+                        + (elapsed / 1000.0) + "s rows/sec="
+                        + rate(parallelRows, elapsed));
+                return getFinishLoadEvent();
+            }
+
+            DBMSEvent dbmsEvent;
+            try
+            {
+                dbmsEvent = chunk.getResult().get();
+            }
+            catch (ExecutionException e)
+            {
+                throw new ReplicatorException("Unable to load table chunk: "
+                        + chunk.getQuery(), e.getCause());
+            }
+
+            // Report progress once the last chunk of a table is returned.
+            LoaderTable table = chunk.getTable();
+            if (chunk.isLast())
+            {
+                parallelTables++;
+                parallelRows += table.getRowsLoaded();
+                logger.info("Loaded table " + table.getFullName() + ": rows="
+                        + table.getRowsLoaded() + " chunks="
+                        + table.getChunks() + " elapsed="
+                        + (table.getElapsedMillis() / 1000.0) + "s rows/sec="
+                        + rate(table.getRowsLoaded(), table.getElapsedMillis()));
+            }
+
+            if (dbmsEvent != null)
+            {
+                runtime.getMonitor().incrementEvents(
+                        dbmsEvent.getData().size());
+                return dbmsEvent;
+            }
+        }
+    }
+
+    // Returns rows per second.
+    private static long rate(long rows, long millis)
+    {
+        return (millis > 0) ? rows * 1000 / millis : rows;
+    }
+
+    /**
+     * Returns the next chunk to read or null if all tables are planned.
+     */
+    private LoaderChunk nextChunk() throws ReplicatorException
+    {
+        try
+        {
+            for (;;)
+            {
+                if (planTable == null)
+                {
+                    if (!onImportTable)
+                        return null;
+                    planTable = createLoaderTable();
+                }
+                LoaderChunk chunk = planTable.nextChunk(conn.getConnection());
+                if (chunk != null)
+                    return chunk;
+                planTable = null;
+                nextTable();
+            }
+        }
+        catch (SQLException e)
+        {
+            throw new ReplicatorException(e);
+        }
+    }
+
+    /**
+     * Builds the load state of the current import table, including how to
+     * split it into chunks.
+     */
+    protected LoaderTable createLoaderTable() throws ReplicatorException,
+            SQLException
+    {
+        String catalog = importTables.getString("TABLE_CAT");
+        String schema = importTables.getString("TABLE_SCHEM");
+        String name = importTables.getString("TABLE_NAME");
+        LoaderTable table = new LoaderTable(schema, name, columnDefinitions,
+                getChunkSize());
+        if (extractCreateTableStatement)
+        {
+            extractCreateTableStatement = false;
+            table.setCreateStatements(buildCreateSchemaStatement(),
+                    buildCreateTableStatement());
+        }
+
+        // Find primary key columns in key order.
+        TreeMap<Short, String> keyColumns = new TreeMap<Short, String>();
+        ResultSet keys = metadata.getPrimaryKeys(catalog, schema, name);
+        try
+        {
+            while (keys.next())
+                keyColumns.put(keys.getShort("KEY_SEQ"),
+                        keys.getString("COLUMN_NAME"));
+        }
+        finally
+        {
+            keys.close();
+        }
+
+        // Split on the primary key if there is one. Without a key there is
+        // no stable order across connections, so read the table in one go.
+        if (keyColumns.size() > 0)
+        {
+            table.setKeyColumns(new ArrayList<String>(keyColumns.values()));
+            logger.info("Loading table " + table.getFullName()
+                    + " in key ranges: key=" + keyColumns.values());
+        }
+        else
+        {
+            logger.info("Loading table " + table.getFullName()
+                    + " in a single chunk: no primary key");
+        }
+        return table;
+    }
+
+    /**
+     * Reads a single chunk using one of the pooled connections. This is called
+     * by the chunk reader threads.
+     */
+    protected DBMSEvent extractChunk(LoaderChunk chunk) throws Exception
+    {
+        LoaderTable table = chunk.getTable();
+        ArrayList<DBMSData> dataArray = new ArrayList<DBMSData>();
+
+        if (chunk.isFirst() && table.getCreateTableStatement() != null)
+        {
+            if (table.getCreateSchemaStatement() != null)
+                dataArray.add(new StatementData(table
+                        .getCreateSchemaStatement()));
+            StatementData statementData = new StatementData(
+                    table.getCreateTableStatement());
+            statementData.setDefaultSchema(table.getSchema());
+            dataArray.add(statementData);
+        }
+
+        OneRowChange orc = new OneRowChange();
+        orc.setAction(ActionType.INSERT);
+        orc.setSchemaName(table.getSchema());
+        orc.setTableName(table.getName());
+        orc.setColumnSpec(new ArrayList<ColumnSpec>(table.getColumns()));
+
+        Database chunkConn = chunkConnections.take();
+        PreparedStatement chunkStatement = null;
+        ResultSet extractedRows = null;
+        try
         {
+            if (logger.isDebugEnabled())
+                logger.debug(chunk.getQuery());
+            chunkStatement = chunkConn.prepareStatement(chunk.getQuery());
+            List<Object> parameters = chunk.getParameters();
+            for (int i = 0; i < parameters.size(); i++)
+                chunkStatement.setObject(i + 1, parameters.get(i));
+            extractedRows = chunkStatement.executeQuery();
+            int rows = appendRows(orc, extractedRows, table.getColumns());
+            table.addRowsLoaded(rows);
+        }
+        finally
+        {
+            if (extractedRows != null)
+                extractedRows.close();
+            if (chunkStatement != null)
+                chunkStatement.close();
+            chunkConnections.put(chunkConn);
+        }
+
+        if (orc.getColumnValues().size() > 0)
+        {
+            RowChangeData rowChangeData = new RowChangeData();
+            rowChangeData.appendOneRowChange(orc);
+            dataArray.add(rowChangeData);
+        }
+        if (dataArray.size() == 0)
             return null;
+
+        DBMSEvent dbmsEvent = new DBMSEvent(table.getFullName(), null,
+                dataArray, true, null);
+        dbmsEvent.setMetaDataOption(ReplOptionParams.SHARD_ID,
+                dbmsEvent.getEventId());
+        return dbmsEvent;
+    }
+
+    /**
+     * Opens the connections for a parallel load and starts a consistent
+     * snapshot on each of them, as well as on the main connection that plans
+     * the chunks. If tables are locked, all snapshots start and the event ID
+     * is read while the lock is held, after which the lock is released.
+     */
+    private void prepareParallel() throws ReplicatorException
+    {
+        try
+        {
+            chunkConnections = new ArrayBlockingQueue<Database>(
+                    parallelThreads);
+            for (int i = 0; i < parallelThreads; i++)
+            {
+                Database chunkConn = DatabaseFactory.createDatabase(url, user,
+                        password, true);
+                chunkConn.connect(false);
+                startSnapshot(chunkConn);
+                chunkConnections.add(chunkConn);
+            }
+            startSnapshot(conn);
+            snapshotEventId = getCurrentResourceEventId();
+            if (getLockTables() == true)
+                unlockTables();
+        }
+        catch (SQLException e)
+        {
+            throw new ReplicatorException(
+                    "Unable to start parallel load snapshot: " + e.getMessage(),
+                    e);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new ReplicatorException(
+                    "Interrupted while preparing parallel load", e);
         }
 
-        return rowChangeData;
+        chunkExecutor = Executors.newFixedThreadPool(parallelThreads);
+        pendingChunks = new LinkedList<LoaderChunk>();
+        parallelFinished = false;
+        parallelStartMillis = System.currentTimeMillis();
+        logger.info("Prepared parallel load: threads=" + parallelThreads
+                + " chunkSize=" + getChunkSize() + " eventId="
+                + snapshotEventId);
+    }
+
+    /**
+     * Starts a consistent snapshot on a connection. By default this opens a
+     * repeatable read transaction, which gives a consistent snapshot on
+     * databases with multi-version concurrency control. Subclasses should
+     * override this if the database has a better way to do it.
+     * 
+     * @throws SQLException
+     */
+    protected void startSnapshot(Database snapshotConn) throws SQLException
+    {
+        snapshotConn.setAutoCommit(false);
+        snapshotConn.getConnection().setTransactionIsolation(
+                Connection.TRANSACTION_REPEATABLE_READ);
+    }
+
+    /**
+     * Returns true if lockTables() blocks writes until unlockTables() is
+     * called. Parallel loads require this so that all snapshots start at the
+     * same point in time. The default implementation does not lock.
+     */
+    protected boolean canLockTables()
+    {
+        return false;
+    }
+
+    /**
+     * A placeholder function for loaders that can unlock tables once all
+     * parallel load snapshots are started.
+     * 
+     * @throws SQLException
+     */
+    public void unlockTables() throws SQLException
+    {
+        // Do Nothing
     }
 
     @Override
@@ -633,6 +999,17 @@ public abstract class JdbcLoader extends Loader
             throw new ReplicatorException(message, e);
         }
 
+        // A parallel load reads through several connections. Their snapshots
+        // only match if writes are locked out while the snapshots start.
+        if (parallelThreads > 1 && (!getLockTables() || !canLockTables()))
+        {
+            throw new ReplicatorException(
+                    "Parallel load requires lockTables=true and a loader that can lock tables: parallelThreads="
+                            + parallelThreads + " lockTables="
+                            + getLockTables() + " loader="
+                            + getClass().getName());
+        }
+
         if (getLockTables() == true)
         {
             try
@@ -761,6 +1138,12 @@ public abstract class JdbcLoader extends Loader
             }
         }
 
+        /**
+         * Start snapshots for a parallel load before reading the table list
+         */
+        if (parallelThreads > 1)
+            prepareParallel();
+
         /**
          * Initiate the list of tables to load data from
          */
@@ -776,7 +1159,10 @@ public abstract class JdbcLoader extends Loader
                             + importTables.getString("TABLE_NAME"));
                 }
             }
-            importTables.first();
+
+            // Open the list again to start over from the first table.
+            importTables.close();
+            importTables = metadata.getTables(null, null, null, null);
         }
         catch (SQLException e)
         {
@@ -791,6 +1177,11 @@ public abstract class JdbcLoader extends Loader
         /**
          * Close all open connections and result sets
          */
+        if (chunkExecutor != null)
+        {
+            chunkExecutor.shutdownNow();
+            chunkExecutor = null;
+        }
         try
         {
             if (importTables != null)
@@ -804,6 +1195,18 @@ public abstract class JdbcLoader extends Loader
             throw new ReplicatorException(e);
         }
 
+        // Snapshot transactions must end before connections can close.
+        if (chunkConnections != null)
+        {
+            for (Database chunkConn : chunkConnections)
+            {
+                endSnapshot(chunkConn);
+                chunkConn.close();
+            }
+            chunkConnections = null;
+            endSnapshot(conn);
+        }
+
         statement = null;
         if (conn != null)
         {
@@ -812,6 +1215,19 @@ public abstract class JdbcLoader extends Loader
         }
     }
 
+    // Roll back a snapshot transaction, which only ever reads.
+    private void endSnapshot(Database snapshotConn)
+    {
+        try
+        {
+            snapshotConn.rollback();
+        }
+        catch (SQLException e)
+        {
+            logger.warn("Unable to end load snapshot: " + e.getMessage());
+        }
+    }
+
     /**
      * Parse the value of tungstenServiceSchemaPosition for the current eventId
      * 
@@ -821,6 +1237,10 @@ public abstract class JdbcLoader extends Loader
     public String getCurrentResourceEventId() throws ReplicatorException,
             InterruptedException
     {
+        // A parallel load reads the event ID when snapshots start.
+        if (snapshotEventId != null)
+            return snapshotEventId;
+
         if (getTungstenServiceSchema() != null)
         {
             int dotIndex = this.tungstenServiceSchemaPosition.indexOf('.');
@@ -0,0 +1,94 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.loader;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+
+/**
+ * Denotes a part of a table that is read by a single query during a parallel
+ * load, along with the pending result of reading it.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+class LoaderChunk
+{
+    private final LoaderTable  table;
+    private final String       query;
+    private final List<Object> parameters;
+    private final boolean      first;
+    private final boolean      last;
+    private Future<DBMSEvent>  result;
+
+    LoaderChunk(LoaderTable table, String query, List<Object> parameters,
+            boolean first, boolean last)
+    {
+        this.table = table;
+        this.query = query;
+        this.parameters = parameters;
+        this.first = first;
+        this.last = last;
+    }
+
+    LoaderTable getTable()
+    {
+        return table;
+    }
+
+    /** Returns the query that selects rows in this chunk. */
+    String getQuery()
+    {
+        return query;
+    }
+
+    /** Returns values for the query parameters in order. */
+    List<Object> getParameters()
+    {
+        return parameters;
+    }
+
+    /** Returns true if this is the first chunk of the table. */
+    boolean isFirst()
+    {
+        return first;
+    }
+
+    /** Returns true if this is the last chunk of the table. */
+    boolean isLast()
+    {
+        return last;
+    }
+
+    Future<DBMSEvent> getResult()
+    {
+        return result;
+    }
+
+    void setResult(Future<DBMSEvent> result)
+    {
+        this.result = result;
+    }
+}
@@ -0,0 +1,301 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.loader;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
+
+/**
+ * Holds the state of a table during a parallel load and splits it into chunks.
+ * Tables with a primary key are split into key ranges whose boundaries are read
+ * from the data, so that each chunk holds about chunkSize rows however sparse
+ * the key is. Tables without a primary key are read in a single chunk, as
+ * there is no stable order in which to split them across connections.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+class LoaderTable
+{
+    private final String                schema;
+    private final String                name;
+    private final ArrayList<ColumnSpec> columns;
+    private final int                   chunkSize;
+
+    // Statements to create the table, which go with the first chunk.
+    private String                      createSchemaStatement;
+    private String                      createTableStatement;
+
+    // Key range chunking. The lower key is the last key of the previous
+    // chunk or null for the first chunk.
+    private List<String>                keyColumns;
+    private String                      keyList;
+    private Object[]                    lowerKey;
+
+    // Progress.
+    private int                         chunks;
+    private boolean                     planned;
+    private final AtomicLong            rowsLoaded = new AtomicLong();
+    private long                        startMillis;
+
+    LoaderTable(String schema, String name, ArrayList<ColumnSpec> columns,
+            int chunkSize)
+    {
+        this.schema = schema;
+        this.name = name;
+        this.columns = columns;
+        this.chunkSize = chunkSize;
+    }
+
+    String getSchema()
+    {
+        return schema;
+    }
+
+    String getName()
+    {
+        return name;
+    }
+
+    /** Returns the fully qualified table name, which is also the shard ID. */
+    String getFullName()
+    {
+        return schema + "." + name;
+    }
+
+    ArrayList<ColumnSpec> getColumns()
+    {
+        return columns;
+    }
+
+    void setCreateStatements(String createSchemaStatement,
+            String createTableStatement)
+    {
+        this.createSchemaStatement = createSchemaStatement;
+        this.createTableStatement = createTableStatement;
+    }
+
+    String getCreateSchemaStatement()
+    {
+        return createSchemaStatement;
+    }
+
+    String getCreateTableStatement()
+    {
+        return createTableStatement;
+    }
+
+    /**
+     * Split the table into ranges of the given primary key columns, which
+     * must be listed in key order.
+     */
+    void setKeyColumns(List<String> keyColumns)
+    {
+        this.keyColumns = keyColumns;
+        StringBuffer sb = new StringBuffer();
+        for (String keyColumn : keyColumns)
+        {
+            if (sb.length() > 0)
+                sb.append(", ");
+            sb.append(keyColumn);
+        }
+        this.keyList = sb.toString();
+    }
+
+    /**
+     * Returns the next chunk to load or null if the table is fully planned.
+     * There is always at least one chunk so that the create statements are
+     * sent even for empty tables.
+     * 
+     * @param planConn Connection used to read chunk boundaries, which must
+     *            see the same snapshot as the connections that read chunks
+     */
+    LoaderChunk nextChunk(Connection planConn) throws SQLException
+    {
+        if (planned)
+            return null;
+
+        boolean first = (chunks == 0);
+        StringBuffer query = new StringBuffer("SELECT * FROM ")
+                .append(getFullName());
+        List<Object> parameters = new ArrayList<Object>();
+        boolean last;
+        if (keyColumns == null)
+            last = true;
+        else
+        {
+            Object[] upperKey = findUpperKey(planConn);
+            StringBuffer where = new StringBuffer();
+            if (lowerKey != null)
+                appendKeyAfter(where, lowerKey, parameters);
+            if (upperKey != null)
+            {
+                if (where.length() > 0)
+                    where.append(" AND ");
+                appendKeyAtMost(where, upperKey, parameters);
+            }
+            if (where.length() > 0)
+                query.append(" WHERE ").append(where);
+            query.append(" ORDER BY ").append(keyList);
+            last = (upperKey == null);
+            lowerKey = upperKey;
+        }
+
+        if (first)
+            startMillis = System.currentTimeMillis();
+        chunks++;
+        planned = last;
+        return new LoaderChunk(this, query.toString(), parameters, first, last);
+    }
+
+    /**
+     * Reads keys forward from the end of the previous chunk and returns the
+     * key of the last row in the next chunk, or null if the remaining rows fit
+     * in a single chunk.
+     */
+    private Object[] findUpperKey(Connection planConn) throws SQLException
+    {
+        StringBuffer query = new StringBuffer("SELECT ").append(keyList)
+                .append(" FROM ").append(getFullName());
+        List<Object> parameters = new ArrayList<Object>();
+        if (lowerKey != null)
+        {
+            query.append(" WHERE ");
+            appendKeyAfter(query, lowerKey, parameters);
+        }
+        query.append(" ORDER BY ").append(keyList);
+
+        PreparedStatement ps = planConn.prepareStatement(query.toString());
+        try
+        {
+            ps.setMaxRows(chunkSize + 1);
+            for (int i = 0; i < parameters.size(); i++)
+                ps.setObject(i + 1, parameters.get(i));
+            ResultSet rs = ps.executeQuery();
+            Object[] upperKey = null;
+            int rows = 0;
+            try
+            {
+                while (rs.next())
+                {
+                    if (++rows == chunkSize)
+                    {
+                        upperKey = new Object[keyColumns.size()];
+                        for (int i = 0; i < upperKey.length; i++)
+                            upperKey[i] = rs.getObject(i + 1);
+                    }
+                }
+            }
+            finally
+            {
+                rs.close();
+            }
+            return (rows > chunkSize) ? upperKey : null;
+        }
+        finally
+        {
+            ps.close();
+        }
+    }
+
+    // Appends a condition that the key sorts after the given key, i.e.
+    // (k1 > ?) OR (k1 = ? AND k2 > ?) OR ...
+    private void appendKeyAfter(StringBuffer sb, Object[] key,
+            List<Object> parameters)
+    {
+        sb.append("(");
+        for (int i = 0; i < key.length; i++)
+        {
+            if (i > 0)
+                sb.append(" OR ");
+            sb.append("(");
+            for (int j = 0; j < i; j++)
+            {
+                sb.append(keyColumns.get(j)).append(" = ? AND ");
+                parameters.add(key[j]);
+            }
+            sb.append(keyColumns.get(i)).append(" > ?)");
+            parameters.add(key[i]);
+        }
+        sb.append(")");
+    }
+
+    // Appends a condition that the key sorts at or before the given key, i.e.
+    // (k1 < ?) OR (k1 = ? AND k2 < ?) OR ... OR (k1 = ? AND ... AND kn = ?)
+    private void appendKeyAtMost(StringBuffer sb, Object[] key,
+            List<Object> parameters)
+    {
+        sb.append("(");
+        for (int i = 0; i <= key.length; i++)
+        {
+            if (i > 0)
+                sb.append(" OR ");
+            sb.append("(");
+            for (int j = 0; j < i; j++)
+            {
+                if (j > 0)
+                    sb.append(" AND ");
+                sb.append(keyColumns.get(j)).append(" = ?");
+                parameters.add(key[j]);
+            }
+            if (i < key.length)
+            {
+                if (i > 0)
+                    sb.append(" AND ");
+                sb.append(keyColumns.get(i)).append(" < ?");
+                parameters.add(key[i]);
+            }
+            sb.append(")");
+        }
+        sb.append(")");
+    }
+
+    /** Adds rows loaded by a chunk. This may be called by any thread. */
+    void addRowsLoaded(long rows)
+    {
+        rowsLoaded.addAndGet(rows);
+    }
+
+    long getRowsLoaded()
+    {
+        return rowsLoaded.get();
+    }
+
+    int getChunks()
+    {
+        return chunks;
+    }
+
+    /** Returns the time in milliseconds since the first chunk was planned. */
+    long getElapsedMillis()
+    {
+        return System.currentTimeMillis() - startMillis;
+    }
+}
@@ -27,6 +27,7 @@ import java.sql.SQLException;
 import org.apache.log4j.Logger;
 
 import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.database.Database;
 import com.continuent.tungsten.replicator.plugin.PluginContext;
 
 public class MySQLLoader extends JdbcLoader
@@ -86,6 +87,41 @@ public class MySQLLoader extends JdbcLoader
         statement.execute("FLUSH NO_WRITE_TO_BINLOG TABLES WITH READ LOCK");
     }
 
+    /**
+     * FLUSH TABLES WITH READ LOCK blocks writes until released. {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.loader.JdbcLoader#canLockTables()
+     */
+    protected boolean canLockTables()
+    {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.loader.JdbcLoader#unlockTables()
+     */
+    public void unlockTables() throws SQLException
+    {
+        logger.info("Run UNLOCK TABLES now that load snapshots are started");
+        statement.execute("UNLOCK TABLES");
+    }
+
+    /**
+     * Start an InnoDB consistent snapshot so that every connection reads the
+     * same view of the data. {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.loader.JdbcLoader#startSnapshot(com.continuent.tungsten.replicator.database.Database)
+     */
+    protected void startSnapshot(Database snapshotConn) throws SQLException
+    {
+        snapshotConn.setAutoCommit(false);
+        snapshotConn
+                .execute("SET SESSION TRANSACTION ISOLATION LEVEL REPEATABLE READ");
+        snapshotConn.execute("START TRANSACTION WITH CONSISTENT SNAPSHOT");
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -147,7 +147,7 @@ public class OpenReplicatorManagerCtrl
         println("  restore [-uri uri] [-limit s]    - Restore database");
         println("  setrole -role role [-uri uri]    - Set replicator role");
         println("  start                        - Start start replication service");
-        println("  status [-name {channel-assignments|services|shards|stages|stores|tasks|watches}] ");
+        println("  status [-name {channel-assignments|merges|services|shards|stages|stores|tasks|watches}] ");
         println("                               - Print replicator status information");
         println("  stop [-y]                    - Stop replication service");
         println("  wait -state s [-limit s]     - Wait up to s seconds for replicator state s");
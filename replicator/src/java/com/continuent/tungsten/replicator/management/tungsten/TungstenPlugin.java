@@ -55,6 +55,10 @@ import com.continuent.tungsten.common.config.TungstenProperties;
 import com.continuent.tungsten.common.config.WildcardPattern;
 import com.continuent.tungsten.common.utils.ManifestParser;
 import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.applier.Applier;
+import com.continuent.tungsten.replicator.applier.ApplierWrapper;
+import com.continuent.tungsten.replicator.applier.RawApplier;
+import com.continuent.tungsten.replicator.applier.batch.SimpleBatchApplier;
 import com.continuent.tungsten.replicator.channel.ChannelAssignmentService;
 import com.continuent.tungsten.replicator.conf.ReplicatorConf;
 import com.continuent.tungsten.replicator.conf.ReplicatorMonitor;
@@ -74,6 +78,7 @@ import com.continuent.tungsten.replicator.management.OpenReplicatorPlugin;
 import com.continuent.tungsten.replicator.management.events.GoOfflineEvent;
 import com.continuent.tungsten.replicator.management.events.OfflineNotification;
 import com.continuent.tungsten.replicator.pipeline.Pipeline;
+import com.continuent.tungsten.replicator.pipeline.SingleThreadStageTask;
 import com.continuent.tungsten.replicator.pipeline.ShardProgress;
 import com.continuent.tungsten.replicator.pipeline.Stage;
 import com.continuent.tungsten.replicator.pipeline.StageProgressTracker;
@@ -1164,6 +1169,32 @@ public class TungstenPlugin extends NotificationBroadcasterSupport
                     statusList.add(props);
                 }
             }
+            else if ("merges".equals(name))
+            {
+                // Fetch per-table merge times from batch appliers.
+                for (Stage stage : pipeline.getStages())
+                {
+                    for (SingleThreadStageTask task : stage.getTaskGroup()
+                            .getTasks())
+                    {
+                        Applier applier = task.getApplier();
+                        if (!(applier instanceof ApplierWrapper))
+                            continue;
+                        RawApplier rawApplier = ((ApplierWrapper) applier)
+                                .getApplier();
+                        if (!(rawApplier instanceof SimpleBatchApplier))
+                            continue;
+                        for (Map<String, String> props : ((SimpleBatchApplier) rawApplier)
+                                .getMergeTimes())
+                        {
+                            props.put("stage", stage.getName());
+                            props.put("taskId",
+                                    Integer.toString(task.getTaskId()));
+                            statusList.add(props);
+                        }
+                    }
+                }
+            }
             else if ("watches".equals(name))
             {
                 List<Stage> stages = pipeline.getStages();
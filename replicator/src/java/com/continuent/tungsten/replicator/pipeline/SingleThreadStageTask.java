@@ -33,8 +33,10 @@ import com.continuent.tungsten.replicator.InSequenceNotification;
 import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.applier.Applier;
 import com.continuent.tungsten.replicator.applier.ApplierException;
+import com.continuent.tungsten.replicator.applier.EventStoreApplier;
 import com.continuent.tungsten.replicator.conf.FailurePolicy;
 import com.continuent.tungsten.replicator.consistency.ConsistencyException;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
 import com.continuent.tungsten.replicator.event.ReplControlEvent;
 import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
 import com.continuent.tungsten.replicator.event.ReplDBMSFilteredEvent;
@@ -44,9 +46,11 @@ import com.continuent.tungsten.replicator.event.ReplOptionParams;
 import com.continuent.tungsten.replicator.extractor.Extractor;
 import com.continuent.tungsten.replicator.extractor.ExtractorException;
 import com.continuent.tungsten.replicator.filter.Filter;
+import com.continuent.tungsten.replicator.filter.MetadataOnlyFilter;
 import com.continuent.tungsten.replicator.plugin.PluginContext;
 import com.continuent.tungsten.replicator.plugin.ReplicatorPlugin;
 import com.continuent.tungsten.replicator.plugin.ShutdownHook;
+import com.continuent.tungsten.replicator.thl.serializer.ProtobufDBMSEvent;
 
 /**
  * Implements thread logic for single-threaded stage execution. If your name is
@@ -360,6 +364,11 @@ public class SingleThreadStageTask implements Runnable
                     {
                         for (Filter f : filters)
                         {
+                            // Events from the THL decode their data lazily.
+                            // Force decoding before the first filter that
+                            // needs the data so errors are reported here.
+                            if (!(f instanceof MetadataOnlyFilter))
+                                decodeEventData(event);
                             if ((event = f.filter(event)) == null)
                             {
                                 if (logger.isDebugEnabled())
@@ -697,6 +706,12 @@ public class SingleThreadStageTask implements Runnable
             boolean doRollback, boolean syncTHL) throws ReplicatorException,
             ConsistencyException, InterruptedException
     {
+        // Decode the event here if no filter has done so already, as appliers
+        // cannot report decoding errors cleanly. Appliers that store events
+        // as they are do not need decoded data.
+        if (!(applier instanceof EventStoreApplier))
+            decodeEventData(event);
+
         try
         {
             taskProgress.beginApplyInterval();
@@ -741,6 +756,33 @@ public class SingleThreadStageTask implements Runnable
         blockEventCount = 0;
     }
 
+    /**
+     * Utility routine to decode event data that are still in serialized form.
+     *
+     * @throws ReplicatorException Thrown if the data cannot be deserialized
+     */
+    private void decodeEventData(ReplDBMSEvent event)
+            throws ReplicatorException
+    {
+        DBMSEvent dbmsEvent = event.getDBMSEvent();
+        if (dbmsEvent instanceof ProtobufDBMSEvent)
+        {
+            try
+            {
+                ((ProtobufDBMSEvent) dbmsEvent).decode();
+            }
+            catch (Exception e)
+            {
+                // Corrupt data may raise runtime exceptions as well as
+                // IOException.
+                throw new ReplicatorException(
+                        "Unable to deserialize event data: seqno="
+                                + event.getSeqno() + " fragno="
+                                + event.getFragno(), e);
+            }
+        }
+    }
+
     /**
      * Utility routine to generate an error notification while trapping
      * interrupts. This is a terminal call and the caller thread *MUST* exit
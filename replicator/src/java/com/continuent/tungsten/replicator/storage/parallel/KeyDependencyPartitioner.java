@@ -0,0 +1,774 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.storage.parallel;
+
+import java.io.UnsupportedEncodingException;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.database.Column;
+import com.continuent.tungsten.replicator.database.Database;
+import com.continuent.tungsten.replicator.database.DatabaseFactory;
+import com.continuent.tungsten.replicator.database.Key;
+import com.continuent.tungsten.replicator.database.Table;
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.event.DBMSEmptyEvent;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSHeader;
+import com.continuent.tungsten.replicator.plugin.PluginContext;
+
+/**
+ * Partitions transactions by the rows they write rather than by shard ID, so
+ * that non-conflicting transactions on a single schema may run on different
+ * partitions. The partitioner tracks the write set of each transaction that
+ * has not yet committed downstream as follows:
+ * <ul>
+ * <li>Rows are identified by schema, table, and key values. Inserts, which
+ * carry no key values, are identified by the values of the key columns last
+ * seen on the same table in an update or delete. If no key columns are known
+ * yet the insert claims the whole table.</li>
+ * <li>Values of unique secondary keys are claimed as well, so that a
+ * transaction that reuses a unique value follows the transaction that freed
+ * it. Unique keys are read from the database metadata once per table. If a
+ * row image lacks the unique key columns the transaction claims the whole
+ * table, and if the metadata cannot be read it is critical.</li>
+ * <li>A transaction whose write set conflicts only with transactions on one
+ * partition goes to that partition, so that it applies after them.</li>
+ * <li>A transaction that conflicts with more than one partition, contains
+ * statements, or is fragmented is critical and hence serialized.</li>
+ * <li>A transaction with no conflicts goes to the least loaded partition.</li>
+ * </ul>
+ * Write sets are released once the pipeline reports their sequence number as
+ * committed and whenever a critical transaction forces all partitions to drain.
+ * <p/>
+ * This partitioner does not see dependencies that are not expressed in the
+ * rows themselves, such as foreign keys between tables. It is stateful and
+ * requires full events, hence may only be used with stores that partition each
+ * event once, such as ParallelQueueStore or THLParallelQueue with singleReader
+ * enabled.
+ *
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ * @version 1.0
+ */
+public class KeyDependencyPartitioner implements StatefulPartitioner
+{
+    private static Logger                logger          = Logger.getLogger(KeyDependencyPartitioner.class);
+
+    // Partition used for critical transactions.
+    private static final int             CRITICAL_PARTITION = 0;
+
+    // Parameters.
+    private int                          availablePartitions;
+    private int                          maxTrackedKeys  = 100000;
+    private PluginContext                context;
+    private List<PartitionMetadata>      partitionList;
+
+    // Write sets of uncommitted transactions, indexed by table.
+    private Map<String, TableWriteSet>   tables          = new HashMap<String, TableWriteSet>();
+    private LinkedList<TransactionClaim> claims          = new LinkedList<TransactionClaim>();
+    private int                          trackedKeys     = 0;
+
+    // Key column indexes observed for each table.
+    private Map<String, int[]>           keyColumns      = new HashMap<String, int[]>();
+
+    // Unique secondary keys of each table as read from the database.
+    private Map<String, UniqueKeys>      uniqueKeys      = new HashMap<String, UniqueKeys>();
+
+    // Last response, which we reuse for later fragments of a transaction.
+    private long                         lastSeqno       = -1;
+    private PartitionerResponse          lastResponse;
+
+    // Statistics.
+    private long                         criticalCount   = 0;
+    private long                         dependentCount  = 0;
+
+    // A partition and sequence number that currently own a table or row.
+    private static class Owner
+    {
+        final int  partition;
+        final long seqno;
+
+        Owner(int partition, long seqno)
+        {
+            this.partition = partition;
+            this.seqno = seqno;
+        }
+    }
+
+    // Rows and whole-table claims for one table.
+    private static class TableWriteSet
+    {
+        final String             name;
+        Owner                    tableOwner;
+        final Map<String, Owner> rows = new HashMap<String, Owner>();
+
+        TableWriteSet(String name)
+        {
+            this.name = name;
+        }
+
+        boolean isEmpty()
+        {
+            return tableOwner == null && rows.size() == 0;
+        }
+    }
+
+    // Column indexes of the unique secondary keys of a table, or null if
+    // they are unknown.
+    private static class UniqueKeys
+    {
+        final long        tableId;
+        final List<int[]> keys;
+
+        UniqueKeys(long tableId, List<int[]> keys)
+        {
+            this.tableId = tableId;
+            this.keys = keys;
+        }
+    }
+
+    // Claims made by a single transaction, used to release them on commit.
+    private static class TransactionClaim
+    {
+        final long           seqno;
+        final List<String[]> keys;
+
+        TransactionClaim(long seqno, List<String[]> keys)
+        {
+            this.seqno = seqno;
+            this.keys = keys;
+        }
+    }
+
+    /**
+     * Sets the maximum number of rows and tables to track before forcing
+     * serialization to clear tracked write sets.
+     */
+    public void setMaxTrackedKeys(int maxTrackedKeys)
+    {
+        this.maxTrackedKeys = maxTrackedKeys;
+    }
+
+    /** Returns the number of rows and tables currently tracked. */
+    public synchronized int getTrackedKeys()
+    {
+        return trackedKeys;
+    }
+
+    /** Returns the number of transactions that required serialization. */
+    public synchronized long getCriticalCount()
+    {
+        return criticalCount;
+    }
+
+    /**
+     * Returns the number of transactions that were assigned to a partition
+     * because they depended on an uncommitted transaction.
+     */
+    public synchronized long getDependentCount()
+    {
+        return dependentCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see com.continuent.tungsten.replicator.storage.parallel.Partitioner#setPartitions(int)
+     */
+    public synchronized void setPartitions(int availablePartitions)
+    {
+        this.availablePartitions = availablePartitions;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see com.continuent.tungsten.replicator.storage.parallel.StatefulPartitioner#setPartitionMetadata(java.util.List)
+     */
+    public synchronized void setPartitionMetadata(
+            List<PartitionMetadata> partitions)
+    {
+        this.partitionList = partitions;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see com.continuent.tungsten.replicator.storage.parallel.Partitioner#setContext(com.continuent.tungsten.replicator.plugin.PluginContext)
+     */
+    public synchronized void setContext(PluginContext context)
+    {
+        this.context = context;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see com.continuent.tungsten.replicator.storage.parallel.Partitioner#partition(com.continuent.tungsten.replicator.event.ReplDBMSHeader,
+     *      int)
+     */
+    public synchronized PartitionerResponse partition(ReplDBMSHeader event,
+            int taskId) throws ReplicatorException
+    {
+        if (!(event instanceof ReplDBMSEvent))
+        {
+            throw new ReplicatorException(
+                    "Key dependency partitioning requires full events: seqno="
+                            + event.getSeqno());
+        }
+        ReplDBMSEvent replEvent = (ReplDBMSEvent) event;
+
+        // Later fragments must go to the same partition as the first one.
+        // Fragmented transactions are always critical, so we only need to
+        // record their write sets.
+        if (replEvent.getSeqno() == lastSeqno && replEvent.getFragno() > 0)
+        {
+            List<String[]> keys = new ArrayList<String[]>();
+            collectKeys(replEvent, keys);
+            recordClaims(new TransactionClaim(lastSeqno, keys),
+                    lastResponse.getPartition());
+            return lastResponse;
+        }
+
+        // Free write sets of committed transactions.
+        releaseCommitted();
+
+        // Find the write set of this transaction. Each key is a pair of
+        // table name and row identity, where a null row identity claims
+        // the whole table.
+        List<String[]> keys = new ArrayList<String[]>();
+        boolean critical = !collectKeys(replEvent, keys)
+                || !replEvent.getLastFrag()
+                || trackedKeys + keys.size() > maxTrackedKeys;
+
+        // Find partitions on which this transaction depends.
+        Set<Integer> dependencies = new HashSet<Integer>();
+        if (!critical)
+        {
+            for (String[] key : keys)
+                findDependencies(key[0], key[1], dependencies);
+            if (dependencies.size() > 1)
+                critical = true;
+        }
+
+        // Assign a partition.
+        int partition;
+        if (critical)
+        {
+            // A critical transaction forces all partitions to drain before it
+            // executes, so we can forget everything we are tracking.
+            criticalCount++;
+            clear();
+            partition = CRITICAL_PARTITION;
+        }
+        else if (dependencies.size() == 1)
+        {
+            dependentCount++;
+            partition = dependencies.iterator().next();
+        }
+        else
+            partition = leastLoadedPartition();
+
+        // Record the write set and return.
+        recordClaims(new TransactionClaim(replEvent.getSeqno(), keys),
+                partition);
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Assigned partition: seqno=" + replEvent.getSeqno()
+                    + " partition=" + partition + " critical=" + critical
+                    + " keys=" + keys.size() + " trackedKeys=" + trackedKeys);
+        }
+
+        lastSeqno = replEvent.getSeqno();
+        lastResponse = new PartitionerResponse(partition, critical);
+        return lastResponse;
+    }
+
+    // Adds the write set of an event to the key list. Returns false if the
+    // event contains changes whose write set cannot be determined.
+    private boolean collectKeys(ReplDBMSEvent event, List<String[]> keys)
+    {
+        DBMSEvent dbmsEvent = event.getDBMSEvent();
+        if (dbmsEvent == null || dbmsEvent instanceof DBMSEmptyEvent)
+            return true;
+
+        boolean known = true;
+        for (DBMSData data : dbmsEvent.getData())
+        {
+            if (data instanceof RowChangeData)
+            {
+                for (OneRowChange orc : ((RowChangeData) data).getRowChanges())
+                {
+                    if (!collectRowKeys(orc, keys))
+                        known = false;
+                }
+            }
+            else
+            {
+                // Statements may change table definitions, so we read unique
+                // keys again afterwards.
+                uniqueKeys.clear();
+                known = false;
+            }
+        }
+        return known;
+    }
+
+    // Adds keys for each row in a row change. Returns false if the unique
+    // keys of the table are unknown.
+    private boolean collectRowKeys(OneRowChange orc, List<String[]> keys)
+    {
+        String table = orc.getSchemaName() + "." + orc.getTableName();
+        ArrayList<OneRowChange.ColumnSpec> keySpecs = orc.getKeySpec();
+        ArrayList<OneRowChange.ColumnSpec> colSpecs = orc.getColumnSpec();
+        int keyRows = orc.getKeyRowCount();
+        int colRows = orc.getColumnRowCount();
+
+        // Remember key columns so we can identify inserted rows later.
+        int[] keyIndexes = keyColumns.get(table);
+        if (keySpecs != null && keySpecs.size() > 0)
+        {
+            keyIndexes = new int[keySpecs.size()];
+            for (int i = 0; i < keyIndexes.length; i++)
+                keyIndexes[i] = keySpecs.get(i).getIndex();
+            keyColumns.put(table, keyIndexes);
+        }
+
+        // Rows being updated or deleted.
+        for (int row = 0; row < keyRows; row++)
+            keys.add(new String[]{table, rowIdentity(orc, true, row, null)});
+
+        // Rows being inserted or new values of updated rows. Column values
+        // hold the key columns at their positions in the column specs. If we
+        // cannot identify inserted rows we must claim the whole table.
+        if (colRows > 0)
+        {
+            int[] colPositions = findPositions(colSpecs, keyIndexes);
+            if (colPositions != null)
+            {
+                for (int row = 0; row < colRows; row++)
+                    keys.add(new String[]{table,
+                            rowIdentity(orc, false, row, colPositions)});
+            }
+            else if (orc.getAction() == RowChangeData.ActionType.INSERT)
+                keys.add(new String[]{table, null});
+        }
+
+        // Values of unique secondary keys in old and new rows.
+        List<int[]> tableUniqueKeys = getUniqueKeys(orc, table);
+        if (tableUniqueKeys == null)
+            return false;
+        for (int k = 0; k < tableUniqueKeys.size(); k++)
+        {
+            int[] columns = tableUniqueKeys.get(k);
+            collectUniqueKeys(orc, true, keyRows, keySpecs, columns, k, table,
+                    keys);
+            collectUniqueKeys(orc, false, colRows, colSpecs, columns, k,
+                    table, keys);
+        }
+        return true;
+    }
+
+    // Adds keys for the values of one unique key in key or column values.
+    // Rows that lack the key columns claim the whole table.
+    private void collectUniqueKeys(OneRowChange orc, boolean keyImage,
+            int rows, ArrayList<OneRowChange.ColumnSpec> specs, int[] columns,
+            int keyNumber, String table, List<String[]> keys)
+    {
+        if (rows == 0)
+            return;
+        int[] positions = findPositions(specs, columns);
+        if (positions == null)
+        {
+            keys.add(new String[]{table, null});
+            return;
+        }
+        for (int row = 0; row < rows; row++)
+        {
+            String identity = uniqueIdentity(orc, keyImage, row, positions,
+                    keyNumber);
+            if (identity != null)
+                keys.add(new String[]{table, identity});
+        }
+    }
+
+    // Returns positions of the given column indexes in a list of column
+    // specs or null if any is missing.
+    private int[] findPositions(ArrayList<OneRowChange.ColumnSpec> specs,
+            int[] indexes)
+    {
+        if (indexes == null || specs == null || specs.size() == 0)
+            return null;
+        int[] positions = new int[indexes.length];
+        for (int i = 0; i < indexes.length; i++)
+        {
+            positions[i] = -1;
+            for (int j = 0; j < specs.size(); j++)
+            {
+                if (specs.get(j).getIndex() == indexes[i])
+                {
+                    positions[i] = j;
+                    break;
+                }
+            }
+            if (positions[i] < 0)
+                return null;
+        }
+        return positions;
+    }
+
+    // Generate an identity from all values or from selected positions of a
+    // row of key or column values.
+    private String rowIdentity(OneRowChange orc, boolean keyImage, int row,
+            int[] positions)
+    {
+        StringBuffer sb = new StringBuffer();
+        int count;
+        if (positions != null)
+            count = positions.length;
+        else if (keyImage)
+            count = orc.getKeyValueCount(row);
+        else
+            count = orc.getColumnValueCount(row);
+        for (int i = 0; i < count; i++)
+        {
+            int column = (positions == null) ? i : positions[i];
+            Object value = keyImage
+                    ? orc.getKeyValue(row, column)
+                    : orc.getColumnValue(row, column);
+            if (i > 0)
+                sb.append('\u0001');
+            appendValue(sb, value);
+        }
+        return sb.toString();
+    }
+
+    // Generate an identity for the value of a unique key, which is distinct
+    // from row identities. Returns null if a value is null, as unique keys
+    // do not conflict on nulls.
+    private String uniqueIdentity(OneRowChange orc, boolean keyImage,
+            int row, int[] positions, int keyNumber)
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append('\u0002').append(keyNumber).append('\u0002');
+        for (int i = 0; i < positions.length; i++)
+        {
+            Object value = keyImage
+                    ? orc.getKeyValue(row, positions[i])
+                    : orc.getColumnValue(row, positions[i]);
+            if (value == null)
+                return null;
+            if (i > 0)
+                sb.append('\u0001');
+            appendValue(sb, value);
+        }
+        return sb.toString();
+    }
+
+    private void appendValue(StringBuffer sb, Object value)
+    {
+        if (value == null)
+            sb.append('\u0000');
+        else if (value instanceof byte[])
+        {
+            try
+            {
+                sb.append(new String((byte[]) value, "ISO-8859-1"));
+            }
+            catch (UnsupportedEncodingException e)
+            {
+                // ISO-8859-1 is always supported.
+            }
+        }
+        else
+            sb.append(value.toString());
+    }
+
+    // Returns the unique secondary keys of the table of a row change, looking
+    // them up again if the table ID shows the table has changed.
+    private List<int[]> getUniqueKeys(OneRowChange orc, String table)
+    {
+        UniqueKeys tableKeys = uniqueKeys.get(table);
+        if (tableKeys == null || tableKeys.tableId != orc.getTableId())
+        {
+            tableKeys = new UniqueKeys(orc.getTableId(), findUniqueKeys(
+                    orc.getSchemaName(), orc.getTableName()));
+            uniqueKeys.put(table, tableKeys);
+        }
+        return tableKeys.keys;
+    }
+
+    /**
+     * Looks up the unique secondary keys of a table. Each key is returned as
+     * the column indexes of its columns, which match the indexes of row change
+     * column specs. Primary keys are not included.
+     * 
+     * @param schema Schema name
+     * @param table Table name
+     * @return List of unique keys or null if they cannot be determined
+     */
+    protected List<int[]> findUniqueKeys(String schema, String table)
+    {
+        if (context == null)
+            return null;
+        Database conn = null;
+        try
+        {
+            String url = context.getJdbcUrl("tungsten_"
+                    + context.getServiceName());
+            conn = DatabaseFactory.createDatabase(url, context.getJdbcUser(),
+                    context.getJdbcPassword());
+            conn.connect();
+            Table tableMetadata = conn.findTable(schema, table);
+            if (tableMetadata == null)
+            {
+                logger.warn("Unable to find table to look up unique keys; "
+                        + "transactions on the table will be serialized: table="
+                        + schema + "." + table);
+                return null;
+            }
+
+            // Find column indexes and the primary key.
+            Map<String, Integer> columnIndexes = new HashMap<String, Integer>();
+            for (Column column : tableMetadata.getAllColumns())
+                columnIndexes.put(column.getName().toLowerCase(),
+                        column.getPosition());
+            Set<Integer> primaryKey = new HashSet<Integer>();
+            Key pkey = tableMetadata.getPrimaryKey();
+            if (pkey != null)
+            {
+                for (Column column : pkey.getColumns())
+                    primaryKey.add(columnIndexes.get(column.getName()
+                            .toLowerCase()));
+            }
+
+            // Collect unique indexes. Columns are listed by index name and
+            // ordinal position.
+            Map<String, List<Integer>> indexes = new LinkedHashMap<String, List<Integer>>();
+            DatabaseMetaData md = conn.getDatabaseMetaData();
+            ResultSet rs = md.getIndexInfo(schema, schema, table, true, true);
+            try
+            {
+                while (rs.next())
+                {
+                    String indexName = rs.getString("INDEX_NAME");
+                    String columnName = rs.getString("COLUMN_NAME");
+                    if (rs.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic
+                            || indexName == null || columnName == null)
+                        continue;
+                    Integer index = columnIndexes.get(columnName
+                            .toLowerCase());
+                    if (index == null)
+                    {
+                        // Expression index; we cannot compute its values.
+                        logger.warn("Unable to map unique index column; "
+                                + "transactions on the table will be serialized: table="
+                                + schema + "." + table + " index=" + indexName);
+                        return null;
+                    }
+                    List<Integer> columns = indexes.get(indexName);
+                    if (columns == null)
+                    {
+                        columns = new ArrayList<Integer>();
+                        indexes.put(indexName, columns);
+                    }
+                    columns.add(index);
+                }
+            }
+            finally
+            {
+                rs.close();
+            }
+
+            List<int[]> keys = new ArrayList<int[]>();
+            for (List<Integer> columns : indexes.values())
+            {
+                if (primaryKey.size() == columns.size()
+                        && primaryKey.containsAll(columns))
+                    continue;
+                int[] key = new int[columns.size()];
+                for (int i = 0; i < key.length; i++)
+                    key[i] = columns.get(i);
+                keys.add(key);
+            }
+            if (logger.isDebugEnabled())
+                logger.debug("Found unique secondary keys: table=" + schema
+                        + "." + table + " keys=" + keys.size());
+            return keys;
+        }
+        catch (SQLException e)
+        {
+            logger.warn("Unable to look up unique keys; transactions on the "
+                    + "table will be serialized: table=" + schema + "."
+                    + table + " message=" + e.getMessage());
+            return null;
+        }
+        finally
+        {
+            if (conn != null)
+                conn.close();
+        }
+    }
+
+    // Adds partitions that own a row or table to the dependency set.
+    private void findDependencies(String table, String row,
+            Set<Integer> dependencies)
+    {
+        TableWriteSet writeSet = tables.get(table);
+        if (writeSet == null)
+            return;
+        if (writeSet.tableOwner != null)
+            dependencies.add(writeSet.tableOwner.partition);
+        if (row == null)
+        {
+            for (Owner owner : writeSet.rows.values())
+                dependencies.add(owner.partition);
+        }
+        else
+        {
+            Owner owner = writeSet.rows.get(row);
+            if (owner != null)
+                dependencies.add(owner.partition);
+        }
+    }
+
+    // Records ownership of keys for a transaction.
+    private void recordClaims(TransactionClaim claim, int partition)
+    {
+        Owner owner = new Owner(partition, claim.seqno);
+        for (String[] key : claim.keys)
+        {
+            TableWriteSet writeSet = tables.get(key[0]);
+            if (writeSet == null)
+            {
+                writeSet = new TableWriteSet(key[0]);
+                tables.put(key[0], writeSet);
+            }
+            if (key[1] == null)
+            {
+                if (writeSet.tableOwner == null)
+                    trackedKeys++;
+                writeSet.tableOwner = owner;
+            }
+            else
+            {
+                if (writeSet.rows.put(key[1], owner) == null)
+                    trackedKeys++;
+            }
+        }
+        if (claim.keys.size() > 0)
+            claims.add(claim);
+    }
+
+    // Releases claims of transactions that have committed.
+    private void releaseCommitted()
+    {
+        if (context == null || claims.size() == 0)
+            return;
+        long committedSeqno = context.getCommittedSeqno();
+        while (claims.size() > 0 && claims.getFirst().seqno <= committedSeqno)
+        {
+            TransactionClaim claim = claims.removeFirst();
+            for (String[] key : claim.keys)
+            {
+                TableWriteSet writeSet = tables.get(key[0]);
+                if (writeSet != null)
+                    release(writeSet, key[1], claim.seqno);
+            }
+        }
+    }
+
+    // Releases a row or table claim if it still belongs to the given seqno.
+    private void release(TableWriteSet writeSet, String row, long seqno)
+    {
+        if (row == null)
+        {
+            if (writeSet.tableOwner != null
+                    && writeSet.tableOwner.seqno == seqno)
+            {
+                writeSet.tableOwner = null;
+                trackedKeys--;
+            }
+        }
+        else
+        {
+            Owner owner = writeSet.rows.get(row);
+            if (owner != null && owner.seqno == seqno)
+            {
+                writeSet.rows.remove(row);
+                trackedKeys--;
+            }
+        }
+        if (writeSet.isEmpty())
+            tables.remove(writeSet.name);
+    }
+
+    // Forget all tracked write sets.
+    private void clear()
+    {
+        tables.clear();
+        claims.clear();
+        trackedKeys = 0;
+    }
+
+    // Returns the partition with the fewest queued events.
+    private int leastLoadedPartition()
+    {
+        if (partitionList == null)
+            return (int) (Math.abs(lastSeqno + 1) % Math.max(1,
+                    availablePartitions));
+
+        long minSize = Long.MAX_VALUE;
+        int partition = 0;
+        for (PartitionMetadata meta : partitionList)
+        {
+            long size = meta.getCurrentSize();
+            if (size == 0)
+            {
+                partition = meta.getPartitionNumber();
+                break;
+            }
+            else if (size < minSize)
+            {
+                minSize = size;
+                partition = meta.getPartitionNumber();
+            }
+        }
+        return partition;
+    }
+}
@@ -304,7 +304,7 @@ public class ParallelQueueStore implements ParallelStore
                         + criticalPartition + " seqno=" + event.getSeqno());
             }
         }
-        else if (!response.isCritical() && criticalPartition > 0)
+        else if (!response.isCritical() && criticalPartition >= 0)
         {
             // Covers case 3.
             blockToZero();
@@ -39,7 +39,10 @@ import com.continuent.tungsten.replicator.event.ReplEvent;
 import com.continuent.tungsten.replicator.plugin.PluginContext;
 import com.continuent.tungsten.replicator.plugin.ReplicatorPlugin;
 import com.continuent.tungsten.replicator.thl.log.LogConnection;
+import com.continuent.tungsten.replicator.thl.log.LogEventReadFilter;
+import com.continuent.tungsten.replicator.thl.log.LogEventReplReader;
 import com.continuent.tungsten.replicator.thl.log.LogTimeoutException;
+import com.continuent.tungsten.replicator.thl.log.LogWriteNotifier;
 
 /**
  * This class defines a ConnectorHandler
@@ -59,9 +62,16 @@ public class ConnectorHandler implements ReplicatorPlugin, Runnable
     private long             altSeqno  = -1;
     private volatile boolean cancelled = false;
     private volatile boolean finished  = false;
+    private boolean          handedOff = false;
 
     private volatile boolean checkFirstSeqno = true;
 
+    // Seqno of the next event to look up in the events cache or -1 if the
+    // next event must come from the log. If we have served events from the
+    // cache the log connection must seek before reading.
+    private long             cacheSeqno      = -1;
+    private boolean          cursorStale     = false;
+
     private static Logger    logger    = Logger.getLogger(ConnectorHandler.class);
 
     // Implements call-back to check log consistency between client and
@@ -296,6 +306,7 @@ public class ConnectorHandler implements ReplicatorPlugin, Runnable
         try
         {
             protocol = new Protocol(context, channel, resetPeriod);
+            protocol.setRecordSerializerClass(thl.getEventSerializer());
         }
         catch (IOException e)
         {
@@ -344,8 +355,21 @@ public class ConnectorHandler implements ReplicatorPlugin, Runnable
                         altSeqno = -1;
                     }
 
-                    // Establish the connection.
+                    // Establish the connection. If the client accepts log record
+                    // frames, we forward records as stored and never
+                    // deserialize events.
                     connection = thl.connect(true);
+                    if (protocol.isFramed())
+                    {
+                        connection.setReadFilter(new LogEventReadFilter()
+                        {
+                            public boolean accept(LogEventReplReader reader)
+                            {
+                                return false;
+                            }
+                        });
+                        connection.setRetainRecords(true);
+                    }
                     if (!connection.seek(seqno))
                     {
                         String message = "Requested event (#" + seqno + " / "
@@ -363,12 +387,13 @@ public class ConnectorHandler implements ReplicatorPlugin, Runnable
                 long i = 0;
                 while (i < prefetchRange)
                 {
-                    // Get the next event from the log, waiting if necessary. If
-                    // the read times out send a heartbeat and try again.
+                    // Get the next event from the cache or log, waiting if
+                    // necessary. If the read times out send a heartbeat and
+                    // try again.
                     THLEvent event = null;
                     try
                     {
-                        event = connection.next(true);
+                        event = nextEvent(connection);
                     }
                     catch (LogTimeoutException e)
                     {
@@ -396,6 +421,32 @@ public class ConnectorHandler implements ReplicatorPlugin, Runnable
                         }
                         checkFirstSeqno = false;
                     }
+
+                    // Send framed records directly. We cannot see filtered
+                    // event ranges without deserializing, so prefetch is
+                    // counted by transactions; clients request unbounded
+                    // ranges in any case.
+                    if (protocol.isFramed())
+                    {
+                        if (event.getLastFrag())
+                            i++;
+                        protocol.sendLogRecord(event.getLogRecord(),
+                                event.getSeqno() >= thl.getMaxStoredSeqno());
+
+                        // Once the client has its first complete event we
+                        // can hand it over to the multiplexer if there is
+                        // one.
+                        if (event.getLastFrag()
+                                && prefetchRange == Long.MAX_VALUE
+                                && server.getMultiplexer() != null)
+                        {
+                            handOff(protocol, connection);
+                            connection = null;
+                            return;
+                        }
+                        continue;
+                    }
+
                     // Peel off and process the underlying replication event.
                     ReplEvent revent = event.getReplEvent();
                     if (revent instanceof ReplDBMSEvent
@@ -503,23 +554,118 @@ public class ConnectorHandler implements ReplicatorPlugin, Runnable
             if (connection != null)
                 connection.release();
 
-            // Close TCP/IP.
-            try
-            {
-                channel.close();
-            }
-            catch (Exception e)
+            // Close TCP/IP unless the multiplexer now owns the client.
+            if (!handedOff)
             {
-                logger.warn("Error on closing connection handle", e);
+                try
+                {
+                    channel.close();
+                }
+                catch (Exception e)
+                {
+                    logger.warn("Error on closing connection handle", e);
+                }
             }
 
             // Tell the server we are done.
             server.removeClient(this);
 
             // Make sure we can see that the connection ended.
-            logger.info("Terminating THL client connection from source ID: "
-                    + protocol.getClientSourceId());
+            if (!handedOff)
+                logger.info("Terminating THL client connection from source ID: "
+                        + protocol.getClientSourceId());
+        }
+    }
+
+    /**
+     * Returns the next event to send. Once we know the seqno of the next
+     * event we look for it in the events cache, which holds recently committed
+     * events, and only read the log if it is not there. If we are caught up
+     * with the writer we wait for a commit rather than polling the log.
+     */
+    private THLEvent nextEvent(LogConnection connection)
+            throws ReplicatorException, InterruptedException
+    {
+        EventsCache eventsCache = thl.getEventsCache();
+        LogWriteNotifier notifier = thl.getWriteNotifier();
+        if (eventsCache != null && notifier != null && cacheSeqno >= 0)
+        {
+            long deadline = System.currentTimeMillis() + heartbeatMillis;
+            while (true)
+            {
+                // Fetch the generation before checking so we cannot miss a
+                // commit that arrives between the check and the wait.
+                long generation = notifier.getGeneration();
+                if (cacheSeqno <= eventsCache.getMaxSeqno())
+                    break;
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                {
+                    throw new LogTimeoutException(
+                            "Timed out waiting for next event: seqno="
+                                    + cacheSeqno);
+                }
+                notifier.await(generation, remaining);
+            }
+
+            THLEvent event = eventsCache.get(cacheSeqno);
+            if (event != null)
+            {
+                cursorStale = true;
+                cacheSeqno = nextSeqno(event);
+                return event;
+            }
+            else if (cursorStale)
+            {
+                if (!connection.seek(cacheSeqno))
+                {
+                    throw new THLException(
+                            "Unable to find event in log after cache miss: seqno="
+                                    + cacheSeqno);
+                }
+                cursorStale = false;
+            }
+        }
+
+        // Read from the log. We can look in the cache again once we have
+        // the last fragment of an event.
+        THLEvent event = connection.next(true);
+        if (event.getLastFrag())
+            cacheSeqno = nextSeqno(event);
+        else
+            cacheSeqno = -1;
+        return event;
+    }
+
+    // Returns the seqno of the event that follows a complete event. Filtered
+    // events cover a range of seqnos. Events read from the log without
+    // deserialization may hide such a range, in which case the cache lookup
+    // simply misses and we read the log, which is still positioned correctly.
+    private long nextSeqno(THLEvent event)
+    {
+        ReplEvent replEvent = event.getReplEvent();
+        if (replEvent instanceof ReplDBMSFilteredEvent)
+            return ((ReplDBMSFilteredEvent) replEvent).getSeqnoEnd() + 1;
+        else
+            return event.getSeqno() + 1;
+    }
+
+    // Hands the client over to the multiplexer, which sends all further
+    // records. The log connection must be positioned at the next event, so
+    // we seek if the last events came from the cache.
+    private void handOff(Protocol protocol, LogConnection connection)
+            throws ReplicatorException, InterruptedException, IOException
+    {
+        protocol.flush();
+        if (cursorStale && !connection.seek(cacheSeqno))
+        {
+            throw new THLException(
+                    "Unable to find event in log after cache miss: seqno="
+                            + cacheSeqno);
         }
+        server.getMultiplexer().register(channel, connection, heartbeatMillis,
+                protocol.getClientSourceId());
+        handedOff = true;
     }
 
     private void sendEvent(Protocol protocol, ReplEvent event, boolean forceSend)
@@ -0,0 +1,709 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.thl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.thl.log.LogConnection;
+import com.continuent.tungsten.replicator.thl.log.LogEventReadFilter;
+import com.continuent.tungsten.replicator.thl.log.LogEventReplReader;
+import com.continuent.tungsten.replicator.thl.log.LogWriteNotifier;
+
+/**
+ * Serves THL clients that receive log record frames from a small pool of
+ * selector threads rather than a thread per client. ConnectorHandler runs the
+ * handshake and the first event request on its own thread and then hands the
+ * client over.
+ * <p/>
+ * Clients that are reading the same position in the log share a cursor,
+ * which is a single log connection. Each record is encoded once and queued
+ * to all clients of the cursor, which are written with gathering writes. A
+ * client whose unsent data exceed the client buffer size is split off onto a
+ * cursor of its own, which reads only as fast as the client drains, so slow
+ * clients do not hold back others. Cursors that reach the same position are
+ * merged again.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public class ConnectorMultiplexer
+{
+    private static Logger          logger            = Logger.getLogger(ConnectorMultiplexer.class);
+
+    // Maximum number of records read from one cursor per selector loop.
+    private static final int       READ_BATCH        = 64;
+
+    // Maximum number of buffers in one gathering write.
+    private static final int       MAX_WRITE_BUFFERS = 64;
+
+    private final THL              thl;
+    private final int              clientBufferBytes;
+    private final SelectorThread[] selectorThreads;
+    private int                    nextThread        = 0;
+
+    /**
+     * A client served by a selector thread.
+     */
+    private class Client
+    {
+        final SocketChannel          channel;
+        final String                 sourceId;
+        final int                    heartbeatMillis;
+        final LinkedList<ByteBuffer> queue  = new LinkedList<ByteBuffer>();
+        SelectionKey                 key;
+        Cursor                       cursor;
+        long                         queuedBytes;
+        long                         lastSendMillis;
+        boolean                      closed = false;
+
+        Client(SocketChannel channel, String sourceId, int heartbeatMillis)
+        {
+            this.channel = channel;
+            this.sourceId = sourceId;
+            this.heartbeatMillis = heartbeatMillis;
+        }
+
+        void enqueue(ByteBuffer buffer)
+        {
+            queue.add(buffer);
+            queuedBytes += buffer.remaining();
+        }
+
+        boolean isFull()
+        {
+            return queuedBytes >= clientBufferBytes;
+        }
+    }
+
+    /**
+     * A log connection and the clients that receive the records it reads.
+     */
+    private class Cursor
+    {
+        final LogConnection connection;
+        final List<Client>  clients    = new ArrayList<Client>();
+
+        // Position of the last record read or -1 if nothing is read yet.
+        long                lastSeqno  = -1;
+        short               lastFragno = -1;
+
+        // True if reads stopped because all clients were full.
+        boolean             blocked    = false;
+
+        Cursor(LogConnection connection)
+        {
+            this.connection = connection;
+        }
+
+        boolean samePosition(Cursor other)
+        {
+            return lastSeqno >= 0 && lastSeqno == other.lastSeqno
+                    && lastFragno == other.lastFragno;
+        }
+    }
+
+    /**
+     * Serves a share of the clients from one selector.
+     */
+    private class SelectorThread implements Runnable
+    {
+        final Selector                      selector;
+        final ConcurrentLinkedQueue<Client> newClients = new ConcurrentLinkedQueue<Client>();
+        final ConcurrentLinkedQueue<Cursor> newCursors = new ConcurrentLinkedQueue<Cursor>();
+        final List<Client>                  clients    = new ArrayList<Client>();
+        final List<Cursor>                  cursors    = new ArrayList<Cursor>();
+        final ByteBuffer                    readBuffer = ByteBuffer.allocate(1024);
+        volatile boolean                    stopped    = false;
+        volatile int                        clientCount;
+        volatile int                        cursorCount;
+        Thread                              thread;
+
+        // Wakes the selector when the log writer publishes new data.
+        final Runnable                      wakeup     = new Runnable()
+                                                       {
+                                                           public void run()
+                                                           {
+                                                               selector.wakeup();
+                                                           }
+                                                       };
+
+        SelectorThread() throws IOException
+        {
+            selector = Selector.open();
+        }
+
+        public void run()
+        {
+            LogWriteNotifier notifier = thl.getWriteNotifier();
+            if (notifier != null)
+                notifier.addListener(wakeup);
+            try
+            {
+                while (!stopped)
+                {
+                    addNewClients();
+                    boolean moreToRead = readCursors();
+                    mergeCursors();
+                    clientCount = clients.size();
+                    cursorCount = cursors.size();
+                    long now = System.currentTimeMillis();
+                    for (Client client : new ArrayList<Client>(clients))
+                    {
+                        if (client.queue.isEmpty()
+                                && now - client.lastSendMillis >= client.heartbeatMillis)
+                            client.enqueue(Protocol.encodeHeartbeatFrame());
+                        if (!client.queue.isEmpty())
+                            write(client);
+                    }
+
+                    // Cursors held back by full clients may read again as
+                    // soon as the writes above have made room.
+                    if (!moreToRead)
+                        moreToRead = hasUnblockedCursor();
+
+                    // Wait for sockets or new log data. The log notifier
+                    // wakes us, but logs written by another process are only
+                    // seen by polling.
+                    if (moreToRead)
+                        selector.selectNow();
+                    else
+                        selector.select(selectMillis(notifier));
+                    handleSelectedKeys();
+                }
+            }
+            catch (ClosedSelectorException e)
+            {
+                logger.info("Selector closed; THL selector thread exiting");
+            }
+            catch (Throwable t)
+            {
+                logger.error("THL selector thread terminated by unexpected error",
+                        t);
+            }
+            finally
+            {
+                if (notifier != null)
+                    notifier.removeListener(wakeup);
+                for (Client client : new ArrayList<Client>(clients))
+                    close(client);
+                addNewClients();
+                for (Client client : new ArrayList<Client>(clients))
+                    close(client);
+                clientCount = 0;
+                cursorCount = 0;
+                try
+                {
+                    selector.close();
+                }
+                catch (IOException e)
+                {
+                    logger.warn("Unable to close selector", e);
+                }
+            }
+        }
+
+        // Returns how long to wait in select, which is until the next
+        // heartbeat is due and no longer than the fallback poll interval if
+        // the log is written by another process. Zero waits indefinitely.
+        private long selectMillis(LogWriteNotifier notifier)
+        {
+            long now = System.currentTimeMillis();
+            long waitMillis = Long.MAX_VALUE;
+            for (Client client : clients)
+            {
+                waitMillis = Math.min(waitMillis, client.lastSendMillis
+                        + client.heartbeatMillis - now);
+            }
+            if (notifier == null)
+                waitMillis = Math.min(waitMillis,
+                        LogWriteNotifier.FALLBACK_POLL_MILLIS);
+            else
+                waitMillis = notifier.getPollMillis(waitMillis);
+
+            if (waitMillis == Long.MAX_VALUE)
+                return 0;
+            else
+                return Math.max(waitMillis, 1);
+        }
+
+        // Registers clients handed over since the last loop.
+        private void addNewClients()
+        {
+            Client client;
+            while ((client = newClients.poll()) != null)
+            {
+                Cursor cursor = newCursors.poll();
+                cursors.add(cursor);
+                clients.add(client);
+                cursor.clients.add(client);
+                client.cursor = cursor;
+                client.lastSendMillis = System.currentTimeMillis();
+                if (stopped)
+                    continue;
+                try
+                {
+                    client.channel.configureBlocking(false);
+                    client.key = client.channel.register(selector,
+                            SelectionKey.OP_READ, client);
+                }
+                catch (IOException e)
+                {
+                    logger.warn("Unable to register THL client: sourceId="
+                            + client.sourceId, e);
+                    close(client);
+                }
+            }
+        }
+
+        // Reads records from each cursor while any of its clients has room
+        // and queues them. Returns true if a cursor has more to read.
+        private boolean readCursors()
+        {
+            boolean moreToRead = false;
+            for (Cursor cursor : new ArrayList<Cursor>(cursors))
+            {
+                try
+                {
+                    int reads = 0;
+                    cursor.blocked = false;
+                    while (reads < READ_BATCH)
+                    {
+                        if (!hasRoom(cursor))
+                        {
+                            cursor.blocked = true;
+                            break;
+                        }
+                        THLEvent event = cursor.connection.next(false);
+                        if (event == null)
+                            break;
+                        reads++;
+                        queueRecord(cursor, event);
+                    }
+                    if (reads == READ_BATCH)
+                        moreToRead = true;
+                }
+                catch (InterruptedException e)
+                {
+                    stopped = true;
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                catch (Exception e)
+                {
+                    fail(cursor, "Unable to read log for client: "
+                            + e.getMessage(), e);
+                }
+            }
+            return moreToRead;
+        }
+
+        // Returns true if a cursor that was held back by full clients now has
+        // a client with room.
+        private boolean hasUnblockedCursor()
+        {
+            for (Cursor cursor : cursors)
+            {
+                if (cursor.blocked && hasRoom(cursor))
+                    return true;
+            }
+            return false;
+        }
+
+        // Returns true if a client of the cursor has room for more data.
+        private boolean hasRoom(Cursor cursor)
+        {
+            for (Client client : cursor.clients)
+            {
+                if (!client.isFull())
+                    return true;
+            }
+            return false;
+        }
+
+        // Queues a record to the clients of a cursor. Full clients are split
+        // off onto a cursor of their own that starts at this record.
+        private void queueRecord(Cursor cursor, THLEvent event)
+                throws ReplicatorException, InterruptedException
+        {
+            ByteBuffer[] frame = Protocol.encodeRecordFrame(event
+                    .getLogRecord());
+            for (Client client : new ArrayList<Client>(cursor.clients))
+            {
+                if (client.isFull())
+                {
+                    split(client, event.getSeqno(), event.getFragno());
+                    continue;
+                }
+                for (ByteBuffer buffer : frame)
+                    client.enqueue(buffer.duplicate());
+            }
+            cursor.lastSeqno = event.getSeqno();
+            cursor.lastFragno = event.getFragno();
+        }
+
+        // Moves a client to a new cursor positioned at a record. If the new
+        // cursor cannot be positioned, only this client fails; other clients
+        // on the shared cursor keep running.
+        private void split(Client client, long seqno, short fragno)
+                throws InterruptedException
+        {
+            LogConnection connection = null;
+            try
+            {
+                connection = openConnection();
+                if (!connection.seek(seqno, fragno))
+                {
+                    throw new THLException(
+                            "Unable to find event in log: seqno=" + seqno
+                                    + " fragno=" + fragno);
+                }
+            }
+            catch (ReplicatorException e)
+            {
+                if (connection != null)
+                    connection.release();
+                fail(client, "Unable to split THL client onto own cursor: "
+                        + e.getMessage(), e);
+                return;
+            }
+            if (logger.isDebugEnabled())
+                logger.debug("Splitting slow THL client onto own cursor: sourceId="
+                        + client.sourceId + " seqno=" + seqno);
+            Cursor cursor = new Cursor(connection);
+            cursors.add(cursor);
+            moveClient(client, cursor);
+        }
+
+        // Merges cursors that have read up to the same record.
+        private void mergeCursors()
+        {
+            for (int i = 0; i < cursors.size(); i++)
+            {
+                Cursor cursor = cursors.get(i);
+                for (int j = cursors.size() - 1; j > i; j--)
+                {
+                    Cursor other = cursors.get(j);
+                    if (cursor.samePosition(other))
+                    {
+                        for (Client client : new ArrayList<Client>(
+                                other.clients))
+                            moveClient(client, cursor);
+                    }
+                }
+            }
+        }
+
+        // Moves a client between cursors, releasing a cursor that has no
+        // clients left.
+        private void moveClient(Client client, Cursor cursor)
+        {
+            removeFromCursor(client);
+            cursor.clients.add(client);
+            client.cursor = cursor;
+        }
+
+        private void removeFromCursor(Client client)
+        {
+            Cursor cursor = client.cursor;
+            if (cursor == null)
+                return;
+            cursor.clients.remove(client);
+            client.cursor = null;
+            if (cursor.clients.isEmpty())
+            {
+                cursor.connection.release();
+                cursors.remove(cursor);
+            }
+        }
+
+        // Handles client sockets that are ready.
+        private void handleSelectedKeys()
+        {
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext())
+            {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Client client = (Client) key.attachment();
+                if (!key.isValid())
+                {
+                    close(client);
+                    continue;
+                }
+                if (key.isReadable())
+                    read(client);
+                if (key.isValid() && key.isWritable())
+                    write(client);
+            }
+        }
+
+        // Reads from a client. Clients that receive frames have no further
+        // requests to make, so this only detects closed connections.
+        private void read(Client client)
+        {
+            try
+            {
+                readBuffer.clear();
+                if (client.channel.read(readBuffer) < 0)
+                {
+                    logger.info("THL client closed connection: sourceId="
+                            + client.sourceId);
+                    close(client);
+                }
+            }
+            catch (IOException e)
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("THL client read failed: sourceId="
+                            + client.sourceId, e);
+                close(client);
+            }
+        }
+
+        // Writes as much queued data as the socket will take and asks for a
+        // write notification if anything is left.
+        private void write(Client client)
+        {
+            if (client.closed)
+                return;
+            try
+            {
+                while (!client.queue.isEmpty())
+                {
+                    int count = Math.min(client.queue.size(),
+                            MAX_WRITE_BUFFERS);
+                    ByteBuffer[] buffers = new ByteBuffer[count];
+                    Iterator<ByteBuffer> iter = client.queue.iterator();
+                    for (int i = 0; i < count; i++)
+                        buffers[i] = iter.next();
+
+                    long written = client.channel.write(buffers);
+                    if (written > 0)
+                    {
+                        client.queuedBytes -= written;
+                        client.lastSendMillis = System.currentTimeMillis();
+                    }
+                    while (!client.queue.isEmpty()
+                            && !client.queue.getFirst().hasRemaining())
+                        client.queue.removeFirst();
+
+                    // Stop if the socket buffer is full.
+                    if (buffers[count - 1].hasRemaining())
+                        break;
+                }
+                int ops = SelectionKey.OP_READ;
+                if (!client.queue.isEmpty())
+                    ops |= SelectionKey.OP_WRITE;
+                if (client.key.interestOps() != ops)
+                    client.key.interestOps(ops);
+            }
+            catch (IOException e)
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("THL client write failed: sourceId="
+                            + client.sourceId, e);
+                else
+                    logger.info("THL client terminated by i/o exception: sourceId="
+                            + client.sourceId);
+                close(client);
+            }
+        }
+
+        // Sends an error to the clients of a cursor and closes them.
+        private void fail(Cursor cursor, String message, Exception e)
+        {
+            logger.error(message, e);
+            for (Client client : new ArrayList<Client>(cursor.clients))
+                sendErrorAndClose(client, message);
+        }
+
+        // Sends an error to a single client and closes it.
+        private void fail(Client client, String message, Exception e)
+        {
+            logger.error(message + ": sourceId=" + client.sourceId, e);
+            sendErrorAndClose(client, message);
+        }
+
+        private void sendErrorAndClose(Client client, String message)
+        {
+            client.enqueue(Protocol.encodeErrorFrame(message));
+            write(client);
+            close(client);
+        }
+
+        // Closes a client and releases its cursor if no other client uses it.
+        private void close(Client client)
+        {
+            if (client.closed)
+                return;
+            client.closed = true;
+            removeFromCursor(client);
+            clients.remove(client);
+            if (client.key != null)
+                client.key.cancel();
+            try
+            {
+                client.channel.close();
+            }
+            catch (IOException e)
+            {
+                logger.warn("Error on closing connection handle", e);
+            }
+            logger.info("Terminating THL client connection from source ID: "
+                    + client.sourceId);
+        }
+    }
+
+    /**
+     * Creates a new multiplexer.
+     * 
+     * @param thl THL whose log we serve
+     * @param threads Number of selector threads
+     * @param clientBufferBytes Unsent bytes at which a client is split off
+     *            onto its own cursor
+     */
+    public ConnectorMultiplexer(THL thl, int threads, int clientBufferBytes)
+            throws IOException
+    {
+        this.thl = thl;
+        this.clientBufferBytes = clientBufferBytes;
+        this.selectorThreads = new SelectorThread[threads];
+        for (int i = 0; i < threads; i++)
+            selectorThreads[i] = new SelectorThread();
+    }
+
+    /**
+     * Starts the selector threads.
+     */
+    public synchronized void start()
+    {
+        logger.info("Starting THL selector threads: threads="
+                + selectorThreads.length + " clientBufferBytes="
+                + clientBufferBytes);
+        for (int i = 0; i < selectorThreads.length; i++)
+        {
+            SelectorThread selectorThread = selectorThreads[i];
+            selectorThread.thread = new Thread(selectorThread,
+                    "THL selector [" + thl.getName() + ":" + i + "]");
+            selectorThread.thread.start();
+        }
+    }
+
+    /**
+     * Stops the selector threads, which closes all clients.
+     */
+    public synchronized void stop() throws InterruptedException
+    {
+        for (SelectorThread selectorThread : selectorThreads)
+        {
+            selectorThread.stopped = true;
+            selectorThread.selector.wakeup();
+        }
+        for (SelectorThread selectorThread : selectorThreads)
+        {
+            if (selectorThread.thread != null)
+            {
+                selectorThread.thread.join(10000);
+                selectorThread.thread = null;
+            }
+        }
+    }
+
+    /**
+     * Hands over a client that has completed its handshake. The log
+     * connection must read records without deserializing events and be
+     * positioned at the next event to send. It becomes the property of the
+     * multiplexer.
+     * 
+     * @param channel Client socket channel
+     * @param connection Log connection positioned at the requested event
+     * @param heartbeatMillis Interval at which to send heartbeats when idle
+     * @param sourceId Source ID of the client
+     */
+    public synchronized void register(SocketChannel channel,
+            LogConnection connection, int heartbeatMillis, String sourceId)
+    {
+        SelectorThread selectorThread = selectorThreads[nextThread];
+        nextThread = (nextThread + 1) % selectorThreads.length;
+        selectorThread.newCursors.add(new Cursor(connection));
+        selectorThread.newClients.add(new Client(channel, sourceId,
+                heartbeatMillis));
+        selectorThread.selector.wakeup();
+        logger.info("Serving THL client from selector thread: sourceId="
+                + sourceId);
+    }
+
+    /**
+     * Returns the number of clients currently served.
+     */
+    public int getClientCount()
+    {
+        int count = 0;
+        for (SelectorThread selectorThread : selectorThreads)
+            count += selectorThread.clientCount;
+        return count;
+    }
+
+    /**
+     * Returns the number of cursors, i.e., log connections, currently used to
+     * serve clients. Clients at the same position share a cursor.
+     */
+    public int getCursorCount()
+    {
+        int count = 0;
+        for (SelectorThread selectorThread : selectorThreads)
+            count += selectorThread.cursorCount;
+        return count;
+    }
+
+    /**
+     * Opens a log connection that reads records without deserializing events.
+     * This is used for the cursors of clients split off a shared cursor.
+     */
+    protected LogConnection openConnection() throws ReplicatorException
+    {
+        LogConnection connection = thl.connect(true);
+        connection.setReadFilter(new LogEventReadFilter()
+        {
+            public boolean accept(LogEventReplReader reader)
+            {
+                return false;
+            }
+        });
+        connection.setRetainRecords(true);
+        return connection;
+    }
+}
@@ -20,78 +20,348 @@
  * Contributor(s): Robert Hodges
  */
 
+
 package com.continuent.tungsten.replicator.thl;
 
-import java.util.HashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.apache.log4j.Logger;
 
+import com.continuent.tungsten.replicator.thl.log.LogRecord;
+
 /**
- * Implements a simple hash map to hold events. If the cache is full we age out
- * old items in FIFO order.
+ * Holds recently committed events so that readers tailing the log can fetch
+ * them without re-reading and deserializing log records. Events are stored in
+ * a ring whose size is a power of two and indexed by seqno. The cache holds at
+ * most cacheSize events and evicts the oldest events in FIFO order to stay
+ * within a memory bound.
+ * <p/>
+ * Committed events are staged by the log writer, which stores them in the
+ * ring at once. Lookups return an event only if its seqno is at or below the
+ * published seqno, so staged events stay invisible until the log is durable.
+ * {@link #seal()} marks the staged events covered by a flush of the log and
+ * {@link #publish()} makes them visible once the flush is durable. Events
+ * staged while an fsync is in progress wait for the next flush.
+ * <p/>
+ * Nothing locks. Only the log writer, of which there is one per log, changes
+ * the ring, so its bookkeeping needs no synchronization. Seal and publish may
+ * come from whichever thread flushes the log and only advance volatile
+ * seqnos. Lookups may come from any number of threads and check the slot
+ * seqno to confirm they have found the event they want.
  * 
  * @author <a href="mailto:stephane.giron@continuent.com">Stephane Giron</a>
  * @version 1.0
  */
 public class EventsCache
 {
-    static Logger                         logger    = Logger
-                                                            .getLogger(EventsCache.class);
-    private int                           cacheSize = 0;
-    private LinkedBlockingQueue<THLEvent> fifo;
-    private HashMap<Long, THLEvent>       cache;
+    static Logger                              logger              = Logger.getLogger(EventsCache.class);
+
+    /** Size charged for an event that does not carry its log record. */
+    public static final long                   DEFAULT_EVENT_BYTES = 1024;
+
+    // Cached event. The seqno confirms that the slot holds the event we are
+    // looking for rather than another event that maps to the same slot.
+    private static class Entry
+    {
+        final long     seqno;
+        final THLEvent event;
+        final long     bytes;
+        boolean        evicted;
+
+        Entry(long seqno, THLEvent event, long bytes)
+        {
+            this.seqno = seqno;
+            this.event = event;
+            this.bytes = bytes;
+        }
+    }
+
+    private final int                          cacheSize;
+    private final long                         maxBytes;
+    private final int                          mask;
+    private final AtomicReferenceArray<Entry>  ring;
+
+    // Entries in insertion order. Used only by the writer.
+    private final Entry[]                      fifo;
+    private int                                fifoHead            = 0;
+    private int                                fifoCount           = 0;
+
+    // Cache contents, which are updated only by the writer.
+    private volatile int                       count               = 0;
+    private volatile long                      bytes               = 0;
+
+    // Highest seqnos staged by the writer, sealed by a flush, and published
+    // to readers.
+    private final AtomicLong                   stagedMaxSeqno      = new AtomicLong(-1);
+    private final AtomicLong                   sealedMaxSeqno      = new AtomicLong(-1);
+    private final AtomicLong                   maxSeqno            = new AtomicLong(-1);
 
+    // Statistics.
+    private final AtomicLong                   hits                = new AtomicLong();
+    private final AtomicLong                   misses              = new AtomicLong();
+    private final AtomicLong                   evictions           = new AtomicLong();
+
+    /**
+     * Creates a cache bounded only by the number of events.
+     * 
+     * @param cacheSize Maximum number of events; 0 disables the cache
+     */
     public EventsCache(int cacheSize)
     {
-        this.cacheSize = cacheSize;
-        if (cacheSize > 0)
+        this(cacheSize, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates a cache bounded by number of events and memory.
+     * 
+     * @param cacheSize Maximum number of events; 0 disables the cache
+     * @param maxBytes Maximum estimated memory used by cached events
+     */
+    public EventsCache(int cacheSize, long maxBytes)
+    {
+        this.cacheSize = Math.max(cacheSize, 0);
+        this.maxBytes = maxBytes;
+        if (this.cacheSize > 0 && maxBytes > 0)
+        {
+            int slots = 1;
+            while (slots < this.cacheSize)
+                slots <<= 1;
+            logger.info("Allocating THL event cache: size=" + cacheSize
+                    + " slots=" + slots + " maxBytes=" + maxBytes);
+            this.mask = slots - 1;
+            this.ring = new AtomicReferenceArray<Entry>(slots);
+            this.fifo = new Entry[this.cacheSize];
+        }
+        else
         {
-            logger.info("Allocating THL event cache; size=" + cacheSize);
-            this.fifo = new LinkedBlockingQueue<THLEvent>(cacheSize);
-            this.cache = new HashMap<Long, THLEvent>(cacheSize);
+            this.mask = 0;
+            this.ring = null;
+            this.fifo = null;
         }
     }
 
     public boolean isEmpty()
     {
-        return (cacheSize <= 0 || cache.isEmpty());
+        return (ring == null || count == 0);
     }
 
     /**
-     * Add an event to the cache, clearing space if necessary.
+     * Add a committed event to the cache and make it visible at once. This is
+     * for writers that do not stage events. Only the log writer may call it.
      */
-    public synchronized void put(THLEvent thlEvent) throws InterruptedException
+    public void put(THLEvent thlEvent)
     {
-        // If cache is suppressed do nothing.
-        if (cacheSize > 0)
-        {
-            // Clear space.
-            while (cache.size() >= cacheSize)
-            {
-                THLEvent old = fifo.remove();
-                cache.remove(old.getSeqno());
-            }
+        store(thlEvent);
+        setMaxSeqno(thlEvent.getSeqno());
+    }
+
+    /**
+     * Stages committed events until the log is flushed. Staged events are in
+     * the ring but not visible to readers. Only the log writer may call this.
+     * 
+     * @param events Committed events in seqno order
+     * @param maxSeqno Highest committed seqno, which may belong to an event
+     *            that is not in the list
+     */
+    public void stage(List<THLEvent> events, long maxSeqno)
+    {
+        for (THLEvent thlEvent : events)
+            store(thlEvent);
+        advance(stagedMaxSeqno, maxSeqno);
+    }
+
+    /**
+     * Marks staged events as covered by a flush of the log. Call this when
+     * the log holding the events has been flushed, before it is synced.
+     */
+    public void seal()
+    {
+        advance(sealedMaxSeqno, stagedMaxSeqno.get());
+    }
 
-            if (thlEvent.getFragno() == 0 && thlEvent.getLastFrag())
+    /**
+     * Makes sealed events visible to readers. Call this only once the flush
+     * that sealed them is durable.
+     */
+    public void publish()
+    {
+        advance(maxSeqno, sealedMaxSeqno.get());
+    }
+
+    /**
+     * Look up and return the cached item, if found.
+     */
+    public THLEvent get(long seqno)
+    {
+        if (ring == null)
+            return null;
+
+        // Read the published seqno first so that any entry it covers is
+        // visible to us.
+        if (seqno <= maxSeqno.get())
+        {
+            Entry entry = ring.get((int) (seqno & mask));
+            if (entry != null && entry.seqno == seqno)
             {
-                // This event is not fragmented, so just cache it
-                fifo.put(thlEvent);
-                cache.put(thlEvent.getSeqno(), thlEvent);
+                hits.incrementAndGet();
+                return entry.event;
             }
-            // else fragmented events are not cached as this could bring OOM
-            // issues
         }
+        misses.incrementAndGet();
+        return null;
     }
 
     /**
-     * Look up and return the cached item, if found.
+     * Removes all events, for example after the log has been truncated. Only
+     * the log writer may call this.
      */
-    public synchronized THLEvent get(long seqno)
+    public void clear()
     {
-        if (cacheSize > 0)
-            return cache.get(seqno);
+        stagedMaxSeqno.set(-1);
+        sealedMaxSeqno.set(-1);
+        maxSeqno.set(-1);
+        if (ring == null)
+            return;
+
+        for (int i = 0; i < ring.length(); i++)
+            ring.set(i, null);
+        for (int i = 0; i < fifo.length; i++)
+            fifo[i] = null;
+        fifoHead = 0;
+        fifoCount = 0;
+        count = 0;
+        bytes = 0;
+    }
+
+    /**
+     * Records the highest committed seqno, which may belong to an event that
+     * was not put into the cache.
+     */
+    public void setMaxSeqno(long seqno)
+    {
+        advance(stagedMaxSeqno, seqno);
+        advance(sealedMaxSeqno, seqno);
+        advance(maxSeqno, seqno);
+    }
+
+    /**
+     * Returns the highest committed seqno known to the cache, whether or not
+     * its event was cached, or -1 if there is none. Readers looking for a
+     * higher seqno need to wait for the writer.
+     */
+    public long getMaxSeqno()
+    {
+        return maxSeqno.get();
+    }
+
+    /** Returns the number of cached events. */
+    public int getCount()
+    {
+        return count;
+    }
+
+    /** Returns the estimated memory used by cached events. */
+    public long getBytes()
+    {
+        return bytes;
+    }
+
+    /** Returns the number of lookups that found their event. */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    /** Returns the number of lookups that did not find their event. */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /** Returns the number of events removed to make room for others. */
+    public long getEvictions()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * Estimates memory used by an event. Events that carry their log record
+     * are charged for the record and again for the deserialized event, which
+     * is of similar size.
+     */
+    public static long estimateSize(THLEvent thlEvent)
+    {
+        LogRecord logRecord = thlEvent.getLogRecord();
+        if (logRecord == null)
+            return DEFAULT_EVENT_BYTES;
         else
-            return null;
+            return 2 * logRecord.getRecordLength();
+    }
+
+    // Stores an event in the ring, evicting old events if necessary.
+    // Fragmented events are not cached as this could bring OOM issues, nor
+    // are events that would exceed the memory bound on their own.
+    private void store(THLEvent thlEvent)
+    {
+        // If cache is suppressed do nothing.
+        if (ring == null)
+            return;
+
+        long size = estimateSize(thlEvent);
+        if (thlEvent.getFragno() != 0 || !thlEvent.getLastFrag()
+                || size > maxBytes)
+            return;
+
+        // Clear space.
+        while (fifoCount >= cacheSize || bytes + size > maxBytes)
+            evictOldest();
+
+        // Store the entry. If there is a gap in the seqnos it may displace a
+        // newer event than the oldest one.
+        long seqno = thlEvent.getSeqno();
+        Entry entry = new Entry(seqno, thlEvent, size);
+        Entry displaced = ring.getAndSet((int) (seqno & mask), entry);
+        if (displaced != null && !displaced.evicted)
+            evict(displaced);
+        fifo[(fifoHead + fifoCount) % cacheSize] = entry;
+        fifoCount++;
+        bytes += size;
+        count++;
+    }
+
+    // Moves a seqno forward, never back, whichever thread gets there first.
+    private static void advance(AtomicLong target, long seqno)
+    {
+        long current;
+        while ((current = target.get()) < seqno)
+        {
+            if (target.compareAndSet(current, seqno))
+                break;
+        }
+    }
+
+    // Removes the oldest entry unless it has already been displaced.
+    private void evictOldest()
+    {
+        Entry oldest = fifo[fifoHead];
+        fifo[fifoHead] = null;
+        fifoHead = (fifoHead + 1) % cacheSize;
+        fifoCount--;
+        if (!oldest.evicted)
+        {
+            ring.compareAndSet((int) (oldest.seqno & mask), oldest, null);
+            evict(oldest);
+        }
+    }
+
+    // Accounts for an entry leaving the cache.
+    private void evict(Entry entry)
+    {
+        entry.evicted = true;
+        bytes -= entry.bytes;
+        count--;
+        evictions.incrementAndGet();
     }
 }
@@ -24,9 +24,13 @@ package com.continuent.tungsten.replicator.thl;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 
@@ -36,10 +40,15 @@ import com.continuent.tungsten.common.config.TungstenProperties;
 import com.continuent.tungsten.common.utils.ManifestParser;
 import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.conf.ReplicatorConf;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
 import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
 import com.continuent.tungsten.replicator.event.ReplDBMSFilteredEvent;
 import com.continuent.tungsten.replicator.event.ReplEvent;
 import com.continuent.tungsten.replicator.plugin.PluginContext;
+import com.continuent.tungsten.replicator.thl.log.LogEventReplReader;
+import com.continuent.tungsten.replicator.thl.log.LogRecord;
+import com.continuent.tungsten.replicator.thl.serializer.ProtobufDBMSEvent;
+import com.continuent.tungsten.replicator.thl.serializer.Serializer;
 
 /**
  * This class defines a Protocol
@@ -57,6 +66,12 @@ public class Protocol
     public static String         VERSION                  = "version";
     public static String         MIN_SEQNO                = "min_seqno";
     public static String         MAX_SEQNO                = "max_seqno";
+    public static String         RECORD_FRAMES            = "record_frames";
+
+    // Frame types used once log record framing is negotiated.
+    private static final byte    FRAME_RECORD             = 0x01;
+    private static final byte    FRAME_HEARTBEAT          = 0x02;
+    private static final byte    FRAME_ERROR              = 0x03;
 
     protected PluginContext      pluginContext            = null;
     protected SocketChannel      channel                  = null;
@@ -75,9 +90,22 @@ public class Protocol
     protected int                resetPeriod;
     private int                  objectsSent              = 0;
 
+    private BufferedInputStream  bis                      = null;
+    private BufferedOutputStream bos                      = null;
     protected ObjectInputStream  ois                      = null;
     protected ObjectOutputStream oos                      = null;
 
+    // Log record framing. If enabled and agreed in the handshake, the server
+    // sends events as the log records it has stored, which the client
+    // decodes with the serializer named by the server.
+    private boolean              recordFramesEnabled      = false;
+    private String               recordSerializerClass    = null;
+    private Serializer           recordSerializer         = null;
+    private boolean              framed                   = false;
+    private DataInputStream      frameInput               = null;
+    private DataOutputStream     frameOutput              = null;
+    private int                  framesBuffered           = 0;
+
     protected String             clientSourceId           = null;
     private long                 clientLastEpochNumber    = -1;
     private long                 clientLastSeqno          = -1;
@@ -105,8 +133,8 @@ public class Protocol
         this.pluginContext = context;
         this.channel = channel;
 
-        oos = new ObjectOutputStream(new BufferedOutputStream(this.channel
-                .socket().getOutputStream()));
+        bos = new BufferedOutputStream(this.channel.socket().getOutputStream());
+        oos = new ObjectOutputStream(bos);
         oos.flush();
 
         resetPeriod = 1;
@@ -122,6 +150,28 @@ public class Protocol
         buffering = bufferSize > 0;
         if (buffering && logger.isDebugEnabled())
             logger.debug("THL protocol buffering enabled: size=" + bufferSize);
+        this.recordFramesEnabled = context.getReplicatorProperties()
+                .getBoolean(ReplicatorConf.THL_PROTOCOL_RECORD_FRAMES);
+    }
+
+    /**
+     * Offers log record framing to clients during the server handshake. Only
+     * used on the server side.
+     * 
+     * @param serializerClass Name of the serializer used to write the log
+     */
+    public void setRecordSerializerClass(String serializerClass)
+    {
+        this.recordSerializerClass = serializerClass;
+    }
+
+    /**
+     * Returns true if client and server agreed to send events as framed log
+     * records rather than serialized Java objects.
+     */
+    public boolean isFramed()
+    {
+        return framed;
     }
 
     /**
@@ -168,8 +218,9 @@ public class Protocol
     {
         if (ois == null)
         {
-            ois = new ObjectInputStream(new BufferedInputStream(this.channel
-                    .socket().getInputStream()));
+            bis = new BufferedInputStream(this.channel.socket()
+                    .getInputStream());
+            ois = new ObjectInputStream(bis);
         }
         Object obj;
         try
@@ -226,6 +277,10 @@ public class Protocol
                 ManifestParser.parseReleaseWithBuildNumber());
         handshake.setCapability(MIN_SEQNO, new Long(minSeqNo).toString());
         handshake.setCapability(MAX_SEQNO, new Long(maxSeqNo).toString());
+        boolean offerFrames = recordFramesEnabled
+                && recordSerializerClass != null;
+        if (offerFrames)
+            handshake.setCapability(RECORD_FRAMES, recordSerializerClass);
         serverCapabilities = new TungstenProperties(handshake.getCapabilities());
         writeMessage(handshake);
         ProtocolMessage response = readMessage();
@@ -236,7 +291,25 @@ public class Protocol
             try
             {
                 validator.validateResponse(handshakeResponse);
-                writeMessage(new ProtocolOK(new SeqNoRange(minSeqNo, maxSeqNo)));
+                ProtocolOK ok = new ProtocolOK(new SeqNoRange(minSeqNo,
+                        maxSeqNo));
+
+                // Switch to framed output if the client asked for it. The
+                // reply must be the last thing on the object stream, so we
+                // write it without a trailing stream reset.
+                if (offerFrames
+                        && "true".equals(handshakeResponse
+                                .getOption(RECORD_FRAMES)))
+                {
+                    oos.writeObject(ok);
+                    oos.flush();
+                    frameOutput = new DataOutputStream(bos);
+                    framed = true;
+                    logger.info("Sending log record frames to client: sourceId="
+                            + clientSourceId);
+                }
+                else
+                    writeMessage(ok);
             }
             catch (THLException e)
             {
@@ -281,11 +354,27 @@ public class Protocol
                 ManifestParser.parseReleaseWithBuildNumber());
         if (lastEventId != null)
             response.setOption(ProtocolParams.INIT_EVENT_ID, lastEventId);
+        String serializerClass = protocolHandshake.getCapability(RECORD_FRAMES);
+        if (recordFramesEnabled && serializerClass != null)
+        {
+            recordSerializer = createSerializer(serializerClass);
+            if (recordSerializer != null)
+                response.setOption(RECORD_FRAMES, "true");
+        }
         writeMessage(response);
 
         ProtocolMessage okOrNok = readMessage();
         if (okOrNok instanceof ProtocolOK)
         {
+            // The server sends nothing further until it receives a request,
+            // so we can switch to reading frames from the buffered input.
+            if (recordSerializer != null)
+            {
+                frameInput = new DataInputStream(bis);
+                framed = true;
+                logger.info("Receiving log record frames from server: serializer="
+                        + serializerClass);
+            }
             return (SeqNoRange) okOrNok.getPayload();
         }
         else if (okOrNok instanceof ProtocolNOK)
@@ -324,6 +413,9 @@ public class Protocol
                 writeMessage(new ProtocolReplEventRequest(seqNo, prefetchRange));
             }
 
+            if (framed)
+                return trackFragments(readRecordFrame());
+
             // Read the next message, skipping over any heartbeat events, which
             // serve to keep the connection open.
             ProtocolMessage msg = null;
@@ -369,6 +461,13 @@ public class Protocol
                 ret = ((ProtocolReplEvent) msg).getReplEvent();
         }
 
+        return trackFragments(ret);
+    }
+
+    // Tracks fragments and the prefetch position so that we know when to
+    // request further events.
+    private ReplEvent trackFragments(ReplEvent ret)
+    {
         if (ret instanceof ReplDBMSEvent)
         {
             if (((ReplDBMSEvent) ret).getLastFrag())
@@ -404,6 +503,76 @@ public class Protocol
         return ret;
     }
 
+    // Reads frames until we get a log record, which we decode into an event.
+    // Heartbeats are skipped and errors are raised as exceptions.
+    private ReplEvent readRecordFrame() throws ReplicatorException, IOException
+    {
+        for (;;)
+        {
+            byte frameType = frameInput.readByte();
+            if (frameType == FRAME_RECORD)
+            {
+                int length = frameInput.readInt();
+                byte[] data = new byte[length];
+                frameInput.readFully(data);
+                byte crcType = frameInput.readByte();
+                long crc = frameInput.readLong();
+
+                // Check the CRC computed by the server before decoding.
+                LogRecord logRecord = new LogRecord(-1, data, crcType, crc);
+                LogEventReplReader eventReader = new LogEventReplReader(
+                        logRecord, recordSerializer, true);
+                THLEvent thlEvent = eventReader.deserializeEvent();
+                eventReader.done();
+
+                // Keep the record with events that are still in serialized
+                // form so that a relay can store it without re-serializing.
+                ReplEvent replEvent = thlEvent.getReplEvent();
+                if (replEvent instanceof ReplDBMSEvent)
+                {
+                    DBMSEvent dbmsEvent = ((ReplDBMSEvent) replEvent)
+                            .getDBMSEvent();
+                    if (dbmsEvent instanceof ProtobufDBMSEvent)
+                        ((ProtobufDBMSEvent) dbmsEvent)
+                                .setSourceRecord(logRecord, thlEvent);
+                }
+                return replEvent;
+            }
+            else if (frameType == FRAME_HEARTBEAT)
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("Received protocol heartbeat");
+            }
+            else if (frameType == FRAME_ERROR)
+            {
+                throw new THLException(frameInput.readUTF());
+            }
+            else
+            {
+                throw new THLException(
+                        "Protocol error; unexpected frame type: " + frameType);
+            }
+        }
+    }
+
+    // Instantiates the serializer used by the server to write its log or
+    // returns null if it is not available, in which case we do not ask for
+    // log record frames.
+    private Serializer createSerializer(String serializerClass)
+    {
+        try
+        {
+            return (Serializer) Class.forName(serializerClass).newInstance();
+        }
+        catch (Exception e)
+        {
+            logger.warn("Unable to load server log serializer; "
+                    + "log record frames will not be used: class="
+                    + serializerClass + " message=" + e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * TODO: waitReplicationDBMSEventRequest definition.
      * 
@@ -445,11 +614,104 @@ public class Protocol
         }
     }
 
+    /**
+     * Sends a log record to the client as a frame. This may only be used once
+     * log record framing is agreed in the handshake.
+     * 
+     * @param logRecord Log record as stored in the log
+     * @param forceSend If true, flush buffered frames to the client
+     */
+    public void sendLogRecord(LogRecord logRecord, boolean forceSend)
+            throws IOException
+    {
+        byte[] data = logRecord.getData();
+        frameOutput.writeByte(FRAME_RECORD);
+        frameOutput.writeInt(data.length);
+        frameOutput.write(data);
+        frameOutput.writeByte(logRecord.getCrcType());
+        frameOutput.writeLong(logRecord.getCrc());
+
+        framesBuffered++;
+        if (!buffering || forceSend || framesBuffered >= bufferSize)
+        {
+            frameOutput.flush();
+            framesBuffered = 0;
+        }
+    }
+
+    /**
+     * Flushes buffered frames to the client.
+     */
+    public void flush() throws IOException
+    {
+        if (framed)
+        {
+            frameOutput.flush();
+            framesBuffered = 0;
+        }
+    }
+
+    /**
+     * Returns a log record frame as buffers suitable for a gathering write.
+     * The record data are wrapped rather than copied, so the buffers may be
+     * duplicated to send the same frame to many clients.
+     */
+    public static ByteBuffer[] encodeRecordFrame(LogRecord logRecord)
+    {
+        byte[] data = logRecord.getData();
+        ByteBuffer header = ByteBuffer.allocate(5);
+        header.put(FRAME_RECORD);
+        header.putInt(data.length);
+        header.flip();
+        ByteBuffer trailer = ByteBuffer.allocate(9);
+        trailer.put(logRecord.getCrcType());
+        trailer.putLong(logRecord.getCrc());
+        trailer.flip();
+        return new ByteBuffer[]{header, ByteBuffer.wrap(data), trailer};
+    }
+
+    /**
+     * Returns a heartbeat frame.
+     */
+    public static ByteBuffer encodeHeartbeatFrame()
+    {
+        return ByteBuffer.wrap(new byte[]{FRAME_HEARTBEAT});
+    }
+
+    /**
+     * Returns an error frame.
+     */
+    public static ByteBuffer encodeErrorFrame(String message)
+    {
+        try
+        {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(baos);
+            dos.writeByte(FRAME_ERROR);
+            dos.writeUTF(message);
+            dos.flush();
+            return ByteBuffer.wrap(baos.toByteArray());
+        }
+        catch (IOException e)
+        {
+            // Cannot happen when writing to memory.
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Send an error message back to client.
      */
     public void sendError(String message) throws IOException
     {
+        if (framed)
+        {
+            frameOutput.writeByte(FRAME_ERROR);
+            frameOutput.writeUTF(message);
+            frameOutput.flush();
+            framesBuffered = 0;
+            return;
+        }
         if (buffering && buffer.size() > 0)
         {
             writeMessage(new ProtocolMessage(buffer));
@@ -463,6 +725,13 @@ public class Protocol
      */
     public void sendHeartbeat() throws IOException
     {
+        if (framed)
+        {
+            frameOutput.writeByte(FRAME_HEARTBEAT);
+            frameOutput.flush();
+            framesBuffered = 0;
+            return;
+        }
         if (buffering && buffer.size() > 0)
         {
             writeMessage(new ProtocolMessage(buffer));
@@ -61,6 +61,7 @@ public class Server implements Runnable
     private LinkedBlockingQueue<ConnectorHandler> deadClients           = new LinkedBlockingQueue<ConnectorHandler>();
     private volatile boolean                      stopped               = false;
     private String                                storeName;
+    private ConnectorMultiplexer                  multiplexer;
 
     /**
      * Determines how long a THL server will block in an accept() call before
@@ -199,6 +200,20 @@ public class Server implements Runnable
             }
             clients = null;
 
+            // Stop selector threads, which close the clients they serve.
+            if (multiplexer != null)
+            {
+                try
+                {
+                    multiplexer.stop();
+                }
+                catch (InterruptedException e)
+                {
+                    logger.warn("Connector multiplexer stop interrupted unexpectedly");
+                }
+                multiplexer = null;
+            }
+
             // Close the socket.
             if (socket != null)
             {
@@ -220,6 +235,15 @@ public class Server implements Runnable
         }
     }
 
+    /**
+     * Returns the multiplexer that serves framed clients or null if clients
+     * are served by their connector handlers.
+     */
+    public ConnectorMultiplexer getMultiplexer()
+    {
+        return multiplexer;
+    }
+
     /**
      * Marks a client for removal.
      */
@@ -261,6 +285,18 @@ public class Server implements Runnable
                 + host + " port=" + port + " accept timeout="
                 + serverAcceptTimeoutMs);
 
+        // Start selector threads if we are to serve framed clients from them.
+        int selectorThreads = context.getReplicatorProperties().getInt(
+                ReplicatorConf.THL_SERVER_SELECTOR_THREADS, null, true);
+        if (selectorThreads > 0)
+        {
+            int clientBufferBytes = context.getReplicatorProperties().getInt(
+                    ReplicatorConf.THL_SERVER_CLIENT_BUFFER_BYTES, null, true);
+            multiplexer = new ConnectorMultiplexer(thl, selectorThreads,
+                    clientBufferBytes);
+            multiplexer.start();
+        }
+
         serverChannel = ServerSocketChannel.open();
         socket = serverChannel.socket();
         socket.setSoTimeout(serverAcceptTimeoutMs);
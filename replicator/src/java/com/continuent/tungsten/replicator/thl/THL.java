@@ -38,8 +38,11 @@ import com.continuent.tungsten.replicator.event.ReplDBMSHeader;
 import com.continuent.tungsten.replicator.event.ReplEvent;
 import com.continuent.tungsten.replicator.plugin.PluginContext;
 import com.continuent.tungsten.replicator.storage.Store;
+import com.continuent.tungsten.replicator.thl.log.DeflateLogCompressor;
 import com.continuent.tungsten.replicator.thl.log.DiskLog;
 import com.continuent.tungsten.replicator.thl.log.LogConnection;
+import com.continuent.tungsten.replicator.thl.log.LogGroupCommitter;
+import com.continuent.tungsten.replicator.thl.log.LogWriteNotifier;
 import com.continuent.tungsten.replicator.thl.serializer.ProtobufSerializer;
 import com.continuent.tungsten.replicator.util.AtomicCounter;
 
@@ -97,6 +100,9 @@ public class THL implements Store
     /** I/O buffer size in bytes. */
     protected int              bufferSize           = 131072;
 
+    /** Bytes between seqno index entries in log files. 0 disables. */
+    protected long             seqnoIndexInterval   = 1000000;
+
     /**
      * Flush data after this many milliseconds. 0 flushes after every write.
      */
@@ -105,6 +111,28 @@ public class THL implements Store
     /** If true, fsync when flushing. */
     private boolean            fsyncOnFlush         = false;
 
+    /** If true, flush commits in groups using a separate task. */
+    protected boolean          groupCommit          = false;
+
+    /** Maximum time a commit may wait for others to join its group. */
+    protected long             maxBatchLatencyMillis = 10;
+
+    /** If true, compress event payloads of new log records. */
+    protected boolean          compressLog          = false;
+
+    /** Name of the class used to compress log records. */
+    protected String           compressorClass      = DeflateLogCompressor.class
+                                                            .getName();
+
+    /** Payloads smaller than this number of bytes are not compressed. */
+    protected int              compressMinBytes     = 256;
+
+    /** Maximum number of recent events cached for readers; 0 disables. */
+    protected int              eventCacheSize       = 8192;
+
+    /** Maximum estimated memory used by cached events. */
+    protected long             eventCacheMaxBytes   = 16777216;
+
     // Database storage and disk log.
     private CatalogManager     catalog              = null;
     private DiskLog            diskLog              = null;
@@ -232,6 +260,14 @@ public class THL implements Store
         this.eventSerializer = eventSerializer;
     }
 
+    /**
+     * Returns the event serializer name.
+     */
+    public String getEventSerializer()
+    {
+        return eventSerializer;
+    }
+
     /**
      * Sets the log file retention interval.
      */
@@ -256,6 +292,14 @@ public class THL implements Store
         this.bufferSize = bufferSize;
     }
 
+    /**
+     * Sets the number of bytes between seqno index entries in log files.
+     */
+    public void setSeqnoIndexInterval(long seqnoIndexInterval)
+    {
+        this.seqnoIndexInterval = seqnoIndexInterval;
+    }
+
     /**
      * Sets the interval between flush calls.
      */
@@ -273,6 +317,67 @@ public class THL implements Store
         this.fsyncOnFlush = fsyncOnFlush;
     }
 
+    /**
+     * If set to true, flush commits in groups using a separate task. The THL
+     * applier still waits for each commit to become durable before it
+     * records the commit position, so writers that commit concurrently share
+     * a single fsync.
+     */
+    public void setGroupCommit(boolean groupCommit)
+    {
+        this.groupCommit = groupCommit;
+    }
+
+    /**
+     * Sets the maximum time in milliseconds a commit may wait for others to
+     * join its group.
+     */
+    public void setMaxBatchLatencyMillis(long maxBatchLatencyMillis)
+    {
+        this.maxBatchLatencyMillis = maxBatchLatencyMillis;
+    }
+
+    /**
+     * If set to true, compress event payloads of new log records.
+     */
+    public void setCompressLog(boolean compressLog)
+    {
+        this.compressLog = compressLog;
+    }
+
+    /**
+     * Sets the name of the class used to compress log records.
+     */
+    public void setCompressorClass(String compressorClass)
+    {
+        this.compressorClass = compressorClass;
+    }
+
+    /**
+     * Sets the minimum payload size in bytes for compression.
+     */
+    public void setCompressMinBytes(int compressMinBytes)
+    {
+        this.compressMinBytes = compressMinBytes;
+    }
+
+    /**
+     * Sets the maximum number of recently committed events cached for
+     * clients reading the log. 0 disables the cache.
+     */
+    public void setEventCacheSize(int eventCacheSize)
+    {
+        this.eventCacheSize = eventCacheSize;
+    }
+
+    /**
+     * Sets the maximum estimated memory in bytes used by cached events.
+     */
+    public void setEventCacheMaxBytes(long eventCacheMaxBytes)
+    {
+        this.eventCacheMaxBytes = eventCacheMaxBytes;
+    }
+
     public void setReadOnly(String ro)
     {
         readOnly = (ro.equals("true"));
@@ -303,6 +408,31 @@ public class THL implements Store
             return localCopy.getMaxSeqno();
     }
 
+    /**
+     * Returns the cache of recently committed events or null if there is none.
+     */
+    public EventsCache getEventsCache()
+    {
+        DiskLog localCopy = diskLog;
+        if (localCopy == null)
+            return null;
+        else
+            return localCopy.getEventsCache();
+    }
+
+    /**
+     * Returns the notifier that signals when new events are committed or null
+     * if the log is not open.
+     */
+    public LogWriteNotifier getWriteNotifier()
+    {
+        DiskLog localCopy = diskLog;
+        if (localCopy == null)
+            return null;
+        else
+            return localCopy.getWriteNotifier();
+    }
+
     /**
      * Return minimum stored sequence number.
      */
@@ -367,7 +497,15 @@ public class THL implements Store
         diskLog.setLogFileRetainMillis(logFileRetainMillis);
         diskLog.setLogConnectionTimeoutMillis(logConnectionTimeout * 1000);
         diskLog.setBufferSize(bufferSize);
+        diskLog.setSeqnoIndexInterval(seqnoIndexInterval);
         diskLog.setFsyncOnFlush(fsyncOnFlush);
+        diskLog.setGroupCommit(groupCommit);
+        diskLog.setMaxBatchLatencyMillis(maxBatchLatencyMillis);
+        diskLog.setCompressLog(compressLog);
+        diskLog.setCompressorClass(compressorClass);
+        diskLog.setCompressMinBytes(compressMinBytes);
+        diskLog.setEventCacheSize(eventCacheSize);
+        diskLog.setEventCacheMaxBytes(eventCacheMaxBytes);
         if (fsyncOnFlush)
         {
             // Only used with fsync.
@@ -576,8 +714,30 @@ public class THL implements Store
         props.setLong("timeoutMillis", diskLog.getTimeoutMillis());
         props.setBoolean("fsyncOnFlush", fsyncOnFlush);
         props.setLong("flushIntervalMillis", diskLog.getFlushIntervalMillis());
+        props.setBoolean("groupCommit", groupCommit);
+        props.setLong("maxBatchLatencyMillis", maxBatchLatencyMillis);
+        LogGroupCommitter groupCommitter = diskLog.getGroupCommitter();
+        if (groupCommitter != null)
+        {
+            props.setString("groupCommitAvgBatchSize", String.format("%.2f",
+                    groupCommitter.getAverageBatchSize()));
+            props.setLong("groupCommitCount", groupCommitter.getCommitCount());
+        }
         props.setLong("timeoutMillis", diskLog.getTimeoutMillis());
         props.setLong("logConnectionTimeout", logConnectionTimeout);
+        props.setLong("seqnoIndexInterval", seqnoIndexInterval);
+        props.setBoolean("compressLog", compressLog);
+        props.setString("compressionRatio",
+                String.format("%.2f", diskLog.getCompressionRatio()));
+        EventsCache eventsCache = diskLog.getEventsCache();
+        if (eventsCache != null)
+        {
+            props.setInt("eventCacheEvents", eventsCache.getCount());
+            props.setLong("eventCacheBytes", eventsCache.getBytes());
+            props.setLong("eventCacheHits", eventsCache.getHits());
+            props.setLong("eventCacheMisses", eventsCache.getMisses());
+            props.setLong("eventCacheEvictions", eventsCache.getEvictions());
+        }
         props.setBoolean("readOnly", readOnly);
 
         return props;
@@ -28,6 +28,7 @@ import java.sql.Timestamp;
 import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
 import com.continuent.tungsten.replicator.event.ReplEvent;
 import com.continuent.tungsten.replicator.event.ReplOptionParams;
+import com.continuent.tungsten.replicator.thl.log.LogRecord;
 
 /**
  * This class defines a THLEvent
@@ -67,6 +68,9 @@ public class THLEvent implements Serializable
     private final String      shardId;
     private final ReplEvent   event;
 
+    // Log record from which this event was read, if retained.
+    private transient LogRecord logRecord;
+
     /**
      * Creates a new <code>THLEvent</code> object with status set to COMPLETED.
      * 
@@ -242,6 +246,23 @@ public class THLEvent implements Serializable
         return event;
     }
 
+    /**
+     * Returns the serialized log record from which this event was read or
+     * null if the record was not retained.
+     */
+    public LogRecord getLogRecord()
+    {
+        return logRecord;
+    }
+
+    /**
+     * Sets the serialized log record from which this event was read.
+     */
+    public void setLogRecord(LogRecord logRecord)
+    {
+        this.logRecord = logRecord;
+    }
+
     /**
      * {@inheritDoc}
      * 
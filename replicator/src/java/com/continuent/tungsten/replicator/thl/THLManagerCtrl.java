@@ -88,6 +88,8 @@ public class THLManagerCtrl
 
     private DiskLog               diskLog;
 
+    private boolean               headersOnly        = false;
+
     /**
      * Creates a new <code>THLManagerCtrl</code> object.
      * 
@@ -104,6 +106,15 @@ public class THLManagerCtrl
         logDir = properties.getString("replicator.store.thl.log_dir");
     }
 
+    /**
+     * If set to true, list only event headers and metadata. Event data are not
+     * deserialized, which makes scanning large logs much faster.
+     */
+    public void setHeadersOnly(boolean headersOnly)
+    {
+        this.headersOnly = headersOnly;
+    }
+
     /**
      * Reads the replicator.properties.
      */
@@ -364,7 +375,10 @@ public class THLManagerCtrl
             {
                 ReplDBMSEvent event = (ReplDBMSEvent) replEvent;
                 StringBuilder sb = new StringBuilder();
-                printReplDBMSEvent(sb, event, pureSQL, charset, hex);
+                if (headersOnly)
+                    printMetadata(sb, event);
+                else
+                    printReplDBMSEvent(sb, event, pureSQL, charset, hex);
                 print(sb.toString());
             }
             else
@@ -439,6 +453,33 @@ public class THLManagerCtrl
         println(stringBuilder, "- SOURCEID = " + event.getSourceId());
     }
 
+    /**
+     * Formats and prints ReplDBMSEvent metadata and type into a given
+     * stringBuilder. This does not touch event data.
+     * 
+     * @param stringBuilder StringBuilder object to append formatted contents
+     *            to.
+     * @param event ReplDBMSEvent to print out.
+     */
+    public static void printMetadata(StringBuilder stringBuilder,
+            ReplDBMSEvent event)
+    {
+        List<ReplOption> metadata = event.getDBMSEvent().getMetadata();
+        StringBuilder sb = new StringBuilder();
+        sb.append("[");
+        for (ReplOption option : metadata)
+        {
+            if (sb.length() > 1)
+                sb.append(";");
+            String value = option.getOptionValue();
+            sb.append(option.getOptionName()).append(
+                    (value != null && value.length() > 0 ? "=" + value : ""));
+        }
+        sb.append("]");
+        println(stringBuilder, "- METADATA = " + sb.toString());
+        println(stringBuilder, "- TYPE = " + event.getClass().getName());
+    }
+
     /**
      * Formats and prints ReplDBMSEvent into a given stringBuilder.
      * 
@@ -463,21 +504,7 @@ public class THLManagerCtrl
         if (!pureSQL)
         {
             // Add metadata before handling specific types of ReplDBMSEvents.
-            List<ReplOption> metadata = event.getDBMSEvent().getMetadata();
-            StringBuilder sb = new StringBuilder();
-            sb.append("[");
-            for (ReplOption option : metadata)
-            {
-                if (sb.length() > 1)
-                    sb.append(";");
-                String value = option.getOptionValue();
-                sb.append(option.getOptionName())
-                        .append((value != null && value.length() > 0 ? "="
-                                + value : ""));
-            }
-            sb.append("]");
-            println(stringBuilder, "- METADATA = " + sb.toString());
-            println(stringBuilder, "- TYPE = " + event.getClass().getName());
+            printMetadata(stringBuilder, event);
         }
 
         if (event.getDBMSEvent() instanceof DBMSEmptyEvent)
@@ -777,6 +804,7 @@ public class THLManagerCtrl
             String fileName = null;
             String charsetName = null;
             boolean hex = false;
+            boolean headers = false;
 
             // Parse command line arguments.
             ArgvIterator argvIterator = new ArgvIterator(argv);
@@ -814,6 +842,10 @@ public class THLManagerCtrl
                 {
                     hex = true;
                 }
+                else if ("-headers".equals(curArg))
+                {
+                    headers = true;
+                }
                 else if ("-file".equals(curArg))
                 {
                     fileName = argvIterator.next();
@@ -875,6 +907,7 @@ public class THLManagerCtrl
             else if (THLCommands.LIST.equals(command))
             {
                 THLManagerCtrl thlManager = new THLManagerCtrl(configFile);
+                thlManager.setHeadersOnly(headers);
 
                 if (fileName != null)
                 {
@@ -1031,7 +1064,10 @@ public class THLManagerCtrl
             {
                 ReplDBMSEvent event = (ReplDBMSEvent) replEvent;
                 StringBuilder sb = new StringBuilder();
-                printReplDBMSEvent(sb, event, pureSQL, charset, hex);
+                if (headersOnly)
+                    printMetadata(sb, event);
+                else
+                    printReplDBMSEvent(sb, event, pureSQL, charset, hex);
                 print(sb.toString());
             }
             else
@@ -1065,6 +1101,7 @@ public class THLManagerCtrl
         println("       [-charset <charset>] [-hex]  Character set used for decoding row data");
         println("  list [-file <file_name>] [-sql] - Dump the content of the given log file");
         println("       [-charset <charset>] [-hex]  Character set used for decoding row data");
+        println("  list ... [-headers]             - Dump only headers and metadata of events");
         println("  index                           - Display index of log files");
         println("  purge [-low #] [-high #] [-y]   - Delete events within the given range");
         println("  purge [-seqno #] [-y]           - Delete the exact event");
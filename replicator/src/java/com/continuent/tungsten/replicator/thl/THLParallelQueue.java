@@ -24,8 +24,11 @@ package com.continuent.tungsten.replicator.thl;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
@@ -40,6 +43,7 @@ import com.continuent.tungsten.replicator.event.ReplEvent;
 import com.continuent.tungsten.replicator.event.ReplOptionParams;
 import com.continuent.tungsten.replicator.plugin.PluginContext;
 import com.continuent.tungsten.replicator.storage.ParallelStore;
+import com.continuent.tungsten.replicator.storage.parallel.PartitionMetadata;
 import com.continuent.tungsten.replicator.storage.parallel.Partitioner;
 import com.continuent.tungsten.replicator.storage.parallel.PartitionerResponse;
 import com.continuent.tungsten.replicator.storage.parallel.SimplePartitioner;
@@ -82,6 +86,7 @@ public class THLParallelQueue implements ParallelStore
     private int                       maxOfflineInterval  = 10;
     private int                       maxDelayInterval    = 60;
     private String                    thlStoreName        = "thl";
+    private boolean                   singleReader        = false;
 
     // Plugin context in case we need to make inquiries.
     private PluginContext             context;
@@ -91,6 +96,7 @@ public class THLParallelQueue implements ParallelStore
 
     // Read task control information.
     private List<THLParallelReadTask> readTasks;
+    private THLParallelReadDispatcher readDispatcher;
     private ReplDBMSEvent             lastInsertedEvent;
 
     // Headers used to track the restart position from downstream tasks.
@@ -109,6 +115,12 @@ public class THLParallelQueue implements ParallelStore
     private long                      serializationCount  = 0;
     private long                      discardCount        = 0;
 
+    // Partitions assigned by a stateful partitioner, which sees each event
+    // exactly once as it is put. The dispatcher uses these assignments, and
+    // pending counts show assigned events not yet dispatched.
+    private Map<Long, PartitionerResponse> assignments;
+    private AtomicLong[]              pendingCounts;
+
     // Flag to insert stop synchronization event at next transaction boundary.
     private boolean                   stopRequested       = false;
 
@@ -227,6 +239,22 @@ public class THLParallelQueue implements ParallelStore
         this.maxDelayInterval = maxDelayInterval;
     }
 
+    public boolean isSingleReader()
+    {
+        return singleReader;
+    }
+
+    /**
+     * If true, a single thread reads the THL and dispatches events to the
+     * queues of all read tasks. Otherwise each read task scans the THL
+     * separately and discards events that belong to other partitions. A single
+     * reader is required to use stateful partitioners.
+     */
+    public void setSingleReader(boolean singleReader)
+    {
+        this.singleReader = singleReader;
+    }
+
     /** Returns the current head seqno to which read tasks may advance. */
     public long getHeadSeqno()
     {
@@ -364,6 +392,15 @@ public class THLParallelQueue implements ParallelStore
                     + response.getPartition() + " critical="
                     + response.isCritical());
         }
+
+        // Record the assignment for the dispatcher if the partitioner is
+        // stateful. Later fragments go to the same partition. This must
+        // happen before the head seqno advances.
+        if (assignments != null && event.getFragno() == 0)
+        {
+            assignments.put(event.getSeqno(), response);
+            pendingCounts[response.getPartition()].incrementAndGet();
+        }
         if (response.isCritical()
                 && (criticalPartition != response.getPartition()))
         {
@@ -656,11 +693,12 @@ public class THLParallelQueue implements ParallelStore
             }
         }
 
-        // Stateful partitioners are not accepted.
-        if (partitioner instanceof StatefulPartitioner)
+        // Stateful partitioners must see each event exactly once, which is
+        // only possible if a single reader dispatches events.
+        if (partitioner instanceof StatefulPartitioner && !singleReader)
         {
             throw new ReplicatorException(
-                    "This store does not support StatefulPartitioner implementations: class="
+                    "StatefulPartitioner implementations require singleReader=true: class="
                             + partitionerClass);
         }
 
@@ -701,19 +739,111 @@ public class THLParallelQueue implements ParallelStore
                     "Unknown storage name; thlStoreName may be in error: "
                             + thlStoreName);
 
+        // A stateful partitioner assigns events as they are put, so read
+        // tasks fed by a single reader look up those assignments instead.
+        Partitioner readPartitioner = partitioner;
+        if (singleReader && partitioner instanceof StatefulPartitioner)
+            readPartitioner = new AssignedPartitioner();
+
         // Instantiate reader tasks, followed by array of last sequence numbers
         // to permit propagation of restart points from each output task.
         readTasks = new ArrayList<THLParallelReadTask>(partitions);
         for (int i = 0; i < partitions; i++)
         {
             THLParallelReadTask readTask = new THLParallelReadTask(i, thl,
-                    partitioner, headSeqnoCounter, intervalGuard, maxSize,
+                    readPartitioner, headSeqnoCounter, intervalGuard, maxSize,
                     maxControlEvents, syncInterval,
-                    context.getEventDispatcher());
+                    context.getEventDispatcher(), singleReader);
             readTasks.add(readTask);
             readTask.prepare(context);
         }
         lastHeaders = new ReplDBMSHeader[partitions];
+
+        // If we are using a single reader, set up the dispatcher that feeds
+        // the read tasks.
+        if (singleReader)
+        {
+            if (partitioner instanceof StatefulPartitioner)
+                prepareAssignments();
+            readDispatcher = new THLParallelReadDispatcher(thl, readTasks,
+                    headSeqnoCounter, context.getEventDispatcher());
+            readDispatcher.prepare(context);
+        }
+    }
+
+    // Sets up assignment tracking and supplies the stateful partitioner with
+    // the load of each partition, which includes events that are assigned but
+    // not yet dispatched to the read queue.
+    private void prepareAssignments()
+    {
+        assignments = new ConcurrentHashMap<Long, PartitionerResponse>();
+        pendingCounts = new AtomicLong[partitions];
+        List<PartitionMetadata> metadata = new ArrayList<PartitionMetadata>();
+        for (int i = 0; i < partitions; i++)
+        {
+            final int partition = i;
+            final THLParallelReadTask readTask = readTasks.get(i);
+            pendingCounts[i] = new AtomicLong(0);
+            metadata.add(new PartitionMetadata()
+            {
+                public int getPartitionNumber()
+                {
+                    return partition;
+                }
+
+                public long getCurrentSize()
+                {
+                    return readTask.size() + pendingCounts[partition].get();
+                }
+            });
+        }
+        ((StatefulPartitioner) partitioner).setPartitionMetadata(metadata);
+    }
+
+    /**
+     * Returns partitions assigned to events when they were put. Events that
+     * were discarded on put have no assignment and go to partition 0. Each
+     * read task asks about every event, so the response for the current
+     * fragment is kept until a different fragment arrives.
+     */
+    private class AssignedPartitioner implements Partitioner
+    {
+        private long                lastSeqno  = -1;
+        private short               lastFragno = -1;
+        private PartitionerResponse lastResponse;
+
+        public void setPartitions(int availablePartitions)
+        {
+        }
+
+        public void setContext(PluginContext context)
+        {
+        }
+
+        public synchronized PartitionerResponse partition(
+                ReplDBMSHeader event, int taskId)
+        {
+            if (lastResponse != null && event.getSeqno() == lastSeqno
+                    && event.getFragno() == lastFragno)
+                return lastResponse;
+
+            Long seqno = new Long(event.getSeqno());
+            PartitionerResponse response;
+            if (event.getLastFrag())
+                response = assignments.remove(seqno);
+            else
+                response = assignments.get(seqno);
+
+            if (response == null)
+                response = new PartitionerResponse(0, false);
+            else if (event.getLastFrag())
+                pendingCounts[response.getPartition()].decrementAndGet();
+
+            lastSeqno = event.getSeqno();
+            lastFragno = event.getFragno();
+            lastResponse = response;
+            return response;
+        }
     }
 
     /**
@@ -731,7 +861,14 @@ public class THLParallelQueue implements ParallelStore
             logger.info("Releasing THL parallel queue store: "
                     + status.toString());
 
-            // Stop processing.
+            // Stop processing, starting with the dispatcher if we have one
+            // so that it does not post to released queues.
+            if (readDispatcher != null)
+            {
+                readDispatcher.stop();
+                readDispatcher.release();
+                readDispatcher = null;
+            }
             for (THLParallelReadTask readTask : readTasks)
             {
                 // Stop the task thread again for good measure.
@@ -740,6 +877,8 @@ public class THLParallelQueue implements ParallelStore
             }
             readTasks = null;
             lastHeaders = null;
+            assignments = null;
+            pendingCounts = null;
         }
     }
 
@@ -749,14 +888,26 @@ public class THLParallelQueue implements ParallelStore
     public void start(int taskId)
     {
         this.readTasks.get(taskId).start();
+        if (readDispatcher != null)
+            readDispatcher.start();
     }
 
     /**
-     * Stop the reader for a particular task.
+     * Stop the reader for a particular task. If we are using a single reader,
+     * it stops once all tasks are stopped.
      */
     public void stop(int taskId)
     {
         this.readTasks.get(taskId).stop();
+        if (readDispatcher != null)
+        {
+            for (THLParallelReadTask readTask : readTasks)
+            {
+                if (!readTask.isCancelled())
+                    return;
+            }
+            readDispatcher.stop();
+        }
     }
 
     // Validate that the taskId is in the accepted range of partitions.
@@ -808,6 +959,7 @@ public class THLParallelQueue implements ParallelStore
         props.setLong("eventCount", transactionCount);
         props.setLong("discardCount", discardCount);
         props.setInt("queues", partitions);
+        props.setBoolean("singleReader", singleReader);
         props.setInt("syncInterval", syncInterval);
         props.setInt("maxOfflineInterval", maxOfflineInterval);
         props.setInt("maxDelayInterval", maxDelayInterval);
@@ -822,6 +974,8 @@ public class THLParallelQueue implements ParallelStore
         {
             props.setString("store." + i, readTasks.get(i).toString());
         }
+        if (readDispatcher != null)
+            props.setString("dispatcher", readDispatcher.toString());
         return props;
     }
 }
\ No newline at end of file
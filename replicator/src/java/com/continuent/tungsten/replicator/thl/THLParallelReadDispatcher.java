@@ -0,0 +1,284 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.fsm.event.EventDispatcher;
+import com.continuent.tungsten.replicator.ErrorNotification;
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.event.ReplDBMSHeader;
+import com.continuent.tungsten.replicator.event.ReplDBMSHeaderData;
+import com.continuent.tungsten.replicator.plugin.PluginContext;
+import com.continuent.tungsten.replicator.thl.log.LogConnection;
+import com.continuent.tungsten.replicator.util.AtomicCounter;
+
+/**
+ * Reads the THL once on behalf of all read tasks of a parallel queue and
+ * dispatches each event to the task that owns its partition. Other tasks
+ * receive a header-only copy of the event so that their read queues advance
+ * position and merge control events exactly as they would if they had read
+ * and filtered the log themselves.
+ * <p/>
+ * This replaces N independent scans of the log with a single scan at the cost
+ * of coupling the read tasks: if one task's queue is full, dispatch to all
+ * tasks waits until it has space.
+ *
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ * @version 1.0
+ */
+public class THLParallelReadDispatcher implements Runnable
+{
+    private static Logger                   logger    = Logger.getLogger(THLParallelReadDispatcher.class);
+
+    // Read tasks to which we dispatch events.
+    private final List<THLParallelReadTask> readTasks;
+
+    // Counter to coordinate queue operation.
+    private final AtomicCounter             headSeqnoCounter;
+
+    // Dispatcher to report errors.
+    private final EventDispatcher           dispatcher;
+
+    // Connection to the log.
+    private THL                             thl;
+    private LogConnection                   connection;
+
+    // Statistical counters.
+    private AtomicLong                      readCount = new AtomicLong(0);
+    private volatile long                   readSeqno = -1;
+
+    // Thread ID for this dispatcher.
+    private volatile Thread                 dispatchThread;
+
+    // Flag indicating dispatcher is cancelled.
+    private volatile boolean                cancelled = false;
+
+    /**
+     * Instantiate a read dispatcher.
+     */
+    public THLParallelReadDispatcher(THL thl,
+            List<THLParallelReadTask> readTasks,
+            AtomicCounter headSeqnoCounter, EventDispatcher dispatcher)
+    {
+        this.thl = thl;
+        this.readTasks = readTasks;
+        this.headSeqnoCounter = headSeqnoCounter;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Connect to THL. Must be called before start(). Unlike individual read
+     * tasks we do not set a read filter, as every event must be fully read
+     * to assign it to a partition.
+     */
+    public synchronized void prepare(PluginContext context)
+            throws ReplicatorException, InterruptedException
+    {
+        connection = thl.connect(true);
+    }
+
+    /**
+     * Start the dispatcher thread. This may be called by each read task as it
+     * starts; only the first call has any effect.
+     */
+    public synchronized void start()
+    {
+        if (this.dispatchThread == null)
+        {
+            dispatchThread = new Thread(this);
+            dispatchThread.setName("store-" + thl.getName() + "-dispatcher");
+            dispatchThread.start();
+        }
+    }
+
+    /**
+     * Cancel the thread. This must be called prior to release.
+     */
+    public synchronized void stop()
+    {
+        cancelled = true;
+        if (this.dispatchThread != null)
+        {
+            dispatchThread.interrupt();
+            try
+            {
+                dispatchThread.join(2000);
+            }
+            catch (InterruptedException e)
+            {
+            }
+        }
+    }
+
+    /**
+     * Free the log connection. Must be called following stop().
+     */
+    public synchronized void release()
+    {
+        if (connection != null)
+        {
+            connection.release();
+            connection = null;
+        }
+    }
+
+    /**
+     * Implements read loop on the log to feed all read task queues.
+     */
+    @Override
+    public void run()
+    {
+        // All tasks share the same restart position, so we may start from the
+        // lowest of them.
+        long restartSeqno = Long.MAX_VALUE;
+        for (THLParallelReadTask readTask : readTasks)
+            restartSeqno = Math.min(restartSeqno, readTask.getRestartSeqno());
+        readSeqno = restartSeqno;
+
+        try
+        {
+            // Seek to initial position to start reading.
+            if (!connection.seek(restartSeqno))
+            {
+                throw new THLException(
+                        "Unable to locate starting seqno in log: seqno="
+                                + restartSeqno + " store=" + thl.getName());
+            }
+
+            // Read records until we are cancelled.
+            while (!cancelled)
+            {
+                // Read next event from the log.
+                THLEvent thlEvent = connection.next();
+                readSeqno = thlEvent.getSeqno();
+                readCount.incrementAndGet();
+
+                // Ensure it is safe to process this value, exactly as
+                // individual read tasks do.
+                headSeqnoCounter.waitSeqnoGreaterEqual(thlEvent.getSeqno());
+
+                // Post the full event to each task that accepts it and the
+                // header to all others. Tasks decide with the same header and
+                // task ID they would use to filter the log themselves. The
+                // header-only copy is created only if needed.
+                ReplDBMSHeader header = toPartitionHeader(thlEvent);
+                THLEvent headerEvent = null;
+                for (THLParallelReadTask readTask : readTasks)
+                {
+                    if (readTask.accept(header))
+                    {
+                        if (logger.isDebugEnabled())
+                        {
+                            logger.debug("Dispatching event from THL: seqno="
+                                    + thlEvent.getSeqno() + " fragno="
+                                    + thlEvent.getFragno() + " taskId="
+                                    + readTask.getTaskId());
+                        }
+                        readTask.dispatch(thlEvent);
+                    }
+                    else
+                    {
+                        if (headerEvent == null)
+                            headerEvent = toHeaderEvent(thlEvent);
+                        readTask.dispatch(headerEvent);
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            if (!cancelled)
+                logger.warn("Unexpected interrupt before dispatcher thread was cancelled");
+        }
+        catch (Throwable e)
+        {
+            String msg = "Read failed on transaction log: seqno=" + readSeqno
+                    + " store=" + thl.getName();
+            try
+            {
+                dispatcher.put(new ErrorNotification(msg, e));
+            }
+            catch (InterruptedException e1)
+            {
+                logger.warn(
+                        "Dispatcher cancelled while posting error notification",
+                        null);
+            }
+
+            // Ensure every task reports the failure to its caller.
+            for (THLParallelReadTask readTask : readTasks)
+                readTask.setThrowable(e);
+        }
+
+        // Close up shop.
+        logger.info("Terminating parallel dispatcher thread: seqno="
+                + readSeqno + " store=" + thl.getName());
+    }
+
+    // Returns a copy of the event without its contents, which read queues
+    // discard after updating their position.
+    private THLEvent toHeaderEvent(THLEvent thlEvent)
+    {
+        return new THLEvent(thlEvent.getSeqno(), thlEvent.getFragno(),
+                thlEvent.getLastFrag(), thlEvent.getSourceId(),
+                thlEvent.getType(), thlEvent.getEpochNumber(),
+                thlEvent.getLocalEnqueueTstamp(), thlEvent.getSourceTstamp(),
+                thlEvent.getEventId(), thlEvent.getShardId(), null);
+    }
+
+    /**
+     * Returns the header that read tasks partition on, built from the same
+     * fields a read filter takes from the log record.
+     */
+    static ReplDBMSHeader toPartitionHeader(THLEvent thlEvent)
+    {
+        return new ReplDBMSHeaderData(thlEvent.getSeqno(),
+                thlEvent.getFragno(), thlEvent.getLastFrag(),
+                thlEvent.getSourceId(), thlEvent.getEpochNumber(),
+                thlEvent.getEventId(), thlEvent.getShardId(),
+                thlEvent.getSourceTstamp(), 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append(this.getClass().getSimpleName());
+        sb.append(" thread_name=");
+        if (dispatchThread == null)
+            sb.append("null");
+        else
+            sb.append(dispatchThread.getName());
+        sb.append(" seqno=").append(readSeqno);
+        sb.append(" read=").append(readCount);
+        return sb.toString();
+    }
+}
@@ -95,13 +95,18 @@ public class THLParallelReadTask implements Runnable
     // Flag indicating task is cancelled.
     private volatile boolean       cancelled            = false;
 
+    // If true, events are supplied by a shared THLParallelReadDispatcher and
+    // this task does not read the log itself.
+    private final boolean          dispatched;
+
     /**
      * Instantiate a read task.
      */
     public THLParallelReadTask(int taskId, THL thl, Partitioner partitioner,
             AtomicCounter headSeqnoCounter,
             AtomicIntervalGuard<?> intervalGuard, int maxSize,
-            int maxControlEvents, int syncInterval, EventDispatcher dispatcher)
+            int maxControlEvents, int syncInterval, EventDispatcher dispatcher,
+            boolean dispatched)
     {
         this.taskId = taskId;
         this.thl = thl;
@@ -112,6 +117,25 @@ public class THLParallelReadTask implements Runnable
         this.maxControlEvents = maxControlEvents;
         this.syncInterval = syncInterval;
         this.dispatcher = dispatcher;
+        this.dispatched = dispatched;
+    }
+
+    /** Returns the task number on whose behalf we are reading. */
+    public int getTaskId()
+    {
+        return taskId;
+    }
+
+    /** Returns the sequence number from which reading starts. */
+    public synchronized long getRestartSeqno()
+    {
+        return restartSeqno;
+    }
+
+    /** Returns true if this task has been cancelled. */
+    public boolean isCancelled()
+    {
+        return cancelled;
     }
 
     /**
@@ -136,6 +160,13 @@ public class THLParallelReadTask implements Runnable
                 maxControlEvents, restartSeqno, syncInterval, lastHeader,
                 intervalGuard);
 
+        // Report our starting position to the interval guard.
+        intervalGuard.report(taskId, restartSeqno, restartExtractMillis);
+
+        // If a dispatcher supplies our events, we are done.
+        if (dispatched)
+            return;
+
         // Connect to the log.
         connection = thl.connect(true);
 
@@ -153,34 +184,42 @@ public class THLParallelReadTask implements Runnable
                         reader.getEpochNumber(), reader.getEventId(),
                         reader.getShardId(), new Timestamp(
                                 reader.getSourceTStamp()), 0);
-                PartitionerResponse response;
-                try
-                {
-                    response = partitioner.partition(header, taskId);
-                }
-                catch (THLException e)
-                {
-                    throw e;
-                }
-                catch (ReplicatorException e)
-                {
-                    throw new THLException(e.getMessage(), e);
-                }
-                return (taskId == response.getPartition());
+                return THLParallelReadTask.this.accept(header);
             }
         };
         connection.setReadFilter(filter);
+    }
 
-        // Report our starting position to the interval guard.
-        intervalGuard.report(taskId, restartSeqno, restartExtractMillis);
+    /**
+     * Returns true if the event with this header belongs to our partition.
+     * The read filter and a shared dispatcher both call this method so that
+     * events are assigned identically whichever of them reads the log.
+     */
+    public boolean accept(ReplDBMSHeader header) throws THLException
+    {
+        PartitionerResponse response;
+        try
+        {
+            response = partitioner.partition(header, taskId);
+        }
+        catch (THLException e)
+        {
+            throw e;
+        }
+        catch (ReplicatorException e)
+        {
+            throw new THLException(e.getMessage(), e);
+        }
+        return (taskId == response.getPartition());
     }
 
     /**
-     * Start the task thread. This must be called after prepare.
+     * Start the task thread. This must be called after prepare. Dispatched
+     * tasks have no thread of their own.
      */
     public synchronized void start()
     {
-        if (this.taskThread == null)
+        if (this.taskThread == null && !dispatched)
         {
             taskThread = new Thread(this);
             taskThread.setName("store-" + thl.getName() + "-" + taskId);
@@ -217,6 +256,9 @@ public class THLParallelReadTask implements Runnable
         {
             connection.release();
             connection = null;
+        }
+        if (readQueue != null)
+        {
             readQueue.release();
             readQueue = null;
         }
@@ -248,9 +290,6 @@ public class THLParallelReadTask implements Runnable
                 // Read next event from the log.
                 THLEvent thlEvent = connection.next();
                 readSeqno = thlEvent.getSeqno();
-                if (lowWaterMark.get() == 0)
-                    lowWaterMark.set(readSeqno);
-                readCount.incrementAndGet();
                 if (logger.isDebugEnabled())
                 {
                     logger.debug("Read event from THL: seqno="
@@ -266,13 +305,7 @@ public class THLParallelReadTask implements Runnable
                 headSeqnoCounter.waitSeqnoGreaterEqual(thlEvent.getSeqno());
 
                 // Post to the queue.
-                if (logger.isDebugEnabled())
-                {
-                    logger.debug("Adding event to parallel queue:  taskId="
-                            + taskId + " seqno=" + thlEvent.getSeqno()
-                            + " fragno=" + thlEvent.getFragno());
-                }
-                readQueue.post(thlEvent);
+                post(thlEvent);
             }
         }
         catch (InterruptedException e)
@@ -302,6 +335,43 @@ public class THLParallelReadTask implements Runnable
                 + " store=" + thl.getName() + " taskId=" + taskId);
     }
 
+    /**
+     * Posts an event read by a shared dispatcher. The dispatcher must wait on
+     * the head seqno counter before calling this method.
+     *
+     * @param thlEvent Event to post, which may be a header-only event if the
+     *            event belongs to another partition
+     */
+    public void dispatch(THLEvent thlEvent) throws InterruptedException
+    {
+        if (!cancelled)
+            post(thlEvent);
+    }
+
+    /**
+     * Records a failure on the thread that supplies our events so that
+     * callers of get() see it.
+     */
+    public void setThrowable(Throwable throwable)
+    {
+        this.throwable = throwable;
+    }
+
+    // Post an event to the read queue and update counters.
+    private void post(THLEvent thlEvent) throws InterruptedException
+    {
+        if (lowWaterMark.get() == 0)
+            lowWaterMark.set(thlEvent.getSeqno());
+        readCount.incrementAndGet();
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Adding event to parallel queue:  taskId=" + taskId
+                    + " seqno=" + thlEvent.getSeqno() + " fragno="
+                    + thlEvent.getFragno());
+        }
+        readQueue.post(thlEvent);
+    }
+
     // QUEUE INTERFACE STARTS HERE.
 
     /**
@@ -25,8 +25,8 @@ package com.continuent.tungsten.replicator.thl;
 import org.apache.log4j.Logger;
 
 import com.continuent.tungsten.replicator.ReplicatorException;
-import com.continuent.tungsten.replicator.applier.Applier;
 import com.continuent.tungsten.replicator.applier.ApplierException;
+import com.continuent.tungsten.replicator.applier.EventStoreApplier;
 import com.continuent.tungsten.replicator.event.ReplControlEvent;
 import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
 import com.continuent.tungsten.replicator.event.ReplDBMSHeader;
@@ -41,7 +41,7 @@ import com.continuent.tungsten.replicator.thl.log.LogConnection;
  * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
  * @version 1.0
  */
-public class THLStoreApplier implements Applier
+public class THLStoreApplier implements EventStoreApplier
 {
     private static Logger logger   = Logger.getLogger(THLStoreApplier.class);
     private String        storeName;
@@ -138,7 +138,13 @@ public class THLStoreApplier implements Applier
             client.store(thlEvent, doCommit);
             if (doCommit)
             {
+                // Do not wait for the commit to be durable, so that group
+                // commit may combine successive commits into a single fsync.
+                // The log must be durable before its position is recorded,
+                // however.
                 if (syncTHL)
+                {
+                    client.waitForCommit();
                     try
                     {
                         thl.updateCommitSeqno(thlEvent);
@@ -152,9 +158,10 @@ public class THLStoreApplier implements Applier
                         else
                         {
                             nbErrors++;
-                            // In case of error while updating the CommitSeqno,
-                            // don't fail! Just keep extracting whatever can be
-                            // extracted and make data available for slaves.
+                            // In case of error while updating the
+                            // CommitSeqno, don't fail! Just keep extracting
+                            // whatever can be extracted and make data
+                            // available for slaves.
                             if (nbErrors == 1)
                                 logger.warn(
                                         "Error while storing last committed seqno. Extracting last available events",
@@ -165,7 +172,8 @@ public class THLStoreApplier implements Applier
                                         + " events since database access error.");
                         }
                     }
-                commit();
+                }
+                updateActiveSeqno();
             }
             if (logger.isDebugEnabled())
                 logger.debug("Stored event " + event.getSeqno());
@@ -198,13 +206,10 @@ public class THLStoreApplier implements Applier
     {
         try
         {
-            // Commit the log records.
+            // Commit the log records and wait until they are durable.
             client.commit();
-
-            // While we are at it check the end of the pipeline and update the
-            // log active sequence number to wherever we have committed.
-            long lastCommittedSeqno = context.getCommittedSeqno();
-            thl.updateActiveSeqno(lastCommittedSeqno);
+            client.waitForCommit();
+            updateActiveSeqno();
         }
         catch (THLException e)
         {
@@ -212,6 +217,14 @@ public class THLStoreApplier implements Applier
         }
     }
 
+    // While we are at it check the end of the pipeline and update the log
+    // active sequence number to wherever we have committed.
+    private void updateActiveSeqno()
+    {
+        long lastCommittedSeqno = context.getCommittedSeqno();
+        thl.updateActiveSeqno(lastCommittedSeqno);
+    }
+
     /**
      * {@inheritDoc}
      * 
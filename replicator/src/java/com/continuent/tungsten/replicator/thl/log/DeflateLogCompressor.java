@@ -0,0 +1,134 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl.log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses log records using the JDK Deflater. This is the default log
+ * compressor and is always available to readers.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public class DeflateLogCompressor implements LogCompressor
+{
+    /** Type code for records compressed with this class. */
+    public static final byte TYPE  = 0x01;
+
+    private int              level = Deflater.BEST_SPEED;
+
+    /**
+     * Sets the Deflater compression level from 1 (fastest) to 9 (best
+     * compression).
+     */
+    public void setLevel(int level)
+    {
+        this.level = level;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.thl.log.LogCompressor#getType()
+     */
+    public byte getType()
+    {
+        return TYPE;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.thl.log.LogCompressor#compress(byte[],
+     *      int, int)
+     */
+    public byte[] compress(byte[] data, int offset, int length)
+            throws IOException
+    {
+        Deflater deflater = new Deflater(level);
+        try
+        {
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                    length / 2 + 64);
+            byte[] buf = new byte[8192];
+            while (!deflater.finished())
+            {
+                int count = deflater.deflate(buf);
+                baos.write(buf, 0, count);
+            }
+            return baos.toByteArray();
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.thl.log.LogCompressor#decompress(byte[],
+     *      int, int, int)
+     */
+    public byte[] decompress(byte[] data, int offset, int length,
+            int uncompressedLength) throws IOException
+    {
+        Inflater inflater = new Inflater();
+        try
+        {
+            inflater.setInput(data, offset, length);
+            byte[] result = new byte[uncompressedLength];
+            int count = 0;
+            while (count < uncompressedLength)
+            {
+                int n = inflater.inflate(result, count, uncompressedLength
+                        - count);
+                if (n == 0 && (inflater.finished() || inflater.needsInput()))
+                    break;
+                count += n;
+            }
+            if (count != uncompressedLength || !inflater.finished())
+            {
+                throw new IOException(
+                        "Compressed log record data has unexpected length: expected="
+                                + uncompressedLength + " actual=" + count);
+            }
+            return result;
+        }
+        catch (DataFormatException e)
+        {
+            throw new IOException("Compressed log record data are corrupt: "
+                    + e.getMessage());
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+}
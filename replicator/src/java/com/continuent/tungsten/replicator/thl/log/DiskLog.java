@@ -25,10 +25,14 @@ package com.continuent.tungsten.replicator.thl.log;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
 import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.thl.EventsCache;
 import com.continuent.tungsten.replicator.thl.THLException;
 import com.continuent.tungsten.replicator.thl.serializer.ProtobufSerializer;
 import com.continuent.tungsten.replicator.thl.serializer.Serializer;
@@ -54,6 +58,9 @@ public class DiskLog
     // Connection pools.
     private LogConnectionManager connectionManager          = new LogConnectionManager();
 
+    // Signals readers when the writer makes new data visible.
+    private final LogWriteNotifier writeNotifier            = new LogWriteNotifier();
+
     // Variables used to maintain index on log files.
     private LogIndex             index                      = null;
     private long                 fileIndex                  = 1;
@@ -63,6 +70,10 @@ public class DiskLog
                                                                     .length();
     private static final String  DATA_FILENAME_PREFIX       = "thl.data.";
 
+    // Seqno indexes of finished log files by file name. These do not change
+    // once a file is rotated, so seeks can share them.
+    private final ConcurrentHashMap<String, LogSeqnoIndex> seqnoIndexes = new ConcurrentHashMap<String, LogSeqnoIndex>();
+
     /** Store and compare checksum values on the log. */
     private boolean              doChecksum                 = true;
 
@@ -99,6 +110,12 @@ public class DiskLog
      */
     protected int                bufferSize                 = 65536;
 
+    /**
+     * Number of bytes between entries in the per-file seqno index used to
+     * speed up seeks. 0 disables the index.
+     */
+    protected long               seqnoIndexInterval         = 1000000;
+
     /** Write lock to prevent log file corruption by concurrent access. */
     protected WriteLock          writeLock;
 
@@ -121,6 +138,43 @@ public class DiskLog
     private LogFlushTask         logSyncTask;
     private Thread               logSyncThread;
 
+    /**
+     * If true, commits are handed to a group commit task that flushes many
+     * commits at once.
+     */
+    protected boolean            groupCommit                = false;
+
+    /** Maximum time a commit may wait for others to join its group. */
+    protected long               maxBatchLatencyMillis      = 10;
+
+    /** Maximum number of recent events cached for readers; 0 disables. */
+    protected int                eventCacheSize             = 8192;
+
+    /** Maximum estimated memory used by cached events. */
+    protected long               eventCacheMaxBytes         = 16777216;
+
+    // Cache of recently committed events; allocated on writable logs.
+    private EventsCache          eventsCache;
+
+    // Group commit task; enabled if groupCommit is true.
+    private LogGroupCommitter    groupCommitter;
+    private Thread               groupCommitThread;
+
+    /** If true, compress event payloads of new log records. */
+    protected boolean            compressLog                = false;
+
+    /** Name of the class used to compress log records. */
+    protected String             compressorClass            = DeflateLogCompressor.class
+                                                                    .getName();
+
+    /** Payloads smaller than this number of bytes are not compressed. */
+    protected int                compressMinBytes           = 256;
+
+    // Compressor instance and statistics on payloads written with it.
+    private LogCompressor        compressor;
+    private AtomicLong           compressInputBytes         = new AtomicLong();
+    private AtomicLong           compressOutputBytes        = new AtomicLong();
+
     /**
      * Creates a new log instance.
      */
@@ -267,6 +321,33 @@ public class DiskLog
         this.bufferSize = bufferSize;
     }
 
+    /**
+     * Sets the number of bytes between seqno index entries. Smaller values
+     * make seeks faster at the cost of larger index files. 0 disables the
+     * index.
+     */
+    public void setSeqnoIndexInterval(long seqnoIndexInterval)
+    {
+        this.seqnoIndexInterval = seqnoIndexInterval;
+    }
+
+    /**
+     * Returns the number of bytes between seqno index entries.
+     */
+    public long getSeqnoIndexInterval()
+    {
+        return seqnoIndexInterval;
+    }
+
+    /**
+     * Returns the notifier that signals readers when new data are written to
+     * the log.
+     */
+    public LogWriteNotifier getWriteNotifier()
+    {
+        return writeNotifier;
+    }
+
     /**
      * Set write flush interval in milliseconds. 0 means flush on every write.
      * This lowers latency.
@@ -293,6 +374,159 @@ public class DiskLog
         this.fsyncOnFlush = fsyncOnFlush;
     }
 
+    /**
+     * If set to true, commits are flushed in groups by a separate task. This
+     * amortizes the cost of fsync over commits that arrive together when
+     * fsyncOnFlush is enabled. The flush interval does not apply to group
+     * commits. A commit is only durable once its future completes; see
+     * {@link LogConnection#waitForCommit()}.
+     */
+    public void setGroupCommit(boolean groupCommit)
+    {
+        this.groupCommit = groupCommit;
+    }
+
+    /**
+     * Returns true if group commit is enabled.
+     */
+    public boolean isGroupCommit()
+    {
+        return groupCommit;
+    }
+
+    /**
+     * Sets the maximum number of milliseconds a commit may wait for other
+     * commits to join its group. Higher values allow larger groups at the cost
+     * of latency for callers that do not wait on their commits.
+     */
+    public void setMaxBatchLatencyMillis(long maxBatchLatencyMillis)
+    {
+        this.maxBatchLatencyMillis = maxBatchLatencyMillis;
+    }
+
+    /**
+     * Returns the maximum group commit latency in milliseconds.
+     */
+    public long getMaxBatchLatencyMillis()
+    {
+        return maxBatchLatencyMillis;
+    }
+
+    /**
+     * Sets the maximum number of recently committed events to cache for
+     * readers. 0 disables the cache.
+     */
+    public void setEventCacheSize(int eventCacheSize)
+    {
+        this.eventCacheSize = eventCacheSize;
+    }
+
+    /**
+     * Sets the maximum estimated memory in bytes used by cached events.
+     */
+    public void setEventCacheMaxBytes(long eventCacheMaxBytes)
+    {
+        this.eventCacheMaxBytes = eventCacheMaxBytes;
+    }
+
+    /**
+     * Returns the cache of recently committed events or null if the log is
+     * read-only or the cache is disabled.
+     */
+    public EventsCache getEventsCache()
+    {
+        return eventsCache;
+    }
+
+    /**
+     * Returns the group commit task or null if group commit is disabled.
+     */
+    public LogGroupCommitter getGroupCommitter()
+    {
+        return groupCommitter;
+    }
+
+    /**
+     * If set to true, compress the event payload of new log records whenever
+     * this makes them smaller. Records are readable whether or not this is
+     * set.
+     */
+    public void setCompressLog(boolean compressLog)
+    {
+        this.compressLog = compressLog;
+    }
+
+    /**
+     * Returns true if new log records are compressed.
+     */
+    public boolean isCompressLog()
+    {
+        return compressLog;
+    }
+
+    /**
+     * Sets the name of the class used to compress log records, which must
+     * implement {@link LogCompressor}.
+     */
+    public void setCompressorClass(String compressorClass)
+    {
+        this.compressorClass = compressorClass;
+    }
+
+    /**
+     * Sets the minimum payload size in bytes for compression. Smaller payloads
+     * rarely compress well enough to be worth the CPU.
+     */
+    public void setCompressMinBytes(int compressMinBytes)
+    {
+        this.compressMinBytes = compressMinBytes;
+    }
+
+    /**
+     * Returns the minimum payload size in bytes for compression.
+     */
+    public int getCompressMinBytes()
+    {
+        return compressMinBytes;
+    }
+
+    /**
+     * Returns the compressor for new log records or null if compression is
+     * disabled.
+     */
+    public LogCompressor getCompressor()
+    {
+        if (compressLog)
+            return compressor;
+        else
+            return null;
+    }
+
+    /**
+     * Records payload sizes of a record written with compression enabled.
+     * 
+     * @param payloadLength Length of the serialized event
+     * @param storedLength Number of bytes used to store it
+     */
+    void recordCompression(int payloadLength, int storedLength)
+    {
+        compressInputBytes.addAndGet(payloadLength);
+        compressOutputBytes.addAndGet(storedLength);
+    }
+
+    /**
+     * Returns the ratio of serialized to stored payload bytes for records
+     * written since the log was prepared, or 1 if nothing was compressed.
+     */
+    public double getCompressionRatio()
+    {
+        long output = compressOutputBytes.get();
+        if (output == 0)
+            return 1.0;
+        else
+            return (double) compressInputBytes.get() / output;
+    }
+
     // Administrative API calls.
     public void setReadOnly(boolean readOnly)
     {
@@ -310,6 +544,8 @@ public class DiskLog
         logger.info(String.format("Using directory '%s' for replicator logs",
                 logDirName));
         logger.info("Checksums enabled for log records: " + doChecksum);
+        logger.info("Seqno index interval for log files: "
+                + seqnoIndexInterval);
 
         // Ensure log directory is ready for use, which includes creating
         // a new log directory if desired.
@@ -374,7 +610,10 @@ public class DiskLog
             writeLock = new WriteLock(lockFile);
             writeLock.acquire();
             if (writeLock.isLocked())
+            {
                 logger.info("Acquired write lock; log is writable");
+                writeNotifier.setLocalWriter(true);
+            }
             else
                 logger.info("Unable to acquire write lock; log is read-only");
         }
@@ -394,6 +633,22 @@ public class DiskLog
         logger.info("Loaded event serializer class: "
                 + eventSerializer.getClass().getName());
 
+        // Load the log compressor and make it available to readers.
+        try
+        {
+            compressor = (LogCompressor) Class.forName(compressorClass)
+                    .newInstance();
+        }
+        catch (Exception e)
+        {
+            throw new ReplicatorException(
+                    "Unable to load log compressor class: " + compressorClass,
+                    e);
+        }
+        LogCompressorFactory.getInstance().register(compressor);
+        logger.info("Compression of log records enabled: " + compressLog
+                + " compressor=" + compressorClass);
+
         // If the log does not have any files, initialize the first log file
         // now.
         if (listLogFiles(logDir, DATA_FILENAME_PREFIX).length == 0)
@@ -409,6 +664,8 @@ public class DiskLog
                 String logFileName = getDataFileName(fileIndex);
                 LogFile logFile = new LogFile(logDir, logFileName);
                 logFile.setBufferSize(bufferSize);
+                logFile.setWriteNotifier(writeNotifier);
+                logFile.setSeqnoIndexInterval(seqnoIndexInterval);
                 logger.info("Initializing logs: logDir="
                         + logDir.getAbsolutePath() + " file="
                         + logFile.getFile().getName());
@@ -468,7 +725,7 @@ public class DiskLog
                 {
                     // See what kind of event we have.
                     lastRecordType = currentRecord.getData()[0];
-                    if (lastRecordType == LogRecord.EVENT_REPL)
+                    if (LogRecord.isEventRepl(lastRecordType))
                     {
                         LogEventReplReader eventReader = new LogEventReplReader(
                                 currentRecord, eventSerializer, doChecksum);
@@ -654,10 +911,37 @@ public class DiskLog
 
         // If this log is writable, compute the write flush interval.
         logger.info("Setting up log flush policy: fsyncIntervalMillis="
-                + flushIntervalMillis + " fsyncOnFlush=" + this.fsyncOnFlush);
+                + flushIntervalMillis + " fsyncOnFlush=" + this.fsyncOnFlush
+                + " groupCommit=" + groupCommit);
         if (!this.readOnly)
         {
             startLogSyncTask();
+            startGroupCommitTask();
+            if (eventCacheSize > 0 && eventCacheMaxBytes > 0)
+            {
+                // Events already in the log are committed but not cached.
+                eventsCache = new EventsCache(eventCacheSize,
+                        eventCacheMaxBytes);
+                eventsCache.setMaxSeqno(getMaxSeqno());
+
+                // Committed events become visible once their log file is
+                // flushed, whichever thread flushes it. Events are sealed at
+                // the flush and published once the flush is durable.
+                writeNotifier.addFlushListener(new Runnable()
+                {
+                    public void run()
+                    {
+                        eventsCache.seal();
+                    }
+                });
+                writeNotifier.addListener(new Runnable()
+                {
+                    public void run()
+                    {
+                        eventsCache.publish();
+                    }
+                });
+            }
         }
 
         // Open up the connection manager for business.
@@ -677,13 +961,21 @@ public class DiskLog
     {
         // Release all connections.
         connectionManager.releaseAll();
+        seqnoIndexes.clear();
 
-        // Free lock on log file.
+        // Free lock on log file. Readers must poll once we stop writing.
         if (!readOnly)
+        {
+            writeNotifier.setLocalWriter(false);
             writeLock.release();
+        }
 
         // Terminate the log flush thread.
         stopLogSyncTask();
+
+        // Terminate group commit after connections have made their last
+        // commits.
+        stopGroupCommitTask();
     }
 
     // Start log sync task.
@@ -723,6 +1015,46 @@ public class DiskLog
         }
     }
 
+    // Start group commit task.
+    private void startGroupCommitTask()
+    {
+        if (groupCommit)
+        {
+            groupCommitter = new LogGroupCommitter(maxBatchLatencyMillis);
+            groupCommitThread = new Thread(groupCommitter, "log-commit-"
+                    + logDir.getName());
+            groupCommitThread.start();
+            logger.info("Started group commit thread: "
+                    + groupCommitThread.getName());
+        }
+    }
+
+    // Stop group commit task. Pending commits are flushed before the thread
+    // exits.
+    private void stopGroupCommitTask() throws InterruptedException
+    {
+        if (groupCommitThread != null)
+        {
+            logger.info("Stopping group commit thread: "
+                    + groupCommitThread.getName());
+            groupCommitter.cancel();
+            try
+            {
+                groupCommitThread.join(5000);
+            }
+            finally
+            {
+                if (groupCommitThread.isAlive())
+                {
+                    logger.warn("Unable to terminate group commit thread: "
+                            + groupCommitThread.getName());
+                    groupCommitThread.interrupt();
+                }
+                groupCommitThread = null;
+            }
+        }
+    }
+
     /**
      * Ensure the log sync tasks is running.
      */
@@ -734,6 +1066,13 @@ public class DiskLog
             stopLogSyncTask();
             startLogSyncTask();
         }
+
+        // Likewise for the group commit thread.
+        if (groupCommitter != null && groupCommitter.isFinished())
+        {
+            stopGroupCommitTask();
+            startGroupCommitTask();
+        }
     }
 
     // Log metadata.
@@ -870,7 +1209,14 @@ public class DiskLog
                             + dataFile.getFile().getName(), e);
         }
 
-        return startNewLogFile(seqno);
+        // Close the finished file so that its seqno index is complete on disk
+        // before readers can see the next file and cache the index.
+        dataFile.close();
+        LogFile newFile = startNewLogFile(seqno);
+
+        // Adding the file may have purged old files under retention.
+        seqnoIndexes.keySet().retainAll(Arrays.asList(index.getFileNames()));
+        return newFile;
     }
 
     /**
@@ -893,10 +1239,78 @@ public class DiskLog
         {
             LogFile logFile = new LogFile(logDir, name);
             logFile.setBufferSize(bufferSize);
+            logFile.setWriteNotifier(writeNotifier);
             return logFile;
         }
     }
 
+    /**
+     * Returns the seqno index for a log file or null if the index is disabled
+     * or unavailable. Missing indexes are rebuilt on demand for log files that
+     * are no longer being written, i.e., any file but the last one. The last
+     * file is indexed by the writer, so its index is loaded fresh on each call
+     * while indexes of other files are cached.
+     *
+     * @param logFile Log file for which we want an index
+     * @return An index or null
+     */
+    LogSeqnoIndex getSeqnoIndex(LogFile logFile) throws ReplicatorException,
+            InterruptedException
+    {
+        if (seqnoIndexInterval <= 0)
+            return null;
+
+        File dataFile = logFile.getFile();
+        String name = dataFile.getName();
+        boolean lastFile = name.equals(index.getLastFile());
+        if (!lastFile)
+        {
+            LogSeqnoIndex cached = seqnoIndexes.get(name);
+            if (cached != null)
+                return cached;
+        }
+
+        LogSeqnoIndex seqnoIndex = new LogSeqnoIndex(dataFile,
+                seqnoIndexInterval);
+        if (seqnoIndex.load())
+        {
+            if (!lastFile)
+                seqnoIndexes.put(name, seqnoIndex);
+            return seqnoIndex;
+        }
+        else if (lastFile)
+            return null;
+
+        try
+        {
+            logger.info("Rebuilding missing seqno index for log file: "
+                    + dataFile.getName());
+            seqnoIndex = LogSeqnoIndex.build(dataFile, bufferSize,
+                    seqnoIndexInterval);
+        }
+        catch (IOException e)
+        {
+            logger.warn("Unable to rebuild seqno index for log file: file="
+                    + dataFile.getName() + " message=" + e.getMessage());
+            return null;
+        }
+
+        // Storing the index may fail for read-only clients like the thl
+        // utility that lack permission to write the log directory. We can
+        // still use the index in memory.
+        try
+        {
+            seqnoIndex.store();
+        }
+        catch (IOException e)
+        {
+            logger.warn("Unable to store rebuilt seqno index: file="
+                    + dataFile.getName() + " message=" + e.getMessage());
+        }
+        seqnoIndexes.put(name, seqnoIndex);
+        return seqnoIndex;
+    }
+
     /**
      * Returns the log file corresponding to the log file name.
      */
@@ -906,6 +1320,7 @@ public class DiskLog
         {
             LogFile logFile = new LogFile(logDir, name);
             logFile.setBufferSize(bufferSize);
+            logFile.setWriteNotifier(writeNotifier);
             return logFile;
         }
         else
@@ -939,6 +1354,7 @@ public class DiskLog
         {
             LogFile logFile = new LogFile(newFile);
             logFile.setBufferSize(bufferSize);
+            logFile.setWriteNotifier(writeNotifier);
             logFile.openRead();
             return logFile;
         }
@@ -1022,11 +1438,13 @@ public class DiskLog
     private void purgeFile(LogIndexEntry entry)
     {
         index.removeFile(entry.fileName);
+        seqnoIndexes.remove(entry.fileName);
         File f = new File(logDir, entry.fileName);
         if (!f.delete())
         {
             logger.warn("Unable to delete log file: " + f.getAbsolutePath());
         }
+        LogSeqnoIndex.deleteIndexFile(f);
     }
 
     // Truncates the file at a particular sequence number.
@@ -1050,7 +1468,7 @@ public class DiskLog
 
                 // See what kind of event we have.
                 byte recordType = currentRecord.getData()[0];
-                if (recordType == LogRecord.EVENT_REPL)
+                if (LogRecord.isEventRepl(recordType))
                 {
                     LogEventReplReader eventReader = new LogEventReplReader(
                             currentRecord, eventSerializer, doChecksum);
@@ -1094,6 +1512,7 @@ public class DiskLog
         {
             if (logFile != null)
                 logFile.close();
+            seqnoIndexes.remove(entry.fileName);
         }
     }
 
@@ -1132,9 +1551,11 @@ public class DiskLog
         {
             data.setLogSyncTask(logSyncTask);
             data.setFlushIntervalMillis(flushIntervalMillis);
-            data.setFsyncOnFlush(readOnly);
+            data.setFsyncOnFlush(fsyncOnFlush);
+            data.setSeqnoIndexInterval(seqnoIndexInterval);
         }
         data.setBufferSize(bufferSize);
+        data.setWriteNotifier(writeNotifier);
 
         // Ensure the file exists.
         if (!data.getFile().exists())
@@ -1171,6 +1592,11 @@ public class DiskLog
         String logFileName = getDataFileName(fileIndex);
         LogFile dataFile = new LogFile(logDir, logFileName);
         dataFile.setBufferSize(bufferSize);
+        dataFile.setWriteNotifier(writeNotifier);
+        dataFile.setLogSyncTask(logSyncTask);
+        dataFile.setFlushIntervalMillis(flushIntervalMillis);
+        dataFile.setFsyncOnFlush(fsyncOnFlush);
+        dataFile.setSeqnoIndexInterval(seqnoIndexInterval);
         if (dataFile.getFile().exists())
         {
             throw new THLException("New log file exists already: "
@@ -0,0 +1,165 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.thl.log;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Tracks durability of a log commit that has been handed to a
+ * {@link LogGroupCommitter}. The future completes with the seqno of the last
+ * event stored at commit time once the log file has been flushed and, if
+ * enabled, fsync'ed. Callers that block on the future ask the committer to
+ * close the current batch at once rather than wait out the batch latency.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public class LogCommitFuture implements Future<Long>
+{
+    private final LogGroupCommitter committer;
+    private final LogFile           logFile;
+    private final long              seqno;
+
+    private boolean                 done;
+    private Throwable               failure;
+
+    /**
+     * Creates a future for a commit request.
+     * 
+     * @param committer Committer that will complete the request or null if it
+     *            is already complete
+     * @param logFile Log file to synchronize
+     * @param seqno Last seqno stored at commit time
+     */
+    LogCommitFuture(LogGroupCommitter committer, LogFile logFile, long seqno)
+    {
+        this.committer = committer;
+        this.logFile = logFile;
+        this.seqno = seqno;
+        this.done = (committer == null);
+    }
+
+    /** Returns the log file to synchronize. */
+    LogFile getLogFile()
+    {
+        return logFile;
+    }
+
+    /** Returns the seqno covered by this commit. */
+    public long getSeqno()
+    {
+        return seqno;
+    }
+
+    /**
+     * Marks the commit as complete and wakes up waiters.
+     * 
+     * @param failure Exception if synchronization failed, otherwise null
+     */
+    synchronized void complete(Throwable failure)
+    {
+        this.failure = failure;
+        this.done = true;
+        notifyAll();
+    }
+
+    /**
+     * Commits cannot be cancelled once submitted.
+     * 
+     * @see java.util.concurrent.Future#cancel(boolean)
+     */
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.util.concurrent.Future#isCancelled()
+     */
+    public boolean isCancelled()
+    {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.util.concurrent.Future#isDone()
+     */
+    public synchronized boolean isDone()
+    {
+        return done;
+    }
+
+    /**
+     * Waits until the commit is durable and returns its seqno.
+     * 
+     * @see java.util.concurrent.Future#get()
+     */
+    public synchronized Long get() throws InterruptedException,
+            ExecutionException
+    {
+        if (!done)
+            committer.expedite();
+        while (!done)
+            wait();
+        return result();
+    }
+
+    /**
+     * Waits up to the given time for the commit to become durable.
+     * 
+     * @see java.util.concurrent.Future#get(long,
+     *      java.util.concurrent.TimeUnit)
+     */
+    public synchronized Long get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException
+    {
+        if (!done)
+            committer.expedite();
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        while (!done)
+        {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+                throw new TimeoutException(
+                        "Timed out waiting for log commit: seqno=" + seqno);
+            wait(remaining);
+        }
+        return result();
+    }
+
+    // Returns the result of a completed commit.
+    private Long result() throws ExecutionException
+    {
+        if (failure != null)
+            throw new ExecutionException("Log commit failed: seqno=" + seqno,
+                    failure);
+        return seqno;
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl.log;
+
+import java.io.IOException;
+
+/**
+ * Denotes a class that compresses the serialized event payload of log
+ * records. Each implementation has a unique type code, which is stored in
+ * compressed records so that readers can find the matching compressor using
+ * {@link LogCompressorFactory}. Implementations must be thread-safe, as many
+ * log connections may decompress records at the same time.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public interface LogCompressor
+{
+    /**
+     * Returns the type code stored in records written by this compressor.
+     */
+    public byte getType();
+
+    /**
+     * Compresses bytes.
+     * 
+     * @param data Buffer containing bytes to compress
+     * @param offset Offset of first byte to compress
+     * @param length Number of bytes to compress
+     * @return Compressed bytes
+     */
+    public byte[] compress(byte[] data, int offset, int length)
+            throws IOException;
+
+    /**
+     * Decompresses bytes.
+     * 
+     * @param data Buffer containing compressed bytes
+     * @param offset Offset of first compressed byte
+     * @param length Number of compressed bytes
+     * @param uncompressedLength Length of the original data
+     * @return Decompressed bytes
+     */
+    public byte[] decompress(byte[] data, int offset, int length,
+            int uncompressedLength) throws IOException;
+}
@@ -0,0 +1,82 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl.log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Finds log compressors by the type code stored in compressed log records.
+ * The Deflater-based compressor is registered automatically. Logs that are
+ * configured with another compressor register it on startup.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public class LogCompressorFactory
+{
+    private static Logger                     logger      = Logger.getLogger(LogCompressorFactory.class);
+
+    private static final LogCompressorFactory instance    = new LogCompressorFactory();
+
+    private final Map<Byte, LogCompressor>    compressors = new HashMap<Byte, LogCompressor>();
+
+    // Private constructor for singleton.
+    private LogCompressorFactory()
+    {
+        register(new DeflateLogCompressor());
+    }
+
+    /** Returns the factory instance. */
+    public static LogCompressorFactory getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Registers a compressor so that records it writes may be read. A
+     * compressor replaces any previous compressor with the same type code.
+     */
+    public synchronized void register(LogCompressor compressor)
+    {
+        LogCompressor previous = compressors.put(compressor.getType(),
+                compressor);
+        if (previous != null
+                && previous.getClass() != compressor.getClass())
+        {
+            logger.warn("Replacing log compressor with same type code: type="
+                    + compressor.getType() + " old class="
+                    + previous.getClass().getName() + " new class="
+                    + compressor.getClass().getName());
+        }
+    }
+
+    /**
+     * Returns the compressor for a type code or null if there is none.
+     */
+    public synchronized LogCompressor getCompressor(byte type)
+    {
+        return compressors.get(type);
+    }
+}
@@ -24,12 +24,20 @@ package com.continuent.tungsten.replicator.thl.log;
 
 import java.io.IOException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.log4j.Logger;
 
 import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.thl.EventsCache;
 import com.continuent.tungsten.replicator.thl.THLEvent;
 import com.continuent.tungsten.replicator.thl.THLException;
+import com.continuent.tungsten.replicator.thl.serializer.ProtobufDBMSEvent;
+import com.continuent.tungsten.replicator.thl.serializer.ProtobufSerializer;
 import com.continuent.tungsten.replicator.thl.serializer.Serializer;
 
 /**
@@ -65,20 +73,34 @@ public class LogConnection
     private LogCursor          cursor;
     private THLEvent           pendingEvent;
     private long               pendingSeqno;
+    private String             pendingRotateFile;
+    private long               pendingRotateDeadline;
     private short              lastFragno    = -1;
     private long               writeCount    = 0;
     private long               readCount     = 0;
 
+    // Durability future of the most recent group commit, if any.
+    private LogCommitFuture    commitFuture;
+
+    // Cache of committed events and events stored since the last commit.
+    private EventsCache        eventsCache;
+    private List<THLEvent>     uncachedEvents;
+
     // Information required for successful output.
     private boolean            doChecksum;
     private Serializer         eventSerializer;
     private int                logFileSize;
     private int                timeoutMillis;
     private int                logRotateMillis;
+    private LogCompressor      compressor;
+    private int                compressMinBytes;
 
     // Filter used to decide whether to deserialize events on input.
     private LogEventReadFilter readFilter;
 
+    // If true, events returned by reads carry their log record.
+    private boolean            retainRecords;
+
     /**
      * Instantiates a client on a disk log.
      * 
@@ -100,6 +122,11 @@ public class LogConnection
         if (!readonly)
         {
             this.logFileSize = diskLog.getLogFileSize();
+            this.compressor = diskLog.getCompressor();
+            this.compressMinBytes = diskLog.getCompressMinBytes();
+            this.eventsCache = diskLog.getEventsCache();
+            if (eventsCache != null)
+                this.uncachedEvents = new ArrayList<THLEvent>();
         }
     }
 
@@ -120,6 +147,16 @@ public class LogConnection
         this.readFilter = readFilter;
     }
 
+    /**
+     * If true, events returned by reads carry the log record from which they
+     * were read. Together with a read filter this allows clients to pass on
+     * stored records without deserializing them.
+     */
+    public void setRetainRecords(boolean retainRecords)
+    {
+        this.retainRecords = retainRecords;
+    }
+
     /**
      * Sets the timeout in milliseconds for blocking reads on this connection.
      * The value overrides the read timeout for the log as a whole.
@@ -218,6 +255,7 @@ public class LogConnection
         }
         pendingEvent = null;
         pendingSeqno = UNINITIALIZED;
+        pendingRotateFile = null;
 
         // Find the log file that contains our sequence number.
         LogFile logFile = diskLog.getLogFile(seqno);
@@ -260,6 +298,18 @@ public class LogConnection
         // filtered events, which skip sequence numbers.
         LogRecord previousLogRecord = null;
 
+        // If the file has a seqno index, skip ahead to the closest indexed
+        // record before the one we want instead of scanning from the start.
+        try
+        {
+            positionFromIndex(logFile, seqno);
+        }
+        catch (IOException e)
+        {
+            throw new THLException("Failed to position log file using index",
+                    e);
+        }
+
         // Look for the sequence number we are trying to find.
         long lastSeqno = logFile.getBaseSeqno();
         while (true)
@@ -300,7 +350,7 @@ public class LogConnection
 
                 byte[] bytes = logRecord.getData();
                 byte recordType = bytes[0];
-                if (recordType == LogRecord.EVENT_REPL)
+                if (LogRecord.isEventRepl(recordType))
                 {
                     // We have an event. Check the header.
                     LogEventReplReader eventReader = new LogEventReplReader(
@@ -391,6 +441,39 @@ public class LogConnection
         return (pendingEvent != null);
     }
 
+    // Positions the log file on the closest indexed record before the seqno
+    // we are seeking. Index entries are hints, so we confirm the record at the
+    // indexed offset is an event with a lower seqno before using it.
+    private void positionFromIndex(LogFile logFile, long seqno)
+            throws ReplicatorException, InterruptedException, IOException
+    {
+        LogSeqnoIndex seqnoIndex = diskLog.getSeqnoIndex(logFile);
+        if (seqnoIndex == null)
+            return;
+        long offset = seqnoIndex.findOffset(seqno);
+        if (offset <= LogFile.HEADER_LENGTH)
+            return;
+
+        logFile.seekOffset(offset);
+        LogRecord logRecord = logFile.readRecord(0);
+        long indexedSeqno = LogSeqnoIndex.getEventSeqno(logRecord);
+        if (indexedSeqno >= 0 && indexedSeqno < seqno)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Using seqno index to skip ahead: file="
+                        + logFile.getFile().getName() + " offset=" + offset
+                        + " indexed seqno=" + indexedSeqno);
+            logFile.seekOffset(offset);
+        }
+        else
+        {
+            logger.warn("Seqno index does not match log file contents; "
+                    + "scanning from start of file: file="
+                    + logFile.getFile().getName() + " offset=" + offset);
+            logFile.seekOffset(LogFile.HEADER_LENGTH);
+        }
+    }
+
     // Deserialize the event we just found. This takes into consideration
     // the read filter, if present.
     private THLEvent deserialize(LogRecord logRecord)
@@ -417,6 +500,8 @@ public class LogConnection
                             eventReader.getSourceTStamp()),
                     eventReader.getEventId(), eventReader.getShardId(), null);
         }
+        if (retainRecords)
+            event.setLogRecord(logRecord);
 
         eventReader.done();
         return event;
@@ -483,7 +568,7 @@ public class LogConnection
         }
         if (pendingEvent != null)
             pendingEvent = null;
-
+        pendingRotateFile = null;
     }
 
     /**
@@ -518,6 +603,23 @@ public class LogConnection
             return event;
         }
 
+        // If a non-blocking read found a rotate event before the next file
+        // was visible, try again to open it. Retries are subject to the same
+        // rotation timeout as blocking reads.
+        if (pendingRotateFile != null)
+        {
+            LogFile nextFile = openRotatedFile(pendingRotateFile, block);
+            if (nextFile == null)
+            {
+                if (System.currentTimeMillis() >= pendingRotateDeadline)
+                    throw missingRotatedFile(pendingRotateFile);
+                return null;
+            }
+            pendingRotateFile = null;
+            cursor = new LogCursor(nextFile, -1);
+            cursor.setRotateNext(true);
+        }
+
         // Retrieve the log file and optionally note the name.
         LogFile data = cursor.getLogFile();
         if (logger.isDebugEnabled())
@@ -548,7 +650,7 @@ public class LogConnection
 
                 byte[] bytes = logRecord.getData();
                 byte recordType = bytes[0];
-                if (recordType == LogRecord.EVENT_REPL)
+                if (LogRecord.isEventRepl(recordType))
                 {
                     event = deserialize(logRecord);
                     if (event.getSeqno() < this.pendingSeqno)
@@ -587,39 +689,16 @@ public class LogConnection
                     // Release current cursor to free OS file descriptor.
                     cursor.release();
 
-                    // Attempt to open the next log file. This is subject to a
-                    // timeout as the log may be truncated after the current log
-                    // file or we may be reading an active log and just happen
-                    // to look for the next file before the writer can finish
-                    // flushing the first write to disk.
-                    int rotationTimeout = logRotateMillis;
-                    while (rotationTimeout > 0)
+                    // Attempt to open the next log file. Non-blocking reads
+                    // remember the file so that the next call can pick up
+                    // where we left off.
+                    data = openRotatedFile(newFileName, block);
+                    if (data == null)
                     {
-                        // Try to open file, exiting loop if successful.
-                        data = diskLog.getLogFileForReading(newFileName);
-                        if (data != null)
-                            break;
-
-                        // Non-blocking reads just return a null.
-                        if (data == null && !block)
-                        {
-                            // TODO: Reconnect to the log file, as we have just
-                            // messed up our position so that this call is not
-                            // idempotent.
-                            return null;
-                        }
-
-                        // Blocking reads sleep for 50ms.
-                        long startSleepMillis = System.currentTimeMillis();
-                        Thread.sleep(50);
-                        long sleepMillis = System.currentTimeMillis()
-                                - startSleepMillis;
-                        rotationTimeout -= sleepMillis;
-                        if (rotationTimeout <= 0)
-                            throw new LogTimeoutException(
-                                    "Read timed out while waiting for rotated log file; "
-                                            + "this may indicate log corruption: missing file="
-                                            + newFileName);
+                        pendingRotateFile = newFileName;
+                        pendingRotateDeadline = System.currentTimeMillis()
+                                + logRotateMillis;
+                        return null;
                     }
 
                     // Open cursor on next file.
@@ -658,6 +737,54 @@ public class LogConnection
         return event;
     }
 
+    /**
+     * Opens the log file that follows a rotate event. This is subject to a
+     * timeout as the log may be truncated after the current log file or we
+     * may be reading an active log and just happen to look for the next file
+     * before the writer can finish flushing the first write to disk.
+     * 
+     * @return The log file or null if it is not yet visible and we are not
+     *         blocking
+     */
+    private LogFile openRotatedFile(String fileName, boolean block)
+            throws ReplicatorException, InterruptedException
+    {
+        int rotationTimeout = logRotateMillis;
+        LogWriteNotifier writeNotifier = diskLog.getWriteNotifier();
+        while (true)
+        {
+            // Try to open file, exiting loop if successful. We note the
+            // notifier generation first so that a signal from the writer
+            // cannot slip past us.
+            long generation = writeNotifier.getGeneration();
+            LogFile data = diskLog.getLogFileForReading(fileName);
+            if (data != null)
+                return data;
+
+            // Non-blocking reads just return a null.
+            if (!block)
+                return null;
+
+            // Blocking reads wait for the writer to signal or for the
+            // fallback poll interval to expire.
+            long startSleepMillis = System.currentTimeMillis();
+            writeNotifier.await(generation, rotationTimeout);
+            long sleepMillis = System.currentTimeMillis() - startSleepMillis;
+            rotationTimeout -= sleepMillis;
+            if (rotationTimeout <= 0)
+                throw missingRotatedFile(fileName);
+        }
+    }
+
+    // Returns the exception for a rotated log file that did not appear.
+    private LogTimeoutException missingRotatedFile(String fileName)
+    {
+        return new LogTimeoutException(
+                "Read timed out while waiting for rotated log file; "
+                        + "this may indicate log corruption: missing file="
+                        + fileName);
+    }
+
     /**
      * Convenience method to return the next event with blocking enabled.
      * 
@@ -746,10 +873,21 @@ public class LogConnection
                 cursor = new LogCursor(dataFile, event.getSeqno());
             }
 
-            // Write the event to byte stream.
-            LogEventReplWriter eventWriter = new LogEventReplWriter(event,
-                    eventSerializer, doChecksum);
-            LogRecord logRecord = eventWriter.write();
+            // Write the event to byte stream, unless we received it from
+            // upstream as a log record we can store as is.
+            LogRecord logRecord = getRelayRecord(event);
+            if (logRecord == null)
+            {
+                LogEventReplWriter eventWriter = new LogEventReplWriter(event,
+                        eventSerializer, doChecksum, compressor,
+                        compressMinBytes);
+                logRecord = eventWriter.write();
+                if (compressor != null)
+                {
+                    diskLog.recordCompression(eventWriter.getPayloadLength(),
+                            eventWriter.getStoredPayloadLength());
+                }
+            }
 
             // Write to the file.
             dataFile.writeRecord(logRecord, logFileSize);
@@ -760,10 +898,19 @@ public class LogConnection
                 lastFragno = event.getFragno();
             writeCount++;
 
+            // Hold the event and its record for the cache until commit.
+            // Fragmented events are not cached.
+            if (eventsCache != null && event.getFragno() == 0
+                    && event.getLastFrag())
+            {
+                event.setLogRecord(logRecord);
+                uncachedEvents.add(event);
+            }
+
             // If it is time to commit, make it happen!
             if (commit)
             {
-                dataFile.flush();
+                commitLogFile(dataFile);
             }
         }
         catch (IOException e)
@@ -775,6 +922,36 @@ public class LogConnection
 
     }
 
+    /**
+     * Returns the log record from which an event was received if the record
+     * can be stored in place of a newly serialized one. This is only the case
+     * if the event has not been decoded or changed since it was received, its
+     * header matches the header in the record, and our log uses the same
+     * serializer. Records without a CRC get one if we
+     * use checksums; other records keep their upstream CRC and compression.
+     */
+    private LogRecord getRelayRecord(THLEvent event) throws IOException
+    {
+        if (!(eventSerializer instanceof ProtobufSerializer)
+                || !(event.getReplEvent() instanceof ReplDBMSEvent))
+            return null;
+        DBMSEvent dbmsEvent = ((ReplDBMSEvent) event.getReplEvent())
+                .getDBMSEvent();
+        if (!(dbmsEvent instanceof ProtobufDBMSEvent))
+            return null;
+        LogRecord sourceRecord = ((ProtobufDBMSEvent) dbmsEvent)
+                .getSourceRecord(event);
+        if (sourceRecord == null)
+            return null;
+        if (doChecksum && sourceRecord.getCrcType() == LogRecord.CRC_TYPE_NONE)
+        {
+            sourceRecord = new LogRecord(-1, sourceRecord.getData(),
+                    LogRecord.CRC_TYPE_NONE, 0);
+            sourceRecord.storeCrc(LogRecord.CRC_TYPE_32);
+        }
+        return sourceRecord;
+    }
+
     /**
      * Commit transactions stored in the log.
      */
@@ -790,7 +967,7 @@ public class LogConnection
             LogFile dataFile = cursor.getLogFile();
             try
             {
-                dataFile.flush();
+                commitLogFile(dataFile);
             }
             catch (IOException e)
             {
@@ -804,6 +981,80 @@ public class LogConnection
         }
     }
 
+    // Flushes the log file directly or hands it to the group commit task.
+    // Committed events are staged in the cache, which publishes them to
+    // readers when the log file is flushed. A flush may be deferred by the
+    // flush interval or by group commit, so readers never see events that
+    // are not yet durable.
+    private void commitLogFile(LogFile dataFile) throws IOException,
+            ReplicatorException, InterruptedException
+    {
+        if (eventsCache != null)
+        {
+            eventsCache.stage(uncachedEvents, diskLog.getMaxSeqno());
+            uncachedEvents.clear();
+        }
+
+        LogGroupCommitter groupCommitter = diskLog.getGroupCommitter();
+        if (groupCommitter == null)
+            dataFile.flush();
+        else
+        {
+            // Reuse the last request if nothing has been stored since, which
+            // avoids a second fsync when a store that commits is followed by
+            // an explicit commit.
+            long seqno = diskLog.getMaxSeqno();
+            if (commitFuture == null || commitFuture.getSeqno() != seqno
+                    || commitFuture.getLogFile() != dataFile)
+            {
+                commitFuture = groupCommitter.submit(dataFile, seqno);
+            }
+        }
+
+        // Publish at once if the data are already flushed, in which case no
+        // further flush will do it for us.
+        if (eventsCache != null && dataFile.isFlushed())
+        {
+            eventsCache.seal();
+            eventsCache.publish();
+        }
+    }
+
+    /**
+     * Returns a future that completes when the most recent commit is durable
+     * or null if there has been no group commit. Commits that do not use group
+     * commit are complete when the commit call returns.
+     */
+    public synchronized LogCommitFuture getCommitFuture()
+    {
+        return commitFuture;
+    }
+
+    /**
+     * Waits until the most recent commit is durable. This returns immediately
+     * unless group commit is enabled. Writers must call this before they
+     * record the log position elsewhere, since commit() itself only queues
+     * the fsync when group commit is enabled. Writers that wait after every
+     * commit close each batch at once and gain nothing from group commit.
+     */
+    public void waitForCommit() throws ReplicatorException,
+            InterruptedException
+    {
+        // Wait outside the connection monitor so that stores may continue.
+        LogCommitFuture future = getCommitFuture();
+        if (future == null)
+            return;
+        try
+        {
+            future.get();
+        }
+        catch (ExecutionException e)
+        {
+            throw new THLException("Group commit failed on log: seqno="
+                    + future.getSeqno(), e);
+        }
+    }
+
     /**
      * Rollback transactions stored in the log.
      */
@@ -821,6 +1072,14 @@ public class LogConnection
     {
         assertWritable();
         diskLog.delete(this, low, high);
+
+        // Cached events may no longer be in the log.
+        if (eventsCache != null)
+        {
+            uncachedEvents.clear();
+            eventsCache.clear();
+            eventsCache.setMaxSeqno(diskLog.getMaxSeqno());
+        }
     }
 
     // Ensure this is a writable connection.
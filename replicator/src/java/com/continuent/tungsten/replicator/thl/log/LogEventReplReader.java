@@ -22,6 +22,7 @@
 
 package com.continuent.tungsten.replicator.thl.log;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 
@@ -33,8 +34,9 @@ import com.continuent.tungsten.replicator.thl.serializer.Serializer;
 /**
  * This class encapsulates operations to read a log record header and serialized
  * THLEvent for an event. It automatically reads the header but does not
- * deserialize the event until asked to. You should call done() after use to
- * free resources.
+ * deserialize the event until asked to. Compressed payloads are likewise
+ * decompressed only when the event is deserialized. You should call done()
+ * after use to free resources.
  * 
  * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
  */
@@ -59,6 +61,10 @@ public class LogEventReplReader
     private String            shardId;
     private Long              sourceTStamp;
 
+    // Compression fields, which are set only for compressed records.
+    private byte              compressorType;
+    private int               uncompressedLength;
+
     /**
      * Instantiate the reader and load header information.
      */
@@ -99,7 +105,7 @@ public class LogEventReplReader
         // Read the header fields.
         dis = new DataInputStream(logRecord.read());
         recordType = dis.readByte();
-        if (recordType != LogRecord.EVENT_REPL)
+        if (!LogRecord.isEventRepl(recordType))
             throw new THLException("Invalid log record type reader: offset="
                     + logRecord.getOffset() + " type=" + recordType);
         seqno = dis.readLong();
@@ -110,6 +116,11 @@ public class LogEventReplReader
         eventId = dis.readUTF();
         shardId = dis.readUTF();
         sourceTStamp = dis.readLong();
+        if (recordType == LogRecord.EVENT_REPL_COMPRESSED)
+        {
+            compressorType = dis.readByte();
+            uncompressedLength = dis.readInt();
+        }
     }
 
     public LogRecord getLogRecord()
@@ -162,11 +173,21 @@ public class LogEventReplReader
         return sourceTStamp;
     }
 
+    /**
+     * Returns true if the event payload is compressed.
+     */
+    public boolean isCompressed()
+    {
+        return recordType == LogRecord.EVENT_REPL_COMPRESSED;
+    }
+
     /** Deserialize and return the event. */
     public THLEvent deserializeEvent() throws ReplicatorException
     {
         try
         {
+            if (isCompressed())
+                decompress();
             THLEvent thlEvent = serializer.deserializeEvent(dis);
             return thlEvent;
         }
@@ -176,6 +197,25 @@ public class LogEventReplReader
         }
     }
 
+    // Replaces the input stream with the decompressed payload.
+    private void decompress() throws ReplicatorException, IOException
+    {
+        LogCompressor compressor = LogCompressorFactory.getInstance()
+                .getCompressor(compressorType);
+        if (compressor == null)
+        {
+            throw new THLException(
+                    "Unable to find compressor for log record: offset="
+                            + logRecord.getOffset() + " seqno=" + seqno
+                            + " compressor type=" + compressorType);
+        }
+        byte[] data = logRecord.getData();
+        int length = dis.available();
+        byte[] payload = compressor.decompress(data, data.length - length,
+                length, uncompressedLength);
+        dis = new DataInputStream(new ByteArrayInputStream(payload));
+    }
+
     /** Release the log record. */
     public void done()
     {
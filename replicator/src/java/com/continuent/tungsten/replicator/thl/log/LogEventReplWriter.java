@@ -22,6 +22,7 @@
 
 package com.continuent.tungsten.replicator.thl.log;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 
@@ -32,7 +33,10 @@ import com.continuent.tungsten.replicator.thl.serializer.Serializer;
 
 /**
  * This class encapsulates operations to write a log record header and
- * serialized THLEvent. 
+ * serialized THLEvent. If a compressor is supplied, the serialized event is
+ * compressed and written as an {@link LogRecord#EVENT_REPL_COMPRESSED} record
+ * whenever that makes it smaller. The header is never compressed, so readers
+ * can always scan headers cheaply.
  * 
  * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
  */
@@ -42,16 +46,56 @@ public class LogEventReplWriter
     private THLEvent           event;
     private Serializer         serializer;
     private boolean            checkCRC;
+    private LogCompressor      compressor;
+    private int                compressMinBytes;
+
+    // Payload sizes of the last record written.
+    private int                payloadLength;
+    private int                storedPayloadLength;
 
     /**
      * Instantiate the writer. 
      */
     public LogEventReplWriter(THLEvent event, Serializer serializer,
             boolean checkCRC) throws ReplicatorException
+    {
+        this(event, serializer, checkCRC, null, 0);
+    }
+
+    /**
+     * Instantiate a writer that compresses event payloads.
+     * 
+     * @param compressor Compressor to use or null to disable compression
+     * @param compressMinBytes Payloads smaller than this are not compressed
+     */
+    public LogEventReplWriter(THLEvent event, Serializer serializer,
+            boolean checkCRC, LogCompressor compressor, int compressMinBytes)
+            throws ReplicatorException
     {
         this.event = event;
         this.serializer = serializer;
         this.checkCRC = checkCRC;
+        this.compressor = compressor;
+        this.compressMinBytes = compressMinBytes;
+    }
+
+    /**
+     * Returns the length of the serialized event in the last record written
+     * or -1 if it was not computed because compression is disabled.
+     */
+    public int getPayloadLength()
+    {
+        return payloadLength;
+    }
+
+    /**
+     * Returns the number of bytes used to store the serialized event in the
+     * last record written, which is less than the payload length if the
+     * payload was compressed.
+     */
+    public int getStoredPayloadLength()
+    {
+        return storedPayloadLength;
     }
 
     /**
@@ -62,8 +106,40 @@ public class LogEventReplWriter
         LogRecord logRecord = new LogRecord(-1, checkCRC);
         try
         {
+            // Serialize the payload separately if we might compress it.
+            byte[] payload = null;
+            byte[] compressed = null;
+            if (compressor != null)
+            {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                DataOutputStream pos = new DataOutputStream(baos);
+                serializer.serializeEvent(event, pos);
+                pos.flush();
+                payload = baos.toByteArray();
+                payloadLength = payload.length;
+                storedPayloadLength = payload.length;
+                if (payload.length >= compressMinBytes)
+                {
+                    compressed = compressor.compress(payload, 0,
+                            payload.length);
+                    // Compressed records store type and length in addition.
+                    if (compressed.length + 5 < payload.length)
+                        storedPayloadLength = compressed.length + 5;
+                    else
+                        compressed = null;
+                }
+            }
+            else
+            {
+                payloadLength = -1;
+                storedPayloadLength = -1;
+            }
+
             DataOutputStream dos = new DataOutputStream(logRecord.write());
-            dos.writeByte(LogRecord.EVENT_REPL);
+            if (compressed == null)
+                dos.writeByte(LogRecord.EVENT_REPL);
+            else
+                dos.writeByte(LogRecord.EVENT_REPL_COMPRESSED);
             dos.writeLong(event.getSeqno());
             dos.writeShort(event.getFragno());
             dos.writeByte((event.getLastFrag() ? 1 : 0));
@@ -72,8 +148,17 @@ public class LogEventReplWriter
             dos.writeUTF(event.getEventId());
             dos.writeUTF(event.getShardId());
             dos.writeLong(event.getSourceTstamp().getTime());
-            
-            serializer.serializeEvent(event, dos);
+
+            if (compressed != null)
+            {
+                dos.writeByte(compressor.getType());
+                dos.writeInt(payload.length);
+                dos.write(compressed);
+            }
+            else if (payload != null)
+                dos.write(payload);
+            else
+                serializer.serializeEvent(event, dos);
             dos.flush();
             logRecord.done();
 
@@ -92,4 +177,4 @@ public class LogEventReplWriter
         
         return logRecord;
     }
-}
\ No newline at end of file
+}
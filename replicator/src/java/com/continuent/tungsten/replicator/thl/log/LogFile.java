@@ -24,6 +24,7 @@ package com.continuent.tungsten.replicator.thl.log;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 
 import org.apache.log4j.Logger;
 
@@ -80,10 +81,17 @@ public class LogFile
     private long                   flushIntervalMillis = 0;
     /** If true, fsync when flushing. */
     private boolean                fsyncOnFlush        = false;
+    /**
+     * Bytes between seqno index entries when writing. 0 disables the index.
+     */
+    private long                   seqnoIndexInterval  = 0;
 
     // Log sync task.
     private LogFlushTask           logFlushTask        = null;
 
+    // Notifier used to signal and wait for new data.
+    private LogWriteNotifier       writeNotifier       = null;
+
     // Current access mode.
     private AccessMode             mode                = null;
 
@@ -95,6 +103,8 @@ public class LogFile
     private long                   nextFlushMillis     = 0;
     private long                   baseSeqno;
     private boolean                needsFlush;
+    private boolean                syncing;
+    private LogSeqnoIndex          seqnoIndex;
 
     /**
      * Creates a file from a parent directory and child filename. The file must
@@ -141,6 +151,16 @@ public class LogFile
         this.logFlushTask = logFlushTask;
     }
 
+    /**
+     * Sets the notifier used to tell readers that new data are visible. If
+     * set, readers wait on the notifier instead of sleeping between checks
+     * for new data.
+     */
+    public synchronized void setWriteNotifier(LogWriteNotifier writeNotifier)
+    {
+        this.writeNotifier = writeNotifier;
+    }
+
     public synchronized long getFlushIntervalMillis()
     {
         return flushIntervalMillis;
@@ -171,6 +191,20 @@ public class LogFile
         this.bufferSize = bufferSize;
     }
 
+    public synchronized long getSeqnoIndexInterval()
+    {
+        return seqnoIndexInterval;
+    }
+
+    /**
+     * Sets the number of bytes between entries in the seqno index that is
+     * maintained while writing. 0 disables the index.
+     */
+    public synchronized void setSeqnoIndexInterval(long seqnoIndexInterval)
+    {
+        this.seqnoIndexInterval = seqnoIndexInterval;
+    }
+
     // API Calls for opening and closing log files.
 
     /**
@@ -242,6 +276,32 @@ public class LogFile
         // Set access mode.
         mode = AccessMode.write;
 
+        // Open the seqno index for appending. If the index is missing we
+        // rebuild it from the file contents. Entries past the end of the file
+        // may be left behind by a crash, so we trim them.
+        if (seqnoIndexInterval > 0)
+        {
+            try
+            {
+                seqnoIndex = new LogSeqnoIndex(file, seqnoIndexInterval);
+                if (!seqnoIndex.load())
+                {
+                    logger.info("Rebuilding seqno index for log file: "
+                            + file.getName());
+                    seqnoIndex = LogSeqnoIndex.build(file, bufferSize,
+                            seqnoIndexInterval);
+                    seqnoIndex.store();
+                }
+                seqnoIndex.truncate(dataOutput.getOffset());
+                seqnoIndex.openAppend();
+            }
+            catch (IOException e)
+            {
+                throw new THLException("Unable to open seqno index for log file: "
+                        + file.getName(), e);
+            }
+        }
+
         // Register with log sync task.
         if (logFlushTask != null)
             logFlushTask.addLogFile(this);
@@ -294,6 +354,22 @@ public class LogFile
         // Set base sequence number.
         baseSeqno = seqno;
 
+        // Start a new seqno index, replacing any stale index file.
+        if (seqnoIndexInterval > 0)
+        {
+            try
+            {
+                seqnoIndex = new LogSeqnoIndex(file, seqnoIndexInterval);
+                seqnoIndex.store();
+                seqnoIndex.openAppend();
+            }
+            catch (IOException e)
+            {
+                throw new THLException("Unable to create seqno index for log file: "
+                        + file.getName(), e);
+            }
+        }
+
         // Register with log sync task.
         if (logFlushTask != null)
             logFlushTask.addLogFile(this);
@@ -323,8 +399,34 @@ public class LogFile
                 {
                     if (logFlushTask != null)
                         logFlushTask.removeLogFile(this);
+                    if (fsyncOnFlush && (needsFlush || syncing))
+                    {
+                        // Pending commits must be durable once the file is
+                        // closed, e.g., after rotation. This includes data
+                        // flushed by a sync that closing will interrupt.
+                        try
+                        {
+                            dataOutput.fsync();
+                        }
+                        catch (IOException e)
+                        {
+                            logger.warn("Unable to fsync log file on close: file="
+                                    + file.getName() + " exception="
+                                    + e.getMessage());
+                        }
+                    }
                     dataOutput.close();
                     dataOutput = null;
+                    if (writeNotifier != null)
+                    {
+                        writeNotifier.flushed();
+                        writeNotifier.advance();
+                    }
+                }
+                if (seqnoIndex != null)
+                {
+                    seqnoIndex.close();
+                    seqnoIndex = null;
                 }
             }
             mode = null;
@@ -344,7 +446,7 @@ public class LogFile
 
         try
         {
-            bfdi.waitAvailable(HEADER_LENGTH, HEADER_WAIT_MILLIS);
+            waitAvailable(bfdi, HEADER_LENGTH, HEADER_WAIT_MILLIS);
             magic = bfdi.readInt();
             major = bfdi.readShort();
             minor = bfdi.readShort();
@@ -505,8 +607,8 @@ public class LogFile
 
         // Read record length.
         long startIntervalMillis = System.currentTimeMillis();
-        long available = dataInput
-                .waitAvailable(RECORD_LENGTH_SIZE, waitMillis);
+        long available = waitAvailable(dataInput, RECORD_LENGTH_SIZE,
+                waitMillis);
         if (available < RECORD_LENGTH_SIZE)
         {
             // Reset input.
@@ -555,7 +657,8 @@ public class LogFile
         waitMillis = waitMillis
                 + (int) (startIntervalMillis - System.currentTimeMillis());
         int remainingRecordLength = recordLength - RECORD_LENGTH_SIZE;
-        available = dataInput.waitAvailable(remainingRecordLength, waitMillis);
+        available = waitAvailable(dataInput, remainingRecordLength,
+                waitMillis);
 
         if (available < remainingRecordLength)
         {
@@ -584,6 +687,32 @@ public class LogFile
         return new LogRecord(offset, bytesToRead, crcType, crc);
     }
 
+    /**
+     * Waits for a number of bytes to be available for a non-blocking read. If
+     * we have a write notifier, we wait for the writer to signal new data
+     * rather than sleeping. Otherwise we fall back to the sleep loop in the
+     * input stream.
+     */
+    private long waitAvailable(BufferedFileDataInput input, int requested,
+            int waitMillis) throws IOException, InterruptedException
+    {
+        if (writeNotifier == null)
+            return input.waitAvailable(requested, waitMillis);
+
+        long deadline = System.currentTimeMillis() + waitMillis;
+        while (true)
+        {
+            // Fetch the generation before checking so we cannot miss a
+            // signal that arrives between the check and the wait.
+            long generation = writeNotifier.getGeneration();
+            long available = input.waitAvailable(requested, 0);
+            long remaining = deadline - System.currentTimeMillis();
+            if (available >= requested || remaining <= 0)
+                return available;
+            writeNotifier.await(generation, remaining);
+        }
+    }
+
     /** Reads a single short. */
     protected short readShort() throws IOException, ReplicatorException,
             InterruptedException
@@ -622,6 +751,8 @@ public class LogFile
         try
         {
             dataOutput.setLength(length);
+            if (seqnoIndex != null)
+                seqnoIndex.truncate(length);
         }
         catch (IOException e)
         {
@@ -664,11 +795,20 @@ public class LogFile
     {
         // Write the length followed by the code.
         assertWriteMode();
+        long offset = dataOutput.getOffset();
         dataOutput.writeInt((int) record.getRecordLength());
         dataOutput.write(record.getData());
         dataOutput.writeByte(record.getCrcType());
         dataOutput.writeLong(record.getCrc());
 
+        // Add event records to the seqno index.
+        if (seqnoIndex != null)
+        {
+            long seqno = LogSeqnoIndex.getEventSeqno(record);
+            if (seqno >= 0)
+                seqnoIndex.add(seqno, offset);
+        }
+
         // Record that we need a flush.
         needsFlush = true;
 
@@ -714,6 +854,62 @@ public class LogFile
         }
     }
 
+    /**
+     * Flushes file writes immediately, ignoring the flush interval. If fsync is
+     * enabled, returns the file channel, which the caller must force and then
+     * call {@link #endSync(boolean)}. The caller forces the channel without
+     * holding the monitor of this file so that writers are not blocked during
+     * the fsync. Returns null if no fsync is required. Files that are already
+     * closed were synchronized when they were closed, so this call does
+     * nothing for them.
+     */
+    public synchronized FileChannel beginSync() throws IOException
+    {
+        if (!needsFlush || mode != AccessMode.write)
+            return null;
+        if (!fsyncOnFlush)
+        {
+            flushPrivate();
+            return null;
+        }
+
+        dataOutput.flush();
+        if (seqnoIndex != null)
+            seqnoIndex.flush();
+        if (writeNotifier != null)
+            writeNotifier.flushed();
+
+        nextFlushMillis = System.currentTimeMillis() + this.flushIntervalMillis;
+        needsFlush = false;
+        syncing = true;
+        return dataOutput.getChannel();
+    }
+
+    /**
+     * Completes a sync started by {@link #beginSync()} and publishes the
+     * synchronized data to readers. If the sync failed, the file is marked
+     * as needing a flush so that the next flush repeats the fsync.
+     * 
+     * @param synced True if the channel was forced successfully
+     */
+    public synchronized void endSync(boolean synced)
+    {
+        syncing = false;
+        if (!synced)
+            needsFlush = true;
+        else if (writeNotifier != null)
+            writeNotifier.advance();
+    }
+
+    /**
+     * Returns true if all records written to the file have been flushed and
+     * no sync of flushed records is in progress.
+     */
+    public synchronized boolean isFlushed()
+    {
+        return !needsFlush && !syncing;
+    }
+
     // Perform actual flush/fsync call.
     private void flushPrivate() throws IOException
     {
@@ -721,6 +917,13 @@ public class LogFile
             dataOutput.fsync();
         else
             dataOutput.flush();
+        if (seqnoIndex != null)
+            seqnoIndex.flush();
+        if (writeNotifier != null)
+        {
+            writeNotifier.flushed();
+            writeNotifier.advance();
+        }
 
         nextFlushMillis = System.currentTimeMillis() + this.flushIntervalMillis;
         needsFlush = false;
@@ -0,0 +1,295 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.thl.log;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Implements group commit on a disk log. Writers submit commit requests and
+ * receive a {@link LogCommitFuture} instead of flushing the log file
+ * themselves. This task accumulates requests for up to maxBatchLatencyMillis
+ * after the first request of a batch arrives, then issues a single flush (and
+ * fsync, if enabled) on each affected log file and completes all futures in
+ * the batch. A caller that blocks on a future closes the batch immediately,
+ * so synchronous commits never wait out the latency.
+ * <p>
+ * Concurrency note: Log file synchronization occurs outside the monitor of
+ * this class so that writers may continue to submit requests while an fsync
+ * is in progress. Each log file is flushed while holding its monitor, but the
+ * fsync itself forces the file channel outside of it, so writers may also
+ * continue to write records to the file during the fsync.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public class LogGroupCommitter implements Runnable
+{
+    private static Logger         logger      = Logger.getLogger(LogGroupCommitter.class);
+
+    private final long            maxBatchLatencyMillis;
+
+    // Requests waiting for the next batch.
+    private List<LogCommitFuture> pending     = new ArrayList<LogCommitFuture>();
+    private long                  firstPendingMillis;
+    private boolean               expedite    = false;
+
+    private volatile boolean      cancelled   = false;
+    private volatile boolean      finished    = false;
+
+    // Statistics.
+    private AtomicLong            batchCount  = new AtomicLong();
+    private AtomicLong            commitCount = new AtomicLong();
+
+    /**
+     * Creates a new group commit task.
+     * 
+     * @param maxBatchLatencyMillis Maximum time a commit request may wait for
+     *            other requests to join its batch
+     */
+    public LogGroupCommitter(long maxBatchLatencyMillis)
+    {
+        this.maxBatchLatencyMillis = maxBatchLatencyMillis;
+    }
+
+    /**
+     * Submits a commit request on a log file.
+     * 
+     * @param logFile Log file containing the committed records
+     * @param seqno Last seqno stored at commit time
+     * @return A future that completes when the commit is durable
+     */
+    public LogCommitFuture submit(LogFile logFile, long seqno)
+    {
+        LogCommitFuture future = new LogCommitFuture(this, logFile, seqno);
+        synchronized (this)
+        {
+            if (!finished)
+            {
+                if (pending.isEmpty())
+                {
+                    firstPendingMillis = System.currentTimeMillis();
+                    notifyAll();
+                }
+                pending.add(future);
+                return future;
+            }
+        }
+
+        // The task has ended, so commit in the caller's thread.
+        List<LogCommitFuture> batch = new ArrayList<LogCommitFuture>(1);
+        batch.add(future);
+        commitBatch(batch);
+        return future;
+    }
+
+    /**
+     * Closes the current batch without waiting for the batch latency to
+     * expire.
+     */
+    public synchronized void expedite()
+    {
+        expedite = true;
+        notifyAll();
+    }
+
+    /**
+     * Commits batches until cancelled. Requests that are pending at
+     * cancellation are committed before the task ends.
+     */
+    public void run()
+    {
+        logger.info("Log group commit task starting: "
+                + Thread.currentThread().getName() + " maxBatchLatencyMillis="
+                + maxBatchLatencyMillis);
+
+        try
+        {
+            List<LogCommitFuture> batch;
+            while ((batch = nextBatch()) != null)
+            {
+                commitBatch(batch);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            logger.info("Log group commit task cancelled by interrupt");
+        }
+        catch (Throwable t)
+        {
+            logger.error("Log group commit task failed due to exception: "
+                    + t.getMessage(), t);
+        }
+        finally
+        {
+            // Mark the task finished first so that new requests are
+            // committed by their callers, then commit whatever is left.
+            List<LogCommitFuture> remaining;
+            synchronized (this)
+            {
+                finished = true;
+                remaining = pending;
+                pending = new ArrayList<LogCommitFuture>();
+            }
+            commitBatch(remaining);
+        }
+
+        logger.info("Log group commit task ending: "
+                + Thread.currentThread().getName());
+    }
+
+    // Waits for the next batch to close. Returns null if the task is
+    // cancelled and there are no more requests.
+    private synchronized List<LogCommitFuture> nextBatch()
+            throws InterruptedException
+    {
+        while (pending.isEmpty() && !cancelled)
+            wait();
+        if (pending.isEmpty())
+            return null;
+
+        // Give other requests a chance to join the batch.
+        long deadline = firstPendingMillis + maxBatchLatencyMillis;
+        long now;
+        while (!expedite && !cancelled
+                && (now = System.currentTimeMillis()) < deadline)
+        {
+            wait(deadline - now);
+        }
+
+        List<LogCommitFuture> batch = pending;
+        pending = new ArrayList<LogCommitFuture>();
+        expedite = false;
+        return batch;
+    }
+
+    // Synchronizes each log file in the batch once and completes the futures.
+    // Files are synchronized in the order they were first committed.
+    private void commitBatch(List<LogCommitFuture> batch)
+    {
+        if (batch.isEmpty())
+            return;
+
+        Map<LogFile, Throwable> results = new IdentityHashMap<LogFile, Throwable>();
+        for (LogCommitFuture future : batch)
+        {
+            LogFile logFile = future.getLogFile();
+            if (!results.containsKey(logFile))
+            {
+                try
+                {
+                    sync(logFile);
+                    results.put(logFile, null);
+                }
+                catch (Throwable t)
+                {
+                    logger.error("Group commit failed on log file: name="
+                            + logFile.getFile().getName() + " seqno="
+                            + future.getSeqno(), t);
+                    results.put(logFile, t);
+                }
+            }
+        }
+
+        // Update statistics before waking callers so they see the batch.
+        batchCount.incrementAndGet();
+        commitCount.addAndGet(batch.size());
+        for (LogCommitFuture future : batch)
+            future.complete(results.get(future.getLogFile()));
+    }
+
+    // Flushes a log file and forces its channel outside the file monitor.
+    private void sync(LogFile logFile) throws IOException
+    {
+        FileChannel channel = logFile.beginSync();
+        if (channel == null)
+            return;
+
+        boolean synced = false;
+        try
+        {
+            channel.force(true);
+            synced = true;
+        }
+        catch (ClosedChannelException e)
+        {
+            // The file was closed or truncated during the fsync, both of
+            // which sync the file first.
+            synced = true;
+        }
+        finally
+        {
+            logFile.endSync(synced);
+        }
+    }
+
+    /**
+     * Signal that the task should end after committing pending requests.
+     */
+    public synchronized void cancel()
+    {
+        cancelled = true;
+        notifyAll();
+    }
+
+    /**
+     * Returns true if the task has completed.
+     */
+    public boolean isFinished()
+    {
+        return finished;
+    }
+
+    /** Returns the number of batches committed. */
+    public long getBatchCount()
+    {
+        return batchCount.get();
+    }
+
+    /** Returns the number of commit requests committed. */
+    public long getCommitCount()
+    {
+        return commitCount.get();
+    }
+
+    /**
+     * Returns the average number of commit requests per batch or 0 if nothing
+     * has been committed.
+     */
+    public double getAverageBatchSize()
+    {
+        long batches = batchCount.get();
+        if (batches == 0)
+            return 0;
+        else
+            return (double) commitCount.get() / batches;
+    }
+}
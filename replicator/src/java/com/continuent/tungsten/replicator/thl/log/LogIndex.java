@@ -179,7 +179,7 @@ public class LogIndex
                     LogRecord record1 = lf.readRecord(0);
                     if (!record1.isEmpty() && !record1.isTruncated())
                     {
-                        if (record1.getData()[0] == LogRecord.EVENT_REPL)
+                        if (LogRecord.isEventRepl(record1.getData()[0]))
                         {
                             LogEventReplReader eventReader = new LogEventReplReader(
                                     record1, null, false);
@@ -486,6 +486,8 @@ public class LogIndex
                     removeFile(file.getName());
 
                 FileCommands.deleteFiles(filesToPurge, false);
+                for (File file : filesToPurge)
+                    LogSeqnoIndex.deleteIndexFile(file);
             }
         }
     }
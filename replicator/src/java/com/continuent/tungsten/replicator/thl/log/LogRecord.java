@@ -43,28 +43,31 @@ public class LogRecord
      * Number of bytes in length field plus CRC. The record length is this
      * number plus the number of bytes of data (currently 4 + 1 + 8).
      */
-    public static final int       NON_DATA_BYTES = 13;
+    public static final int       NON_DATA_BYTES        = 13;
 
     /** Denotes record header information. */
-    public static final byte      EVENT_REPL     = 0x01;
+    public static final byte      EVENT_REPL            = 0x01;
 
     /** Denotes a replication event */
-    public static final byte      EVENT_ROTATE   = 0x02;
+    public static final byte      EVENT_ROTATE          = 0x02;
+
+    /** Denotes a replication event with a compressed payload. */
+    public static final byte      EVENT_REPL_COMPRESSED = 0x03;
 
     /** Record does not have a CRC computed. */
-    public static final byte      CRC_TYPE_NONE  = 0x00;
+    public static final byte      CRC_TYPE_NONE         = 0x00;
 
     /** Record uses conventional CRC-32 computed by Java CRC32 class. */
-    public static final byte      CRC_TYPE_32    = 0x01;
+    public static final byte      CRC_TYPE_32           = 0x01;
 
     private byte[]                data;
     private long                  offset;
     private byte                  crcType;
     private long                  crc;
-    private boolean               truncated      = false;
+    private boolean               truncated             = false;
 
     // Computed CRC from checkCRC() call.
-    private long                  computedCrc    = -1;
+    private long                  computedCrc           = -1;
 
     private ByteArrayInputStream  read;
     private ByteArrayOutputStream write;
@@ -102,6 +105,15 @@ public class LogRecord
         this.truncated = false;
     }
 
+    /**
+     * Returns true if the record type denotes a replication event, whether
+     * compressed or not.
+     */
+    public static boolean isEventRepl(byte recordType)
+    {
+        return recordType == EVENT_REPL || recordType == EVENT_REPL_COMPRESSED;
+    }
+
     /**
      * Returns the computed length of this record in the file, including length
      * field, data, and CRC.
@@ -0,0 +1,414 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl.log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.common.io.BufferedFileDataOutput;
+import com.continuent.tungsten.replicator.ReplicatorException;
+
+/**
+ * Implements a sparse index of sequence numbers to file offsets for a single
+ * log file. The index contains one entry for every <em>interval</em> bytes of
+ * log data and is persisted in a file alongside the log file it describes,
+ * e.g., thl.idx.0000000003 for thl.data.0000000003. Readers use the index to
+ * skip directly to a record close to the sequence number they are seeking
+ * instead of scanning the log file from the beginning.
+ * <p/>
+ * The index is only a hint. Entries must be validated against the log file
+ * before use, and a missing or damaged index file can always be rebuilt by
+ * scanning the log file. Instances are not thread-safe; the log file that owns
+ * an index for writing synchronizes access to it.
+ *
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public class LogSeqnoIndex
+{
+    private static Logger       logger                = Logger.getLogger(LogSeqnoIndex.class);
+
+    /** Prefix for index file names. Must not overlap with data file names. */
+    public static final String  INDEX_FILENAME_PREFIX = "thl.idx.";
+
+    // Bytes per index entry: seqno followed by offset.
+    private static final int    ENTRY_LENGTH          = 16;
+
+    // Buffer size for index file I/O. Index files are small.
+    private static final int    BUFFER_SIZE           = 8192;
+
+    private final File          indexFile;
+    private final long          intervalBytes;
+
+    // Index entries in ascending seqno and offset order.
+    private long[]              seqnos                = new long[64];
+    private long[]              offsets               = new long[64];
+    private int                 size                  = 0;
+
+    // Output used when appending new entries.
+    private BufferedFileDataOutput output;
+
+    /**
+     * Creates an index instance for a log file. This does not touch the file
+     * system.
+     *
+     * @param dataFile The log file that is indexed
+     * @param intervalBytes Minimum number of bytes between index entries
+     */
+    public LogSeqnoIndex(File dataFile, long intervalBytes)
+    {
+        this.indexFile = getIndexFile(dataFile);
+        this.intervalBytes = intervalBytes;
+    }
+
+    /**
+     * Returns the index file that corresponds to a log file.
+     */
+    public static File getIndexFile(File dataFile)
+    {
+        String name = dataFile.getName();
+        String suffix = name.substring(name.lastIndexOf('.') + 1);
+        return new File(dataFile.getParentFile(), INDEX_FILENAME_PREFIX
+                + suffix);
+    }
+
+    /**
+     * Deletes the index file that corresponds to a log file, if it exists.
+     */
+    public static void deleteIndexFile(File dataFile)
+    {
+        File indexFile = getIndexFile(dataFile);
+        if (indexFile.exists() && !indexFile.delete())
+        {
+            logger.warn("Unable to delete log index file: "
+                    + indexFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Builds an index by scanning an existing log file from the beginning.
+     * Scanning stops at the first empty or truncated record or at a rotate
+     * log event.
+     *
+     * @param dataFile Log file to scan
+     * @param bufferSize I/O buffer size for reading the log file
+     * @param intervalBytes Minimum number of bytes between index entries
+     * @return A populated in-memory index
+     */
+    public static LogSeqnoIndex build(File dataFile, int bufferSize,
+            long intervalBytes) throws ReplicatorException,
+            InterruptedException, IOException
+    {
+        LogSeqnoIndex seqnoIndex = new LogSeqnoIndex(dataFile, intervalBytes);
+        LogFile logFile = new LogFile(dataFile);
+        logFile.setBufferSize(bufferSize);
+        try
+        {
+            logFile.openRead();
+            LogRecord logRecord = logFile.readRecord(0);
+            while (!logRecord.isEmpty())
+            {
+                long seqno = getEventSeqno(logRecord);
+                if (seqno < 0)
+                    break;
+                seqnoIndex.add(seqno, logRecord.getOffset());
+                logRecord = logFile.readRecord(0);
+            }
+        }
+        finally
+        {
+            logFile.close();
+        }
+
+        if (logger.isDebugEnabled())
+            logger.debug("Built log index: file=" + dataFile.getName()
+                    + " entries=" + seqnoIndex.size());
+        return seqnoIndex;
+    }
+
+    /**
+     * Returns the sequence number of an event log record by decoding it
+     * directly from the record header or -1 if the record is not a replication
+     * event. The header layout is defined by {@link LogEventReplWriter}: a
+     * record type byte followed by the seqno as a long.
+     */
+    static long getEventSeqno(LogRecord logRecord)
+    {
+        byte[] data = logRecord.getData();
+        if (data == null || data.length < 9
+                || !LogRecord.isEventRepl(data[0]))
+            return -1;
+        long seqno = 0;
+        for (int i = 1; i <= 8; i++)
+            seqno = (seqno << 8) | (data[i] & 0xFF);
+        return seqno;
+    }
+
+    /**
+     * Returns the number of entries in the index.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Loads the index from its file. Entries that are out of order cause the
+     * whole index to be rejected, as this indicates a damaged file. A partially
+     * written final entry is ignored.
+     *
+     * @return true if the index file exists and was loaded successfully
+     */
+    public boolean load()
+    {
+        size = 0;
+        if (!indexFile.exists())
+            return false;
+
+        DataInputStream dis = null;
+        try
+        {
+            dis = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(indexFile), BUFFER_SIZE));
+            long entries = indexFile.length() / ENTRY_LENGTH;
+            for (long i = 0; i < entries; i++)
+            {
+                long seqno = dis.readLong();
+                long offset = dis.readLong();
+                if (size > 0
+                        && (seqno < seqnos[size - 1] || offset <= offsets[size - 1]))
+                {
+                    logger.warn("Log index file contains out-of-order entries; ignoring: file="
+                            + indexFile.getAbsolutePath());
+                    size = 0;
+                    return false;
+                }
+                append(seqno, offset);
+            }
+            return true;
+        }
+        catch (EOFException e)
+        {
+            // File was truncated while we read it. Keep what we have.
+            return true;
+        }
+        catch (IOException e)
+        {
+            logger.warn("Unable to read log index file: file="
+                    + indexFile.getAbsolutePath() + " message="
+                    + e.getMessage());
+            size = 0;
+            return false;
+        }
+        finally
+        {
+            if (dis != null)
+            {
+                try
+                {
+                    dis.close();
+                }
+                catch (IOException e)
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the full in-memory index to a new index file, replacing any
+     * previous file. The file is written under a temporary name and renamed so
+     * that concurrent readers never see a partial file.
+     */
+    public void store() throws IOException
+    {
+        File tempFile = new File(indexFile.getParentFile(), indexFile.getName()
+                + ".tmp");
+        if (tempFile.exists() && !tempFile.delete())
+            throw new IOException("Unable to remove temporary index file: "
+                    + tempFile.getAbsolutePath());
+
+        BufferedFileDataOutput tempOutput = new BufferedFileDataOutput(
+                tempFile, BUFFER_SIZE);
+        try
+        {
+            for (int i = 0; i < size; i++)
+            {
+                tempOutput.writeLong(seqnos[i]);
+                tempOutput.writeLong(offsets[i]);
+            }
+            tempOutput.flush();
+        }
+        finally
+        {
+            tempOutput.close();
+        }
+
+        if (indexFile.exists() && !indexFile.delete())
+            throw new IOException("Unable to remove old index file: "
+                    + indexFile.getAbsolutePath());
+        if (!tempFile.renameTo(indexFile))
+            throw new IOException("Unable to rename temporary index file: "
+                    + tempFile.getAbsolutePath());
+    }
+
+    /**
+     * Opens the index file for appending new entries, creating it if it does
+     * not exist.
+     */
+    public void openAppend() throws IOException
+    {
+        close();
+        output = new BufferedFileDataOutput(indexFile, BUFFER_SIZE);
+    }
+
+    /**
+     * Adds an entry for a record if it is at least one interval beyond the
+     * previous entry. Records that fall within the interval are skipped, which
+     * keeps the index sparse.
+     *
+     * @param seqno Sequence number of the record
+     * @param offset Offset of the start of the record in the log file
+     */
+    public void add(long seqno, long offset) throws IOException
+    {
+        long lastOffset = (size == 0) ? LogFile.HEADER_LENGTH
+                : offsets[size - 1];
+        if (offset - lastOffset < intervalBytes)
+            return;
+        if (size > 0 && seqno < seqnos[size - 1])
+            return;
+
+        append(seqno, offset);
+        if (output != null)
+        {
+            output.writeLong(seqno);
+            output.writeLong(offset);
+        }
+    }
+
+    /**
+     * Returns the offset of the last indexed record whose sequence number is
+     * strictly lower than the requested value or -1 if there is no such
+     * record. Readers that start at this offset are guaranteed to see the
+     * preceding event before the one they seek, which preserves the handling
+     * of filtered events.
+     */
+    public long findOffset(long seqno)
+    {
+        int low = 0;
+        int high = size - 1;
+        int found = -1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            if (seqnos[mid] < seqno)
+            {
+                found = mid;
+                low = mid + 1;
+            }
+            else
+                high = mid - 1;
+        }
+        return (found < 0) ? -1 : offsets[found];
+    }
+
+    /**
+     * Drops entries at or beyond a given length and rewrites the index file.
+     * This must be called whenever the log file is truncated.
+     *
+     * @param length New length of the log file
+     */
+    public void truncate(long length) throws IOException
+    {
+        int newSize = size;
+        while (newSize > 0 && offsets[newSize - 1] >= length)
+            newSize--;
+        if (newSize == size)
+            return;
+
+        size = newSize;
+        boolean appending = (output != null);
+        close();
+        store();
+        if (appending)
+            openAppend();
+    }
+
+    /**
+     * Flushes buffered entries to the index file. Entries are not synced to
+     * disk as readers always validate them against the log file.
+     */
+    public void flush() throws IOException
+    {
+        if (output != null)
+            output.flush();
+    }
+
+    /**
+     * Closes the index file if it is open for appending.
+     */
+    public void close()
+    {
+        if (output != null)
+        {
+            output.close();
+            output = null;
+        }
+    }
+
+    // Append an entry to in-memory arrays, growing them as needed.
+    private void append(long seqno, long offset)
+    {
+        if (size == seqnos.length)
+        {
+            long[] newSeqnos = new long[size * 2];
+            long[] newOffsets = new long[size * 2];
+            System.arraycopy(seqnos, 0, newSeqnos, 0, size);
+            System.arraycopy(offsets, 0, newOffsets, 0, size);
+            seqnos = newSeqnos;
+            offsets = newOffsets;
+        }
+        seqnos[size] = seqno;
+        offsets[size] = offset;
+        size++;
+    }
+
+    /**
+     * Returns a short description of the index.
+     */
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append(this.getClass().getSimpleName()).append(": ");
+        sb.append("file=").append(indexFile.getName());
+        sb.append(" entries=").append(size);
+        sb.append(" intervalBytes=").append(intervalBytes);
+        return sb.toString();
+    }
+}
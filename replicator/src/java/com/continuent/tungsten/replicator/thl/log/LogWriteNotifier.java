@@ -0,0 +1,173 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl.log;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Signals readers of a disk log that the writer has made new data visible,
+ * either by flushing a log file or by closing it after a rotation. Readers
+ * take the current generation number, check the log for data, and wait for
+ * the generation to change if there is nothing to read. This avoids lost
+ * wake-ups without holding locks across file I/O.
+ * <p/>
+ * Signals only reach readers in the same process as the writer. A writer in
+ * this process registers itself with {@link #setLocalWriter(boolean)}. Without
+ * one the log is written by another process, so readers never wait longer
+ * than {@link #FALLBACK_POLL_MILLIS} before checking the file again.
+ * <p/>
+ * Readers that cannot block, such as selector threads, may register a
+ * listener that is called each time the generation advances. Writers that
+ * sync a log file outside of its monitor call {@link #flushed()} when the
+ * data are flushed and {@link #advance()} once the sync completes, so that
+ * flush listeners can mark what the sync will make durable.
+ *
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public class LogWriteNotifier
+{
+    /** Maximum time to wait before re-checking a log file for data. */
+    public static final long     FALLBACK_POLL_MILLIS = 50;
+
+    private long                 generation           = 0;
+    private boolean              localWriter          = false;
+    private final List<Runnable> listeners            = new CopyOnWriteArrayList<Runnable>();
+    private final List<Runnable> flushListeners       = new CopyOnWriteArrayList<Runnable>();
+
+    /**
+     * Returns the current generation, which increments each time the writer
+     * publishes new data.
+     */
+    public synchronized long getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * Records whether a writer in this process signals new data. Waiting
+     * threads are woken so that they apply the new poll interval.
+     */
+    public synchronized void setLocalWriter(boolean localWriter)
+    {
+        this.localWriter = localWriter;
+        notifyAll();
+    }
+
+    /**
+     * Returns true if a writer in this process signals new data.
+     */
+    public synchronized boolean isLocalWriter()
+    {
+        return localWriter;
+    }
+
+    /**
+     * Returns how long a reader may wait before checking the log itself,
+     * which is the full wait if a local writer signals new data and no more
+     * than {@link #FALLBACK_POLL_MILLIS} otherwise.
+     *
+     * @param waitMillis Time the reader is prepared to wait
+     */
+    public synchronized long getPollMillis(long waitMillis)
+    {
+        if (localWriter)
+            return waitMillis;
+        else
+            return Math.min(waitMillis, FALLBACK_POLL_MILLIS);
+    }
+
+    /**
+     * Publishes new data to readers and wakes all waiting threads.
+     */
+    public synchronized void advance()
+    {
+        generation++;
+        notifyAll();
+        for (Runnable listener : listeners)
+            listener.run();
+    }
+
+    /**
+     * Signals that data written so far have been flushed to the log file. The
+     * data become visible to readers at the next call to {@link #advance()}.
+     * Writers call this while holding the monitor of the log file so that no
+     * data can be written between the flush and the signal.
+     */
+    public void flushed()
+    {
+        for (Runnable listener : flushListeners)
+            listener.run();
+    }
+
+    /**
+     * Adds a listener to call when data are flushed. Listeners run on the
+     * writer thread and must not block.
+     */
+    public void addFlushListener(Runnable listener)
+    {
+        flushListeners.add(listener);
+    }
+
+    /**
+     * Adds a listener to call when the generation advances. Listeners run on
+     * the writer thread and must not block.
+     */
+    public void addListener(Runnable listener)
+    {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added previously.
+     */
+    public void removeListener(Runnable listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Waits until the generation moves past a value previously returned by
+     * {@link #getGeneration()} or the wait time expires. The wait is capped at
+     * {@link #FALLBACK_POLL_MILLIS} unless a local writer is registered.
+     *
+     * @param lastGeneration Generation seen before checking for data
+     * @param waitMillis Maximum time to wait
+     * @return true if the generation advanced
+     * @throws InterruptedException Thrown if we are interrupted
+     */
+    public synchronized boolean await(long lastGeneration, long waitMillis)
+            throws InterruptedException
+    {
+        long start = System.currentTimeMillis();
+        while (generation == lastGeneration)
+        {
+            long remaining = start + getPollMillis(waitMillis)
+                    - System.currentTimeMillis();
+            if (remaining <= 0)
+                break;
+            wait(remaining);
+        }
+        return generation != lastGeneration;
+    }
+}
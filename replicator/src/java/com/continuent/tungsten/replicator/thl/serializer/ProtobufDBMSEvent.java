@@ -0,0 +1,265 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.thl.serializer;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplOption;
+import com.continuent.tungsten.replicator.thl.THLEvent;
+import com.continuent.tungsten.replicator.thl.log.LogRecord;
+
+/**
+ * Implements a DBMSEvent whose row changes and statements are held in their
+ * serialized protobuf form until somebody first asks for them. Metadata and
+ * options are decoded up front, which allows filters and tools that only look
+ * at metadata to skip the cost of decoding the event body entirely.
+ * <p>
+ * Events received from upstream as log records may also retain the source
+ * record, which allows a relay to store the record as is. The source record is
+ * dropped as soon as the event is decoded or its metadata or options may have
+ * changed, because the record would then no longer match the event. This
+ * includes handing out the live metadata and option lists. The record is also
+ * withheld from events whose header differs from the header in the record.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public class ProtobufDBMSEvent extends DBMSEvent
+{
+    private static final long            serialVersionUID = 1L;
+
+    // Serialized event body and the serializer that can decode it. Both are
+    // cleared once the body is decoded.
+    private transient byte[]             body;
+    private transient ProtobufSerializer serializer;
+
+    // Decoded changes.
+    private ArrayList<DBMSData>          data;
+
+    // Log record from which the event was read, if it may be relayed, and
+    // the event header as read from that record.
+    private transient LogRecord          sourceRecord;
+    private transient THLEvent           sourceHeader;
+
+    /**
+     * Creates a new event whose body will be decoded on first access.
+     * 
+     * @param id Native transaction ID
+     * @param sourceTstamp Time of the transaction
+     * @param body Serialized ProtobufReplDBMSEvent body
+     * @param serializer Serializer used to decode the body
+     */
+    ProtobufDBMSEvent(String id, Timestamp sourceTstamp, byte[] body,
+            ProtobufSerializer serializer)
+    {
+        super(id, null, null, sourceTstamp);
+        this.body = body;
+        this.serializer = serializer;
+    }
+
+    /**
+     * Returns true if the event body has been decoded.
+     */
+    public synchronized boolean isDecoded()
+    {
+        return body == null;
+    }
+
+    /**
+     * Retains the log record from which this event was read so that it may be
+     * stored again without serializing the event.
+     * 
+     * @param sourceRecord Log record containing the event
+     * @param sourceHeader THL event read from the record, which holds the
+     *            header values stored in it
+     */
+    public synchronized void setSourceRecord(LogRecord sourceRecord,
+            THLEvent sourceHeader)
+    {
+        this.sourceRecord = sourceRecord;
+        this.sourceHeader = sourceHeader;
+    }
+
+    /**
+     * Returns the log record from which this event was read if it may be
+     * stored for the given THL event. Returns null if there is no record, the
+     * event has been decoded or changed since, or the header of the THL event
+     * differs from the header in the record.
+     * 
+     * @param thlEvent THL event that contains this event
+     */
+    public synchronized LogRecord getSourceRecord(THLEvent thlEvent)
+    {
+        if (body == null || sourceRecord == null)
+            return null;
+        else if (!sameHeader(sourceHeader, thlEvent))
+            return null;
+        else
+            return sourceRecord;
+    }
+
+    // Returns true if the header values of both events are the same.
+    private static boolean sameHeader(THLEvent a, THLEvent b)
+    {
+        return a.getSeqno() == b.getSeqno() && a.getFragno() == b.getFragno()
+                && a.getLastFrag() == b.getLastFrag()
+                && a.getEpochNumber() == b.getEpochNumber()
+                && a.getType() == b.getType()
+                && equal(a.getSourceId(), b.getSourceId())
+                && equal(a.getEventId(), b.getEventId())
+                && equal(a.getShardId(), b.getShardId())
+                && equal(a.getSourceTstamp(), b.getSourceTstamp());
+    }
+
+    private static boolean equal(Object a, Object b)
+    {
+        return (a == null) ? b == null : a.equals(b);
+    }
+
+    /**
+     * Returns the live metadata list. Callers may change the list, so the
+     * source record is dropped.
+     * 
+     * @see com.continuent.tungsten.replicator.event.DBMSEvent#getMetadata()
+     */
+    public synchronized LinkedList<ReplOption> getMetadata()
+    {
+        sourceRecord = null;
+        return super.getMetadata();
+    }
+
+    /**
+     * Returns the live option list. Callers may change the list, so the source
+     * record is dropped.
+     * 
+     * @see com.continuent.tungsten.replicator.event.DBMSEvent#getOptions()
+     */
+    public synchronized List<ReplOption> getOptions()
+    {
+        sourceRecord = null;
+        return super.getOptions();
+    }
+
+    /**
+     * Decodes the event body if this has not already happened.
+     * 
+     * @throws IOException Thrown if the body cannot be deserialized
+     */
+    public synchronized void decode() throws IOException
+    {
+        if (body != null)
+        {
+            data = serializer.deserializeChanges(body);
+            body = null;
+            serializer = null;
+            sourceRecord = null;
+        }
+    }
+
+    /**
+     * Returns all database updates, decoding them first if necessary. Decoding
+     * errors are unexpected at this point and are therefore reported as a
+     * RuntimeException. Callers that must handle them cleanly should call
+     * {@link #decode()} first.
+     * 
+     * @see com.continuent.tungsten.replicator.event.DBMSEvent#getData()
+     */
+    public ArrayList<DBMSData> getData()
+    {
+        try
+        {
+            decode();
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException("Unable to deserialize event data: id="
+                    + getEventId(), e);
+        }
+        return data;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.event.DBMSEvent#addMetadataOption(java.lang.String,
+     *      java.lang.String)
+     */
+    public synchronized void addMetadataOption(String name, String value)
+    {
+        sourceRecord = null;
+        super.addMetadataOption(name, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.event.DBMSEvent#setMetaDataOption(java.lang.String,
+     *      java.lang.String)
+     */
+    public synchronized void setMetaDataOption(String name, String value)
+    {
+        sourceRecord = null;
+        super.setMetaDataOption(name, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.event.DBMSEvent#addOption(java.lang.String,
+     *      java.lang.String)
+     */
+    public synchronized void addOption(String name, String value)
+    {
+        sourceRecord = null;
+        super.addOption(name, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.event.DBMSEvent#setOptions(java.util.LinkedList)
+     */
+    public synchronized void setOptions(LinkedList<ReplOption> savedOptions)
+    {
+        sourceRecord = null;
+        super.setOptions(savedOptions);
+    }
+
+    /**
+     * Ensures the body is decoded before the event is written using Java
+     * serialization, as the serialized body is not itself serializable.
+     */
+    private synchronized void writeObject(ObjectOutputStream out)
+            throws IOException
+    {
+        decode();
+        out.defaultWriteObject();
+    }
+}
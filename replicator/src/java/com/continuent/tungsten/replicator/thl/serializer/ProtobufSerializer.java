@@ -22,6 +22,8 @@
 
 package com.continuent.tungsten.replicator.thl.serializer;
 
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -57,6 +59,7 @@ import com.continuent.tungsten.replicator.thl.protobuf.TungstenProtos.ProtobufOn
 import com.continuent.tungsten.replicator.thl.protobuf.TungstenProtos.ProtobufOneRowChange.ProtobufRowValue;
 import com.continuent.tungsten.replicator.thl.protobuf.TungstenProtos.ProtobufOneRowChange.ProtobufRowValue.ProtobufColumnVal;
 import com.continuent.tungsten.replicator.thl.protobuf.TungstenProtos.ProtobufOneRowChange.ProtobufRowValue.ProtobufColumnVal.Type;
+import com.continuent.tungsten.replicator.dbms.ColumnarRowSet;
 import com.continuent.tungsten.replicator.dbms.DBMSData;
 import com.continuent.tungsten.replicator.dbms.LoadDataFileFragment;
 import com.continuent.tungsten.replicator.dbms.LoadDataFileQuery;
@@ -74,7 +77,9 @@ import com.continuent.tungsten.replicator.event.ReplOption;
 import com.continuent.tungsten.replicator.extractor.mysql.SerialBlob;
 import com.continuent.tungsten.replicator.thl.THLEvent;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.Message;
+import com.google.protobuf.WireFormat;
 
 /**
  * @author <a href="mailto:stephane.giron@continuent.com">Stephane Giron</a>
@@ -115,38 +120,16 @@ public class ProtobufSerializer implements Serializer
             }
             else
             {
-                ProtobufReplDBMSEvent protobufReplDBMSEvent = ProtobufReplDBMSEvent
-                        .parseDelimitedFrom(inStream);
-
-                ArrayList<DBMSData> data = new ArrayList<DBMSData>();
-                List<ProtobufOneChange> changeList = protobufReplDBMSEvent
-                        .getChangeList();
-                for (ProtobufOneChange protobufOneChange : changeList)
-                {
-                    DBMSData statementChange = deserializeOneChange(protobufOneChange);
-                    data.add(statementChange);
-                }
-
-                DBMSEvent dbmsEvent = new DBMSEvent(header.getEventId(), null,
-                        data, sourceTstamp);
+                // Read the body but decode only metadata and options. Changes
+                // are left serialized until the data are first requested.
+                byte[] body = readDelimitedBody(inStream);
+                ProtobufDBMSEvent dbmsEvent = new ProtobufDBMSEvent(
+                        header.getEventId(), sourceTstamp, body, this);
+                deserializeOptions(body, dbmsEvent);
                 event = new ReplDBMSEvent(header.getSeqno(),
                         (short) header.getFragno(), header.getLastFrag(),
                         header.getSourceId(), header.getEpochNumber(),
                         sourceTstamp, dbmsEvent);
-
-                for (ProtobufEventOption protobufEventOption : protobufReplDBMSEvent
-                        .getMetadataList())
-                {
-                    dbmsEvent.addMetadataOption(protobufEventOption.getName(),
-                            protobufEventOption.getValue());
-                }
-
-                for (ProtobufEventOption protobufEventOption : protobufReplDBMSEvent
-                        .getOptionsList())
-                {
-                    dbmsEvent.addOption(protobufEventOption.getName(),
-                            protobufEventOption.getValue());
-                }
             }
             return new THLEvent(header.getEventId(), event);
         }
@@ -266,6 +249,78 @@ public class ProtobufSerializer implements Serializer
         outStream.flush();
     }
 
+    /**
+     * Reads a length-delimited message body from the stream without parsing
+     * it.
+     */
+    private byte[] readDelimitedBody(InputStream inStream) throws IOException
+    {
+        int size = 0;
+        for (int shift = 0; shift < 32; shift += 7)
+        {
+            int b = inStream.read();
+            if (b == -1)
+                throw new EOFException(
+                        "Unexpected end of stream while reading event length");
+            size |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+            {
+                byte[] body = new byte[size];
+                new DataInputStream(inStream).readFully(body);
+                return body;
+            }
+        }
+        throw new IOException("Malformed event length");
+    }
+
+    /**
+     * Decodes metadata and options from a serialized event body, skipping over
+     * the changes.
+     */
+    private void deserializeOptions(byte[] body, DBMSEvent dbmsEvent)
+            throws IOException
+    {
+        CodedInputStream input = CodedInputStream.newInstance(body);
+        int tag;
+        while ((tag = input.readTag()) != 0)
+        {
+            int field = WireFormat.getTagFieldNumber(tag);
+            if (field == ProtobufReplDBMSEvent.METADATA_FIELD_NUMBER)
+            {
+                ProtobufEventOption option = ProtobufEventOption
+                        .parseFrom(input.readBytes());
+                dbmsEvent.addMetadataOption(option.getName(),
+                        option.getValue());
+            }
+            else if (field == ProtobufReplDBMSEvent.OPTIONS_FIELD_NUMBER)
+            {
+                ProtobufEventOption option = ProtobufEventOption
+                        .parseFrom(input.readBytes());
+                dbmsEvent.addOption(option.getName(), option.getValue());
+            }
+            else
+                input.skipField(tag);
+        }
+    }
+
+    /**
+     * Decodes the changes held in a serialized event body. This is called by
+     * {@link ProtobufDBMSEvent} when its data are first requested.
+     */
+    ArrayList<DBMSData> deserializeChanges(byte[] body) throws IOException
+    {
+        ProtobufReplDBMSEvent protobufReplDBMSEvent = ProtobufReplDBMSEvent
+                .parseFrom(body);
+        List<ProtobufOneChange> changeList = protobufReplDBMSEvent
+                .getChangeList();
+        ArrayList<DBMSData> data = new ArrayList<DBMSData>(changeList.size());
+        for (ProtobufOneChange protobufOneChange : changeList)
+        {
+            data.add(deserializeOneChange(protobufOneChange));
+        }
+        return data;
+    }
+
     private DBMSData deserializeOneChange(ProtobufOneChange protobufOneChange)
     {
         logger.debug("Event type is : " + protobufOneChange.getType());
@@ -455,23 +510,24 @@ public class ProtobufSerializer implements Serializer
                     oneRowBuilder.addKeySpec(colSpecBuilder);
                 }
 
-                ArrayList<ArrayList<ColumnVal>> rowValues = oneRowChange
-                        .getColumnValues();
-
+                // Read values through accessors so that columnar values are
+                // not converted to ColumnVal lists.
                 if (logger.isDebugEnabled())
                     trace.append("\n    Columns values :\n");
 
-                for (ArrayList<ColumnVal> row : rowValues)
+                int rowCount = oneRowChange.getColumnRowCount();
+                for (int row = 0; row < rowCount; row++)
                 {
                     rowBuilder = ProtobufRowValue.newBuilder();
-                    for (int i = 0; i < row.size(); i++)
+                    int valueCount = oneRowChange.getColumnValueCount(row);
+                    for (int i = 0; i < valueCount; i++)
                     {
                         if (logger.isDebugEnabled() && i > 0)
                             trace.append(", ");
 
                         valueBuilder = ProtobufColumnVal.newBuilder();
 
-                        ColumnVal colValue = row.get(i);
+                        Object colValue = oneRowChange.getColumnValue(row, i);
                         ColumnSpec colSpec = oneRowChange.getColumnSpec()
                                 .get(i);
                         serializeRowValue(valueBuilder, colValue, colSpec);
@@ -485,18 +541,19 @@ public class ProtobufSerializer implements Serializer
                 if (logger.isDebugEnabled())
                     trace.append("\n    Keys values :\n");
 
-                rowValues = oneRowChange.getKeyValues();
-                for (ArrayList<ColumnVal> row : rowValues)
+                rowCount = oneRowChange.getKeyRowCount();
+                for (int row = 0; row < rowCount; row++)
                 {
                     rowBuilder = ProtobufRowValue.newBuilder();
-                    for (int i = 0; i < row.size(); i++)
+                    int valueCount = oneRowChange.getKeyValueCount(row);
+                    for (int i = 0; i < valueCount; i++)
                     {
                         if (logger.isDebugEnabled() && i > 0)
                             trace.append(", ");
 
                         valueBuilder = ProtobufColumnVal.newBuilder();
 
-                        ColumnVal colValue = row.get(i);
+                        Object colValue = oneRowChange.getKeyValue(row, i);
                         ColumnSpec colSpec = oneRowChange.getKeySpec().get(i);
                         serializeRowValue(valueBuilder, colValue, colSpec);
                         rowBuilder.addColumnValue(valueBuilder);
@@ -520,7 +577,7 @@ public class ProtobufSerializer implements Serializer
     }
 
     private void serializeRowValue(ProtobufColumnVal.Builder valueBuilder,
-            ColumnVal colValue, ColumnSpec colSpec)
+            Object value, ColumnSpec colSpec)
     {
         if (logger.isDebugEnabled())
         {
@@ -538,7 +595,7 @@ public class ProtobufSerializer implements Serializer
             }
             return;
         }
-        else if (colValue.getValue() == null)
+        else if (value == null)
         {
             // This single value was null (as opposed to the whole column
             // above-case
@@ -550,7 +607,6 @@ public class ProtobufSerializer implements Serializer
             return;
         }
 
-        Object value = colValue.getValue();
         switch (colSpec.getType())
         {
             case Types.INTEGER :
@@ -805,46 +861,97 @@ public class ProtobufSerializer implements Serializer
                 rowChange.getColumnSpec().add(c);
             }
 
-            ArrayList<ColumnVal> colValues = null;
+            // Values are stored in columnar form when every row has the same
+            // number of values, which is the normal case.
+            List<ProtobufRowValue> columnValues = oneRowChange
+                    .getColumnValuesList();
+            ColumnarRowSet columnRows = deserializeRowSet(columnValues);
+            if (columnRows == null)
+                deserializeRowValues(rowChange, columnValues,
+                        rowChange.getColumnValues());
+            else
+                rowChange.setColumnRows(columnRows);
+
+            List<ProtobufRowValue> keyValues = oneRowChange.getKeyValuesList();
+            ColumnarRowSet keyRows = deserializeRowSet(keyValues);
+            if (keyRows == null)
+                deserializeRowValues(rowChange, keyValues,
+                        rowChange.getKeyValues());
+            else
+                rowChange.setKeyRows(keyRows);
+
+            data.appendOneRowChange(rowChange);
+        }
+
+        return data;
+    }
+
+    /**
+     * Deserializes rows into columnar form, storing integer values without
+     * boxing.
+     * 
+     * @return Row set or null if rows have different numbers of values
+     */
+    private ColumnarRowSet deserializeRowSet(List<ProtobufRowValue> rowValues)
+    {
+        if (rowValues.isEmpty())
+            return null;
+        int columnCount = rowValues.get(0).getColumnValueCount();
+        for (ProtobufRowValue rowValue : rowValues)
+        {
+            if (rowValue.getColumnValueCount() != columnCount)
+                return null;
+        }
 
-            for (ProtobufRowValue rowValue : oneRowChange.getColumnValuesList())
+        ColumnarRowSet rows = new ColumnarRowSet(columnCount, rowValues.size());
+        for (ProtobufRowValue rowValue : rowValues)
+        {
+            int row = rows.addRow();
+            for (int i = 0; i < columnCount; i++)
             {
-                colValues = new ArrayList<ColumnVal>();
-                for (ProtobufColumnVal columnVal : rowValue
-                        .getColumnValueList())
+                ProtobufColumnVal columnVal = rowValue.getColumnValue(i);
+                switch (columnVal.getType())
                 {
-                    ColumnVal v = rowChange.new ColumnVal();
-                    Serializable value = deserializeColumnValue(columnVal);
-                    if (value == null)
-                        v.setValueNull();
-                    else
-                        v.setValue(value);
-                    colValues.add(v);
+                    case INT :
+                    case BIT :
+                        rows.setInt(row, i, columnVal.getIntValue());
+                        break;
+                    case LONG :
+                        if (columnVal.hasLongValue())
+                            rows.setLong(row, i, columnVal.getLongValue());
+                        break;
+                    case NULL :
+                        break;
+                    default :
+                        rows.setValue(row, i,
+                                deserializeColumnValue(columnVal));
+                        break;
                 }
-                rowChange.getColumnValues().add(colValues);
             }
+        }
+        return rows;
+    }
 
-            for (ProtobufRowValue rowValue : oneRowChange.getKeyValuesList())
+    // Deserializes rows into ColumnVal lists.
+    private void deserializeRowValues(OneRowChange rowChange,
+            List<ProtobufRowValue> rowValues,
+            ArrayList<ArrayList<ColumnVal>> rows)
+    {
+        for (ProtobufRowValue rowValue : rowValues)
+        {
+            ArrayList<ColumnVal> colValues = new ArrayList<ColumnVal>();
+            for (ProtobufColumnVal columnVal : rowValue.getColumnValueList())
             {
-                colValues = new ArrayList<ColumnVal>();
-                for (ProtobufColumnVal columnVal : rowValue
-                        .getColumnValueList())
-                {
-                    ColumnVal v = rowChange.new ColumnVal();
-                    Serializable value = deserializeColumnValue(columnVal);
-                    if (value == null)
-                        v.setValueNull();
-                    else
-                        v.setValue(value);
-                    colValues.add(v);
-                }
-                rowChange.getKeyValues().add(colValues);
+                ColumnVal v = rowChange.new ColumnVal();
+                Serializable value = deserializeColumnValue(columnVal);
+                if (value == null)
+                    v.setValueNull();
+                else
+                    v.setValue(value);
+                colValues.add(v);
             }
-
-            data.appendOneRowChange(rowChange);
+            rows.add(colValues);
         }
-
-        return data;
     }
 
     /**
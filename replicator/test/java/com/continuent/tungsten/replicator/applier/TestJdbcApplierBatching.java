@@ -0,0 +1,347 @@
+/**
+ * Tungsten: An Application Server for uni/cluster.
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.applier;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import com.continuent.tungsten.common.config.TungstenProperties;
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.conf.FailurePolicy;
+import com.continuent.tungsten.replicator.conf.ReplicatorMonitor;
+import com.continuent.tungsten.replicator.conf.ReplicatorRuntime;
+import com.continuent.tungsten.replicator.database.Database;
+import com.continuent.tungsten.replicator.database.DatabaseFactory;
+import com.continuent.tungsten.replicator.dbms.ColumnarRowSet;
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.dbms.RowChangeData.ActionType;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSHeaderData;
+import com.continuent.tungsten.replicator.management.MockOpenReplicatorContext;
+import com.continuent.tungsten.replicator.thl.CommitSeqnoTable;
+
+/**
+ * Tests JDBC batching and multi-row INSERT statements in JdbcApplier using
+ * an embedded Derby database.
+ *
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public class TestJdbcApplierBatching extends TestCase
+{
+    private static final String DRIVER = "org.apache.derby.jdbc.EmbeddedDriver";
+    private static final String URL    = "jdbc:derby:testJdbcApplier;create=true";
+    private static final String SCHEMA = "JDBCTEST";
+
+    private Connection          conn;
+    private JdbcApplier         applier;
+    private long                seqno;
+
+    /**
+     * Creates a test table and the replicator catalog tables.
+     */
+    public void setUp() throws Exception
+    {
+        Class.forName(DRIVER);
+        conn = DriverManager.getConnection(URL);
+        Statement stmt = conn.createStatement();
+        String[] tables = {"T", "TREP_COMMIT_SEQNO", "HEARTBEAT",
+                "CONSISTENCY"};
+        for (String table : tables)
+        {
+            try
+            {
+                stmt.execute("DROP TABLE " + SCHEMA + "." + table);
+            }
+            catch (SQLException e)
+            {
+                // Table does not exist yet.
+            }
+        }
+        stmt.execute("CREATE TABLE " + SCHEMA + ".T"
+                + " (ID INT PRIMARY KEY, DATA VARCHAR(32))");
+        stmt.close();
+
+        Database db = DatabaseFactory.createDatabase(URL, null, null);
+        db.connect();
+        new CommitSeqnoTable(db, SCHEMA, null, false).initializeTable(1);
+        db.close();
+        seqno = 0;
+    }
+
+    /**
+     * Releases the applier and test connection.
+     */
+    public void tearDown() throws Exception
+    {
+        if (applier != null)
+            applier.release(null);
+        if (conn != null)
+            conn.close();
+    }
+
+    /**
+     * Verify that updates and deletes sent in JDBC batches apply every row.
+     */
+    public void testBatchedUpdates() throws Exception
+    {
+        prepareApplier(4, 0);
+        apply(ActionType.INSERT, 1, 10, "a");
+        apply(ActionType.UPDATE, 1, 10, "b");
+        apply(ActionType.DELETE, 8, 10, null);
+
+        assertEquals("rows after batched updates", 7, countRows("b"));
+        assertEquals("total rows", 7, countRows(null));
+    }
+
+    /**
+     * Verify that a batched update that matches no row fails when the 0-row
+     * update policy is stop, even if other rows in the batch match.
+     */
+    public void testZeroRowUpdateInBatch() throws Exception
+    {
+        prepareApplier(4, 0);
+        apply(ActionType.INSERT, 1, 3, "a");
+        try
+        {
+            apply(ActionType.UPDATE, 1, 4, "b");
+            fail("Update of a missing row in a batch was not detected");
+        }
+        catch (ReplicatorException e)
+        {
+            // Expected.
+        }
+        applier.rollback();
+        assertEquals("rows after rollback", 3, countRows("a"));
+    }
+
+    /**
+     * Verify that runs of inserted rows are applied as multi-row INSERT
+     * statements, including runs split by the byte limit.
+     */
+    public void testMultiRowInsert() throws Exception
+    {
+        prepareApplier(1, 40);
+        apply(ActionType.INSERT, 1, 25, "a");
+        assertEquals("rows after multi-row inserts", 25, countRows("a"));
+        assertEquals("no single-row statements", 0,
+                applier.getCachedStatementCount());
+    }
+
+    /**
+     * Verify that multi-row INSERT statements of many different lengths do not
+     * push single-row statements out of the prepared statement cache.
+     */
+    public void testMultiRowStatementsNotCached() throws Exception
+    {
+        applier = new JdbcApplier();
+        applier.setPreparedStatementCacheSize(3);
+        prepareApplier(1, 1000000);
+        apply(ActionType.INSERT, 1, 1, "a");
+        assertEquals("single-row insert cached", 1,
+                applier.getCachedStatementCount());
+
+        int first = 2;
+        for (int rows = 2; rows <= 12; rows++)
+        {
+            apply(ActionType.INSERT, first, first + rows - 1, "a");
+            first += rows;
+        }
+        assertEquals("rows inserted", first - 1, countRows("a"));
+        assertEquals("single-row cache unchanged", 1,
+                applier.getCachedStatementCount());
+    }
+
+    /**
+     * Verify that rows held in columnar form are applied, including multi-row
+     * inserts, without converting them to lists.
+     */
+    public void testColumnarRows() throws Exception
+    {
+        prepareApplier(4, 40);
+        OneRowChange orc = apply(ActionType.INSERT, 1, 10, "a", true);
+        assertNotNull("inserted rows still columnar", orc.getColumnRows());
+        orc = apply(ActionType.UPDATE, 1, 10, "b", true);
+        assertNotNull("updated rows still columnar", orc.getColumnRows());
+        assertNotNull("updated keys still columnar", orc.getKeyRows());
+        orc = apply(ActionType.DELETE, 7, 8, null, true);
+        assertNotNull("deleted keys still columnar", orc.getKeyRows());
+
+        assertEquals("updated rows", 8, countRows("b"));
+        assertEquals("total rows", 8, countRows(null));
+    }
+
+    // Creates and prepares the applier.
+    private void prepareApplier(int rowBatchSize, long multiRowInsertMaxBytes)
+            throws Exception
+    {
+        if (applier == null)
+            applier = new JdbcApplier();
+        applier.setDriver(DRIVER);
+        applier.setUrl(URL);
+        applier.setUser("");
+        applier.setPassword("");
+        applier.setGetColumnMetadataFromDB("false");
+        applier.setRowBatchSize(rowBatchSize);
+        applier.setMultiRowInsertMaxBytes(multiRowInsertMaxBytes);
+
+        ReplicatorRuntime runtime = new ReplicatorRuntime(
+                new TungstenProperties(), new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance())
+        {
+            public String getReplicatorSchemaName()
+            {
+                return SCHEMA;
+            }
+
+            public FailurePolicy getApplierFailurePolicyOn0RowUpdates()
+            {
+                return FailurePolicy.STOP;
+            }
+        };
+        applier.configure(runtime);
+        applier.prepare(runtime);
+    }
+
+    // Applies one row change covering keys first to last in a single event.
+    private void apply(ActionType action, int first, int last, String data)
+            throws Exception
+    {
+        apply(action, first, last, data, false);
+    }
+
+    // Applies one row change with values held as lists or in columnar form,
+    // returning the row change.
+    private OneRowChange apply(ActionType action, int first, int last,
+            String data, boolean columnar) throws Exception
+    {
+        OneRowChange orc = new OneRowChange(SCHEMA, "T", action);
+        ArrayList<ColumnSpec> keySpecs = new ArrayList<ColumnSpec>();
+        keySpecs.add(spec(orc, 1, "ID", Types.INTEGER));
+        ArrayList<ColumnSpec> colSpecs = new ArrayList<ColumnSpec>();
+        colSpecs.add(spec(orc, 1, "ID", Types.INTEGER));
+        colSpecs.add(spec(orc, 2, "DATA", Types.VARCHAR));
+
+        ArrayList<ArrayList<ColumnVal>> keyValues = new ArrayList<ArrayList<ColumnVal>>();
+        ArrayList<ArrayList<ColumnVal>> colValues = new ArrayList<ArrayList<ColumnVal>>();
+        for (int id = first; id <= last; id++)
+        {
+            keyValues.add(values(orc, new Serializable[]{id}));
+            colValues.add(values(orc, new Serializable[]{id, data + id}));
+        }
+        if (action != ActionType.INSERT)
+        {
+            orc.setKeySpec(keySpecs);
+            if (columnar)
+                orc.setKeyRows(columnar(keyValues));
+            else
+                orc.setKeyValues(keyValues);
+        }
+        if (action != ActionType.DELETE)
+        {
+            orc.setColumnSpec(colSpecs);
+            if (columnar)
+                orc.setColumnRows(columnar(colValues));
+            else
+                orc.setColumnValues(colValues);
+        }
+
+        RowChangeData rowChangeData = new RowChangeData();
+        rowChangeData.appendOneRowChange(orc);
+        ArrayList<DBMSData> dataList = new ArrayList<DBMSData>();
+        dataList.add(rowChangeData);
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        DBMSEvent event = new DBMSEvent(Long.toString(seqno), null, dataList,
+                true, now);
+        applier.apply(event, new ReplDBMSHeaderData(seqno, (short) 0, true,
+                "test", 0, Long.toString(seqno), "test", now, 0), true, false);
+        seqno++;
+        return orc;
+    }
+
+    // Copies rows of values into columnar form.
+    private ColumnarRowSet columnar(ArrayList<ArrayList<ColumnVal>> rows)
+    {
+        ColumnarRowSet rowSet = new ColumnarRowSet(rows.get(0).size(),
+                rows.size());
+        for (ArrayList<ColumnVal> values : rows)
+        {
+            int row = rowSet.addRow();
+            for (int c = 0; c < values.size(); c++)
+                rowSet.setValue(row, c, (Serializable) values.get(c)
+                        .getValue());
+        }
+        return rowSet;
+    }
+
+    // Generates a column specification.
+    private ColumnSpec spec(OneRowChange orc, int index, String name, int type)
+    {
+        ColumnSpec spec = orc.new ColumnSpec();
+        spec.setIndex(index);
+        spec.setName(name);
+        spec.setType(type);
+        return spec;
+    }
+
+    // Generates a row of values.
+    private ArrayList<ColumnVal> values(OneRowChange orc, Serializable[] values)
+    {
+        ArrayList<ColumnVal> row = new ArrayList<ColumnVal>();
+        for (Serializable value : values)
+        {
+            ColumnVal val = orc.new ColumnVal();
+            val.setValue(value);
+            row.add(val);
+        }
+        return row;
+    }
+
+    // Counts rows whose data starts with the given prefix, or all rows if the
+    // prefix is null.
+    private int countRows(String prefix) throws SQLException
+    {
+        Statement stmt = conn.createStatement();
+        String where = prefix == null ? "" : " WHERE DATA LIKE '" + prefix
+                + "%'";
+        ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + SCHEMA
+                + ".T" + where);
+        rs.next();
+        int count = rs.getInt(1);
+        rs.close();
+        stmt.close();
+        return count;
+    }
+}
@@ -0,0 +1,630 @@
+/**
+ * Tungsten: An Application Server for uni/cluster.
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.applier.batch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.continuent.tungsten.common.config.TungstenProperties;
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.conf.ReplicatorMonitor;
+import com.continuent.tungsten.replicator.conf.ReplicatorRuntime;
+import com.continuent.tungsten.replicator.database.Database;
+import com.continuent.tungsten.replicator.database.DatabaseFactory;
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.dbms.RowChangeData.ActionType;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSHeader;
+import com.continuent.tungsten.replicator.event.ReplDBMSHeaderData;
+import com.continuent.tungsten.replicator.management.MockOpenReplicatorContext;
+import com.continuent.tungsten.replicator.plugin.PluginContext;
+import com.continuent.tungsten.replicator.thl.CommitSeqnoTable;
+
+/**
+ * Tests loading and merging batches over several connections with
+ * SimpleBatchApplier. Tables are merged into Derby by a merge executor that
+ * loads the CSV file into the stage table and then deletes and inserts staged
+ * keys in the base table, like the REPLACE in mysql-merge.sql.
+ *
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public class TestParallelBatchMerge
+{
+    private static final String DRIVER = "org.apache.derby.jdbc.EmbeddedDriver";
+    private static final String URL    = "jdbc:derby:testParallelBatch;create=true";
+    private static final String SCHEMA = "BATCHTEST";
+    private static final String[] TABLES = {"T1", "T2", "T3", "T4"};
+
+    private Connection          conn;
+
+    /**
+     * Creates base and stage tables for each test.
+     */
+    @Before
+    public void setUp() throws Exception
+    {
+        Class.forName(DRIVER);
+        conn = DriverManager.getConnection(URL);
+        Statement stmt = conn.createStatement();
+        for (String table : TABLES)
+        {
+            dropTable(stmt, table);
+            dropTable(stmt, "STAGE_XXX_" + table);
+        }
+        dropTable(stmt, "TREP_COMMIT_SEQNO");
+        dropTable(stmt, "HEARTBEAT");
+        dropTable(stmt, "CONSISTENCY");
+        for (String table : TABLES)
+        {
+            stmt.execute("CREATE TABLE " + SCHEMA + "." + table
+                    + " (ID INT PRIMARY KEY, DATA VARCHAR(32))");
+            stmt.execute("CREATE TABLE " + SCHEMA + ".STAGE_XXX_" + table
+                    + " (TUNGSTEN_OPCODE CHAR(1), TUNGSTEN_SEQNO INT,"
+                    + " TUNGSTEN_ROW_ID INT, ID INT, DATA VARCHAR(32))");
+        }
+        stmt.close();
+
+        // Create the commit position table as the pipeline would.
+        Database db = DatabaseFactory.createDatabase(URL, null, null);
+        db.connect();
+        new CommitSeqnoTable(db, SCHEMA, null, false).initializeTable(1);
+        db.close();
+    }
+
+    /**
+     * Closes the test connection.
+     */
+    @After
+    public void tearDown() throws Exception
+    {
+        if (conn != null)
+            conn.close();
+    }
+
+    /**
+     * Verify that a block touching several tables is loaded and merged over
+     * several connections and that the commit position moves with it.
+     */
+    @Test
+    public void testParallelMerge() throws Exception
+    {
+        TestBatchApplier applier = prepareApplier(3);
+        applyBlock(applier, 1);
+        applier.commit();
+        applier.release(null);
+
+        checkBlock();
+        Assert.assertEquals("commit position", 1, lastCommitSeqno());
+
+        // Each table reports one timed merge.
+        List<Map<String, String>> mergeTimes = applier.getMergeTimes();
+        Assert.assertEquals("tables with merge times", TABLES.length,
+                mergeTimes.size());
+        for (Map<String, String> props : mergeTimes)
+        {
+            Assert.assertEquals("merges of " + props.get("table"), "1",
+                    props.get("merges"));
+            Assert.assertTrue("total time of " + props.get("table"),
+                    Double.parseDouble(props.get("totalTime")) >= 0);
+        }
+    }
+
+    /**
+     * Verify that interrupting a parallel merge waits for running workers to
+     * leave their connections before the interrupt reaches the caller, so that
+     * rollback does not race with a merge in progress.
+     */
+    @Test
+    public void testInterruptWaitsForWorkers() throws Exception
+    {
+        final TestBatchApplier applier = prepareApplier(3);
+        insertOnly(applier, 0);
+        applier.commit();
+
+        applier.blockTable = "T2";
+        applyBlock(applier, 1);
+        final Throwable[] result = new Throwable[1];
+        Thread committer = new Thread("committer")
+        {
+            public void run()
+            {
+                try
+                {
+                    applier.commit();
+                }
+                catch (Throwable t)
+                {
+                    result[0] = t;
+                }
+            }
+        };
+        committer.start();
+        try
+        {
+            Assert.assertTrue("worker reached blocked table",
+                    applier.blocked.await(10, TimeUnit.SECONDS));
+
+            // The commit must not return while the worker is still merging.
+            committer.interrupt();
+            committer.join(500);
+            Assert.assertTrue("commit waits for worker", committer.isAlive());
+
+            applier.unblock.countDown();
+            committer.join(10000);
+            Assert.assertFalse("commit returned", committer.isAlive());
+            Assert.assertTrue("interrupt rethrown: " + result[0],
+                    result[0] instanceof InterruptedException);
+            Assert.assertTrue("worker saw interrupt",
+                    applier.workerInterrupted);
+        }
+        finally
+        {
+            applier.unblock.countDown();
+            committer.join(10000);
+            applier.rollback();
+            applier.release(null);
+        }
+
+        for (String table : TABLES)
+        {
+            Assert.assertEquals("unchanged rows in " + table, "1=a0,2=b0",
+                    readTable(table));
+        }
+        Assert.assertEquals("commit position", 0, lastCommitSeqno());
+    }
+
+    /**
+     * Verify that when one table fails to merge, rollback leaves every table
+     * and the commit position as they were before the block.
+     */
+    @Test
+    public void testParallelMergeFailure() throws Exception
+    {
+        TestBatchApplier applier = prepareApplier(3);
+        insertOnly(applier, 0);
+        applier.commit();
+
+        applier.failTable = "T3";
+        applyBlock(applier, 1);
+        try
+        {
+            applier.commit();
+            throw new Exception("Commit succeeded with a failing merge");
+        }
+        catch (ReplicatorException e)
+        {
+            // Expected.
+        }
+        applier.rollback();
+        applier.release(null);
+
+        for (String table : TABLES)
+        {
+            Assert.assertEquals("unchanged rows in " + table, "1=a0,2=b0",
+                    readTable(table));
+        }
+        Assert.assertEquals("commit position", 0, lastCommitSeqno());
+    }
+
+    /**
+     * Verify that replaying a block over tables that are already merged gives
+     * the same result. This happens if a worker connection commits and the
+     * main connection then fails to commit the position.
+     */
+    @Test
+    public void testReplayMergedBlock() throws Exception
+    {
+        TestBatchApplier applier = prepareApplier(3);
+        applyBlock(applier, 1);
+        applier.commit();
+
+        // Apply the same block again, as after a restart.
+        applyBlock(applier, 1);
+        applier.commit();
+        applier.release(null);
+
+        checkBlock();
+        Assert.assertEquals("commit position", 1, lastCommitSeqno());
+    }
+
+    /**
+     * Verify that parallel merge is refused unless the merge script is
+     * declared idempotent, since a failed commit may replay the block.
+     */
+    @Test
+    public void testParallelMergeRequiresIdempotentScript() throws Exception
+    {
+        TestBatchApplier applier = new TestBatchApplier();
+        applier.setDriver(DRIVER);
+        applier.setUrl(URL);
+        applier.setUser("");
+        applier.setPassword("");
+        applier.setStageDirectory(new File("testParallelBatch")
+                .getAbsolutePath());
+        applier.setStageTablePrefix("STAGE_XXX_");
+        applier.setStageMergeScript("test-merge.sql");
+        applier.setParallelism(3);
+        try
+        {
+            applier.configure(new ReplicatorRuntime(new TungstenProperties(),
+                    new MockOpenReplicatorContext(), ReplicatorMonitor
+                            .getInstance()));
+            throw new Exception("Configured parallel merge without "
+                    + "an idempotent merge script");
+        }
+        catch (ReplicatorException e)
+        {
+            Assert.assertTrue("error names property: " + e.getMessage(), e
+                    .getMessage().contains("idempotentMerge"));
+        }
+    }
+
+    // Applies inserts of keys 1 and 2 to every table.
+    private void insertOnly(TestBatchApplier applier, long seqno)
+            throws Exception
+    {
+        List<OneRowChange> changes = new ArrayList<OneRowChange>();
+        for (String table : TABLES)
+        {
+            changes.add(change(table, ActionType.INSERT, 1, "a" + seqno));
+            changes.add(change(table, ActionType.INSERT, 2, "b" + seqno));
+        }
+        applier.apply(event(seqno, changes), header(seqno), false, false);
+    }
+
+    // Applies a block that inserts, updates and deletes rows in every table.
+    private void applyBlock(TestBatchApplier applier, long seqno)
+            throws Exception
+    {
+        List<OneRowChange> changes = new ArrayList<OneRowChange>();
+        for (String table : TABLES)
+        {
+            changes.add(change(table, ActionType.INSERT, 1, "a" + seqno));
+            changes.add(change(table, ActionType.INSERT, 2, "b" + seqno));
+            changes.add(change(table, ActionType.INSERT, 3, "c" + seqno));
+            changes.add(change(table, ActionType.UPDATE, 2, "u" + seqno));
+            changes.add(change(table, ActionType.DELETE, 3, null));
+        }
+        applier.apply(event(seqno, changes), header(seqno), false, false);
+    }
+
+    // Checks table contents after applyBlock() at seqno 1.
+    private void checkBlock() throws Exception
+    {
+        for (String table : TABLES)
+        {
+            Assert.assertEquals("merged rows in " + table, "1=a1,2=u1",
+                    readTable(table));
+        }
+    }
+
+    // Creates and prepares an applier with the given number of connections.
+    private TestBatchApplier prepareApplier(int parallelism) throws Exception
+    {
+        TestBatchApplier applier = new TestBatchApplier();
+        applier.setDriver(DRIVER);
+        applier.setUrl(URL);
+        applier.setUser("");
+        applier.setPassword("");
+        applier.setStageDirectory(new File("testParallelBatch")
+                .getAbsolutePath());
+        applier.setStageTablePrefix("STAGE_XXX_");
+        applier.setStageMergeScript("test-merge.sql");
+        applier.setParallelism(parallelism);
+        applier.setIdempotentMerge(true);
+        applier.setTaskId(0);
+
+        PluginContext context = new ReplicatorRuntime(new TungstenProperties(),
+                new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance())
+        {
+            public String getReplicatorSchemaName()
+            {
+                return SCHEMA;
+            }
+        };
+        applier.configure(context);
+        applier.prepare(context);
+        return applier;
+    }
+
+    // Generates a row change on one table.
+    private OneRowChange change(String table, ActionType action, int id,
+            String data)
+    {
+        OneRowChange orc = new OneRowChange(SCHEMA, table, action);
+        ArrayList<ColumnSpec> keySpecs = new ArrayList<ColumnSpec>();
+        ArrayList<ColumnSpec> colSpecs = new ArrayList<ColumnSpec>();
+        colSpecs.add(spec(orc, 1, "ID", Types.INTEGER));
+        colSpecs.add(spec(orc, 2, "DATA", Types.VARCHAR));
+        keySpecs.add(spec(orc, 1, "ID", Types.INTEGER));
+
+        if (action != ActionType.INSERT)
+        {
+            orc.setKeySpec(keySpecs);
+            orc.setKeyValues(values(orc, new Serializable[]{id}));
+        }
+        if (action != ActionType.DELETE)
+        {
+            orc.setColumnSpec(colSpecs);
+            orc.setColumnValues(values(orc, new Serializable[]{id, data}));
+        }
+        return orc;
+    }
+
+    // Generates a column specification.
+    private ColumnSpec spec(OneRowChange orc, int index, String name, int type)
+    {
+        ColumnSpec spec = orc.new ColumnSpec();
+        spec.setIndex(index);
+        spec.setName(name);
+        spec.setType(type);
+        return spec;
+    }
+
+    // Generates a single row of values.
+    private ArrayList<ArrayList<ColumnVal>> values(OneRowChange orc,
+            Serializable[] values)
+    {
+        ArrayList<ColumnVal> row = new ArrayList<ColumnVal>();
+        for (Serializable value : values)
+        {
+            ColumnVal val = orc.new ColumnVal();
+            val.setValue(value);
+            row.add(val);
+        }
+        ArrayList<ArrayList<ColumnVal>> rows = new ArrayList<ArrayList<ColumnVal>>();
+        rows.add(row);
+        return rows;
+    }
+
+    // Wraps row changes in an event.
+    private DBMSEvent event(long seqno, List<OneRowChange> changes)
+    {
+        RowChangeData rowChangeData = new RowChangeData();
+        for (OneRowChange orc : changes)
+            rowChangeData.appendOneRowChange(orc);
+        ArrayList<DBMSData> data = new ArrayList<DBMSData>();
+        data.add(rowChangeData);
+        return new DBMSEvent(Long.toString(seqno), null, data, true,
+                new Timestamp(System.currentTimeMillis()));
+    }
+
+    // Generates a header for an event.
+    private ReplDBMSHeader header(long seqno)
+    {
+        return new ReplDBMSHeaderData(seqno, (short) 0, true, "test", 0,
+                Long.toString(seqno), "test", new Timestamp(
+                        System.currentTimeMillis()), 0);
+    }
+
+    // Returns table contents in key order as id=data pairs.
+    private String readTable(String table) throws SQLException
+    {
+        Statement stmt = conn.createStatement();
+        ResultSet rs = stmt.executeQuery("SELECT ID, DATA FROM " + SCHEMA
+                + "." + table + " ORDER BY ID");
+        StringBuffer sb = new StringBuffer();
+        while (rs.next())
+        {
+            if (sb.length() > 0)
+                sb.append(",");
+            sb.append(rs.getInt(1)).append("=").append(rs.getString(2));
+        }
+        rs.close();
+        stmt.close();
+        return sb.toString();
+    }
+
+    // Returns the commit position stored for task 0.
+    private long lastCommitSeqno() throws SQLException
+    {
+        Statement stmt = conn.createStatement();
+        ResultSet rs = stmt.executeQuery("SELECT SEQNO FROM " + SCHEMA
+                + ".TREP_COMMIT_SEQNO WHERE TASK_ID = 0");
+        long seqno = rs.next() ? rs.getLong(1) : -1;
+        rs.close();
+        stmt.close();
+        return seqno;
+    }
+
+    // Drops a table if it exists.
+    private void dropTable(Statement stmt, String table)
+    {
+        try
+        {
+            stmt.execute("DROP TABLE " + SCHEMA + "." + table);
+        }
+        catch (SQLException e)
+        {
+            // Table does not exist yet.
+        }
+    }
+
+    // Batch applier that merges with a MergeExecutor. Merges of failTable
+    // fail once the table has been merged. Merges of blockTable wait for
+    // unblock before they start, then fail if the worker was interrupted.
+    private static class TestBatchApplier extends SimpleBatchApplier
+    {
+        volatile String      failTable;
+        volatile String      blockTable;
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        volatile boolean     workerInterrupted;
+
+        @Override
+        protected ScriptExecutor createScriptExecutor(Database connection,
+                PluginContext context)
+        {
+            MergeExecutor executor = new MergeExecutor(this);
+            executor.setConnection(connection);
+            return executor;
+        }
+    }
+
+    // Loads CSV rows into the stage table, then replaces staged keys in the
+    // base table with the last insert for each key.
+    private static class MergeExecutor implements ScriptExecutor
+    {
+        private final TestBatchApplier applier;
+        private Database               connection;
+
+        MergeExecutor(TestBatchApplier applier)
+        {
+            this.applier = applier;
+        }
+
+        public void setConnection(Database connection)
+        {
+            this.connection = connection;
+        }
+
+        public void setScript(String script)
+        {
+        }
+
+        public void setShowCommands(boolean showCommands)
+        {
+        }
+
+        public void configure(PluginContext context)
+        {
+        }
+
+        public void prepare(PluginContext context)
+        {
+        }
+
+        public void release(PluginContext context)
+        {
+        }
+
+        public void execute(CsvInfo info) throws ReplicatorException
+        {
+            String base = info.baseTableMetadata.fullyQualifiedName();
+            String stage = info.stageTableMetadata.fullyQualifiedName();
+            if (info.table.equals(applier.blockTable))
+                block();
+            try
+            {
+                // Load the CSV file.
+                PreparedStatement insert = connection
+                        .prepareStatement("INSERT INTO " + stage
+                                + " VALUES (?, ?, ?, ?, ?)");
+                BufferedReader reader = new BufferedReader(new FileReader(
+                        info.file));
+                String line;
+                while ((line = reader.readLine()) != null)
+                {
+                    String[] fields = line.split(",", -1);
+                    for (int i = 0; i < fields.length; i++)
+                    {
+                        String field = fields[i];
+                        if (field.length() == 0)
+                            insert.setNull(i + 1, Types.VARCHAR);
+                        else
+                            insert.setString(i + 1,
+                                    field.substring(1, field.length() - 1));
+                    }
+                    insert.executeUpdate();
+                }
+                reader.close();
+                insert.close();
+
+                // Merge into the base table.
+                Statement stmt = connection.createStatement();
+                stmt.executeUpdate("DELETE FROM " + base
+                        + " WHERE ID IN (SELECT ID FROM " + stage + ")");
+                stmt.executeUpdate("INSERT INTO " + base
+                        + " (ID, DATA) SELECT ID, DATA FROM " + stage
+                        + " WHERE TUNGSTEN_OPCODE = 'I' AND TUNGSTEN_ROW_ID IN"
+                        + " (SELECT MAX(TUNGSTEN_ROW_ID) FROM " + stage
+                        + " GROUP BY ID)");
+                stmt.close();
+            }
+            catch (IOException e)
+            {
+                throw new ReplicatorException("Unable to read CSV file: "
+                        + info.file.getAbsolutePath(), e);
+            }
+            catch (SQLException e)
+            {
+                throw new ReplicatorException("Merge failed: table=" + base, e);
+            }
+
+            if (info.table.equals(applier.failTable))
+                throw new ReplicatorException("Merge failed: table=" + base);
+        }
+
+        // Waits like a statement that ignores interrupts, then fails if the
+        // worker was interrupted in the meantime.
+        private void block() throws ReplicatorException
+        {
+            applier.blocked.countDown();
+            boolean interrupted = false;
+            while (true)
+            {
+                try
+                {
+                    applier.unblock.await();
+                    break;
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+            if (interrupted || Thread.interrupted())
+            {
+                applier.workerInterrupted = true;
+                throw new ReplicatorException("Merge interrupted");
+            }
+        }
+    }
+}
@@ -265,6 +265,65 @@ public class TestStorageService extends TestCase
         agent.release();
     }
 
+    /**
+     * Test storing and retrieving a backup of several files that are
+     * transferred in parallel with compression and CRC checking enabled.
+     */
+    public void testCompressedParallelStoreRetrieve() throws Exception
+    {
+        FileSystemStorageAgent agent = (FileSystemStorageAgent) this
+                .configureStorageService("testCompressedParallelStoreRetrieve",
+                        3);
+        agent.setParallelStreams(3);
+        agent.setCompressionEnabled(true);
+        agent.setCrcCheckingEnabled(true);
+
+        // Create a backup with several files and remember their CRCs.
+        BackupSpecification backupSpecStore = new BackupSpecification();
+        backupSpecStore.setAgentName("dummy");
+        backupSpecStore.setBackupDate(new Date());
+        long[] crcs = new long[4];
+        for (int i = 0; i < crcs.length; i++)
+        {
+            File f = createFile("testCompressedParallel", 100000 + i * 1000);
+            crcs[i] = FileSystemStorageAgent.computeFileCrc(f);
+            backupSpecStore.addBackupLocator(new FileBackupLocator(f, true));
+        }
+        URI uri = agent.store(backupSpecStore);
+        backupSpecStore.releaseLocators();
+
+        // Ensure stored files are compressed.
+        StorageSpecification spec = agent.getSpecification(uri);
+        assertTrue("Backup is compressed", spec.isCompressed());
+        assertEquals("File count", crcs.length, spec.getFilesCount());
+        for (int i = 0; i < crcs.length; i++)
+        {
+            assertTrue("Stored file is compressed: " + spec.getFileName(i),
+                    spec.getFileLength(i) < 100000);
+        }
+
+        // Retrieve and ensure files are expanded in order with same contents.
+        BackupSpecification backupSpecRetrieve = agent.retrieve(uri);
+        assertEquals("Retrieved file count", crcs.length, backupSpecRetrieve
+                .getBackupLocators().size());
+        for (int i = 0; i < crcs.length; i++)
+        {
+            File f = backupSpecRetrieve.getBackupLocators().get(i)
+                    .getContents();
+            assertEquals("Retrieved file length", 100000 + i * 1000,
+                    f.length());
+            assertEquals("Retrieved file CRC", crcs[i], FileSystemStorageAgent
+                    .computeFileCrc(f));
+        }
+
+        // Expanded files are removed when released.
+        backupSpecRetrieve.releaseLocators();
+        for (BackupLocator locator : backupSpecRetrieve.getBackupLocators())
+            assertFalse("Expanded file deleted", locator.getContents()
+                    .exists());
+        agent.release();
+    }
+
     // Configure the storage service.
     protected StorageAgent configureStorageService(String name, int retention)
             throws BackupException
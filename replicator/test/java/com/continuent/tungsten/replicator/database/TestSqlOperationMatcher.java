@@ -913,4 +913,149 @@ public class TestSqlOperationMatcher
             }
         }
     }
-}
\ No newline at end of file
+    /**
+     * Verify that names beginning with optional keywords are not mistaken
+     * for the keywords and that DROP FUNCTION and CREATE VIEW without an
+     * ALGORITHM clause are recognized.
+     */
+    @Test
+    public void testKeywordBoundaries() throws Exception
+    {
+        SqlOperationMatcher m = new MySQLOperationMatcher();
+
+        SqlOperation op = m.match("update ignore_log set id=1");
+        Assert.assertEquals("update", SqlOperation.UPDATE, op.getOperation());
+        Assert.assertEquals("update", "ignore_log", op.getName());
+
+        op = m.match("delete from quick_t where id=1");
+        Assert.assertEquals("delete", SqlOperation.DELETE, op.getOperation());
+        Assert.assertEquals("delete", "quick_t", op.getName());
+
+        op = m.match("insert into_t values(1)");
+        Assert.assertEquals("insert", SqlOperation.INSERT, op.getOperation());
+        Assert.assertEquals("insert", "into_t", op.getName());
+
+        op = m.match("CREATE INDEX i ON foo(c1) COMMENT 'based on bar'");
+        Assert.assertEquals("index", SqlOperation.INDEX, op.getObjectType());
+        Assert.assertEquals("index", "foo", op.getName());
+
+        op = m.match("DROP FUNCTION IF EXISTS bar.foo");
+        Assert.assertEquals("function", SqlOperation.FUNCTION,
+                op.getObjectType());
+        Assert.assertEquals("function", SqlOperation.DROP, op.getOperation());
+        Assert.assertEquals("function", "bar", op.getSchema());
+        Assert.assertEquals("function", "foo", op.getName());
+
+        op = m.match("CREATE VIEW `bar`.`foo` AS select * from review_log");
+        Assert.assertEquals("view", SqlOperation.VIEW, op.getObjectType());
+        Assert.assertEquals("view", SqlOperation.CREATE, op.getOperation());
+        Assert.assertEquals("view", "bar", op.getSchema());
+        Assert.assertEquals("view", "foo", op.getName());
+    }
+
+    // Statements with the results given by the regex-based matcher that
+    // MySQLOperationMatcher replaced: statement, object type, operation,
+    // schema, name, auto-commit and bidi-unsafe.
+    private static final Object[][] REFERENCE_OPERATIONS = {
+            {"create xxxx database foo",
+                    SqlOperation.UNRECOGNIZED, SqlOperation.UNRECOGNIZED, null, null, false, true},
+            {"",
+                    SqlOperation.UNRECOGNIZED, SqlOperation.UNRECOGNIZED, null, null, false, true},
+            {"create `TABLE` `foo` /* hello*/",
+                    SqlOperation.UNRECOGNIZED, SqlOperation.UNRECOGNIZED, null, null, false, true},
+            {"CREATE DATABASE /*!32312 IF NOT EXISTS*/ `foo` /*!40100 DEFAULT CHARACTER SET latin1 */",
+                    SqlOperation.SCHEMA, SqlOperation.CREATE, "foo", null, true, false},
+            {"drop database `foo` /* hello*/",
+                    SqlOperation.SCHEMA, SqlOperation.DROP, "foo", null, true, false},
+            {"   creAtE TEMPORary TabLE \"foo\"",
+                    SqlOperation.TABLE, SqlOperation.CREATE, null, "foo", true, false},
+            {"create temporary  table   `bar`.`foo` /* hello*/",
+                    SqlOperation.TABLE, SqlOperation.CREATE, "bar", "foo", true, false},
+            {"drop    table  if   exists  foo",
+                    SqlOperation.TABLE, SqlOperation.DROP, null, "foo", true, false},
+            {"DROP TABLE IF EXISTS TUNGSTEN_INFO.bravo, `bar`.`foo`",
+                    SqlOperation.TABLE, SqlOperation.DROP, "bar", "foo", true, false},
+            {"insert  delayed into    `foo` /* hello*/ (one,too) values(1,2)",
+                    SqlOperation.TABLE, SqlOperation.INSERT, null, "foo", false, false},
+            {"insert   ignore  into    `bar`.`foo` /* hello*/ (one,too) values(1,2)",
+                    SqlOperation.TABLE, SqlOperation.INSERT, "bar", "foo", false, false},
+            {"CREATE ONLINE INDEX `index` ON `bar`.`foo`(c2_2)",
+                    SqlOperation.INDEX, SqlOperation.CREATE, "bar", "foo", true, false},
+            {"   DROP INDEX `index` ON \"bar\".\"foo\"(c2_2)",
+                    SqlOperation.INDEX, SqlOperation.DROP, "bar", "foo", true, false},
+            {"REPLACE bar.foo(id,msg) values(1, 'data')",
+                    SqlOperation.TABLE, SqlOperation.REPLACE, "bar", "foo", false, false},
+            {"update /* comment */ foo set id=1",
+                    SqlOperation.TABLE, SqlOperation.UPDATE, null, "foo", false, false},
+            {"update  LOW_PRIORITY IGNORE   `bar`.`foo` /* hello*/ set id=1",
+                    SqlOperation.TABLE, SqlOperation.UPDATE, "bar", "foo", false, false},
+            {"/* comment */ delete /* comment */ from foo where id=1",
+                    SqlOperation.TABLE, SqlOperation.DELETE, null, "foo", false, false},
+            {"DElete LOW_PRIORITY QUICK IGNORE bar.\"foo\"",
+                    SqlOperation.TABLE, SqlOperation.DELETE, "bar", "foo", false, false},
+            {"TRUNCATE    tABlE  \"bar\".\"foo\" ",
+                    SqlOperation.TABLE, SqlOperation.TRUNCATE, "bar", "foo", true, false},
+            {"loAd   datA    lOcal iNfilE '/tmp/ld.txt' into   table bar.\"foo\" FIELDS TERMINATED BY ','",
+                    SqlOperation.TABLE, SqlOperation.LOAD_DATA, "bar", "foo", false, false},
+            {"SET @var0 := NULL",
+                    SqlOperation.SESSION, SqlOperation.SET, null, null, false, false},
+            {"CREATE DEFINER=`root`@`localhost` PROCEDURE `bar`.`foo`() begin select 1; end",
+                    SqlOperation.PROCEDURE, SqlOperation.CREATE, "bar", "foo", true, false},
+            {"CREATE DEFINER=`root`@`localhost` FUNCTION foo() RETURNS INT return 1",
+                    SqlOperation.FUNCTION, SqlOperation.CREATE, null, "foo", true, false},
+            {"DRop  PRocedurE \"bar\".\"foo\"",
+                    SqlOperation.PROCEDURE, SqlOperation.DROP, "bar", "foo", true, false},
+            {"CREATE OR REPLACE ALGORITHM=UNDEFINED DEFINER=`root`@`localhost` SQL SECURITY DEFINER VIEW `bar`.`foo` AS select 1",
+                    SqlOperation.VIEW, SqlOperation.CREATE, "bar", "foo", true, false},
+            {"drop view  if  exists bar.foo",
+                    SqlOperation.VIEW, SqlOperation.DROP, "bar", "foo", true, false},
+            {"/*!50000 CREATE TABLE IF NOT EXISTS foo */",
+                    SqlOperation.TABLE, SqlOperation.CREATE, null, "foo", true, false},
+            {"-- this is a comment\n   create -- comment\ntable foo",
+                    SqlOperation.TABLE, SqlOperation.CREATE, null, "foo", true, false},
+            {" start transaction WITH CONSISTENT SNAPSHOT",
+                    SqlOperation.TRANSACTION, SqlOperation.BEGIN, null, null, false, false},
+            {" BEGIN WORK ",
+                    SqlOperation.TRANSACTION, SqlOperation.BEGIN, null, null, false, false},
+            {" cOMmit WorK",
+                    SqlOperation.TRANSACTION, SqlOperation.COMMIT, null, null, true, false},
+            {"ROLLBACK",
+                    SqlOperation.TRANSACTION, SqlOperation.ROLLBACK, null, null, true, false},
+            {"begin select 1; end",
+                    SqlOperation.BLOCK, SqlOperation.BEGIN_END, null, null, false, false},
+            {"flush /* foo */ tables",
+                    SqlOperation.DBMS, SqlOperation.FLUSH_TABLES, null, null, true, false},
+            {"SELECT CONCAT(last_name,', ',first_name) AS full_name FROM mytable ORDER BY full_name",
+                    SqlOperation.TABLE, SqlOperation.SELECT, null, null, false, false},
+            {"ALTER TABLE bar.foo ADD COLUMN c2 INT",
+                    SqlOperation.TABLE, SqlOperation.ALTER, "bar", "foo", true, false},
+            {"alter ignore table `foo` drop column c2",
+                    SqlOperation.TABLE, SqlOperation.ALTER, null, "foo", true, false}};
+
+    /**
+     * Verify that the matcher returns the same operations as the regex-based
+     * matcher it replaces. The regex matcher itself lives with the matcher
+     * benchmark.
+     */
+    @Test
+    public void testAgreesWithRegexMatcher() throws Exception
+    {
+        SqlOperationMatcher m = new MySQLOperationMatcher();
+        for (Object[] reference : REFERENCE_OPERATIONS)
+        {
+            String cmd = (String) reference[0];
+            SqlOperation actual = m.match(cmd);
+            Assert.assertEquals("Object type: " + cmd, reference[1],
+                    actual.getObjectType());
+            Assert.assertEquals("Operation: " + cmd, reference[2],
+                    actual.getOperation());
+            Assert.assertEquals("Schema: " + cmd, reference[3],
+                    actual.getSchema());
+            Assert.assertEquals("Name: " + cmd, reference[4], actual.getName());
+            Assert.assertEquals("Autocommit: " + cmd, reference[5],
+                    actual.isAutoCommit());
+            Assert.assertEquals("Bidi unsafe: " + cmd, reference[6],
+                    actual.isBidiUnsafe());
+        }
+    }
+}
@@ -149,4 +149,52 @@ public class TestTableMatcher
         Assert.assertFalse(tm.match("test1", "barx"));
         Assert.assertFalse(tm.match("db25", "xfoo"));
     }
-}
\ No newline at end of file
+
+    /**
+     * Verify that remembered matches are discarded when the matcher is
+     * prepared with new patterns.
+     */
+    @Test
+    public void testRepeatedMatches() throws Exception
+    {
+        TableMatcher tm = new TableMatcher();
+        tm.prepare("test.foo");
+        for (int i = 0; i < 3; i++)
+        {
+            Assert.assertTrue(tm.match("test", "foo"));
+            Assert.assertFalse(tm.match("test", "bar"));
+        }
+
+        tm.prepare("test.bar");
+        Assert.assertFalse(tm.match("test", "foo"));
+        Assert.assertTrue(tm.match("test", "bar"));
+    }
+
+    /**
+     * Verify that the decision cache returns stored values and empties itself
+     * when it reaches capacity.
+     */
+    @Test
+    public void testDecisionCache() throws Exception
+    {
+        TableDecisionCache<Boolean> cache = new TableDecisionCache<Boolean>(3);
+        cache.put("s1", "t1", true);
+        cache.put("s1", null, false);
+        cache.put("s2", "t1", false);
+        Assert.assertEquals(3, cache.size());
+        Assert.assertEquals(Boolean.TRUE, cache.get("s1", "t1"));
+        Assert.assertEquals(Boolean.FALSE, cache.get("s1", null));
+        Assert.assertEquals(Boolean.FALSE, cache.get("s1", ""));
+        Assert.assertNull(cache.get("s2", "t2"));
+
+        // Replacing a value does not count against capacity.
+        cache.put("s1", "t1", false);
+        Assert.assertEquals(3, cache.size());
+
+        // Adding a value at capacity discards the others.
+        cache.put("s3", "t1", true);
+        Assert.assertEquals(1, cache.size());
+        Assert.assertNull(cache.get("s1", "t1"));
+        Assert.assertEquals(Boolean.TRUE, cache.get("s3", "t1"));
+    }
+}
@@ -23,6 +23,8 @@
 package com.continuent.tungsten.replicator.database;
 
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
 
 import junit.framework.Assert;
 
@@ -30,6 +32,8 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.continuent.tungsten.common.cache.CacheResourceManager;
+
 /**
  * This class tests the TableMetadataCache.  There is a small number of 
  * cases as the underlying IndexedLRUCache has its own unit tests. 
@@ -148,6 +152,40 @@ public class TestTableMetadataCache
         tmc.invalidateAll();
     }
 
+    /**
+     * Ensure that a release listener sees every table dropped from the cache,
+     * which allows clients to free resources such as prepared statements.
+     */
+    @Test
+    public void testReleaseListener() throws Exception
+    {
+        String[] schemas = {"a", "b"};
+        String[] tableNames = {"x", "y"};
+        TableMetadataCache tmc = this.populateCache(schemas, tableNames);
+
+        // Record the names of released tables.
+        final List<String> released = new ArrayList<String>();
+        tmc.setReleaseListener(new CacheResourceManager<Table>()
+        {
+            public void release(Table metadata)
+            {
+                released.add(metadata.fullyQualifiedName());
+            }
+        });
+
+        // Invalidate by ALTER TABLE and confirm the listener sees it.
+        SqlOperation op = new SqlOperation(SqlOperation.TABLE,
+                SqlOperation.ALTER, null, "y");
+        tmc.invalidate(op, "a");
+        Assert.assertEquals("alter table", 1, released.size());
+        Assert.assertEquals("alter table",
+                new Table("a", "y").fullyQualifiedName(), released.get(0));
+
+        // Clearing the cache releases the remaining tables.
+        tmc.invalidateAll();
+        Assert.assertEquals("invalidate all", 4, released.size());
+    }
+
     // Create tables.
     public TableMetadataCache populateCache(String[] schemas,
             String[] tableNames) throws Exception
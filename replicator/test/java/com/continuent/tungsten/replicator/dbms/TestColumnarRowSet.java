@@ -0,0 +1,260 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.dbms;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.thl.THLEvent;
+import com.continuent.tungsten.replicator.thl.protobuf.TungstenProtos.Header;
+import com.continuent.tungsten.replicator.thl.serializer.ProtobufSerializer;
+
+/**
+ * Tests columnar storage of row values and its use through OneRowChange.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public class TestColumnarRowSet
+{
+    /**
+     * Confirm that values read back with the type and value stored, including
+     * nulls, and that columns switch to objects when types are mixed.
+     */
+    @Test
+    public void testValues() throws Exception
+    {
+        ColumnarRowSet rows = new ColumnarRowSet(4, 1);
+        for (int i = 0; i < 100; i++)
+        {
+            int row = rows.addRow();
+            rows.setInt(row, 0, i);
+            rows.setLong(row, 1, i * 1000000000L);
+            if (i % 2 == 0)
+                rows.setValue(row, 2, "value" + i);
+            if (i == 50)
+                rows.setValue(row, 3, new Timestamp(i));
+            else
+                rows.setValue(row, 3, Integer.valueOf(i));
+        }
+
+        Assert.assertEquals("Row count", 100, rows.size());
+        Assert.assertTrue("Int column is primitive", rows.isPrimitive(0));
+        Assert.assertTrue("Long column is primitive", rows.isPrimitive(1));
+        Assert.assertFalse("Mixed column is not primitive",
+                rows.isPrimitive(3));
+        for (int i = 0; i < 100; i++)
+        {
+            Assert.assertEquals("Int value", Integer.valueOf(i),
+                    rows.getValue(i, 0));
+            Assert.assertEquals("Primitive value", i, rows.getLong(i, 0));
+            Assert.assertEquals("Long value", Long.valueOf(i * 1000000000L),
+                    rows.getValue(i, 1));
+            if (i % 2 == 0)
+                Assert.assertEquals("String value", "value" + i,
+                        rows.getValue(i, 2));
+            else
+                Assert.assertTrue("Null value", rows.isNull(i, 2));
+            Serializable expected = (i == 50)
+                    ? new Timestamp(i)
+                    : Integer.valueOf(i);
+            Assert.assertEquals("Mixed value", expected, rows.getValue(i, 3));
+        }
+
+        // Null out a primitive value.
+        rows.setNull(10, 0);
+        Assert.assertNull("Null primitive", rows.getValue(10, 0));
+    }
+
+    /**
+     * Confirm that OneRowChange reads columnar values through accessors and
+     * converts them to ColumnVal lists only when asked.
+     */
+    @Test
+    public void testOneRowChange() throws Exception
+    {
+        OneRowChange rowChange = new OneRowChange();
+        ColumnarRowSet rows = new ColumnarRowSet(2, 2);
+        for (int i = 0; i < 3; i++)
+        {
+            int row = rows.addRow();
+            rows.setInt(row, 0, i);
+            rows.setValue(row, 1, (i == 1) ? null : "v" + i);
+        }
+        rowChange.setColumnRows(rows);
+
+        Assert.assertEquals("Row count", 3, rowChange.getColumnRowCount());
+        Assert.assertEquals("Value count", 2, rowChange.getColumnValueCount(0));
+        Assert.assertEquals("Columnar value", Integer.valueOf(2),
+                rowChange.getColumnValue(2, 0));
+        Assert.assertNull("Columnar null", rowChange.getColumnValue(1, 1));
+        Assert.assertEquals("No keys", 0, rowChange.getKeyRowCount());
+
+        // Convert to lists and confirm accessors now read the lists.
+        ArrayList<ArrayList<ColumnVal>> values = rowChange.getColumnValues();
+        Assert.assertEquals("List rows", 3, values.size());
+        Assert.assertEquals("List value", "v2", values.get(2).get(1)
+                .getValue());
+        Assert.assertNull("List null", values.get(1).get(1).getValue());
+        values.get(0).get(1).setValue("changed");
+        Assert.assertEquals("Accessor reads lists", "changed",
+                rowChange.getColumnValue(0, 1));
+        Assert.assertSame("Lists are kept", values,
+                rowChange.getColumnValues());
+    }
+
+    /**
+     * Confirm that row changes deserialize to columnar form with the same
+     * values and serialize to the same bytes as their list form.
+     */
+    @Test
+    public void testSerializerRoundTrip() throws Exception
+    {
+        OneRowChange rowChange = new OneRowChange("test", "t1",
+                RowChangeData.ActionType.UPDATE);
+        int[] types = {Types.INTEGER, Types.INTEGER, Types.DECIMAL,
+                Types.VARCHAR, Types.TIMESTAMP};
+        int[] lengths = {4, 8, 0, 0, 0};
+        for (int i = 0; i < types.length; i++)
+        {
+            ColumnSpec spec = rowChange.new ColumnSpec();
+            spec.setIndex(i + 1);
+            spec.setType(types[i]);
+            spec.setLength(lengths[i]);
+            rowChange.getColumnSpec().add(spec);
+        }
+        ColumnSpec keySpec = rowChange.new ColumnSpec();
+        keySpec.setIndex(1);
+        keySpec.setType(Types.INTEGER);
+        keySpec.setLength(4);
+        rowChange.getKeySpec().add(keySpec);
+
+        for (int row = 0; row < 20; row++)
+        {
+            ArrayList<ColumnVal> values = new ArrayList<ColumnVal>();
+            values.add(createValue(rowChange, Integer.valueOf(row)));
+            values.add(createValue(rowChange, Long.valueOf(row * 100000L)));
+            values.add(createValue(rowChange, new BigDecimal(row + ".25")));
+            values.add(createValue(rowChange, (row % 3 == 0) ? null : "r"
+                    + row));
+            values.add(createValue(rowChange, (row == 0)
+                    ? Integer.valueOf(0)
+                    : new Timestamp(row * 1000L)));
+            rowChange.getColumnValues().add(values);
+
+            ArrayList<ColumnVal> keys = new ArrayList<ColumnVal>();
+            keys.add(createValue(rowChange, Integer.valueOf(row)));
+            rowChange.getKeyValues().add(keys);
+        }
+
+        ProtobufSerializer serializer = new ProtobufSerializer();
+        byte[] bytes = serialize(serializer, createEvent(rowChange));
+        THLEvent thlEvent = serializer
+                .deserializeEvent(new ByteArrayInputStream(bytes));
+        OneRowChange copy = ((RowChangeData) ((ReplDBMSEvent) thlEvent
+                .getReplEvent()).getData().get(0)).getRowChanges().get(0);
+
+        byte[] columnarBytes = serializeData(serializer, thlEvent);
+
+        // Values must match with their original types.
+        Assert.assertEquals("Rows", 20, copy.getColumnRowCount());
+        for (int row = 0; row < 20; row++)
+        {
+            for (int i = 0; i < types.length; i++)
+            {
+                Assert.assertEquals("Value " + row + "," + i,
+                        rowChange.getColumnValue(row, i),
+                        copy.getColumnValue(row, i));
+            }
+            Assert.assertEquals("Key " + row, rowChange.getKeyValue(row, 0),
+                    copy.getKeyValue(row, 0));
+        }
+
+        // Serializing after conversion to lists must give identical bytes.
+        Assert.assertEquals("Converted rows", 20, copy.getColumnValues()
+                .size());
+        Assert.assertEquals("Converted keys", 20, copy.getKeyValues().size());
+        Assert.assertArrayEquals("Serialized bytes", columnarBytes,
+                serializeData(serializer, thlEvent));
+    }
+
+    // Wraps a row change in a THL event.
+    private THLEvent createEvent(OneRowChange rowChange)
+    {
+        RowChangeData data = new RowChangeData();
+        data.appendOneRowChange(rowChange);
+        ArrayList<DBMSData> dataList = new ArrayList<DBMSData>();
+        dataList.add(data);
+        Timestamp ts = new Timestamp(1000);
+        DBMSEvent dbmsEvent = new DBMSEvent("mysql-bin.000001:1", null,
+                dataList, true, ts);
+        ReplDBMSEvent replEvent = new ReplDBMSEvent(1, (short) 0, true,
+                "test", 0, ts, dbmsEvent);
+        return new THLEvent("mysql-bin.000001:1", replEvent);
+    }
+
+    // Serializes a THL event.
+    private byte[] serialize(ProtobufSerializer serializer, THLEvent event)
+            throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.serializeEvent(event, out);
+        return out.toByteArray();
+    }
+
+    // Serializes a THL event and returns the bytes following the header,
+    // which contains the time of serialization.
+    private byte[] serializeData(ProtobufSerializer serializer, THLEvent event)
+            throws Exception
+    {
+        ByteArrayInputStream in = new ByteArrayInputStream(serialize(
+                serializer, event));
+        Header.parseDelimitedFrom(in);
+        byte[] data = new byte[in.available()];
+        in.read(data);
+        return data;
+    }
+
+    // Creates a column value.
+    private ColumnVal createValue(OneRowChange rowChange, Serializable value)
+    {
+        ColumnVal columnVal = rowChange.new ColumnVal();
+        if (value == null)
+            columnVal.setValueNull();
+        else
+            columnVal.setValue(value);
+        return columnVal;
+    }
+}
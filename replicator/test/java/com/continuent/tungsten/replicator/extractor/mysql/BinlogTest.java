@@ -22,6 +22,8 @@
 
 package com.continuent.tungsten.replicator.extractor.mysql;
 
+import java.util.ArrayList;
+
 import junit.framework.TestCase;
 
 import org.apache.log4j.BasicConfigurator;
@@ -33,6 +35,11 @@ import com.continuent.tungsten.replicator.applier.DummyApplier;
 import com.continuent.tungsten.replicator.conf.ReplicatorConf;
 import com.continuent.tungsten.replicator.conf.ReplicatorMonitor;
 import com.continuent.tungsten.replicator.conf.ReplicatorRuntime;
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
 import com.continuent.tungsten.replicator.extractor.ExtractorWrapper;
 import com.continuent.tungsten.replicator.management.MockOpenReplicatorContext;
 import com.continuent.tungsten.replicator.pipeline.Pipeline;
@@ -175,6 +182,36 @@ public class BinlogTest extends TestCase
         return;
     }
 
+    /**
+     * Verify that decoding rows events in a decode pool returns the same
+     * events in the same order as decoding on the extractor thread.
+     */
+    public void testBinlogRBRDecodePool() throws Exception
+    {
+        ArrayList<String> expected = extractEvents("binlog_rbr_1", 0, false, 4);
+        ArrayList<String> actual = extractEvents("binlog_rbr_1", 4, false, 4);
+        assertEquals("Event count", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+        {
+            assertEquals("Event " + i, expected.get(i), actual.get(i));
+        }
+    }
+
+    /**
+     * Verify that reading the binlog through a memory map returns the same
+     * events as buffered reads.
+     */
+    public void testBinlogRBRMapped() throws Exception
+    {
+        ArrayList<String> expected = extractEvents("binlog_rbr_1", 0, false, 4);
+        ArrayList<String> actual = extractEvents("binlog_rbr_1", 0, true, 4);
+        assertEquals("Event count", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+        {
+            assertEquals("Event " + i, expected.get(i), actual.get(i));
+        }
+    }
+
     public void testApplierRBR() throws Exception
     {
         if (true)
@@ -226,6 +263,69 @@ public class BinlogTest extends TestCase
 //        return;
     }
 
+    // Extract events and return a description of each.
+    private ArrayList<String> extractEvents(String pattern, int decodeThreads,
+            boolean mapped, int count) throws Exception
+    {
+        TungstenProperties conf = this.createConfProperties();
+        conf.setString(ReplicatorConf.EXTRACTOR_ROOT + ".mysql.binlog_dir",
+                ".");
+        conf.setString(ReplicatorConf.EXTRACTOR_ROOT
+                + ".mysql.binlog_file_pattern", pattern);
+        ReplicatorRuntime runtime = new ReplicatorRuntime(conf,
+                new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance());
+        runtime.configure();
+        MySQLExtractor extractor = getMySQLExtractor(runtime);
+        extractor.setStrictVersionChecking(false);
+        extractor.setDecodeThreads(decodeThreads);
+        extractor.setUseMappedBinlogs(mapped);
+        extractor.prepare(runtime);
+        extractor.setLastEventId("000001:0");
+
+        ArrayList<String> events = new ArrayList<String>();
+        try
+        {
+            for (int i = 0; i < count; i++)
+            {
+                DBMSEvent event = extractor.extract();
+                assertNotNull("Extracted event " + i, event);
+                events.add(describe(event));
+            }
+        }
+        finally
+        {
+            extractor.release(runtime);
+        }
+        return events;
+    }
+
+    // Describe the contents of an event including row change values.
+    private String describe(DBMSEvent event)
+    {
+        StringBuffer sb = new StringBuffer(event.getEventId());
+        for (DBMSData data : event.getData())
+        {
+            sb.append(" ").append(data.getClass().getSimpleName());
+            if (data instanceof RowChangeData)
+            {
+                for (OneRowChange rowChange : ((RowChangeData) data)
+                        .getRowChanges())
+                {
+                    sb.append(" ").append(rowChange.getAction());
+                    sb.append(" ").append(rowChange.getSchemaName());
+                    sb.append(".").append(rowChange.getTableName());
+                    for (ArrayList<ColumnVal> row : rowChange
+                            .getColumnValues())
+                        sb.append(" ").append(row);
+                    for (ArrayList<ColumnVal> row : rowChange.getKeyValues())
+                        sb.append(" ").append(row);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
     // Generate a simple runtime.
     private TungstenProperties createConfProperties()
             throws ReplicatorException
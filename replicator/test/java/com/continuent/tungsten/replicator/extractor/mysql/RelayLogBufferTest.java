@@ -0,0 +1,169 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.extractor.mysql;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import com.continuent.tungsten.replicator.extractor.mysql.conversion.LittleEndianConversion;
+
+/**
+ * Implements unit tests on the RelayLogBuffer class and on reading streamed
+ * events through BinlogReader.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public class RelayLogBufferTest extends TestCase
+{
+    /**
+     * Verify that the buffer blocks producers when full, always accepts an
+     * oversized event when empty, and releases bytes as events are removed.
+     */
+    public void testBounds() throws Exception
+    {
+        final RelayLogBuffer buffer = new RelayLogBuffer(100);
+        assertFalse("Nothing to read", buffer.waitAvailable(10));
+        assertNull("Empty poll", buffer.poll());
+
+        // An event larger than the buffer is accepted when empty.
+        buffer.put(new RelayLogBuffer.Entry("mysql-bin.000001", 204,
+                new byte[200]));
+        assertEquals("Oversized event bytes", 200, buffer.getBytes());
+        assertEquals("Oversized event position", 204, buffer.poll()
+                .getNextPosition());
+
+        // Fill the buffer and show that the next put waits for a poll.
+        buffer.put(new RelayLogBuffer.Entry("mysql-bin.000001", 64,
+                new byte[60]));
+        Thread producer = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    buffer.put(new RelayLogBuffer.Entry("mysql-bin.000001",
+                            124, new byte[60]));
+                }
+                catch (InterruptedException e)
+                {
+                }
+            }
+        };
+        producer.start();
+        producer.join(200);
+        assertTrue("Producer blocked on full buffer", producer.isAlive());
+        assertEquals("Buffered events", 1, buffer.size());
+
+        assertEquals("First event", 64, buffer.poll().getNextPosition());
+        producer.join(5000);
+        assertFalse("Producer finished", producer.isAlive());
+        assertTrue("Event available", buffer.waitAvailable(10));
+        assertEquals("Second event", 124, buffer.poll().getNextPosition());
+        assertEquals("Buffer empty", 0, buffer.getBytes());
+    }
+
+    /**
+     * Verify that events streamed through a relay log buffer are decoded
+     * identically to events read from the binlog file and that positions
+     * match.
+     */
+    public void testStreamedEvents() throws Exception
+    {
+        String binlog = "binlog_rbr_1.000001";
+        FormatDescriptionLogEvent description = new FormatDescriptionLogEvent(
+                4);
+
+        // Post all events from the binlog to a buffer.
+        ArrayList<RelayLogBuffer.Entry> entries = readEntries(new File(binlog));
+        assertTrue("Binlog contains events", entries.size() > 0);
+        RelayLogBuffer buffer = new RelayLogBuffer(1000000);
+        for (RelayLogBuffer.Entry entry : entries)
+            buffer.put(entry);
+
+        // Read the events back from the buffer and the file.
+        BinlogReader streamed = new BinlogReader(0, binlog, ".",
+                "binlog_rbr_1", 1024);
+        streamed.setRelayBuffer(buffer);
+        streamed.open();
+        assertTrue("Streaming", streamed.isStreaming());
+        BinlogReader file = new BinlogReader(0, binlog, ".", "binlog_rbr_1",
+                1024);
+        file.open();
+
+        for (int i = 0; i < entries.size(); i++)
+        {
+            assertTrue("Event available: " + i, streamed.waitEvent(1000));
+            LogEvent streamedEvent = LogEvent.readLogEvent(null, streamed,
+                    description, true, false, false);
+            LogEvent fileEvent = LogEvent.readLogEvent(null, file,
+                    description, true, false, false);
+            assertEquals("Event type: " + i, fileEvent.getClass(),
+                    streamedEvent.getClass());
+            assertEquals("Position: " + i, file.getPosition(),
+                    streamed.getPosition());
+            assertEquals("File: " + i, binlog, streamed.getFileName());
+        }
+        assertFalse("No more events", streamed.waitEvent(10));
+        file.close();
+        streamed.close();
+    }
+
+    // Split a binlog file into relay buffer entries.
+    private ArrayList<RelayLogBuffer.Entry> readEntries(File binlog)
+            throws Exception
+    {
+        ArrayList<RelayLogBuffer.Entry> entries = new ArrayList<RelayLogBuffer.Entry>();
+        DataInputStream dis = new DataInputStream(new FileInputStream(binlog));
+        try
+        {
+            long position = MysqlBinlog.BIN_LOG_HEADER_SIZE;
+            dis.skipBytes(MysqlBinlog.BIN_LOG_HEADER_SIZE);
+            long length = binlog.length();
+            while (position < length)
+            {
+                byte[] header = new byte[MysqlBinlog.PROBE_HEADER_LEN];
+                dis.readFully(header);
+                int eventLength = (int) LittleEndianConversion
+                        .convert4BytesToLong(header,
+                                MysqlBinlog.EVENT_LEN_OFFSET);
+                byte[] event = new byte[eventLength];
+                System.arraycopy(header, 0, event, 0, header.length);
+                dis.readFully(event, header.length, eventLength
+                        - header.length);
+                position += eventLength;
+                entries.add(new RelayLogBuffer.Entry(binlog.getName(),
+                        position, event));
+            }
+        }
+        finally
+        {
+            dis.close();
+        }
+        return entries;
+    }
+}
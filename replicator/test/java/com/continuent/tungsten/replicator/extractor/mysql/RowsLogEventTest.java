@@ -0,0 +1,146 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+
+package com.continuent.tungsten.replicator.extractor.mysql;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Implements unit tests on value decoding in RowsLogEvent.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public class RowsLogEventTest extends TestCase
+{
+    /**
+     * Verify that the documented binlog decimal example decodes correctly,
+     * including when the value sits at an offset inside a larger buffer.
+     */
+    public void testDecimalExample() throws Exception
+    {
+        byte[] buffer = {(byte) 0xff, (byte) 0x80, 0x00, 0x00, 0x05, 0x1b,
+                0x38, (byte) 0xb0, 0x60, 0x00, (byte) 0xff};
+        BigDecimal value = RowsLogEvent.extractDecimal(buffer, 1, 19, 10);
+        assertEquals("Decimal value", new BigDecimal("5.4567000000"), value);
+    }
+
+    /**
+     * Verify that decimals of all sizes round trip through the binary format,
+     * including negative values and values too large for a long.
+     */
+    public void testDecimalRoundTrip() throws Exception
+    {
+        Random random = new Random(1);
+        for (int precision = 1; precision <= 40; precision++)
+        {
+            for (int scale = 0; scale <= precision && scale <= 30; scale++)
+            {
+                for (int i = 0; i < 10; i++)
+                {
+                    BigInteger unscaled = new BigInteger(precision * 4, random)
+                            .mod(BigInteger.TEN.pow(precision));
+                    if (random.nextBoolean())
+                        unscaled = unscaled.negate();
+                    BigDecimal expected = new BigDecimal(unscaled, scale);
+                    byte[] bytes = encodeDecimal(expected, precision, scale);
+                    BigDecimal actual = RowsLogEvent.extractDecimal(bytes, 0,
+                            precision, scale);
+                    assertEquals("Decimal(" + precision + "," + scale + ")",
+                            expected, actual);
+                }
+            }
+        }
+    }
+
+    /**
+     * Verify that a buffer too short for the decimal is rejected.
+     */
+    public void testDecimalTruncated() throws Exception
+    {
+        byte[] bytes = encodeDecimal(new BigDecimal("1.5"), 10, 2);
+        try
+        {
+            RowsLogEvent.extractDecimal(bytes, 1, 10, 2);
+            fail("Decoded truncated decimal");
+        }
+        catch (ArrayIndexOutOfBoundsException e)
+        {
+        }
+    }
+
+    // Encodes a decimal in MySQL binary format.
+    private byte[] encodeDecimal(BigDecimal value, int precision, int scale)
+    {
+        int intg = precision - scale;
+        int intg0 = intg / MysqlBinlog.DIG_PER_INT32;
+        int frac0 = scale / MysqlBinlog.DIG_PER_INT32;
+        int intg0x = intg - intg0 * MysqlBinlog.DIG_PER_INT32;
+        int frac0x = scale - frac0 * MysqlBinlog.DIG_PER_INT32;
+
+        // Left pad the unscaled digits to the full precision.
+        String digits = value.unscaledValue().abs().toString();
+        while (digits.length() < precision)
+            digits = "0" + digits;
+
+        byte[] bytes = new byte[intg0 * 4 + MysqlBinlog.dig2bytes[intg0x]
+                + frac0 * 4 + MysqlBinlog.dig2bytes[frac0x]];
+        int offset = 0;
+        int digit = 0;
+        int[] groups = new int[intg0 + frac0 + 2];
+        int groupCount = 0;
+        groups[groupCount++] = intg0x;
+        for (int i = 0; i < intg0 + frac0; i++)
+            groups[groupCount++] = MysqlBinlog.DIG_PER_INT32;
+        groups[groupCount++] = frac0x;
+        for (int i = 0; i < groupCount; i++)
+        {
+            int size = groups[i] == MysqlBinlog.DIG_PER_INT32
+                    ? 4
+                    : MysqlBinlog.dig2bytes[groups[i]];
+            if (size == 0)
+                continue;
+            long group = Long.parseLong(digits.substring(digit, digit
+                    + groups[i]));
+            digit += groups[i];
+            for (int j = size - 1; j >= 0; j--)
+            {
+                bytes[offset + j] = (byte) (group & 0xFF);
+                group >>= 8;
+            }
+            offset += size;
+        }
+
+        bytes[0] ^= 0x80;
+        if (value.signum() < 0)
+        {
+            for (int i = 0; i < bytes.length; i++)
+                bytes[i] ^= 0xFF;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,330 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.loader;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.continuent.tungsten.common.config.TungstenProperties;
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.conf.ReplicatorMonitor;
+import com.continuent.tungsten.replicator.conf.ReplicatorRuntime;
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.event.DBMSEmptyEvent;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplOptionParams;
+import com.continuent.tungsten.replicator.management.MockOpenReplicatorContext;
+
+/**
+ * Tests loading tables from an embedded Derby database.
+ * 
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public class JdbcLoaderTest extends TestCase
+{
+    private static final String DRIVER = "org.apache.derby.jdbc.EmbeddedDriver";
+    private static final String URL    = "jdbc:derby:testLoader;create=true";
+    private static final String SCHEMA = "LOADTEST";
+
+    /**
+     * Loader that connects to the test database. Nothing writes to the
+     * database during tests, so it claims to lock tables without doing so.
+     */
+    static class TestLoader extends JdbcLoader
+    {
+        TestLoader()
+        {
+            driver = DRIVER;
+            url = URL;
+        }
+
+        protected boolean canLockTables()
+        {
+            return true;
+        }
+    }
+
+    // Events and rows returned for each table by a load.
+    private HashMap<String, Integer>      events;
+    private HashMap<String, List<String>> rows;
+
+    /**
+     * Create test tables.
+     */
+    public void setUp() throws Exception
+    {
+        Class.forName(DRIVER);
+        Connection conn = DriverManager.getConnection(URL);
+        try
+        {
+            Statement stmt = conn.createStatement();
+            for (String table : new String[]{"DENSE", "SPARSE", "EMPTY",
+                    "NOKEY", "COMPOSITE"})
+            {
+                try
+                {
+                    stmt.execute("DROP TABLE " + SCHEMA + "." + table);
+                }
+                catch (SQLException e)
+                {
+                    // Table does not exist yet.
+                }
+            }
+            stmt.execute("CREATE TABLE " + SCHEMA
+                    + ".DENSE (ID INT PRIMARY KEY, VAL VARCHAR(32))");
+            stmt.execute("CREATE TABLE " + SCHEMA
+                    + ".SPARSE (ID BIGINT PRIMARY KEY, VAL VARCHAR(32))");
+            stmt.execute("CREATE TABLE " + SCHEMA
+                    + ".EMPTY (ID INT PRIMARY KEY, VAL VARCHAR(32))");
+            stmt.execute("CREATE TABLE " + SCHEMA
+                    + ".NOKEY (ID INT, VAL VARCHAR(32))");
+            stmt.execute("CREATE TABLE " + SCHEMA
+                    + ".COMPOSITE (ID INT, NAME VARCHAR(32), "
+                    + "PRIMARY KEY (ID, NAME))");
+            stmt.close();
+
+            insertRows(conn, "DENSE", 1, 1, 1050);
+            insertRows(conn, "SPARSE", -5000, 1000000007, 300);
+            insertRows(conn, "NOKEY", 500, -1, 250);
+
+            // Composite keys repeat each ID with several names.
+            PreparedStatement ps = conn.prepareStatement("INSERT INTO "
+                    + SCHEMA + ".COMPOSITE VALUES (?, ?)");
+            for (int i = 0; i < 250; i++)
+            {
+                ps.setInt(1, i / 25);
+                ps.setString(2, "name" + (i % 25));
+                ps.execute();
+            }
+            ps.close();
+        }
+        finally
+        {
+            conn.close();
+        }
+    }
+
+    // Insert rows with keys spaced at a fixed interval.
+    private void insertRows(Connection conn, String table, long start,
+            long step, int count) throws SQLException
+    {
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO " + SCHEMA
+                + "." + table + " VALUES (?, ?)");
+        for (int i = 0; i < count; i++)
+        {
+            ps.setLong(1, start + i * step);
+            ps.setString(2, "row " + i);
+            ps.execute();
+        }
+        ps.close();
+    }
+
+    /**
+     * Verify that a parallel load returns every row once, that each table
+     * arrives as a contiguous run of events in ascending key order, and that
+     * events are tagged with the table shard.
+     */
+    public void testParallelLoad() throws Exception
+    {
+        HashMap<String, List<Long>> keys = loadKeys(4, true);
+        assertEquals("tables with rows", 4, keys.size());
+        checkKeys(keys.get(SCHEMA + ".DENSE"), 1, 1, 1050);
+        checkKeys(keys.get(SCHEMA + ".SPARSE"), -5000, 1000000007, 300);
+
+        // Chunk boundaries come from the data, so a sparse key needs no more
+        // chunks than a dense one.
+        assertEquals("dense chunks", 11, events.get(SCHEMA + ".DENSE")
+                .intValue());
+        assertEquals("sparse chunks", 3, events.get(SCHEMA + ".SPARSE")
+                .intValue());
+    }
+
+    /**
+     * Verify that a table without a primary key is read in a single chunk and
+     * that every row arrives once.
+     */
+    public void testTableWithoutKey() throws Exception
+    {
+        HashMap<String, List<Long>> keys = loadKeys(4, true);
+        assertEquals("one chunk", 1, events.get(SCHEMA + ".NOKEY").intValue());
+        List<String> nokey = rows.get(SCHEMA + ".NOKEY");
+        assertEquals("row count", 250, nokey.size());
+        assertEquals("distinct rows", 250, new HashSet<String>(nokey).size());
+        assertEquals("key count", 250, keys.get(SCHEMA + ".NOKEY").size());
+    }
+
+    /**
+     * Verify that a table with a composite primary key is split into key
+     * ranges that return each row once in key order.
+     */
+    public void testCompositeKey() throws Exception
+    {
+        loadKeys(3, true);
+        assertEquals("chunks", 3, events.get(SCHEMA + ".COMPOSITE")
+                .intValue());
+        List<String> composite = rows.get(SCHEMA + ".COMPOSITE");
+        assertEquals("row count", 250, composite.size());
+        assertEquals("distinct rows", 250,
+                new HashSet<String>(composite).size());
+        for (int i = 1; i < composite.size(); i++)
+        {
+            String[] prev = composite.get(i - 1).split("/");
+            String[] next = composite.get(i).split("/");
+            int order = Integer.valueOf(prev[0]).compareTo(
+                    Integer.valueOf(next[0]));
+            if (order == 0)
+                order = prev[1].compareTo(next[1]);
+            assertTrue("rows in key order: " + composite.get(i), order < 0);
+        }
+    }
+
+    /**
+     * Verify that a parallel load will not start unless tables are locked
+     * while the snapshots start.
+     */
+    public void testParallelLoadRequiresLock() throws Exception
+    {
+        try
+        {
+            loadKeys(4, false);
+            fail("Parallel load started without locking tables");
+        }
+        catch (ReplicatorException e)
+        {
+            // Expected.
+        }
+    }
+
+    /**
+     * Verify that a serial load with no matching tables returns the load
+     * complete event at once.
+     */
+    public void testEmptySerialLoad() throws Exception
+    {
+        TestLoader loader = new TestLoader();
+        loader.setIncludeSchemas("NOSUCHSCHEMA");
+        loader.configure(new ReplicatorRuntime(new TungstenProperties(),
+                new MockOpenReplicatorContext(), ReplicatorMonitor
+                        .getInstance()));
+        loader.prepare(null);
+        loader.setLastEventId(null);
+        DBMSEvent event = loader.extract();
+        assertTrue("load complete", event instanceof DBMSEmptyEvent);
+        assertNull("no more events", loader.extract());
+        loader.release(null);
+    }
+
+    // Load all rows and return keys by table. Event counts and rows as
+    // first/second column values are saved by table as well.
+    private HashMap<String, List<Long>> loadKeys(int threads, boolean lock)
+            throws Exception
+    {
+        TestLoader loader = new TestLoader();
+        loader.setIncludeSchemas(SCHEMA);
+        loader.setIncludeStructure(false);
+        loader.setChunkSize(100);
+        loader.setParallelThreads(threads);
+        loader.setLockTables(lock);
+        loader.configure(new ReplicatorRuntime(new TungstenProperties(),
+                new MockOpenReplicatorContext(), ReplicatorMonitor
+                        .getInstance()));
+        loader.prepare(null);
+        loader.setLastEventId(null);
+
+        HashMap<String, List<Long>> keys = new HashMap<String, List<Long>>();
+        events = new HashMap<String, Integer>();
+        rows = new HashMap<String, List<String>>();
+        String lastTable = null;
+        try
+        {
+            for (;;)
+            {
+                DBMSEvent event = loader.extract();
+                assertNotNull("event returned before load complete", event);
+                if (event instanceof DBMSEmptyEvent)
+                {
+                    assertEquals("LOAD_COMPLETE",
+                            event.getMetadataOptionValue(ReplOptionParams.HEARTBEAT));
+                    break;
+                }
+
+                String table = event.getEventId();
+                assertEquals("shard", table,
+                        event.getMetadataOptionValue(ReplOptionParams.SHARD_ID));
+                if (!table.equals(lastTable))
+                {
+                    assertFalse("table events are contiguous: " + table,
+                            keys.containsKey(table));
+                    keys.put(table, new ArrayList<Long>());
+                    rows.put(table, new ArrayList<String>());
+                    events.put(table, 0);
+                    lastTable = table;
+                }
+                events.put(table, events.get(table) + 1);
+                for (DBMSData data : event.getData())
+                {
+                    RowChangeData rowChanges = (RowChangeData) data;
+                    for (OneRowChange orc : rowChanges.getRowChanges())
+                    {
+                        for (ArrayList<OneRowChange.ColumnVal> row : orc
+                                .getColumnValues())
+                        {
+                            Number key = (Number) row.get(0).getValue();
+                            keys.get(table).add(key.longValue());
+                            rows.get(table).add(
+                                    row.get(0).getValue() + "/"
+                                            + row.get(1).getValue());
+                        }
+                    }
+                }
+            }
+            assertNull("no more events", loader.extract());
+        }
+        finally
+        {
+            loader.release(null);
+        }
+        return keys;
+    }
+
+    // Check keys are complete and in order.
+    private void checkKeys(List<Long> keys, long start, long step, int count)
+    {
+        assertNotNull("table loaded", keys);
+        assertEquals("row count", count, keys.size());
+        for (int i = 0; i < count; i++)
+            assertEquals("key", start + i * step, keys.get(i).longValue());
+    }
+}
@@ -24,7 +24,9 @@ package com.continuent.tungsten.replicator.pipeline;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -35,6 +37,10 @@ import org.junit.After;
 import org.junit.Before;
 
 import com.continuent.tungsten.common.config.TungstenProperties;
+import com.continuent.tungsten.fsm.core.Event;
+import com.continuent.tungsten.fsm.event.EventRequest;
+import com.continuent.tungsten.replicator.ErrorNotification;
+import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.applier.ApplierWrapper;
 import com.continuent.tungsten.replicator.applier.DummyApplier;
 import com.continuent.tungsten.replicator.applier.RawApplier;
@@ -49,6 +55,12 @@ import com.continuent.tungsten.replicator.management.MockEventDispatcher;
 import com.continuent.tungsten.replicator.management.MockOpenReplicatorContext;
 import com.continuent.tungsten.replicator.service.PipelineService;
 import com.continuent.tungsten.replicator.storage.InMemoryQueueStore;
+import com.continuent.tungsten.replicator.thl.THLEvent;
+import com.continuent.tungsten.replicator.thl.log.LogEventReplReader;
+import com.continuent.tungsten.replicator.thl.log.LogEventReplWriter;
+import com.continuent.tungsten.replicator.thl.log.LogRecord;
+import com.continuent.tungsten.replicator.thl.serializer.ProtobufSerializer;
+import com.continuent.tungsten.replicator.thl.serializer.Serializer;
 
 /**
  * This class implements a test of the Pipeline class.
@@ -566,6 +578,50 @@ public class PipelineTest extends TestCase
         }
     }
 
+    /**
+     * Verify that an event whose data cannot be decoded stops the stage with
+     * an error that includes the seqno, even if no filter reads the data.
+     */
+    public void testCorruptEventData() throws Exception
+    {
+        TungstenProperties config = helper.createDoubleQueueRuntime(10, 1);
+        ReplicatorRuntime runtime = new ReplicatorRuntime(config,
+                new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance());
+        runtime.configure();
+        runtime.prepare();
+        Pipeline pipeline = runtime.getPipeline();
+
+        // Load a good event followed by one with corrupt data.
+        InMemoryQueueStore input = (InMemoryQueueStore) pipeline
+                .getStore("q1");
+        input.put(helper.createEvent(0, "db0"));
+        input.put(createCorruptEvent(1));
+
+        // Start the pipeline and wait for an error notification.
+        final BlockingQueue<ErrorNotification> errors = new LinkedBlockingQueue<ErrorNotification>();
+        pipeline.start(new MockEventDispatcher()
+        {
+            public EventRequest put(Event event) throws InterruptedException
+            {
+                if (event instanceof ErrorNotification)
+                    errors.put((ErrorNotification) event);
+                return null;
+            }
+        });
+        ErrorNotification error = errors.poll(10, TimeUnit.SECONDS);
+        assertNotNull("Received error notification", error);
+        assertEquals("Error seqno", 1, error.getSeqno());
+        assertTrue("Error is a ReplicatorException",
+                error.getThrowable() instanceof ReplicatorException);
+        assertTrue("Error message has seqno: " + error.getThrowable(), error
+                .getThrowable().getMessage().indexOf("seqno=1") >= 0);
+
+        // Shut it down.
+        pipeline.shutdown(false);
+        pipeline.release(runtime);
+    }
+
     /**
      * Verify that we can handle 10M events without problems.
      */
@@ -604,4 +660,33 @@ public class PipelineTest extends TestCase
         pipeline.shutdown(false);
         pipeline.release(runtime);
     }
-}
\ No newline at end of file
+
+    // Returns an event read from a log record whose data are corrupt. Data
+    // are decoded lazily, so the event itself can be read.
+    private ReplDBMSEvent createCorruptEvent(long seqno) throws Exception
+    {
+        Serializer serializer = new ProtobufSerializer();
+        ReplDBMSEvent event = helper.createEvent(seqno, "db0");
+        LogRecord record = new LogEventReplWriter(new THLEvent("dummy",
+                event), serializer, false).write();
+
+        // Replace the tag in front of the query and its length with an
+        // invalid tag.
+        byte[] bytes = record.getData();
+        byte[] query = "SELECT 1".getBytes();
+        for (int i = 2; i <= bytes.length - query.length; i++)
+        {
+            if (new String(bytes, i, query.length).equals("SELECT 1"))
+            {
+                bytes[i - 2] = 0x07;
+                break;
+            }
+        }
+
+        LogEventReplReader reader = new LogEventReplReader(record, serializer,
+                false);
+        THLEvent thlEvent = reader.deserializeEvent();
+        reader.done();
+        return (ReplDBMSEvent) thlEvent.getReplEvent();
+    }
+}
@@ -0,0 +1,430 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.store.parallel;
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import com.continuent.tungsten.common.config.TungstenProperties;
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.conf.ReplicatorConf;
+import com.continuent.tungsten.replicator.conf.ReplicatorMonitor;
+import com.continuent.tungsten.replicator.conf.ReplicatorRuntime;
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.dbms.StatementData;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSHeader;
+import com.continuent.tungsten.replicator.management.MockOpenReplicatorContext;
+import com.continuent.tungsten.replicator.pipeline.PipelineConfigBuilder;
+import com.continuent.tungsten.replicator.storage.parallel.KeyDependencyPartitioner;
+import com.continuent.tungsten.replicator.storage.parallel.PartitionMetadata;
+import com.continuent.tungsten.replicator.storage.parallel.PartitionerResponse;
+
+/**
+ * Tests assignment of transactions to partitions based on the rows they
+ * change.
+ *
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ * @version 1.0
+ */
+public class KeyDependencyPartitionerTest extends TestCase
+{
+    // Simulated committed seqno.
+    private long                     committedSeqno = -1;
+
+    // Simulated unique secondary keys by table. Tables that map to null have
+    // unknown keys; tables that are not listed have none.
+    private Map<String, List<int[]>> uniqueKeys     = new HashMap<String, List<int[]>>();
+
+    /**
+     * Confirm that transactions on different rows of the same table go to
+     * different partitions whereas a transaction on a row that is in flight
+     * goes to the partition that owns the row.
+     */
+    public void testRowDependencies() throws Exception
+    {
+        KeyDependencyPartitioner kdp = createPartitioner(4);
+
+        // Updates on distinct rows are spread over partitions.
+        PartitionerResponse r0 = kdp.partition(createUpdate(0, "t1", 1), 0);
+        PartitionerResponse r1 = kdp.partition(createUpdate(1, "t1", 2), 0);
+        PartitionerResponse r2 = kdp.partition(createUpdate(2, "t1", 3), 0);
+        assertFalse("Not critical", r0.isCritical() || r1.isCritical()
+                || r2.isCritical());
+        assertTrue("Distinct partitions", r0.getPartition() != r1
+                .getPartition()
+                && r1.getPartition() != r2.getPartition()
+                && r0.getPartition() != r2.getPartition());
+
+        // An update on an in-flight row must follow the earlier update.
+        PartitionerResponse r3 = kdp.partition(createUpdate(3, "t1", 2), 0);
+        assertFalse("Not critical", r3.isCritical());
+        assertEquals("Same partition as owner", r1.getPartition(),
+                r3.getPartition());
+        assertEquals("Dependent count", 1, kdp.getDependentCount());
+
+        // A transaction that touches rows owned by two partitions must
+        // serialize and clears tracked rows.
+        PartitionerResponse r4 = kdp.partition(
+                createUpdate(4, "t1", new int[]{1, 3}), 0);
+        assertTrue("Critical", r4.isCritical());
+        assertEquals("Critical count", 1, kdp.getCriticalCount());
+        assertEquals("Only critical rows tracked", 2, kdp.getTrackedKeys());
+    }
+
+    /**
+     * Confirm that write sets are released once transactions commit.
+     */
+    public void testCommitRelease() throws Exception
+    {
+        KeyDependencyPartitioner kdp = createPartitioner(2);
+
+        kdp.partition(createUpdate(0, "t1", 1), 0);
+        kdp.partition(createUpdate(1, "t1", 2), 0);
+        assertEquals("Tracking 2 rows", 2, kdp.getTrackedKeys());
+
+        // After seqno 0 commits only the second row remains.
+        committedSeqno = 0;
+        kdp.partition(createUpdate(2, "t2", 1), 0);
+        assertEquals("Tracking 2 rows", 2, kdp.getTrackedKeys());
+
+        // Once everything commits a transaction touching both old rows is no
+        // longer critical.
+        committedSeqno = 2;
+        PartitionerResponse r = kdp.partition(
+                createUpdate(3, "t1", new int[]{1, 2}), 0);
+        assertFalse("Not critical", r.isCritical());
+        assertEquals("No dependencies", 0, kdp.getDependentCount());
+    }
+
+    /**
+     * Confirm that inserts claim the whole table until key columns are known
+     * and then claim the inserted rows only.
+     */
+    public void testInserts() throws Exception
+    {
+        KeyDependencyPartitioner kdp = createPartitioner(4);
+
+        // Insert before keys are known claims the table, so a later update
+        // follows it.
+        PartitionerResponse r0 = kdp.partition(createInsert(0, "t1", 10), 0);
+        PartitionerResponse r1 = kdp.partition(createUpdate(1, "t1", 1), 0);
+        assertEquals("Update follows table claim", r0.getPartition(),
+                r1.getPartition());
+
+        // Now that keys are known, inserts on new rows are independent but an
+        // update of an inserted row follows the insert.
+        committedSeqno = 1;
+        PartitionerResponse r2 = kdp.partition(createInsert(2, "t1", 20), 0);
+        PartitionerResponse r3 = kdp.partition(createInsert(3, "t1", 21), 0);
+        PartitionerResponse r4 = kdp.partition(createUpdate(4, "t1", 21), 0);
+        assertTrue("Inserts independent",
+                r2.getPartition() != r3.getPartition());
+        assertEquals("Update follows insert", r3.getPartition(),
+                r4.getPartition());
+    }
+
+    /**
+     * Confirm that statements and fragmented transactions are critical and
+     * that later fragments go to the same partition.
+     */
+    public void testCriticalTransactions() throws Exception
+    {
+        KeyDependencyPartitioner kdp = createPartitioner(4);
+
+        // Statements have unknown write sets.
+        ArrayList<DBMSData> data = new ArrayList<DBMSData>();
+        data.add(new StatementData("DELETE FROM t1"));
+        PartitionerResponse r0 = kdp.partition(createEvent(0, (short) 0,
+                true, data), 0);
+        assertTrue("Statement is critical", r0.isCritical());
+
+        // Fragmented transactions.
+        ReplDBMSEvent frag0 = createUpdate(1, "t1", 1);
+        ReplDBMSEvent frag1 = createUpdate(1, "t1", 2);
+        PartitionerResponse r1 = kdp.partition(
+                createEvent(1, (short) 0, false, frag0.getData()), 0);
+        PartitionerResponse r2 = kdp.partition(
+                createEvent(1, (short) 1, true, frag1.getData()), 0);
+        assertTrue("Fragment is critical", r1.isCritical());
+        assertEquals("Fragments on same partition", r1.getPartition(),
+                r2.getPartition());
+        assertTrue("Fragment is critical", r2.isCritical());
+    }
+
+    /**
+     * Confirm that a transaction that reuses a unique secondary key value
+     * follows the transaction that freed it and that rows without the unique
+     * key columns claim the whole table.
+     */
+    public void testUniqueKeys() throws Exception
+    {
+        uniqueKeys.put("db.u1", listOf(new int[]{2}));
+        KeyDependencyPartitioner kdp = createPartitioner(4);
+        int[] idCode = new int[]{1, 2};
+
+        // Change the code of row 1 from 'a' to 'b', then insert another row
+        // with code 'a'. The insert must follow the update.
+        PartitionerResponse r0 = kdp.partition(
+                createRowChange(0, "u1", RowChangeData.ActionType.UPDATE,
+                        idCode, new Object[]{1, "a"}, idCode, new Object[]{1,
+                                "b"}), 0);
+        PartitionerResponse r1 = kdp.partition(
+                createRowChange(1, "u1", RowChangeData.ActionType.INSERT,
+                        null, null, idCode, new Object[]{2, "a"}), 0);
+        assertFalse("Not critical", r0.isCritical() || r1.isCritical());
+        assertEquals("Insert follows update that freed value",
+                r0.getPartition(), r1.getPartition());
+
+        // Rows with other codes or null codes are independent.
+        PartitionerResponse r2 = kdp.partition(
+                createRowChange(2, "u1", RowChangeData.ActionType.INSERT,
+                        null, null, idCode, new Object[]{3, "c"}), 0);
+        PartitionerResponse r3 = kdp.partition(
+                createRowChange(3, "u1", RowChangeData.ActionType.INSERT,
+                        null, null, idCode, new Object[]{4, null}), 0);
+        assertTrue("Insert of other value independent",
+                r2.getPartition() != r0.getPartition());
+        assertTrue("Insert of null value independent",
+                r3.getPartition() != r0.getPartition()
+                        && r3.getPartition() != r2.getPartition());
+
+        // A delete whose key values lack the unique column claims the table.
+        committedSeqno = 3;
+        PartitionerResponse r4 = kdp.partition(
+                createRowChange(4, "u1", RowChangeData.ActionType.DELETE,
+                        new int[]{1}, new Object[]{1}, null, null), 0);
+        PartitionerResponse r5 = kdp.partition(
+                createRowChange(5, "u1", RowChangeData.ActionType.INSERT,
+                        null, null, idCode, new Object[]{5, "z"}), 0);
+        assertFalse("Not critical", r4.isCritical() || r5.isCritical());
+        assertEquals("Insert follows table claim", r4.getPartition(),
+                r5.getPartition());
+    }
+
+    /**
+     * Confirm that transactions on tables whose unique keys are unknown are
+     * critical.
+     */
+    public void testUnknownUniqueKeys() throws Exception
+    {
+        uniqueKeys.put("db.unknown", null);
+        KeyDependencyPartitioner kdp = createPartitioner(4);
+
+        PartitionerResponse r0 = kdp.partition(createUpdate(0, "t1", 1), 0);
+        PartitionerResponse r1 = kdp.partition(
+                createUpdate(1, "unknown", 1), 0);
+        assertFalse("Known table not critical", r0.isCritical());
+        assertTrue("Unknown table critical", r1.isCritical());
+    }
+
+    // Creates a partitioner with partition metadata showing empty queues
+    // and a context that reports our simulated committed seqno.
+    private KeyDependencyPartitioner createPartitioner(int partitions)
+            throws Exception
+    {
+        PipelineConfigBuilder builder = new PipelineConfigBuilder();
+        builder.setProperty(ReplicatorConf.SERVICE_NAME, "kdpService");
+        builder.setProperty(ReplicatorConf.METADATA_SCHEMA, "tungsten");
+        TungstenProperties conf = builder.getConfig();
+        ReplicatorRuntime context = new ReplicatorRuntime(conf,
+                new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance())
+        {
+            public long getCommittedSeqno()
+            {
+                return committedSeqno;
+            }
+        };
+
+        // Partition sizes reflect how many transactions we have assigned so
+        // that the partitioner spreads independent transactions.
+        final long[] sizes = new long[partitions];
+        List<PartitionMetadata> metadata = new ArrayList<PartitionMetadata>();
+        for (int i = 0; i < partitions; i++)
+        {
+            final int partition = i;
+            metadata.add(new PartitionMetadata()
+            {
+                public int getPartitionNumber()
+                {
+                    return partition;
+                }
+
+                public long getCurrentSize()
+                {
+                    return sizes[partition];
+                }
+            });
+        }
+
+        KeyDependencyPartitioner kdp = new KeyDependencyPartitioner()
+        {
+            public synchronized PartitionerResponse partition(
+                    ReplDBMSHeader event, int taskId)
+                    throws ReplicatorException
+            {
+                PartitionerResponse response = super.partition(event, taskId);
+                sizes[response.getPartition()]++;
+                return response;
+            }
+
+            protected List<int[]> findUniqueKeys(String schema, String table)
+            {
+                String name = schema + "." + table;
+                if (uniqueKeys.containsKey(name))
+                    return uniqueKeys.get(name);
+                else
+                    return new ArrayList<int[]>();
+            }
+        };
+        kdp.setContext(context);
+        kdp.setPartitions(partitions);
+        kdp.setPartitionMetadata(metadata);
+        return kdp;
+    }
+
+    // Creates an update on one row keyed by an integer id.
+    private ReplDBMSEvent createUpdate(long seqno, String table, int id)
+    {
+        return createUpdate(seqno, table, new int[]{id});
+    }
+
+    // Creates an update on rows keyed by integer ids.
+    private ReplDBMSEvent createUpdate(long seqno, String table, int[] ids)
+    {
+        OneRowChange orc = new OneRowChange("db", table,
+                RowChangeData.ActionType.UPDATE);
+        orc.getKeySpec().add(createSpec(orc, 1, "id"));
+        orc.getColumnSpec().add(createSpec(orc, 2, "val"));
+        for (int id : ids)
+        {
+            ArrayList<OneRowChange.ColumnVal> keys = new ArrayList<OneRowChange.ColumnVal>();
+            keys.add(createVal(orc, id));
+            orc.getKeyValues().add(keys);
+            ArrayList<OneRowChange.ColumnVal> cols = new ArrayList<OneRowChange.ColumnVal>();
+            cols.add(createVal(orc, "value"));
+            orc.getColumnValues().add(cols);
+        }
+        return createRowEvent(seqno, orc);
+    }
+
+    // Creates an insert of a single row.
+    private ReplDBMSEvent createInsert(long seqno, String table, int id)
+    {
+        OneRowChange orc = new OneRowChange("db", table,
+                RowChangeData.ActionType.INSERT);
+        orc.getColumnSpec().add(createSpec(orc, 1, "id"));
+        orc.getColumnSpec().add(createSpec(orc, 2, "val"));
+        ArrayList<OneRowChange.ColumnVal> cols = new ArrayList<OneRowChange.ColumnVal>();
+        cols.add(createVal(orc, id));
+        cols.add(createVal(orc, "value"));
+        orc.getColumnValues().add(cols);
+        return createRowEvent(seqno, orc);
+    }
+
+    // Creates a change of a single row with the given key and column
+    // indexes and values, either of which may be null.
+    private ReplDBMSEvent createRowChange(long seqno, String table,
+            RowChangeData.ActionType action, int[] keyIndexes,
+            Object[] keyValues, int[] colIndexes, Object[] colValues)
+    {
+        OneRowChange orc = new OneRowChange("db", table, action);
+        if (keyIndexes != null)
+        {
+            ArrayList<OneRowChange.ColumnVal> keys = new ArrayList<OneRowChange.ColumnVal>();
+            for (int i = 0; i < keyIndexes.length; i++)
+            {
+                orc.getKeySpec().add(createSpec(orc, keyIndexes[i], "c" + i));
+                keys.add(createVal(orc, (Serializable) keyValues[i]));
+            }
+            orc.getKeyValues().add(keys);
+        }
+        if (colIndexes != null)
+        {
+            ArrayList<OneRowChange.ColumnVal> cols = new ArrayList<OneRowChange.ColumnVal>();
+            for (int i = 0; i < colIndexes.length; i++)
+            {
+                orc.getColumnSpec().add(
+                        createSpec(orc, colIndexes[i], "c" + i));
+                cols.add(createVal(orc, (Serializable) colValues[i]));
+            }
+            orc.getColumnValues().add(cols);
+        }
+        return createRowEvent(seqno, orc);
+    }
+
+    private List<int[]> listOf(int[] key)
+    {
+        List<int[]> keys = new ArrayList<int[]>();
+        keys.add(key);
+        return keys;
+    }
+
+    private OneRowChange.ColumnSpec createSpec(OneRowChange orc, int index,
+            String name)
+    {
+        OneRowChange.ColumnSpec spec = orc.new ColumnSpec();
+        spec.setIndex(index);
+        spec.setName(name);
+        spec.setType(Types.INTEGER);
+        return spec;
+    }
+
+    private OneRowChange.ColumnVal createVal(OneRowChange orc,
+            Serializable value)
+    {
+        OneRowChange.ColumnVal val = orc.new ColumnVal();
+        val.setValue(value);
+        return val;
+    }
+
+    private ReplDBMSEvent createRowEvent(long seqno, OneRowChange orc)
+    {
+        RowChangeData rcd = new RowChangeData();
+        rcd.appendOneRowChange(orc);
+        ArrayList<DBMSData> data = new ArrayList<DBMSData>();
+        data.add(rcd);
+        return createEvent(seqno, (short) 0, true, data);
+    }
+
+    private ReplDBMSEvent createEvent(long seqno, short fragno,
+            boolean lastFrag, ArrayList<DBMSData> data)
+    {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        DBMSEvent dbmsEvent = new DBMSEvent(new Long(seqno).toString(), data,
+                lastFrag, now);
+        return new ReplDBMSEvent(seqno, fragno, lastFrag, "NONE", 0, now,
+                dbmsEvent);
+    }
+}
@@ -0,0 +1,438 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2013 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.common.config.TungstenProperties;
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.applier.DummyApplier;
+import com.continuent.tungsten.replicator.conf.ReplicatorConf;
+import com.continuent.tungsten.replicator.conf.ReplicatorMonitor;
+import com.continuent.tungsten.replicator.conf.ReplicatorRuntime;
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.StatementData;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplOptionParams;
+import com.continuent.tungsten.replicator.extractor.DummyExtractor;
+import com.continuent.tungsten.replicator.management.MockOpenReplicatorContext;
+import com.continuent.tungsten.replicator.pipeline.PipelineConfigBuilder;
+import com.continuent.tungsten.replicator.thl.log.LogConnection;
+import com.continuent.tungsten.replicator.thl.log.LogEventReadFilter;
+import com.continuent.tungsten.replicator.thl.log.LogEventReplReader;
+
+/**
+ * Tests the connector multiplexer with several clients reading the same log,
+ * including slow clients that are split off onto their own cursors and merged
+ * back once they catch up.
+ *
+ * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
+ */
+public class ConnectorMultiplexerTest extends TestCase
+{
+    private static Logger       logger          = Logger.getLogger(ConnectorMultiplexerTest.class);
+
+    // Frame types as sent by the multiplexer.
+    private static final byte   FRAME_RECORD    = 0x01;
+    private static final byte   FRAME_HEARTBEAT = 0x02;
+    private static final byte   FRAME_ERROR     = 0x03;
+
+    private ReplicatorRuntime   runtime;
+    private THL                 thl;
+    private ServerSocketChannel listener;
+    private ExecutorService     readers;
+    private List<SocketChannel> channels;
+
+    /**
+     * A multiplexer whose split cursors can be made to fail.
+     */
+    class FailingMultiplexer extends ConnectorMultiplexer
+    {
+        volatile boolean failSplits = false;
+
+        FailingMultiplexer(THL thl, int threads, int clientBufferBytes)
+                throws IOException
+        {
+            super(thl, threads, clientBufferBytes);
+        }
+
+        protected LogConnection openConnection() throws ReplicatorException
+        {
+            if (failSplits)
+                throw new THLException("Simulated failure to open log");
+            return super.openConnection();
+        }
+    }
+
+    /**
+     * Reads frames from a client socket until the expected number of records
+     * arrive or the stream ends and returns the CRC of each record in order.
+     */
+    class FrameReader implements Callable<List<Long>>
+    {
+        private final SocketChannel channel;
+        private final int           expected;
+        volatile String             error;
+        volatile boolean            endOfStream;
+
+        FrameReader(SocketChannel channel, int expected)
+        {
+            this.channel = channel;
+            this.expected = expected;
+        }
+
+        public List<Long> call() throws Exception
+        {
+            List<Long> crcs = new ArrayList<Long>();
+            DataInputStream dis = new DataInputStream(channel.socket()
+                    .getInputStream());
+            try
+            {
+                while (crcs.size() < expected)
+                {
+                    byte frameType = dis.readByte();
+                    if (frameType == FRAME_RECORD)
+                    {
+                        int length = dis.readInt();
+                        dis.readFully(new byte[length]);
+                        dis.readByte();
+                        crcs.add(dis.readLong());
+                    }
+                    else if (frameType == FRAME_ERROR)
+                    {
+                        error = dis.readUTF();
+                        break;
+                    }
+                    else if (frameType != FRAME_HEARTBEAT)
+                        throw new Exception("Unexpected frame type: "
+                                + frameType);
+                }
+            }
+            catch (EOFException e)
+            {
+                endOfStream = true;
+            }
+            catch (IOException e)
+            {
+                // A server that closes with unsent data may reset the
+                // connection instead.
+                endOfStream = true;
+            }
+            return crcs;
+        }
+    }
+
+    /**
+     * Sets up a THL and a socket on which to accept clients.
+     */
+    public void setUp() throws Exception
+    {
+        readers = Executors.newCachedThreadPool();
+        channels = new ArrayList<SocketChannel>();
+        listener = ServerSocketChannel.open();
+        listener.socket().bind(new InetSocketAddress("localhost", 0));
+    }
+
+    /**
+     * Releases clients and the THL.
+     */
+    public void tearDown() throws Exception
+    {
+        readers.shutdownNow();
+        for (SocketChannel channel : channels)
+            channel.close();
+        listener.close();
+        if (runtime != null)
+            runtime.release();
+        runtime = null;
+    }
+
+    /**
+     * Verify that clients that start at the same position share a cursor and
+     * each receive all records in the same order.
+     */
+    public void testSharedCursor() throws Exception
+    {
+        logger.info("##### testSharedCursor #####");
+        prepareThl("testMultiplexerShared", 2115);
+        writeEvents(200, 100);
+
+        ConnectorMultiplexer multiplexer = new ConnectorMultiplexer(thl, 1,
+                1000000);
+        List<SocketChannel> clients = new ArrayList<SocketChannel>();
+        for (int i = 0; i < 3; i++)
+            clients.add(connect(multiplexer, "client" + i, 0));
+        multiplexer.start();
+        try
+        {
+            List<Future<List<Long>>> results = new ArrayList<Future<List<Long>>>();
+            for (SocketChannel client : clients)
+                results.add(readers.submit(new FrameReader(client, 200)));
+
+            List<Long> first = results.get(0).get(10, TimeUnit.SECONDS);
+            assertEquals("Expected all records", 200, first.size());
+            for (int i = 1; i < results.size(); i++)
+            {
+                assertEquals("Expected identical records on client " + i,
+                        first, results.get(i).get(10, TimeUnit.SECONDS));
+            }
+
+            waitForCursors(multiplexer, 1);
+            assertEquals("Expected all clients to remain", 3,
+                    multiplexer.getClientCount());
+        }
+        finally
+        {
+            multiplexer.stop();
+        }
+    }
+
+    /**
+     * Verify that a client that stops reading is split off onto its own
+     * cursor without holding back the other client, then merged back once it
+     * catches up, and that both receive all records.
+     */
+    public void testSlowClientSplitAndMerge() throws Exception
+    {
+        logger.info("##### testSlowClientSplitAndMerge #####");
+        prepareThl("testMultiplexerSplit", 2116);
+        int events = 2000;
+        writeEvents(events, 1000);
+
+        ConnectorMultiplexer multiplexer = new ConnectorMultiplexer(thl, 1,
+                16384);
+        SocketChannel fast = connect(multiplexer, "fast", 0);
+        SocketChannel slow = connect(multiplexer, "slow", 4096);
+        multiplexer.start();
+        try
+        {
+
+            // The fast client receives everything while the slow one reads
+            // nothing, which is only possible after a split.
+            List<Long> fastCrcs = readers.submit(new FrameReader(fast, events))
+                    .get(30, TimeUnit.SECONDS);
+            assertEquals("Expected all records on fast client", events,
+                    fastCrcs.size());
+            waitForCursors(multiplexer, 2);
+
+            // Drain the slow client and confirm it merges back.
+            List<Long> slowCrcs = readers.submit(new FrameReader(slow, events))
+                    .get(30, TimeUnit.SECONDS);
+            assertEquals("Expected identical records on slow client",
+                    fastCrcs, slowCrcs);
+            waitForCursors(multiplexer, 1);
+            assertEquals("Expected both clients to remain", 2,
+                    multiplexer.getClientCount());
+        }
+        finally
+        {
+            multiplexer.stop();
+        }
+    }
+
+    /**
+     * Verify that if a slow client cannot be split onto its own cursor only
+     * that client fails and the other client keeps receiving records.
+     */
+    public void testFailedSplitKeepsOthersStreaming() throws Exception
+    {
+        logger.info("##### testFailedSplitKeepsOthersStreaming #####");
+        prepareThl("testMultiplexerSplitFailure", 2117);
+        int events = 2000;
+        writeEvents(events, 1000);
+
+        FailingMultiplexer multiplexer = new FailingMultiplexer(thl, 1, 16384);
+        multiplexer.failSplits = true;
+        SocketChannel fast = connect(multiplexer, "fast", 0);
+        SocketChannel slow = connect(multiplexer, "slow", 4096);
+        multiplexer.start();
+        try
+        {
+
+            List<Long> fastCrcs = readers.submit(new FrameReader(fast, events))
+                    .get(30, TimeUnit.SECONDS);
+            assertEquals("Expected all records on fast client", events,
+                    fastCrcs.size());
+
+            // The slow client is cut off with an error or a closed stream.
+            FrameReader slowReader = new FrameReader(slow, events);
+            List<Long> slowCrcs = readers.submit(slowReader).get(30,
+                    TimeUnit.SECONDS);
+            assertTrue("Expected slow client to be cut off: records="
+                    + slowCrcs.size(), slowCrcs.size() < events);
+            assertTrue("Expected error or end of stream on slow client",
+                    slowReader.error != null || slowReader.endOfStream);
+            waitForClients(multiplexer, 1);
+        }
+        finally
+        {
+            multiplexer.stop();
+        }
+    }
+
+    // Prepares a THL whose server listens on its own port. The pipeline is
+    // not started, so the test is the only writer.
+    private void prepareThl(String name, int port) throws Exception
+    {
+        prepareLogDir(name);
+        PipelineConfigBuilder builder = new PipelineConfigBuilder();
+        builder.setProperty(ReplicatorConf.SERVICE_NAME, "test");
+        builder.setRole("master");
+        builder.setProperty(ReplicatorConf.METADATA_SCHEMA, name);
+        builder.addPipeline("master", "extract", "thl");
+        builder.addStage("extract", "dummy", "dummy", null);
+        builder.addComponent("extractor", "dummy", DummyExtractor.class);
+        builder.addComponent("applier", "dummy", DummyApplier.class);
+        builder.addComponent("store", "thl", THL.class);
+        builder.addProperty("store", "thl", "logDir", name);
+        builder.addProperty("store", "thl", "storageListenerUri",
+                "thl://localhost:" + port + "/");
+        TungstenProperties conf = builder.getConfig();
+
+        runtime = new ReplicatorRuntime(conf, new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance());
+        runtime.configure();
+        runtime.prepare();
+        thl = (THL) runtime.getPipeline().getStore("thl");
+    }
+
+    // Writes events with statements of the given size.
+    private void writeEvents(int count, int statementBytes) throws Exception
+    {
+        StringBuffer sb = new StringBuffer("SELECT '");
+        while (sb.length() < statementBytes)
+            sb.append('x');
+        sb.append("'");
+        String statement = sb.toString();
+
+        LogConnection conn = thl.connect(false);
+        for (int i = 0; i < count; i++)
+        {
+            ArrayList<DBMSData> t = new ArrayList<DBMSData>();
+            t.add(new StatementData(statement));
+            DBMSEvent dbmsEvent = new DBMSEvent(new Long(i).toString(), null,
+                    t, true, new Timestamp(System.currentTimeMillis()));
+            ReplDBMSEvent rde = new ReplDBMSEvent(i, dbmsEvent);
+            rde.getDBMSEvent().addMetadataOption(ReplOptionParams.SHARD_ID,
+                    ReplOptionParams.SHARD_ID_UNKNOWN);
+            conn.store(new THLEvent(rde.getSourceId(), rde), false);
+        }
+        conn.commit();
+        thl.disconnect(conn);
+    }
+
+    // Connects a client and hands the server side of it to the multiplexer
+    // positioned at the first event. Clients registered before the
+    // multiplexer starts begin on the same position and share a cursor. A non-zero buffer size shrinks the
+    // socket buffers so that a client that does not read fills up quickly.
+    private SocketChannel connect(ConnectorMultiplexer multiplexer,
+            String sourceId, int socketBufferBytes) throws Exception
+    {
+        SocketChannel client = SocketChannel.open();
+        if (socketBufferBytes > 0)
+            client.socket().setReceiveBufferSize(socketBufferBytes);
+        client.connect(listener.socket().getLocalSocketAddress());
+        SocketChannel server = listener.accept();
+        if (socketBufferBytes > 0)
+            server.socket().setSendBufferSize(socketBufferBytes);
+        channels.add(client);
+        channels.add(server);
+
+        LogConnection connection = thl.connect(true);
+        connection.setReadFilter(new LogEventReadFilter()
+        {
+            public boolean accept(LogEventReplReader reader)
+            {
+                return false;
+            }
+        });
+        connection.setRetainRecords(true);
+        assertTrue("Expected to find first event", connection.seek(0));
+        multiplexer.register(server, connection, 500, sourceId);
+        return client;
+    }
+
+    // Waits until the multiplexer serves the expected number of clients.
+    private void waitForClients(ConnectorMultiplexer multiplexer, int expected)
+            throws Exception
+    {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (multiplexer.getClientCount() != expected
+                && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(50);
+        }
+        assertEquals("Expected client count", expected,
+                multiplexer.getClientCount());
+    }
+
+    // Waits until the multiplexer serves its clients from the expected number
+    // of cursors.
+    private void waitForCursors(ConnectorMultiplexer multiplexer, int expected)
+            throws Exception
+    {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (multiplexer.getCursorCount() != expected
+                && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(50);
+        }
+        assertEquals("Expected cursor count", expected,
+                multiplexer.getCursorCount());
+    }
+
+    // Clears and creates a log directory.
+    private File prepareLogDir(String logDirName)
+    {
+        File logDir = new File(logDirName);
+        if (logDir.exists())
+        {
+            for (File f : logDir.listFiles())
+            {
+                f.delete();
+            }
+            logDir.delete();
+        }
+        logDir.mkdirs();
+        return logDir;
+    }
+}
@@ -22,10 +22,15 @@
 
 package com.continuent.tungsten.replicator.thl;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import junit.framework.TestCase;
 
 import org.apache.log4j.Logger;
 
+import com.continuent.tungsten.replicator.thl.log.LogRecord;
+
 /**
  * Implements a simple unit test EventsCache class to ensure cache behaves and
  * does not block, etc.
@@ -97,6 +102,107 @@ public class EventsCacheTest extends TestCase
         }
     }
 
+    /**
+     * Verify that the cache evicts oldest events to stay within its memory
+     * bound and counts hits, misses, and evictions.
+     */
+    public void testMemoryBound() throws Exception
+    {
+        // Each event costs twice its record length, so 10 events fit.
+        long eventBytes = 2 * makeTHLEvent(0, 87).getLogRecord()
+                .getRecordLength();
+        EventsCache ec = new EventsCache(1000, eventBytes * 10);
+        for (int i = 0; i < 100; i++)
+        {
+            ec.put(makeTHLEvent(i, 87));
+            assertTrue("Within memory bound: " + ec.getBytes(),
+                    ec.getBytes() <= eventBytes * 10);
+        }
+        assertEquals("Cached events", 10, ec.getCount());
+        assertEquals("Evicted events", 90, ec.getEvictions());
+        assertEquals("Max seqno", 99, ec.getMaxSeqno());
+
+        assertNotNull("Newest event present", ec.get(99));
+        assertNotNull("Oldest retained event present", ec.get(90));
+        assertNull("Older event evicted", ec.get(89));
+        assertEquals("Hits", 2, ec.getHits());
+        assertEquals("Misses", 1, ec.getMisses());
+
+        // An event larger than the bound is not cached but still advances
+        // the max seqno.
+        ec.put(makeTHLEvent(100, 10000));
+        assertNull("Oversized event not cached", ec.get(100));
+        assertEquals("Max seqno includes uncached event", 100,
+                ec.getMaxSeqno());
+        assertNotNull("Other events retained", ec.get(99));
+    }
+
+    /**
+     * Verify that gaps in seqnos that map newer events to the slot of an
+     * older one displace the older event cleanly, and that clearing the cache
+     * removes everything.
+     */
+    public void testSeqnoGapsAndClear() throws Exception
+    {
+        EventsCache ec = new EventsCache(4);
+        ec.put(makeTHLEvent(1));
+        ec.put(makeTHLEvent(5));
+        assertNull("Displaced by event in same slot", ec.get(1));
+        assertNotNull("Newer event present", ec.get(5));
+        assertEquals("Displaced event counted as evicted", 1,
+                ec.getEvictions());
+        assertEquals("One event cached", 1, ec.getCount());
+
+        // Fill the cache; the displaced event must not be evicted twice.
+        for (int i = 6; i < 12; i++)
+            ec.put(makeTHLEvent(i));
+        assertEquals("Cache holds its size", 4, ec.getCount());
+        for (int i = 8; i < 12; i++)
+            assertNotNull("Most recent events present: " + i, ec.get(i));
+
+        ec.clear();
+        assertTrue("Cache is empty after clear", ec.isEmpty());
+        assertNull("Events removed", ec.get(11));
+        assertEquals("Max seqno reset", -1, ec.getMaxSeqno());
+    }
+
+    /**
+     * Verify that publishing makes only sealed events visible, so events
+     * staged after a flush wait for the next flush.
+     */
+    public void testSealAndPublish() throws Exception
+    {
+        EventsCache ec = new EventsCache(10);
+        List<THLEvent> events = new ArrayList<THLEvent>();
+        events.add(makeTHLEvent(0));
+        ec.stage(events, 0);
+        ec.seal();
+
+        // Stage a second event while the flush is being synced.
+        events.clear();
+        events.add(makeTHLEvent(1));
+        ec.stage(events, 1);
+        ec.publish();
+        assertNotNull("Sealed event published", ec.get(0));
+        assertNull("Event staged after seal not published", ec.get(1));
+        assertEquals("Max seqno of sealed events", 0, ec.getMaxSeqno());
+
+        // The next flush publishes it.
+        ec.seal();
+        ec.publish();
+        assertNotNull("Event published after next seal", ec.get(1));
+        assertEquals("Max seqno after next seal", 1, ec.getMaxSeqno());
+    }
+
+    // Creates a dummy THL event carrying a log record of the given size.
+    private THLEvent makeTHLEvent(long seqno, int recordBytes)
+    {
+        THLEvent thlEvent = makeTHLEvent(seqno);
+        thlEvent.setLogRecord(new LogRecord(0, new byte[recordBytes],
+                LogRecord.CRC_TYPE_NONE, 0));
+        return thlEvent;
+    }
+
     // Creates a dummy THL event.
     private THLEvent makeTHLEvent(long seqno)
     {
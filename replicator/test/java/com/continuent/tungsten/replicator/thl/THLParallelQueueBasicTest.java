@@ -25,6 +25,7 @@ package com.continuent.tungsten.replicator.thl;
 import java.io.File;
 import java.io.FileInputStream;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
@@ -42,6 +43,10 @@ import com.continuent.tungsten.common.config.TungstenProperties;
 import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.conf.ReplicatorMonitor;
 import com.continuent.tungsten.replicator.conf.ReplicatorRuntime;
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
 import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
 import com.continuent.tungsten.replicator.event.ReplDBMSFilteredEvent;
 import com.continuent.tungsten.replicator.event.ReplDBMSHeader;
@@ -54,6 +59,9 @@ import com.continuent.tungsten.replicator.storage.CommitAction;
 import com.continuent.tungsten.replicator.storage.InMemoryMultiQueue;
 import com.continuent.tungsten.replicator.storage.InMemoryTransactionalQueue;
 import com.continuent.tungsten.replicator.storage.Store;
+import com.continuent.tungsten.replicator.storage.parallel.HashPartitioner;
+import com.continuent.tungsten.replicator.storage.parallel.KeyDependencyPartitioner;
+import com.continuent.tungsten.replicator.storage.parallel.SimplePartitioner;
 import com.continuent.tungsten.replicator.thl.log.LogConnection;
 
 /**
@@ -269,6 +277,220 @@ public class THLParallelQueueBasicTest
         }
     }
 
+    /**
+     * Verify that a parallel THL queue using a single reader thread dispatches
+     * each event to the correct channel exactly as when each channel reads the
+     * log separately.
+     */
+    @Test
+    public void testMultiChannelSingleReader() throws Exception
+    {
+        logger.info("##### testMultiChannelSingleReader #####");
+
+        // Set up and prepare pipeline with a single reader.
+        TungstenProperties conf = helper.generateTHLParallelPipeline(
+                "testMultiChannelSingleReader", 3, 50, 100, true);
+        conf.setBoolean("replicator.store.thl-queue.singleReader", true);
+        runtime = new ReplicatorRuntime(conf, new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance());
+        runtime.configure();
+        runtime.prepare();
+        pipeline = runtime.getPipeline();
+        pipeline.start(new MockEventDispatcher());
+
+        // Fetch references to stores.
+        THL thl = (THL) pipeline.getStore("thl");
+        THLParallelQueue tpq = (THLParallelQueue) pipeline
+                .getStore("thl-queue");
+        InMemoryMultiQueue mq = (InMemoryMultiQueue) pipeline
+                .getStore("multi-queue");
+        Assert.assertTrue("Queue uses single reader", tpq.isSingleReader());
+
+        // Write events to the THL with three different shard IDs.
+        LogConnection conn = thl.connect(false);
+        for (int i = 0; i < 90; i++)
+        {
+            ReplDBMSEvent rde = helper.createEvent(i, "db" + (i % 3));
+            THLEvent thlEvent = new THLEvent(rde.getSourceId(), rde);
+            conn.store(thlEvent, false);
+        }
+        conn.commit();
+        thl.disconnect(conn);
+
+        // Confirm that each parallel queue on the other side gets 30 events in
+        // order and only events from its own shard.
+        for (int q = 0; q < 3; q++)
+        {
+            long seqno = -1;
+            String shardId = "db" + q;
+            for (int i = 0; i < 30; i++)
+            {
+                ReplDBMSEvent rde2 = (ReplDBMSEvent) mq.get(q);
+                Assert.assertTrue("Seqno increases due to partial order",
+                        rde2.getSeqno() > seqno);
+                Assert.assertEquals("Shard ID matches queue", shardId,
+                        rde2.getShardId());
+                seqno = rde2.getSeqno();
+            }
+        }
+
+        // Confirm the dispatcher shows up in status.
+        TungstenProperties status = tpq.status();
+        Assert.assertNotNull("Dispatcher in status",
+                status.getString("dispatcher"));
+    }
+
+    /**
+     * Verify that a single reader parallel THL queue accepts a stateful
+     * partitioner and commits transactions on the same row in order.
+     */
+    @Test
+    public void testKeyDependencySingleReader() throws Exception
+    {
+        logger.info("##### testKeyDependencySingleReader #####");
+
+        // Set up and prepare pipeline with a single reader and key dependency
+        // partitioning. The transactional queue shows commit order.
+        TungstenProperties conf = helper.generateTHLParallelPipeline(
+                "testKeyDependencySingleReader", 3, 50, 100, false);
+        conf.setBoolean("replicator.store.thl-queue.singleReader", true);
+        conf.setString("replicator.store.thl-queue.partitionerClass",
+                KeyDependencyPartitioner.class.getName());
+        runtime = new ReplicatorRuntime(conf, new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance());
+        runtime.configure();
+        runtime.prepare();
+        pipeline = runtime.getPipeline();
+        pipeline.start(new MockEventDispatcher());
+
+        // Write updates on five rows to the THL.
+        THL thl = (THL) pipeline.getStore("thl");
+        InMemoryTransactionalQueue mq = (InMemoryTransactionalQueue) pipeline
+                .getStore("multi-queue");
+        LogConnection conn = thl.connect(false);
+        for (int i = 0; i < 90; i++)
+        {
+            ReplDBMSEvent rde = createUpdate(i, i % 5);
+            THLEvent thlEvent = new THLEvent(rde.getSourceId(), rde);
+            conn.store(thlEvent, false);
+        }
+        conn.commit();
+        thl.disconnect(conn);
+
+        // Confirm that all events commit and that updates on each row commit
+        // in order.
+        long[] rowSeqno = new long[]{-1, -1, -1, -1, -1};
+        for (int i = 0; i < 90; i++)
+        {
+            ReplDBMSEvent rde2 = mq.get();
+            int row = (int) (rde2.getSeqno() % 5);
+            Assert.assertTrue("Row updates commit in order: seqno="
+                    + rde2.getSeqno(), rde2.getSeqno() > rowSeqno[row]);
+            rowSeqno[row] = rde2.getSeqno();
+        }
+    }
+
+    /**
+     * Verify that a parallel THL queue rejects a stateful partitioner unless
+     * it uses a single reader.
+     */
+    @Test
+    public void testStatefulPartitionerRequiresSingleReader()
+            throws Exception
+    {
+        logger.info("##### testStatefulPartitionerRequiresSingleReader #####");
+
+        TungstenProperties conf = helper.generateTHLParallelPipeline(
+                "testStatefulPartitionerRequiresSingleReader", 3, 50, 100,
+                true);
+        conf.setString("replicator.store.thl-queue.partitionerClass",
+                KeyDependencyPartitioner.class.getName());
+        runtime = new ReplicatorRuntime(conf, new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance());
+        try
+        {
+            runtime.configure();
+            Assert.fail("Stateful partitioner accepted without single reader");
+        }
+        catch (ReplicatorException e)
+        {
+            logger.info("Received expected exception: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Verify that a single reader assigns events to exactly the same tasks as
+     * read tasks that filter the log themselves. We check a partitioner that
+     * uses only the header as well as one whose answer depends on the task ID
+     * passed in.
+     */
+    @Test
+    public void testSingleReaderMatchesReadTasks() throws Exception
+    {
+        logger.info("##### testSingleReaderMatchesReadTasks #####");
+
+        Class<?>[] partitioners = {HashPartitioner.class,
+                SimplePartitioner.class};
+        for (Class<?> partitioner : partitioners)
+        {
+            List<List<Long>> separate = readAssignments(
+                    "testSingleReaderMatchesReadTasks", partitioner, false);
+            List<List<Long>> shared = readAssignments(
+                    "testSingleReaderMatchesReadTasks", partitioner, true);
+            Assert.assertEquals("Single reader matches read tasks: partitioner="
+                    + partitioner.getSimpleName(), separate, shared);
+        }
+    }
+
+    // Writes events across three shards to a three channel parallel queue
+    // and returns the seqnos received by each channel.
+    private List<List<Long>> readAssignments(String schema,
+            Class<?> partitioner, boolean singleReader) throws Exception
+    {
+        TungstenProperties conf = helper.generateTHLParallelPipeline(schema,
+                3, 50, 100, true);
+        conf.setBoolean("replicator.store.thl-queue.singleReader",
+                singleReader);
+        conf.setString("replicator.store.thl-queue.partitionerClass",
+                partitioner.getName());
+        runtime = new ReplicatorRuntime(conf, new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance());
+        runtime.configure();
+        runtime.prepare();
+        pipeline = runtime.getPipeline();
+        pipeline.start(new MockEventDispatcher());
+
+        THL thl = (THL) pipeline.getStore("thl");
+        InMemoryMultiQueue mq = (InMemoryMultiQueue) pipeline
+                .getStore("multi-queue");
+        LogConnection conn = thl.connect(false);
+        for (int i = 0; i < 30; i++)
+        {
+            ReplDBMSEvent rde = helper.createEvent(i, "db" + (i % 3));
+            THLEvent thlEvent = new THLEvent(rde.getSourceId(), rde);
+            conn.store(thlEvent, false);
+        }
+        conn.commit();
+        thl.disconnect(conn);
+
+        // Drain each channel until it stays empty.
+        List<List<Long>> assignments = new ArrayList<List<Long>>();
+        for (int q = 0; q < 3; q++)
+        {
+            List<Long> seqnos = new ArrayList<Long>();
+            ReplDBMSEvent rde2;
+            while ((rde2 = mq.get(q, 2000)) != null)
+                seqnos.add(rde2.getSeqno());
+            assignments.add(seqnos);
+        }
+
+        pipeline.shutdown(false);
+        pipeline = null;
+        runtime.release();
+        runtime = null;
+        return assignments;
+    }
+
     /**
      * Verify that a parallel THL with multiple channels properly do not commit
      * additional transactions after a failure. This includes not committing any
@@ -860,4 +1082,42 @@ public class THLParallelQueueBasicTest
             }
         }
     }
-}
\ No newline at end of file
+
+    // Creates an update of one row keyed by an integer id.
+    private ReplDBMSEvent createUpdate(long seqno, int id)
+    {
+        OneRowChange orc = new OneRowChange("db", "t",
+                RowChangeData.ActionType.UPDATE);
+        OneRowChange.ColumnSpec keySpec = orc.new ColumnSpec();
+        keySpec.setIndex(1);
+        keySpec.setName("id");
+        keySpec.setType(Types.INTEGER);
+        orc.getKeySpec().add(keySpec);
+        OneRowChange.ColumnSpec colSpec = orc.new ColumnSpec();
+        colSpec.setIndex(2);
+        colSpec.setName("val");
+        colSpec.setType(Types.INTEGER);
+        orc.getColumnSpec().add(colSpec);
+
+        ArrayList<OneRowChange.ColumnVal> keys = new ArrayList<OneRowChange.ColumnVal>();
+        OneRowChange.ColumnVal key = orc.new ColumnVal();
+        key.setValue(new Integer(id));
+        keys.add(key);
+        orc.getKeyValues().add(keys);
+        ArrayList<OneRowChange.ColumnVal> cols = new ArrayList<OneRowChange.ColumnVal>();
+        OneRowChange.ColumnVal col = orc.new ColumnVal();
+        col.setValue(new Long(seqno));
+        cols.add(col);
+        orc.getColumnValues().add(cols);
+
+        RowChangeData rcd = new RowChangeData();
+        rcd.appendOneRowChange(orc);
+        ArrayList<DBMSData> data = new ArrayList<DBMSData>();
+        data.add(rcd);
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        DBMSEvent dbmsEvent = new DBMSEvent(Long.toString(seqno), null, data,
+                true, now);
+        return new ReplDBMSEvent(seqno, (short) 0, true, "NONE", 0, now,
+                dbmsEvent);
+    }
+}
@@ -25,6 +25,7 @@ package com.continuent.tungsten.replicator.thl;
 import java.io.File;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -52,6 +53,10 @@ import com.continuent.tungsten.replicator.pipeline.PipelineConfigBuilder;
 import com.continuent.tungsten.replicator.storage.InMemoryQueueAdapter;
 import com.continuent.tungsten.replicator.storage.InMemoryQueueStore;
 import com.continuent.tungsten.replicator.storage.Store;
+import com.continuent.tungsten.replicator.thl.log.LogConnection;
+import com.continuent.tungsten.replicator.thl.log.LogEventReplReader;
+import com.continuent.tungsten.replicator.thl.log.LogRecord;
+import com.continuent.tungsten.replicator.thl.serializer.ProtobufSerializer;
 
 /**
  * Implements a test of THL. This test implements a practical test of the
@@ -106,16 +111,58 @@ public class TestTHL2 extends TestCase
     public void testTHL2Chaining() throws Exception
     {
         logger.info("##### testTHL2Chaining #####");
+        chainTHLs("testTHL2Chaining", true, 0, false);
+    }
+
+    /**
+     * Verify that chaining works when the client does not accept log record
+     * frames and the server falls back to serialized events.
+     */
+    public void testTHL2ChainingWithoutRecordFrames() throws Exception
+    {
+        logger.info("##### testTHL2ChainingWithoutRecordFrames #####");
+        chainTHLs("testTHL2ChainingNoFrames", false, 0, false);
+    }
+
+    /**
+     * Verify that chaining works when the server hands framed clients over to
+     * selector threads.
+     */
+    public void testTHL2ChainingMultiplexed() throws Exception
+    {
+        logger.info("##### testTHL2ChainingMultiplexed #####");
+        chainTHLs("testTHL2ChainingMultiplexed", true, 2, false);
+    }
+
+    /**
+     * Verify that a slave pipeline stores the log records it receives from the
+     * master as they are rather than decoding and serializing them again. The
+     * master compresses its log and the slave does not, so only relayed
+     * records are compressed on the slave.
+     */
+    public void testTHL2ChainingRelaysRecords() throws Exception
+    {
+        logger.info("##### testTHL2ChainingRelaysRecords #####");
+        chainTHLs("testTHL2ChainingRelay", true, 0, true);
+    }
 
+    // Chains two THLs and confirms they contain the same events. If
+    // compressMaster is true, also confirms that the slave log contains the
+    // master's compressed records.
+    private void chainTHLs(String name, boolean recordFrames,
+            int selectorThreads, boolean compressMaster) throws Exception
+    {
         // Prepare the log directories.
-        prepareLogDir("testTHL2Chaining1");
-        prepareLogDir("testTHL2Chaining2");
+        prepareLogDir(name + "1");
+        prepareLogDir(name + "2");
 
         // Generate server pipeline from dummy extractor to THL.
         PipelineConfigBuilder builder = new PipelineConfigBuilder();
         builder.setProperty(ReplicatorConf.SERVICE_NAME, "test");
         builder.setRole("master");
-        builder.setProperty(ReplicatorConf.METADATA_SCHEMA, "testTHL2Chaining1");
+        builder.setProperty(ReplicatorConf.METADATA_SCHEMA, name + "1");
+        builder.setProperty(ReplicatorConf.THL_SERVER_SELECTOR_THREADS,
+                Integer.toString(selectorThreads));
         builder.addPipeline("master", "extract-s", "thl");
         builder.addStage("extract-s", "dummy", "thl-apply", null);
 
@@ -124,9 +171,14 @@ public class TestTHL2 extends TestCase
         builder.addProperty("applier", "thl-apply", "storeName", "thl");
 
         builder.addComponent("store", "thl", THL.class);
-        builder.addProperty("store", "thl", "logDir", "testTHL2Chaining1");
+        builder.addProperty("store", "thl", "logDir", name + "1");
         builder.addProperty("store", "thl", "storageListenerUri",
                 "thl://localhost:2112/");
+        if (compressMaster)
+        {
+            builder.addProperty("store", "thl", "compressLog", "true");
+            builder.addProperty("store", "thl", "compressMinBytes", "0");
+        }
         TungstenProperties serverConf = builder.getConfig();
 
         // Generate slave pipeline from remote extractor to THL to dummy
@@ -134,8 +186,9 @@ public class TestTHL2 extends TestCase
         PipelineConfigBuilder builder2 = new PipelineConfigBuilder();
         builder2.setProperty(ReplicatorConf.SERVICE_NAME, "test");
         builder2.setRole("master");
-        builder2.setProperty(ReplicatorConf.METADATA_SCHEMA,
-                "testTHL2Chaining2");
+        builder2.setProperty(ReplicatorConf.METADATA_SCHEMA, name + "2");
+        builder2.setProperty(ReplicatorConf.THL_PROTOCOL_RECORD_FRAMES,
+                Boolean.toString(recordFrames));
         builder2.addPipeline("master", "extract-c,apply-c", "thl");
         builder2.addStage("extract-c", "thl-remote-extractor", "thl-apply",
                 null);
@@ -154,7 +207,7 @@ public class TestTHL2 extends TestCase
         builder2.addComponent("applier", "dummy", DummyApplier.class);
 
         builder2.addComponent("store", "thl", THL.class);
-        builder2.addProperty("store", "thl", "logDir", "testTHL2Chaining2");
+        builder2.addProperty("store", "thl", "logDir", name + "2");
         builder2.addProperty("store", "thl", "storageListenerUri",
                 "thl://localhost:2113/");
 
@@ -206,6 +259,36 @@ public class TestTHL2 extends TestCase
         assertEquals("Expected 9 as last event", 9,
                 thlClient.getMaxStoredSeqno());
 
+        // If the master compresses its log, the slave must hold the same
+        // compressed records.
+        if (compressMaster)
+        {
+            LogConnection serverConn = ((THL) serverThl).connect(true);
+            LogConnection clientConn = ((THL) thlClient).connect(true);
+            serverConn.setRetainRecords(true);
+            clientConn.setRetainRecords(true);
+            assertTrue("Seek on server", serverConn.seek(0));
+            assertTrue("Seek on client", clientConn.seek(0));
+            for (long seqno = 0; seqno < 10; seqno++)
+            {
+                LogRecord serverRecord = serverConn.next(false)
+                        .getLogRecord();
+                LogRecord clientRecord = clientConn.next(false)
+                        .getLogRecord();
+                LogEventReplReader reader = new LogEventReplReader(
+                        clientRecord, new ProtobufSerializer(), false);
+                assertEquals("Client record is compressed: seqno=" + seqno,
+                        LogRecord.EVENT_REPL_COMPRESSED,
+                        reader.getRecordType());
+                reader.done();
+                assertTrue("Client record matches server: seqno=" + seqno,
+                        Arrays.equals(serverRecord.getData(),
+                                clientRecord.getData()));
+            }
+            serverConn.release();
+            clientConn.release();
+        }
+
         // Shut down both pipelines.
         clientPipeline.shutdown(true);
         serverPipeline.shutdown(true);
@@ -611,6 +694,55 @@ public class TestTHL2 extends TestCase
         runtime.release();
     }
 
+    /**
+     * Verify that events stored with group commit become durable and reach
+     * the next stage, and that the THL applier does not wait for each commit,
+     * which would give every commit its own fsync.
+     */
+    public void testGroupCommitService() throws Exception
+    {
+        logger.info("##### testGroupCommitService #####");
+
+        // Set up and start pipelines with group commit on the THL. The THL
+        // is not synchronized with the extractor, so stores do not wait for
+        // their commits.
+        TungstenProperties conf = this.generateTwoStageProps(
+                "testGroupCommitService", 1);
+        conf.setBoolean("replicator.store.thl.fsyncOnFlush", true);
+        conf.setBoolean("replicator.store.thl.groupCommit", true);
+        conf.setLong("replicator.store.thl.maxBatchLatencyMillis", 500);
+        conf.setBoolean("replicator.pipeline.master.syncTHLWithExtractor",
+                false);
+        ReplicatorRuntime runtime = new ReplicatorRuntime(conf,
+                new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance());
+        runtime.configure();
+        runtime.prepare();
+        Pipeline pipeline = runtime.getPipeline();
+        pipeline.start(new MockEventDispatcher());
+
+        // Wait for events, which must be durable before they are processed.
+        Future<ReplDBMSHeader> wait = pipeline
+                .watchForProcessedSequenceNumber(9);
+        ReplDBMSHeader lastEvent = wait.get(10, TimeUnit.SECONDS);
+        assertEquals("Expected 10 server events", 9, lastEvent.getSeqno());
+
+        Store thl = pipeline.getStore("thl");
+        TungstenProperties status = thl.status();
+        assertTrue("Group commits completed: " + status,
+                status.getLong("groupCommitCount") > 0);
+
+        // Successive commits must share fsyncs rather than each waiting for
+        // its own.
+        double avgBatchSize = Double.parseDouble(status
+                .getString("groupCommitAvgBatchSize"));
+        assertTrue("Commits coalesced: " + status, avgBatchSize > 1.0);
+
+        // Close down pipeline.
+        pipeline.shutdown(false);
+        runtime.release();
+    }
+
     // Generate configuration properties for a double stage-pipeline
     // going through THL.
     public TungstenProperties generateTwoStageProps(String schemaName,
@@ -271,6 +271,57 @@ public class DiskLogExtendedTest extends TestCase
         log.release();
     }
 
+    /**
+     * Confirm that non-blocking readers that find a rotate event for a missing
+     * log file return null until the log rotation timeout expires and then
+     * fail with an exception that names the file.
+     */
+    public void testMissingLogFileNonBlocking() throws Exception
+    {
+        // Create the log with with 3K log files.
+        File logDir = prepareLogDir("testMissingLogFileNonBlocking");
+        DiskLog log = new DiskLog();
+        log.setLogDir(logDir.getAbsolutePath());
+        log.setReadOnly(false);
+        log.setLogFileSize(3000);
+        log.setLogRotateMillis(2000);
+
+        log.prepare();
+        writeEventsToLog(log, 200);
+
+        // Delete a file from the middle of the list.
+        String[] logFileNames = log.getLogFileNames();
+        int fileCount = logFileNames.length;
+        assertTrue("More than two logs generated", fileCount > 2);
+        int middle = (fileCount / 2) + 1;
+        deleteLogFile(logDir, logFileNames[middle]);
+
+        // Read without blocking until the read fails.
+        LogConnection conn = log.connect(true);
+        assertTrue("Found first event", conn.seek(0));
+        long startMillis = System.currentTimeMillis();
+        try
+        {
+            while (System.currentTimeMillis() - startMillis < 10000)
+            {
+                if (conn.next(false) == null)
+                    Thread.sleep(10);
+            }
+            throw new Exception("Non-blocking read did not time out");
+        }
+        catch (LogTimeoutException e)
+        {
+            logger.info("Caught expected timeout: " + e);
+            assertTrue("Exception names missing file: " + e.getMessage(), e
+                    .getMessage().contains(logFileNames[middle]));
+            assertTrue("Read waited for the rotation timeout",
+                    System.currentTimeMillis() - startMillis >= 2000);
+        }
+
+        // All done!
+        log.release();
+    }
+
     /**
      * Confirm that if the last file is zero length on log startup we clean up
      * if the log is writable and allow further writes. If the log is readable,
@@ -24,7 +24,11 @@ package com.continuent.tungsten.replicator.thl.log;
 
 import java.io.File;
 import java.io.FileWriter;
+import java.io.RandomAccessFile;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
 
 import junit.framework.TestCase;
 
@@ -33,12 +37,18 @@ import org.junit.After;
 import org.junit.Before;
 
 import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.StatementData;
 import com.continuent.tungsten.replicator.event.DBMSEvent;
 import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
 import com.continuent.tungsten.replicator.event.ReplDBMSFilteredEvent;
 import com.continuent.tungsten.replicator.event.ReplEvent;
+import com.continuent.tungsten.replicator.event.ReplOption;
+import com.continuent.tungsten.replicator.event.ReplOptionParams;
+import com.continuent.tungsten.replicator.thl.EventsCache;
 import com.continuent.tungsten.replicator.thl.THLEvent;
 import com.continuent.tungsten.replicator.thl.THLException;
+import com.continuent.tungsten.replicator.thl.serializer.ProtobufDBMSEvent;
 import com.continuent.tungsten.replicator.thl.serializer.ProtobufSerializer;
 
 /**
@@ -476,6 +486,100 @@ public class DiskLogTest extends TestCase
         log.release();
     }
 
+    /**
+     * Confirm that blocking readers on the same log wake up promptly when the
+     * writer commits, including across log rotations, rather than waiting
+     * for the polling interval.
+     */
+    public void testBlockingReadWakeup() throws Exception
+    {
+        // Create a log with small files so that we rotate frequently.
+        File logDir = prepareLogDir("testBlockingReadWakeup");
+        final DiskLog log = openLog(logDir, false, 3000);
+        writeEventsToLog(log, 0, 1);
+
+        // Start a reader that records the time each event arrives.
+        final int howMany = 40;
+        final long[] readMillis = new long[howMany];
+        final LogConnection reader = log.connect(true);
+        assertTrue("Seek next event", reader.seek(1));
+        Thread readerThread = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    for (int i = 0; i < howMany; i++)
+                    {
+                        reader.next(true);
+                        readMillis[i] = System.currentTimeMillis();
+                    }
+                }
+                catch (Exception e)
+                {
+                    logger.error("Reader failed", e);
+                }
+            }
+        };
+        readerThread.start();
+
+        // Write events at intervals so that the reader is always blocked.
+        long[] writeMillis = new long[howMany];
+        LogConnection writer = log.connect(false);
+        for (int i = 0; i < howMany; i++)
+        {
+            Thread.sleep(20);
+            writer.store(createTHLEvent(i + 1), true);
+            writeMillis[i] = System.currentTimeMillis();
+        }
+        writer.release();
+        readerThread.join(10000);
+        reader.release();
+
+        // Average wake-up latency should be well below the polling interval.
+        long totalLatency = 0;
+        for (int i = 0; i < howMany; i++)
+        {
+            assertTrue("Reader received event: " + i, readMillis[i] > 0);
+            totalLatency += Math.max(0, readMillis[i] - writeMillis[i]);
+        }
+        long averageLatency = totalLatency / howMany;
+        logger.info("Average read wake-up latency: " + averageLatency + "ms");
+        assertTrue("Average wake-up latency is low: " + averageLatency,
+                averageLatency < LogWriteNotifier.FALLBACK_POLL_MILLIS / 3);
+
+        log.release();
+    }
+
+    /**
+     * Confirm that readers of a log with a writer in the same process wait for
+     * the full requested time rather than the fallback poll interval, and that
+     * they poll again once the writer releases the log.
+     */
+    public void testLocalWriterWait() throws Exception
+    {
+        File logDir = prepareLogDir("testLocalWriterWait");
+        DiskLog log = openLog(logDir, false, 3000);
+        LogWriteNotifier notifier = log.getWriteNotifier();
+        assertTrue("Writable log registers local writer",
+                notifier.isLocalWriter());
+
+        // With a local writer we wait the whole time for a signal.
+        long start = System.currentTimeMillis();
+        assertFalse("No advance", notifier.await(notifier.getGeneration(), 500));
+        long waited = System.currentTimeMillis() - start;
+        assertTrue("Waited full time: " + waited, waited >= 450);
+
+        // Without one we return after the fallback poll interval.
+        log.release();
+        assertFalse("Released log has no local writer",
+                notifier.isLocalWriter());
+        start = System.currentTimeMillis();
+        notifier.await(notifier.getGeneration(), 5000);
+        waited = System.currentTimeMillis() - start;
+        assertTrue("Waited poll interval only: " + waited, waited < 1000);
+    }
+
     /**
      * Confirm that we can set a read timeout that is less than the timeout on
      * the log and that blocking reads return null within or around that time.
@@ -1922,6 +2026,556 @@ public class DiskLogTest extends TestCase
         log.release();
     }
 
+    /**
+     * Confirm that seeks use the per-file seqno index and return correct
+     * events when the index is present, missing, or damaged.
+     */
+    public void testSeqnoIndexSeek() throws Exception
+    {
+        // Create a log with small files and a dense seqno index.
+        File logDir = prepareLogDir("testSeqnoIndexSeek");
+        DiskLog log = new DiskLog();
+        log.setReadOnly(false);
+        log.setEventSerializerClass(this.serializer.getName());
+        log.setLogDir(logDir.getAbsolutePath());
+        log.setLogFileSize(100000);
+        log.setSeqnoIndexInterval(2000);
+        log.setTimeoutMillis(10000);
+        log.prepare();
+        writeEventsToLog(log, 2000);
+        log.validate();
+
+        // Confirm each log file has a non-empty index.
+        String[] logFiles = log.getLogFileNames();
+        assertTrue("Expect multiple log files", logFiles.length > 1);
+        for (String name : logFiles)
+        {
+            File dataFile = new File(logDir, name);
+            LogSeqnoIndex seqnoIndex = new LogSeqnoIndex(dataFile, 2000);
+            assertTrue("Index exists: " + name, seqnoIndex.load());
+            assertTrue("Index has entries: " + name, seqnoIndex.size() > 0);
+        }
+
+        // Seek on a range of events, including file boundaries.
+        long[] seqnos = {0, 1, 17, 499, 500, 1000, 1333, 1998, 1999};
+        assertSeekResults(log, seqnos);
+
+        // Delete the index on the first file and damage the index on the
+        // second, then reopen the log so that cached indexes are dropped.
+        // Seeks must still work.
+        log.release();
+        File firstIndex = LogSeqnoIndex.getIndexFile(new File(logDir,
+                logFiles[0]));
+        assertTrue("Deleted first index", firstIndex.delete());
+        File secondIndex = LogSeqnoIndex.getIndexFile(new File(logDir,
+                logFiles[1]));
+        RandomAccessFile raf = new RandomAccessFile(secondIndex, "rw");
+        for (long pos = 8; pos < raf.length(); pos += 16)
+        {
+            raf.seek(pos);
+            long offset = raf.readLong();
+            raf.seek(pos);
+            raf.writeLong(offset + 3);
+        }
+        raf.close();
+        log = new DiskLog();
+        log.setReadOnly(false);
+        log.setEventSerializerClass(this.serializer.getName());
+        log.setLogDir(logDir.getAbsolutePath());
+        log.setLogFileSize(100000);
+        log.setSeqnoIndexInterval(2000);
+        log.setTimeoutMillis(10000);
+        log.prepare();
+        assertSeekResults(log, seqnos);
+
+        // The missing index should be rebuilt on demand.
+        assertTrue("Rebuilt first index", firstIndex.exists());
+
+        log.release();
+    }
+
+    /**
+     * Confirm that seqno indexes of finished log files are cached while the
+     * index of the last file is loaded fresh, and that cached indexes are
+     * dropped when their files are deleted.
+     */
+    public void testSeqnoIndexCache() throws Exception
+    {
+        File logDir = prepareLogDir("testSeqnoIndexCache");
+        DiskLog log = new DiskLog();
+        log.setReadOnly(false);
+        log.setEventSerializerClass(this.serializer.getName());
+        log.setLogDir(logDir.getAbsolutePath());
+        log.setLogFileSize(20000);
+        log.setSeqnoIndexInterval(2000);
+        log.setTimeoutMillis(10000);
+        log.prepare();
+        writeEventsToLog(log, 500);
+
+        String[] logFiles = log.getLogFileNames();
+        assertTrue("Expect several log files", logFiles.length > 2);
+        LogFile first = log.getLogFile(logFiles[0]);
+        LogFile last = log.getLogFile(logFiles[logFiles.length - 1]);
+
+        // Finished files share one index; the last file does not.
+        LogSeqnoIndex firstIndex = log.getSeqnoIndex(first);
+        assertNotNull("First file has index", firstIndex);
+        assertSame("Finished file index is cached", firstIndex,
+                log.getSeqnoIndex(first));
+        assertNotSame("Last file index is loaded fresh",
+                log.getSeqnoIndex(last), log.getSeqnoIndex(last));
+
+        // Seeks still return correct events using the cached indexes.
+        assertSeekResults(log, new long[]{0, 1, 99, 250, 499});
+
+        // Delete events in the first file. Its index must not be reused if a
+        // file of the same name appears again.
+        long lastSeqnoInFirst = 0;
+        while (logFiles[0].equals(log.getLogFile(lastSeqnoInFirst + 1)
+                .getFile().getName()))
+            lastSeqnoInFirst++;
+        LogConnection conn = log.connect(false);
+        conn.delete(null, lastSeqnoInFirst);
+        conn.release();
+        assertEquals("First file deleted", logFiles.length - 1,
+                log.fileCount());
+        File firstData = new File(logDir, logFiles[0]);
+        assertFalse("First data file removed", firstData.exists());
+        LogFile recreated = new LogFile(logDir, logFiles[0]);
+        recreated.create(0);
+        recreated.close();
+        assertNotSame("Deleted file index is not cached", firstIndex,
+                log.getSeqnoIndex(recreated));
+
+        log.release();
+    }
+
+    /**
+     * Confirm that log files opened for writing honor the fsyncOnFlush and
+     * flush interval settings of the log, including files created by a log
+     * rotation.
+     */
+    public void testFsyncOnFlushSettings() throws Exception
+    {
+        File logDir = prepareLogDir("testFsyncOnFlushSettings");
+        DiskLog log = new DiskLog();
+        log.setReadOnly(false);
+        log.setEventSerializerClass(this.serializer.getName());
+        log.setLogDir(logDir.getAbsolutePath());
+        log.setFsyncOnFlush(true);
+        log.setFlushIntervalMillis(500);
+        log.prepare();
+        writeEventsToLog(log, 10);
+
+        // The last file is opened with the log settings.
+        LogFile lastFile = log.openLastFile(false);
+        assertTrue("Last file fsyncs on flush", lastFile.isFsyncOnFlush());
+        assertEquals("Last file flush interval", 500,
+                lastFile.getFlushIntervalMillis());
+
+        // So is a file created by rotating the last file.
+        LogFile rotatedFile = log.rotate(lastFile, 10);
+        lastFile.close();
+        assertTrue("Rotated file fsyncs on flush",
+                rotatedFile.isFsyncOnFlush());
+        assertEquals("Rotated file flush interval", 500,
+                rotatedFile.getFlushIntervalMillis());
+        rotatedFile.close();
+        log.release();
+    }
+
+    /**
+     * Confirm that a log with compression enabled can be read back by a log
+     * without compression enabled and that the compression ratio shows the
+     * saving.
+     */
+    public void testCompressedLog() throws Exception
+    {
+        // Write events with compressible content.
+        File logDir = prepareLogDir("testCompressedLog");
+        DiskLog log = new DiskLog();
+        log.setReadOnly(false);
+        log.setEventSerializerClass(this.serializer.getName());
+        log.setLogDir(logDir.getAbsolutePath());
+        log.setLogFileSize(100000);
+        log.setCompressLog(true);
+        log.setCompressMinBytes(0);
+        log.setTimeoutMillis(10000);
+        log.prepare();
+
+        LogConnection conn = log.connect(false);
+        for (int i = 0; i < 500; i++)
+        {
+            ArrayList<DBMSData> data = new ArrayList<DBMSData>();
+            data.add(new StatementData("UPDATE test.compressed SET value = "
+                    + "'aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa' WHERE id = "
+                    + i));
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            ReplDBMSEvent replEvent = new ReplDBMSEvent(i, (short) 0, true,
+                    "test", 1, now, new DBMSEvent(Integer.toString(i), data,
+                            now));
+            conn.store(new THLEvent(Integer.toString(i), replEvent), i == 499);
+        }
+        conn.release();
+        assertTrue("Compression ratio above 1: " + log.getCompressionRatio(),
+                log.getCompressionRatio() > 1.0);
+        log.release();
+
+        // Read back with compression disabled and seek into the middle.
+        DiskLog log2 = openLog(logDir, true);
+        LogConnection conn2 = log2.connect(true);
+        for (long seqno : new long[]{0, 250, 499})
+        {
+            assertTrue("Seek succeeds", conn2.seek(seqno));
+            THLEvent e = conn2.next(false);
+            assertEquals("Found seqno", seqno, e.getSeqno());
+            StatementData sd = (StatementData) ((ReplDBMSEvent) e
+                    .getReplEvent()).getData().get(0);
+            assertTrue("Query intact",
+                    sd.getQuery().endsWith("WHERE id = " + seqno));
+        }
+        conn2.release();
+        log2.release();
+    }
+
+    /**
+     * Confirm that group commit batches successive commits into fewer flushes,
+     * that waiting on a commit does not wait out the batch latency, and that
+     * commits across a log rotation are durable and readable.
+     */
+    public void testGroupCommit() throws Exception
+    {
+        // Prepare a log with group commit and a long batch latency.
+        File logDir = prepareLogDir("testGroupCommit");
+        DiskLog log = new DiskLog();
+        log.setReadOnly(false);
+        log.setEventSerializerClass(this.serializer.getName());
+        log.setLogDir(logDir.getAbsolutePath());
+        log.setLogFileSize(20000);
+        log.setFsyncOnFlush(true);
+        log.setGroupCommit(true);
+        log.setMaxBatchLatencyMillis(10000);
+        log.setTimeoutMillis(10000);
+        log.prepare();
+
+        // Commit every event. Commits return without waiting for the flush.
+        LogConnection conn = log.connect(false);
+        long startMillis = System.currentTimeMillis();
+        for (int i = 0; i < 500; i++)
+        {
+            conn.store(this.createTHLEvent(i), true);
+        }
+        LogCommitFuture future = conn.getCommitFuture();
+        assertNotNull("Group commit returns a future", future);
+        assertEquals("Future covers last seqno", 499, future.getSeqno());
+
+        // Waiting on the last commit closes the batch at once.
+        conn.waitForCommit();
+        assertTrue("Commit is done", future.isDone());
+        assertTrue("Did not wait out batch latency",
+                System.currentTimeMillis() - startMillis < 10000);
+
+        LogGroupCommitter committer = log.getGroupCommitter();
+        assertEquals("All commits processed", 500, committer.getCommitCount());
+        assertTrue("Commits were batched: batches="
+                + committer.getBatchCount(), committer.getBatchCount() < 500);
+        assertTrue("Log rotated", log.fileCount() > 1);
+        conn.release();
+        log.release();
+
+        // Confirm every event is present after reopening the log.
+        DiskLog log2 = openLog(logDir, true);
+        assertEquals("Max seqno after reopen", 499, log2.getMaxSeqno());
+        readBackStoredEvents(log2, 0, 500);
+        log2.release();
+    }
+
+    /**
+     * Confirm that an explicit commit following a store that already committed
+     * reuses the pending group commit request rather than queueing a second
+     * fsync.
+     */
+    public void testGroupCommitReusesRequest() throws Exception
+    {
+        File logDir = prepareLogDir("testGroupCommitReusesRequest");
+        DiskLog log = new DiskLog();
+        log.setReadOnly(false);
+        log.setEventSerializerClass(this.serializer.getName());
+        log.setLogDir(logDir.getAbsolutePath());
+        log.setFsyncOnFlush(true);
+        log.setGroupCommit(true);
+        log.setMaxBatchLatencyMillis(10000);
+        log.prepare();
+
+        LogConnection conn = log.connect(false);
+        conn.store(this.createTHLEvent(0), true);
+        LogCommitFuture future = conn.getCommitFuture();
+        conn.commit();
+        assertSame("Commit reuses request", future, conn.getCommitFuture());
+        conn.waitForCommit();
+        assertEquals("One request committed", 1, log.getGroupCommitter()
+                .getCommitCount());
+
+        // A new event gets a new request.
+        conn.store(this.createTHLEvent(1), false);
+        conn.commit();
+        assertNotSame("New request after store", future,
+                conn.getCommitFuture());
+        conn.waitForCommit();
+        assertEquals("Two requests committed", 2, log.getGroupCommitter()
+                .getCommitCount());
+
+        conn.release();
+        log.release();
+    }
+
+    /**
+     * Confirm that committed events are published to the events cache with
+     * their log records, that uncommitted events are not visible, and that
+     * deleting from the log clears the cache.
+     */
+    public void testEventsCache() throws Exception
+    {
+        File logDir = prepareLogDir("testEventsCache");
+        DiskLog log = openLog(logDir, false);
+        EventsCache cache = log.getEventsCache();
+        assertNotNull("Writable log has a cache", cache);
+
+        // Stored events become visible only on commit.
+        LogConnection conn = log.connect(false);
+        conn.store(this.createTHLEvent(0), false);
+        conn.store(this.createTHLEvent(1), false);
+        assertNull("Uncommitted event not cached", cache.get(0));
+        assertTrue("Uncommitted seqno not visible", cache.getMaxSeqno() < 0);
+
+        conn.commit();
+        assertEquals("Max committed seqno", 1, cache.getMaxSeqno());
+        for (long seqno = 0; seqno < 2; seqno++)
+        {
+            THLEvent e = cache.get(seqno);
+            assertNotNull("Committed event cached: seqno=" + seqno, e);
+            assertEquals("Cached seqno", seqno, e.getSeqno());
+            assertNotNull("Cached event has log record", e.getLogRecord());
+        }
+
+        // Deleting events from the log clears the cache.
+        conn.delete(1L, null);
+        assertTrue("Cache empty after delete", cache.isEmpty());
+        assertEquals("Max seqno follows log", 0, cache.getMaxSeqno());
+        conn.release();
+        log.release();
+
+        // Read-only logs do not cache.
+        DiskLog log2 = openLog(logDir, true);
+        assertNull("Read-only log has no cache", log2.getEventsCache());
+        log2.release();
+    }
+
+    /**
+     * Confirm that committed events are not visible to cached readers until
+     * the log has been flushed, whether the flush is deferred by the flush
+     * interval or by group commit.
+     */
+    public void testEventsCacheWaitsForFlush() throws Exception
+    {
+        // With a long flush interval, commits do not flush the log.
+        File logDir = prepareLogDir("testEventsCacheWaitsForFlush");
+        DiskLog log = openLog(logDir, false, 1000000, 10000, 0, 60000);
+        EventsCache cache = log.getEventsCache();
+        LogConnection conn = log.connect(false);
+        conn.store(this.createTHLEvent(0), true);
+        conn.store(this.createTHLEvent(1), true);
+        assertNull("Unflushed event not cached", cache.get(1));
+        assertTrue("Unflushed seqno not visible", cache.getMaxSeqno() < 0);
+
+        // Closing the log flushes and publishes the events.
+        conn.release();
+        log.release();
+        assertEquals("Max flushed seqno", 1, cache.getMaxSeqno());
+        assertNotNull("Flushed event cached", cache.get(1));
+
+        // With group commit, events become visible once the commit is done.
+        DiskLog log2 = new DiskLog();
+        log2.setReadOnly(false);
+        log2.setEventSerializerClass(this.serializer.getName());
+        log2.setLogDir(logDir.getAbsolutePath());
+        log2.setFsyncOnFlush(true);
+        log2.setGroupCommit(true);
+        log2.setMaxBatchLatencyMillis(10000);
+        log2.prepare();
+        EventsCache cache2 = log2.getEventsCache();
+        LogConnection conn2 = log2.connect(false);
+        conn2.store(this.createTHLEvent(2), true);
+        assertNull("Uncommitted event not cached", cache2.get(2));
+        assertEquals("Uncommitted seqno not visible", 1,
+                cache2.getMaxSeqno());
+
+        conn2.waitForCommit();
+        assertEquals("Max committed seqno", 2, cache2.getMaxSeqno());
+        assertNotNull("Committed event cached", cache2.get(2));
+        conn2.release();
+        log2.release();
+    }
+
+    /**
+     * Confirm that events received as log records are stored as the original
+     * record without decoding, unless they were changed after receipt.
+     */
+    public void testRelayLogRecords() throws Exception
+    {
+        // Only logs that use the protobuf serializer relay records.
+        if (serializer != ProtobufSerializer.class)
+            return;
+
+        File logDir = prepareLogDir("testRelayLogRecords");
+        DiskLog log = openLog(logDir, false);
+        LogConnection conn = log.connect(false);
+
+        // An unchanged event is stored as its record, which gains a CRC.
+        ReplDBMSEvent relayed = receiveEvent(0);
+        ProtobufDBMSEvent lazyEvent = (ProtobufDBMSEvent) relayed
+                .getDBMSEvent();
+        THLEvent relayedTHLEvent = new THLEvent(relayed.getEventId(), relayed);
+        LogRecord sourceRecord = lazyEvent.getSourceRecord(relayedTHLEvent);
+        assertNotNull("Event has source record", sourceRecord);
+        conn.store(relayedTHLEvent, false);
+        assertFalse("Relayed event not decoded", lazyEvent.isDecoded());
+
+        // A changed event is serialized again.
+        ReplDBMSEvent changed = receiveEvent(1);
+        changed.setShardId("changed");
+        THLEvent changedTHLEvent = new THLEvent(changed.getEventId(), changed);
+        assertNull("Changed event has no source record",
+                ((ProtobufDBMSEvent) changed.getDBMSEvent())
+                        .getSourceRecord(changedTHLEvent));
+        conn.store(changedTHLEvent, true);
+
+        EventsCache cache = log.getEventsCache();
+        LogRecord storedRecord = cache.get(0).getLogRecord();
+        assertTrue("Stored record matches source",
+                Arrays.equals(sourceRecord.getData(), storedRecord.getData()));
+        assertEquals("Stored record has CRC", LogRecord.CRC_TYPE_32,
+                storedRecord.getCrcType());
+        assertTrue("Stored CRC is valid", storedRecord.checkCrc());
+        conn.release();
+
+        // Both events read back intact.
+        LogConnection conn2 = log.connect(true);
+        assertTrue("Seek succeeds", conn2.seek(0));
+        for (long seqno = 0; seqno < 2; seqno++)
+        {
+            ReplDBMSEvent e = (ReplDBMSEvent) conn2.next(false)
+                    .getReplEvent();
+            assertEquals("Found seqno", seqno, e.getSeqno());
+            assertEquals("Shard ID", (seqno == 0 ? "db01" : "changed"),
+                    e.getShardId());
+            StatementData sd = (StatementData) e.getData().get(0);
+            assertEquals("Query intact", "INSERT INTO t1 VALUES (" + seqno
+                    + ")", sd.getQuery());
+        }
+        conn2.release();
+        log.release();
+    }
+
+    /**
+     * Confirm that an event whose metadata list is edited in place, as the
+     * dropmetadata filter does, or whose THL header differs from the received
+     * header is serialized again rather than relayed, so that the stored
+     * record reflects the change.
+     */
+    public void testRelayAfterMetadataEdit() throws Exception
+    {
+        if (serializer != ProtobufSerializer.class)
+            return;
+
+        File logDir = prepareLogDir("testRelayAfterMetadataEdit");
+        DiskLog log = openLog(logDir, false);
+        LogConnection conn = log.connect(false);
+
+        // Drop the shard ID by editing the live metadata list.
+        ReplDBMSEvent edited = receiveEvent(0);
+        LogRecord sourceRecord = ((ProtobufDBMSEvent) edited.getDBMSEvent())
+                .getSourceRecord(new THLEvent(edited.getEventId(), edited));
+        assertNotNull("Event has source record", sourceRecord);
+        LinkedList<ReplOption> metadata = edited.getDBMSEvent().getMetadata();
+        for (int i = 0; i < metadata.size(); i++)
+        {
+            if (ReplOptionParams.SHARD_ID.equals(metadata.get(i)
+                    .getOptionName()))
+            {
+                metadata.remove(i);
+                break;
+            }
+        }
+        conn.store(new THLEvent(edited.getEventId(), edited), false);
+
+        // Store an unchanged event under a different event ID.
+        ReplDBMSEvent renamed = receiveEvent(1);
+        THLEvent renamedTHLEvent = new THLEvent("renamed", renamed);
+        assertNull("Event with changed header has no source record",
+                ((ProtobufDBMSEvent) renamed.getDBMSEvent())
+                        .getSourceRecord(renamedTHLEvent));
+        conn.store(renamedTHLEvent, true);
+
+        EventsCache cache = log.getEventsCache();
+        assertFalse("Edited event was serialized again", Arrays.equals(
+                sourceRecord.getData(), cache.get(0).getLogRecord().getData()));
+        conn.release();
+
+        // The stored events carry the changes.
+        LogConnection conn2 = log.connect(true);
+        assertTrue("Seek succeeds", conn2.seek(0));
+        THLEvent e0 = conn2.next(false);
+        assertEquals("Shard ID dropped", ReplOptionParams.SHARD_ID_UNKNOWN,
+                ((ReplDBMSEvent) e0.getReplEvent()).getShardId());
+        THLEvent e1 = conn2.next(false);
+        assertEquals("Event ID changed", "renamed", e1.getEventId());
+        conn2.release();
+        log.release();
+    }
+
+    // Read an event back from a log record without a CRC, as a client does
+    // when it receives a log record frame.
+    private ReplDBMSEvent receiveEvent(long seqno) throws Exception
+    {
+        ArrayList<DBMSData> data = new ArrayList<DBMSData>();
+        data.add(new StatementData("INSERT INTO t1 VALUES (" + seqno + ")"));
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        DBMSEvent dbmsEvent = new DBMSEvent(Long.toString(seqno), data, now);
+        ReplDBMSEvent replEvent = new ReplDBMSEvent(seqno, (short) 0, true,
+                "upstream", 1, now, dbmsEvent);
+        replEvent.setShardId("db01");
+        THLEvent thlEvent = new THLEvent(replEvent.getEventId(), replEvent);
+
+        ProtobufSerializer protobuf = new ProtobufSerializer();
+        LogRecord record = new LogEventReplWriter(thlEvent, protobuf, false)
+                .write();
+        LogEventReplReader reader = new LogEventReplReader(record, protobuf,
+                false);
+        THLEvent receivedTHLEvent = reader.deserializeEvent();
+        ReplDBMSEvent received = (ReplDBMSEvent) receivedTHLEvent
+                .getReplEvent();
+        reader.done();
+        ((ProtobufDBMSEvent) received.getDBMSEvent()).setSourceRecord(record,
+                receivedTHLEvent);
+        return received;
+    }
+
+    // Seek on each sequence number and confirm we read the right event.
+    private void assertSeekResults(DiskLog log, long[] seqnos)
+            throws Exception
+    {
+        LogConnection conn = log.connect(true);
+        for (long seqno : seqnos)
+        {
+            assertTrue("Seek succeeds: seqno=" + seqno, conn.seek(seqno));
+            THLEvent e = conn.next(false);
+            assertNotNull("Found event: seqno=" + seqno, e);
+            assertEquals("Found expected seqno", seqno, e.getSeqno());
+        }
+        conn.release();
+    }
+
     // Create an empty log directory or if the directory exists remove
     // any files within it.
     private File prepareLogDir(String logDirName) throws Exception
@@ -23,6 +23,7 @@
 package com.continuent.tungsten.replicator.thl.log;
 
 import java.io.File;
+import java.nio.channels.FileChannel;
 
 import junit.framework.TestCase;
 
@@ -262,6 +263,73 @@ public class LogFileTest extends TestCase
         tf.close();
     }
 
+    /**
+     * Confirm that a sync flushes under the file monitor and leaves the fsync
+     * to the caller, so that records may be written while the fsync is in
+     * progress. Such records remain unflushed after the sync.
+     */
+    public void testSyncOutsideMonitor() throws Exception
+    {
+        final LogFile tf = LogHelper.createLogFile("testSyncOutsideMonitor.dat",
+                1);
+        tf.setFsyncOnFlush(true);
+        tf.writeRecord(new LogRecord(-1, "first".getBytes(),
+                LogRecord.CRC_TYPE_NONE, 0), 100000);
+        FileChannel channel = tf.beginSync();
+        assertNotNull("Sync returns channel to force", channel);
+        assertFalse("Not flushed while sync in progress", tf.isFlushed());
+
+        // Write from another thread before forcing the channel.
+        Thread writer = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    tf.writeRecord(new LogRecord(-1, "second".getBytes(),
+                            LogRecord.CRC_TYPE_NONE, 0), 100000);
+                }
+                catch (Exception e)
+                {
+                    logger.error("Write failed", e);
+                }
+            }
+        };
+        writer.start();
+        writer.join(5000);
+        assertFalse("Writer finished during sync", writer.isAlive());
+
+        channel.force(true);
+        tf.endSync(true);
+        assertFalse("Record written during sync needs flush", tf.isFlushed());
+
+        // A second sync covers the second record.
+        channel = tf.beginSync();
+        assertNotNull("Second sync returns channel", channel);
+        channel.force(true);
+        tf.endSync(true);
+        assertTrue("Flushed after second sync", tf.isFlushed());
+        assertNull("Nothing left to sync", tf.beginSync());
+
+        // Without fsync the flush is complete at once.
+        tf.setFsyncOnFlush(false);
+        tf.writeRecord(new LogRecord(-1, "third".getBytes(),
+                LogRecord.CRC_TYPE_NONE, 0), 100000);
+        assertNull("No fsync required", tf.beginSync());
+        assertTrue("Flushed without fsync", tf.isFlushed());
+        tf.close();
+
+        // All records are in the file.
+        LogFile tfro = LogHelper
+                .openExistingFileForRead("testSyncOutsideMonitor.dat");
+        for (String data : new String[]{"first", "second", "third"})
+        {
+            LogRecord record = tfro.readRecord(0);
+            assertEquals("Record contents", data, new String(record.getData()));
+        }
+        tfro.close();
+    }
+
     /**
      * Confirm that we can write and read concurrently.
      */
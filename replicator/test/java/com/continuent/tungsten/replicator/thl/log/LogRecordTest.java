@@ -22,17 +22,26 @@
 
 package com.continuent.tungsten.replicator.thl.log;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 
 import junit.framework.TestCase;
 
 import org.junit.After;
 import org.junit.Before;
 
+import com.continuent.tungsten.replicator.thl.serializer.ProtobufDBMSEvent;
 import com.continuent.tungsten.replicator.thl.serializer.ProtobufSerializer;
 import com.continuent.tungsten.replicator.thl.serializer.Serializer;
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.StatementData;
 import com.continuent.tungsten.replicator.event.DBMSEvent;
 import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplOptionParams;
 import com.continuent.tungsten.replicator.thl.THLEvent;
 
 /**
@@ -115,6 +124,118 @@ public class LogRecordTest extends TestCase
         tfro.close();
     }
 
+    /**
+     * Confirm that compressed replication events are smaller than their
+     * uncompressed form and read back transparently, and that payloads below
+     * the minimum size are stored uncompressed.
+     */
+    public void testCompressedReplicationEvents() throws Exception
+    {
+        // Create an event with a highly compressible statement.
+        Serializer serializer = new ProtobufSerializer();
+        StringBuffer sb = new StringBuffer("INSERT INTO t1 VALUES ");
+        for (int i = 0; i < 200; i++)
+            sb.append("(").append(i).append(", 'abcdefghijklmnop'),");
+        String query = sb.toString();
+        ArrayList<DBMSData> data = new ArrayList<DBMSData>();
+        data.add(new StatementData(query));
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        ReplDBMSEvent replEvent = new ReplDBMSEvent(32, (short) 0, true,
+                "unittest", 1, now, new DBMSEvent("1", data, now));
+        THLEvent inputEvent = new THLEvent("dummy", replEvent);
+
+        // Write with and without compression.
+        LogRecord plainRec = new LogEventReplWriter(inputEvent, serializer,
+                true).write();
+        LogEventReplWriter writer = new LogEventReplWriter(inputEvent,
+                serializer, true, new DeflateLogCompressor(), 0);
+        LogRecord compressedRec = writer.write();
+        assertTrue("Compressed record is smaller",
+                compressedRec.getRecordLength() * 3 < plainRec
+                        .getRecordLength());
+        assertTrue("Stored payload is smaller",
+                writer.getStoredPayloadLength() < writer.getPayloadLength());
+
+        // Read back and confirm header and payload.
+        LogEventReplReader reader = new LogEventReplReader(compressedRec,
+                serializer, true);
+        assertEquals("Checking recordType", LogRecord.EVENT_REPL_COMPRESSED,
+                reader.getRecordType());
+        assertTrue("Record is compressed", reader.isCompressed());
+        assertEquals("Checking seqno", 32, reader.getSeqno());
+        THLEvent outputEvent = reader.deserializeEvent();
+        reader.done();
+        ReplDBMSEvent outputReplEvent = (ReplDBMSEvent) outputEvent
+                .getReplEvent();
+        StatementData sd = (StatementData) outputReplEvent.getData().get(0);
+        assertEquals("Query matches", query, sd.getQuery());
+
+        // Payloads below the minimum are not compressed.
+        LogRecord smallRec = new LogEventReplWriter(inputEvent, serializer,
+                true, new DeflateLogCompressor(), 1000000).write();
+        assertEquals("Not compressed", LogRecord.EVENT_REPL,
+                smallRec.getData()[0]);
+    }
+
+    /**
+     * Confirm that events read from the log expose header and metadata without
+     * decoding their data, and that data decode correctly on first access.
+     */
+    public void testLazyEventData() throws Exception
+    {
+        Serializer serializer = new ProtobufSerializer();
+        ArrayList<DBMSData> data = new ArrayList<DBMSData>();
+        data.add(new StatementData("INSERT INTO t1 VALUES (1)"));
+        data.add(new StatementData("INSERT INTO t1 VALUES (2)"));
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        DBMSEvent dbmsEvent = new DBMSEvent("2", data, now);
+        dbmsEvent.setMetaDataOption(ReplOptionParams.SHARD_ID, "db01");
+        dbmsEvent.addOption("foreign_key_checks", "1");
+        ReplDBMSEvent replEvent = new ReplDBMSEvent(33, (short) 0, true,
+                "unittest", 1, now, dbmsEvent);
+        THLEvent inputEvent = new THLEvent("dummy", replEvent);
+        LogRecord logRec = new LogEventReplWriter(inputEvent, serializer,
+                true).write();
+
+        // Read back and confirm metadata are present but data are not decoded.
+        LogEventReplReader reader = new LogEventReplReader(logRec, serializer,
+                true);
+        THLEvent outputEvent = reader.deserializeEvent();
+        reader.done();
+        ReplDBMSEvent outputReplEvent = (ReplDBMSEvent) outputEvent
+                .getReplEvent();
+        ProtobufDBMSEvent lazyEvent = (ProtobufDBMSEvent) outputReplEvent
+                .getDBMSEvent();
+        assertFalse("Data not decoded", lazyEvent.isDecoded());
+        assertEquals("Shard ID", "db01", outputReplEvent.getShardId());
+        assertEquals("Option", "1",
+                lazyEvent.getOptions().get(0).getOptionValue());
+        assertEquals("Timestamp", now, lazyEvent.getSourceTstamp());
+        assertFalse("Data still not decoded", lazyEvent.isDecoded());
+
+        // Data decode on first access.
+        assertEquals("Change count", 2, outputReplEvent.getData().size());
+        assertTrue("Data decoded", lazyEvent.isDecoded());
+        StatementData sd = (StatementData) outputReplEvent.getData().get(1);
+        assertEquals("Query matches", "INSERT INTO t1 VALUES (2)",
+                sd.getQuery());
+
+        // Java serialization must carry the decoded data.
+        LogEventReplReader reader2 = new LogEventReplReader(logRec,
+                serializer, true);
+        THLEvent outputEvent2 = reader2.deserializeEvent();
+        reader2.done();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(outputEvent2.getReplEvent());
+        oos.close();
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(
+                baos.toByteArray()));
+        ReplDBMSEvent copy = (ReplDBMSEvent) ois.readObject();
+        assertEquals("Copied change count", 2, copy.getData().size());
+        assertEquals("Copied shard ID", "db01", copy.getShardId());
+    }
+
     /**
      * Confirm that we can write and then read back a log rotation event.
      */